@@ -36,7 +36,8 @@ CREATE TABLE patient_details (
 
 CREATE TABLE patient_group (
     patient_group_uuid character varying(100) NOT NULL,
-    patient_group_name character varying(100)
+    patient_group_name character varying(100),
+    data_version bigint DEFAULT 0 NOT NULL
 );
 
 CREATE TABLE recording_device_attribute (
@@ -52,6 +53,8 @@ CREATE TABLE recording_device_data (
     data_id bigint NOT NULL,
     attribute_id integer NOT NULL,
     data_value character varying(1000) NOT NULL,
+    data_value_numeric double precision,
+    data_value_text character varying(100),
     patient_uuid character varying(100) NOT NULL,
     data_value_time timestamp without time zone NOT NULL,
     downloaded_time timestamp without time zone NOT NULL,
@@ -89,6 +92,9 @@ CREATE TABLE clinician_role (
   CONSTRAINT fk_clinician_id FOREIGN KEY (clinician_uuid) REFERENCES clinician_details (clinician_uuid));
 
 CREATE INDEX fk_clinician_details_idx ON clinician_role(clinician_uuid);
+CREATE INDEX recording_device_data_patient_attribute_time_numeric_idx ON recording_device_data (patient_uuid, attribute_id, data_value_time, data_value_numeric);
+CREATE INDEX recording_device_data_patient_downloaded_time_idx ON recording_device_data (patient_uuid, downloaded_time);
+CREATE INDEX recording_device_data_patient_schedule_idx ON recording_device_data (patient_uuid, schedule_effective_time, schedule_expiry_time);
 ------------------------------------------------------------------------TABLE DEFINITION:END------------------------------------------------------------------------
 
 ------------------------------------------------------------------------SEQUNCES LINK:START------------------------------------------------------------------------
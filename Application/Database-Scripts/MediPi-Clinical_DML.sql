@@ -1290,6 +1290,9 @@ insert into recording_device_data (data_id, attribute_id, data_value, patient_uu
 insert into recording_device_data (data_id, attribute_id, data_value, patient_uuid, data_value_time, downloaded_time, schedule_effective_time, schedule_expiry_time, alert_status) values (975,11,'53','e50cb7e4-9d0c-4125-82ae-59a9f358cef8','2016-08-02 10:57:07','2016-08-02 11:09:07','2016-07-01 00:00:00','2018-08-24 00:00:00','IN_THRESHOLD');
 insert into recording_device_data (data_id, attribute_id, data_value, patient_uuid, data_value_time, downloaded_time, schedule_effective_time, schedule_expiry_time, alert_status) values (976,20,'37','e50cb7e4-9d0c-4125-82ae-59a9f358cef8','2016-08-02 18:02:22','2016-08-02 18:14:22','2016-07-01 00:00:00','2018-08-24 00:00:00','IN_THRESHOLD');
 
+UPDATE recording_device_data SET data_value_numeric = CAST(data_value AS double precision) WHERE data_value ~ '^[-+]?([0-9]+[.]?[0-9]*|[.][0-9]+)([eE][-+]?[0-9]+)?$';
+UPDATE recording_device_data SET data_value_text = CASE WHEN data_value LIKE '{%' THEN substring(data_value from '"status"\s*:\s*"([^"]{0,100})"') ELSE data_value END WHERE data_value_numeric IS NULL AND (data_value LIKE '{%' OR char_length(data_value) <= 100);
+
 INSERT INTO clinician_details (clinician_uuid, clinician_username, password, first_name, last_name, patient_group_uuid) VALUES ('c6b1441c-11d0-46cd-a961-c89bceddb898', 'sjames', '$2a$10$Sc9vTbgCXEytWzgd69XU/.jXrZ42zg9bd42r2Hf/dBgS2mXTQ92X6', 'Sid', 'James', '8f243308-6026-4093-b548-5ec2144e1f36');
 INSERT INTO clinician_details (clinician_uuid, clinician_username, password, first_name, last_name, patient_group_uuid) VALUES ('c6b1441c-11d0-46cd-a961-c89bceddb899', 'twood', '$2a$10$Sc9vTbgCXEytWzgd69XU/.jXrZ42zg9bd42r2Hf/dBgS2mXTQ92X6', 'Tom', 'Wood', '8f243308-6026-4093-b548-5ec2144e1f35');
 
@@ -27,11 +27,16 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
 
 import uk.gov.nhs.digital.telehealth.clinician.service.domain.Measurement;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.MeasurementSeries;
 import uk.gov.nhs.digital.telehealth.clinician.service.domain.Patient;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.PatientView;
 import uk.gov.nhs.digital.telehealth.clinician.service.domain.RecordingDeviceAttribute;
+import uk.gov.nhs.digital.telehealth.clinician.service.services.PatientDashboardSnapshot;
 import uk.gov.nhs.digital.telehealth.clinician.service.services.PatientService;
 import uk.gov.nhs.digital.telehealth.clinician.service.url.mappings.ServiceURLMappings;
 
@@ -61,18 +66,26 @@ public class PatientServiceController {
 
 	@RequestMapping(value = ServiceURLMappings.PatientServiceController.GET_ALL_PATIENTS, method = RequestMethod.GET)
 	@ResponseBody
-	public List<Patient> getAllPatients(@RequestHeader(CommonConstants.CONTEXT_INFORMATION_REQUEST_PARAMETER) final String context) throws DefaultWrappedException {
+	public List<Patient> getAllPatients(@RequestHeader(CommonConstants.CONTEXT_INFORMATION_REQUEST_PARAMETER) final String context, final WebRequest webRequest) throws DefaultWrappedException {
 		ContextThreadLocal.set(ContextInfo.toContextInfo(context));
-		final List<Patient> patients = this.patientService.getAllPatients();
-		return patients;
+		final PatientDashboardSnapshot snapshot = this.patientService.getAllPatientsSnapshot();
+		//Respond with 304 Not Modified if the caller already has this snapshot
+		if(webRequest.checkNotModified(snapshot.getETag())) {
+			return null;
+		}
+		return snapshot.getPatients();
 	}
 
 	@RequestMapping(value = ServiceURLMappings.PatientServiceController.GET_PATIENTS_BY_GROUP + "{patientGroupId}", method = RequestMethod.GET)
 	@ResponseBody
-	public List<Patient> getPatientsByGroup(@PathVariable final String patientGroupId, @RequestHeader(CommonConstants.CONTEXT_INFORMATION_REQUEST_PARAMETER) final String context) throws DefaultWrappedException {
+	public List<Patient> getPatientsByGroup(@PathVariable final String patientGroupId, @RequestHeader(CommonConstants.CONTEXT_INFORMATION_REQUEST_PARAMETER) final String context, final WebRequest webRequest) throws DefaultWrappedException {
 		ContextThreadLocal.set(ContextInfo.toContextInfo(context));
-		final List<Patient> patients = this.patientService.getPatientsByGroup(patientGroupId);
-		return patients;
+		final PatientDashboardSnapshot snapshot = this.patientService.getPatientsByGroupSnapshot(patientGroupId);
+		//Respond with 304 Not Modified if the caller already has this snapshot
+		if(webRequest.checkNotModified(snapshot.getETag())) {
+			return null;
+		}
+		return snapshot.getPatients();
 	}
 
 	/*@RequestMapping(value = ServiceURLMappings.PatientServiceController.GET_PATIENT_RECENT_MEASURMENTS + "{patientUUID}", method = RequestMethod.GET)
@@ -92,6 +105,15 @@ public class PatientServiceController {
 		return measurements;
 	}
 
+	@RequestMapping(value = ServiceURLMappings.PatientServiceController.GET_PATIENT_MEASUREMENT_SERIES + "{patientUUID}" + "/{attributeId}", method = RequestMethod.GET)
+	@ResponseBody
+	public MeasurementSeries getPatientMeasurementSeries(@PathVariable final String patientUUID, @PathVariable final Integer attributeId, @RequestParam(required = false) final Long from, @RequestParam(required = false) final Long to, @RequestParam(required = false) final Integer maxPoints, @RequestHeader(CommonConstants.CONTEXT_INFORMATION_REQUEST_PARAMETER) final String context) throws Exception {
+		ContextThreadLocal.set(ContextInfo.toContextInfo(context));
+		LOGGER.debug("Get Patient measurement series for patient id:<" + patientUUID + "> and attributeId:<" + attributeId + "> from:<" + from + "> to:<" + to + "> maxPoints:<" + maxPoints + ">");
+		final MeasurementSeries series = this.patientService.getPatientMeasurementSeries(patientUUID, attributeId, from, to, maxPoints);
+		return series;
+	}
+
 	@RequestMapping(value = ServiceURLMappings.PatientServiceController.GET_PATIENT_ATTRIBUTES + "{patientUUID}" + "/{attributeNames}", method = RequestMethod.GET)
 	@ResponseBody
 	public List<RecordingDeviceAttribute> getPatientAttributesWithDevices(@PathVariable final String patientUUID, @PathVariable final List<String> attributeNames, @RequestHeader(CommonConstants.CONTEXT_INFORMATION_REQUEST_PARAMETER) final String context) throws Exception {
@@ -101,4 +123,13 @@ public class PatientServiceController {
 		return recordingDeviceAttributes;
 	}
 
+	@RequestMapping(value = ServiceURLMappings.PatientServiceController.GET_PATIENT_VIEW + "{patientUUID}" + "/{similarAttributes}" + "/{bloodPressureAttributes}" + "/{questionnaireAttributes}", method = RequestMethod.GET)
+	@ResponseBody
+	public PatientView getPatientView(@PathVariable final String patientUUID, @PathVariable final List<String> similarAttributes, @PathVariable final List<String> bloodPressureAttributes, @PathVariable final List<String> questionnaireAttributes, @RequestHeader(CommonConstants.CONTEXT_INFORMATION_REQUEST_PARAMETER) final String context) throws Exception {
+		ContextThreadLocal.set(ContextInfo.toContextInfo(context));
+		LOGGER.debug("Get Patient view for patient id:<" + patientUUID + ">");
+		final PatientView patientView = this.patientService.getPatientView(patientUUID, similarAttributes, bloodPressureAttributes, questionnaireAttributes);
+		return patientView;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+/*
+ *
+ * Copyright (C) 2016 Krishna Kuntala @ Mastek <krishna.kuntala@mastek.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.gov.nhs.digital.telehealth.clinician.service.dao.impl;
+
+import java.sql.Timestamp;
+
+/**
+ * One bucket of a patient's numeric measurements of an attribute as aggregated
+ * by the native measurement series query, or one measurement read as a bucket
+ * of its own by the measurement points query.
+ *
+ * This is deliberately not an entity. The bucket is the bucket index for the
+ * one query and the data_id for the other, so rows of both read in the same
+ * persistence context would be taken for each other by the entity cache.
+ */
+public class MeasurementBucketRow {
+
+	private Long bucket;
+	private Long measurementCount;
+	private Double minValue;
+	private Double maxValue;
+	private Double meanValue;
+	private Timestamp firstDataValueTime;
+	private Timestamp lastDataValueTime;
+
+	public MeasurementBucketRow() {
+	}
+
+	public Long getBucket() {
+		return bucket;
+	}
+
+	public void setBucket(final Long bucket) {
+		this.bucket = bucket;
+	}
+
+	public Long getMeasurementCount() {
+		return measurementCount;
+	}
+
+	public void setMeasurementCount(final Long measurementCount) {
+		this.measurementCount = measurementCount;
+	}
+
+	public Double getMinValue() {
+		return minValue;
+	}
+
+	public void setMinValue(final Double minValue) {
+		this.minValue = minValue;
+	}
+
+	public Double getMaxValue() {
+		return maxValue;
+	}
+
+	public void setMaxValue(final Double maxValue) {
+		this.maxValue = maxValue;
+	}
+
+	public Double getMeanValue() {
+		return meanValue;
+	}
+
+	public void setMeanValue(final Double meanValue) {
+		this.meanValue = meanValue;
+	}
+
+	public Timestamp getFirstDataValueTime() {
+		return firstDataValueTime;
+	}
+
+	public void setFirstDataValueTime(final Timestamp firstDataValueTime) {
+		this.firstDataValueTime = firstDataValueTime;
+	}
+
+	public Timestamp getLastDataValueTime() {
+		return lastDataValueTime;
+	}
+
+	public void setLastDataValueTime(final Timestamp lastDataValueTime) {
+		this.lastDataValueTime = lastDataValueTime;
+	}
+}
@@ -27,4 +27,8 @@ public interface PatientDAO extends GenericDAO<PatientMaster> {
 	List<PatientMaster> fetchAllPatients();
 
 	List<PatientMaster> fetchPatientsByPatientGroupId(String patientGroupId);
+
+	Long fetchPatientGroupDataVersion(String patientGroupId);
+
+	Long fetchAllPatientGroupsDataVersion();
 }
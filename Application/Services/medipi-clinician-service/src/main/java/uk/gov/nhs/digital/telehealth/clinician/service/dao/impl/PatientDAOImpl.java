@@ -43,4 +43,15 @@ public class PatientDAOImpl extends GenericDAOImpl<PatientMaster> implements Pat
 		return query.getResultList();
 	}
 
+	@Override
+	public Long fetchPatientGroupDataVersion(final String patientGroupId) {
+		final List<Long> versions = getEntityManager().createNamedQuery("PatientGroupMaster.fetchDataVersion", Long.class).setParameter("patientGroupId", patientGroupId).getResultList();
+		return versions.isEmpty() ? null : versions.get(0);
+	}
+
+	@Override
+	public Long fetchAllPatientGroupsDataVersion() {
+		return getEntityManager().createNamedQuery("PatientGroupMaster.fetchTotalDataVersion", Long.class).getSingleResult();
+	}
+
 }
\ No newline at end of file
@@ -17,9 +17,11 @@
  */
 package uk.gov.nhs.digital.telehealth.clinician.service.dao.impl;
 
+import java.sql.Timestamp;
 import java.util.List;
 
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.DataValueEntity;
+import uk.gov.nhs.digital.telehealth.clinician.service.entities.LatestMeasurementEntity;
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.RecordingDeviceAttributeMaster;
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.RecordingDeviceDataMaster;
 
@@ -30,7 +32,19 @@ public interface RecordingDeviceDataDAO extends GenericDAO<RecordingDeviceDataMa
 
 	List<DataValueEntity> fetchRecentMeasurementsSQL(String patientUUID);
 
+	List<LatestMeasurementEntity> fetchLatestMeasurementsByPatientGroup(String patientGroupId, List<String> attributeNames);
+
+	List<LatestMeasurementEntity> fetchLatestMeasurementsForAllPatients(List<String> attributeNames);
+
 	List<RecordingDeviceDataMaster> fetchPatientMeasurementsByAttribute(String patientUUID, Integer attributeId);
 
+	RecordingDeviceDataMaster fetchLatestPatientMeasurement(String patientUUID, Integer attributeId);
+
+	Timestamp fetchFirstPatientMeasurementTime(String patientUUID, Integer attributeId);
+
+	List<MeasurementBucketRow> fetchPatientMeasurementBuckets(String patientUUID, Integer attributeId, Timestamp fromTime, Timestamp toTime, long bucketWidth);
+
+	List<MeasurementBucketRow> fetchPatientMeasurementPoints(String patientUUID, Integer attributeId, Timestamp fromTime, Timestamp toTime, int maxResults);
+
 	List<RecordingDeviceAttributeMaster> fetchPatientAttributesHavingData(String patientUUID, List<String> attributeNames);
 }
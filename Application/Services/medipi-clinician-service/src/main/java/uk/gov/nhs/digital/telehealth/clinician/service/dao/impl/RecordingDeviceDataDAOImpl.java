@@ -17,6 +17,8 @@
  */
 package uk.gov.nhs.digital.telehealth.clinician.service.dao.impl;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.persistence.Query;
@@ -26,6 +28,7 @@ import org.apache.log4j.Logger;
 import org.springframework.stereotype.Service;
 
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.DataValueEntity;
+import uk.gov.nhs.digital.telehealth.clinician.service.entities.LatestMeasurementEntity;
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.RecordingDeviceAttributeMaster;
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.RecordingDeviceDataMaster;
 
@@ -39,6 +42,14 @@ public class RecordingDeviceDataDAOImpl extends GenericDAOImpl<RecordingDeviceDa
 
 	private static String FETCH_RECENT_MEASUREMENTS_NATIVE_POSTGRESQL_QUERY;
 
+	private static String FETCH_GROUP_LATEST_MEASUREMENTS_NATIVE_POSTGRESQL_QUERY;
+
+	private static String FETCH_ALL_LATEST_MEASUREMENTS_NATIVE_POSTGRESQL_QUERY;
+
+	private static String FETCH_MEASUREMENT_BUCKETS_NATIVE_POSTGRESQL_QUERY;
+
+	private static String FETCH_MEASUREMENT_POINTS_NATIVE_POSTGRESQL_QUERY;
+
 	static {
 		StringBuilder query = new StringBuilder();
 		query.append("SELECT rdd.data_id as \"data_id\", rdt.type as \"reading_type\", rdt.display_name as \"device\", rda.attribute_name as \"attribute_name\", rda.attribute_id as \"attribute_id\",");
@@ -54,6 +65,55 @@ public class RecordingDeviceDataDAOImpl extends GenericDAOImpl<RecordingDeviceDa
 		query.append(" ORDER BY rdt.type_id ASC");
 
 		FETCH_RECENT_MEASUREMENTS_NATIVE_POSTGRESQL_QUERY = query.toString();
+
+		FETCH_GROUP_LATEST_MEASUREMENTS_NATIVE_POSTGRESQL_QUERY = latestMeasurementsQuery(" JOIN patient p ON rddd.patient_uuid = p.patient_uuid WHERE p.patient_group_uuid = :patientGroupId AND");
+		FETCH_ALL_LATEST_MEASUREMENTS_NATIVE_POSTGRESQL_QUERY = latestMeasurementsQuery(" WHERE");
+
+		//Numeric measurements of an attribute between two times summarised into buckets of a fixed number of milliseconds from the start time
+		query = new StringBuilder();
+		query.append("SELECT CAST(FLOOR(EXTRACT(EPOCH FROM (rdd.data_value_time - CAST(:fromTime AS timestamp))) * 1000 / :bucketWidth) AS bigint) as \"bucket\",");
+		query.append(" COUNT(*) as \"measurement_count\", MIN(rdd.data_value_numeric) as \"min_value\",");
+		query.append(" MAX(rdd.data_value_numeric) as \"max_value\", AVG(rdd.data_value_numeric) as \"mean_value\",");
+		query.append(" MIN(rdd.data_value_time) as \"first_data_value_time\", MAX(rdd.data_value_time) as \"last_data_value_time\"");
+		query.append(" FROM recording_device_data rdd");
+		query.append(" WHERE rdd.patient_uuid = :patientUUID AND rdd.attribute_id = :attributeId");
+		query.append(" AND rdd.data_value_time >= :fromTime AND rdd.data_value_time < :toTime");
+		query.append(" AND rdd.data_value_numeric IS NOT NULL");
+		query.append(" GROUP BY 1 ORDER BY 1");
+
+		FETCH_MEASUREMENT_BUCKETS_NATIVE_POSTGRESQL_QUERY = query.toString();
+
+		//Numeric measurements of an attribute between two times each as a bucket of its own, for ranges with few measurements
+		query = new StringBuilder();
+		query.append("SELECT rdd.data_id as \"bucket\", CAST(1 AS bigint) as \"measurement_count\", rdd.data_value_numeric as \"min_value\",");
+		query.append(" rdd.data_value_numeric as \"max_value\", rdd.data_value_numeric as \"mean_value\",");
+		query.append(" rdd.data_value_time as \"first_data_value_time\", rdd.data_value_time as \"last_data_value_time\"");
+		query.append(" FROM recording_device_data rdd");
+		query.append(" WHERE rdd.patient_uuid = :patientUUID AND rdd.attribute_id = :attributeId");
+		query.append(" AND rdd.data_value_time >= :fromTime AND rdd.data_value_time < :toTime");
+		query.append(" AND rdd.data_value_numeric IS NOT NULL");
+		query.append(" ORDER BY rdd.data_value_time ASC, rdd.data_id ASC");
+
+		FETCH_MEASUREMENT_POINTS_NATIVE_POSTGRESQL_QUERY = query.toString();
+	}
+
+	/*
+	 * Latest measurement of each of the named attributes for every patient selected by the filter, read in a single
+	 * statement rather than one recent measurements query per patient
+	 */
+	private static String latestMeasurementsQuery(final String patientFilter) {
+		StringBuilder query = new StringBuilder();
+		query.append("SELECT rdd.data_id as \"data_id\", rdd.patient_uuid as \"patient_uuid\", rda.attribute_name as \"attribute_name\",");
+		query.append(" rdd.schedule_expiry_time as \"schedule_expiry_time\", rdd.alert_status as \"alert_status\"");
+		query.append(" FROM recording_device_data rdd");
+		query.append(" JOIN recording_device_attribute rda ON rdd.attribute_id = rda.attribute_id");
+		query.append(" JOIN  (SELECT MAX(rddd.data_value_time) as data_value_time, rddd.patient_uuid as patient_uuid, rddd.attribute_id as attribute_id FROM recording_device_data rddd");
+		query.append(" JOIN recording_device_attribute rdda ON rddd.attribute_id = rdda.attribute_id");
+		query.append(patientFilter);
+		query.append(" rdda.attribute_name IN (:attributeNames)");
+		query.append(" GROUP BY rddd.patient_uuid, rddd.attribute_id) latest_device_data ON rdd.patient_uuid = latest_device_data.patient_uuid");
+		query.append(" AND rdd.attribute_id = latest_device_data.attribute_id AND rdd.data_value_time = latest_device_data.data_value_time");
+		return query.toString();
 	}
 
 	@SuppressWarnings("unchecked")
@@ -74,6 +134,25 @@ public class RecordingDeviceDataDAOImpl extends GenericDAOImpl<RecordingDeviceDa
 		return query.getResultList();
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<LatestMeasurementEntity> fetchLatestMeasurementsByPatientGroup(final String patientGroupId, final List<String> attributeNames) {
+		LOGGER.debug("Get latest measurements for patient group:" + patientGroupId + " " + ContextThreadLocal.get());
+		final Query query = this.getEntityManager().createNativeQuery(FETCH_GROUP_LATEST_MEASUREMENTS_NATIVE_POSTGRESQL_QUERY, LatestMeasurementEntity.class);
+		query.setParameter("patientGroupId", patientGroupId);
+		query.setParameter("attributeNames", attributeNames);
+		return query.getResultList();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<LatestMeasurementEntity> fetchLatestMeasurementsForAllPatients(final List<String> attributeNames) {
+		LOGGER.debug("Get latest measurements for all patients " + ContextThreadLocal.get());
+		final Query query = this.getEntityManager().createNativeQuery(FETCH_ALL_LATEST_MEASUREMENTS_NATIVE_POSTGRESQL_QUERY, LatestMeasurementEntity.class);
+		query.setParameter("attributeNames", attributeNames);
+		return query.getResultList();
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public List<RecordingDeviceDataMaster> fetchPatientMeasurementsByAttribute(final String patientUUID, final Integer attributeId) {
@@ -83,6 +162,78 @@ public class RecordingDeviceDataDAOImpl extends GenericDAOImpl<RecordingDeviceDa
 		return query.getResultList();
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public RecordingDeviceDataMaster fetchLatestPatientMeasurement(final String patientUUID, final Integer attributeId) {
+		final Query query = this.getEntityManager().createNamedQuery("RecordingDeviceDataMaster.fetchLatestPatientMeasurementByAttribute", RecordingDeviceDataMaster.class);
+		query.setParameter("patientUUID", patientUUID);
+		query.setParameter("attributeId", attributeId);
+		query.setMaxResults(1);
+		final List<RecordingDeviceDataMaster> measurements = query.getResultList();
+		return measurements.isEmpty() ? null : measurements.get(0);
+	}
+
+	@Override
+	public Timestamp fetchFirstPatientMeasurementTime(final String patientUUID, final Integer attributeId) {
+		final Query query = this.getEntityManager().createNamedQuery("RecordingDeviceDataMaster.fetchFirstPatientMeasurementTime");
+		query.setParameter("patientUUID", patientUUID);
+		query.setParameter("attributeId", attributeId);
+		return (Timestamp) query.getSingleResult();
+	}
+
+	@Override
+	public List<MeasurementBucketRow> fetchPatientMeasurementBuckets(final String patientUUID, final Integer attributeId, final Timestamp fromTime, final Timestamp toTime, final long bucketWidth) {
+		LOGGER.debug("Get measurement buckets for patient:" + patientUUID + " attribute:" + attributeId + " from:" + fromTime + " to:" + toTime + " " + ContextThreadLocal.get());
+		final Query query = this.getEntityManager().createNativeQuery(FETCH_MEASUREMENT_BUCKETS_NATIVE_POSTGRESQL_QUERY);
+		query.setParameter("patientUUID", patientUUID);
+		query.setParameter("attributeId", attributeId);
+		query.setParameter("fromTime", fromTime);
+		query.setParameter("toTime", toTime);
+		query.setParameter("bucketWidth", bucketWidth);
+		return toMeasurementBucketRows(query);
+	}
+
+	@Override
+	public List<MeasurementBucketRow> fetchPatientMeasurementPoints(final String patientUUID, final Integer attributeId, final Timestamp fromTime, final Timestamp toTime, final int maxResults) {
+		LOGGER.debug("Get measurement points for patient:" + patientUUID + " attribute:" + attributeId + " from:" + fromTime + " to:" + toTime + " " + ContextThreadLocal.get());
+		final Query query = this.getEntityManager().createNativeQuery(FETCH_MEASUREMENT_POINTS_NATIVE_POSTGRESQL_QUERY);
+		query.setParameter("patientUUID", patientUUID);
+		query.setParameter("attributeId", attributeId);
+		query.setParameter("fromTime", fromTime);
+		query.setParameter("toTime", toTime);
+		query.setMaxResults(maxResults);
+		return toMeasurementBucketRows(query);
+	}
+
+	/*
+	 * The bucket and point rows are read as plain columns rather than mapped to an entity, as a point's data_id and a
+	 * bucket's index would be the same entity to the persistence context. The columns are in the order of the queries.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<MeasurementBucketRow> toMeasurementBucketRows(final Query query) {
+		final List<MeasurementBucketRow> rows = new ArrayList<MeasurementBucketRow>();
+		for(final Object[] columns : (List<Object[]>) query.getResultList()) {
+			final MeasurementBucketRow row = new MeasurementBucketRow();
+			row.setBucket(toLong(columns[0]));
+			row.setMeasurementCount(toLong(columns[1]));
+			row.setMinValue(toDouble(columns[2]));
+			row.setMaxValue(toDouble(columns[3]));
+			row.setMeanValue(toDouble(columns[4]));
+			row.setFirstDataValueTime((Timestamp) columns[5]);
+			row.setLastDataValueTime((Timestamp) columns[6]);
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	private static Long toLong(final Object value) {
+		return value == null ? null : ((Number) value).longValue();
+	}
+
+	private static Double toDouble(final Object value) {
+		return value == null ? null : ((Number) value).doubleValue();
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public List<RecordingDeviceAttributeMaster> fetchPatientAttributesHavingData(final String patientUUID, final List<String> attributeNames) {
@@ -0,0 +1,99 @@
+/*
+ *
+ * Copyright (C) 2016 Krishna Kuntala @ Mastek <krishna.kuntala@mastek.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.gov.nhs.digital.telehealth.clinician.service.domain;
+
+import java.sql.Timestamp;
+
+/**
+ * Summary of the measurements taken within one bucket of a measurement series.
+ */
+public class MeasurementBucket {
+
+	private Timestamp firstDataTime;
+	private Timestamp lastDataTime;
+	private Long count;
+	private Double minValue;
+	private Double maxValue;
+	private Double meanValue;
+
+	public MeasurementBucket() {
+	}
+
+	public MeasurementBucket(final Timestamp firstDataTime, final Timestamp lastDataTime, final Long count, final Double minValue, final Double maxValue, final Double meanValue) {
+		this();
+		this.firstDataTime = firstDataTime;
+		this.lastDataTime = lastDataTime;
+		this.count = count;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+		this.meanValue = meanValue;
+	}
+
+	public Timestamp getFirstDataTime() {
+		return firstDataTime;
+	}
+
+	public void setFirstDataTime(final Timestamp firstDataTime) {
+		this.firstDataTime = firstDataTime;
+	}
+
+	public Timestamp getLastDataTime() {
+		return lastDataTime;
+	}
+
+	public void setLastDataTime(final Timestamp lastDataTime) {
+		this.lastDataTime = lastDataTime;
+	}
+
+	public Long getCount() {
+		return count;
+	}
+
+	public void setCount(final Long count) {
+		this.count = count;
+	}
+
+	public Double getMinValue() {
+		return minValue;
+	}
+
+	public void setMinValue(final Double minValue) {
+		this.minValue = minValue;
+	}
+
+	public Double getMaxValue() {
+		return maxValue;
+	}
+
+	public void setMaxValue(final Double maxValue) {
+		this.maxValue = maxValue;
+	}
+
+	public Double getMeanValue() {
+		return meanValue;
+	}
+
+	public void setMeanValue(final Double meanValue) {
+		this.meanValue = meanValue;
+	}
+
+	@Override
+	public String toString() {
+		return "MeasurementBucket [firstDataTime=" + firstDataTime + ", lastDataTime=" + lastDataTime + ", count=" + count + ", minValue=" + minValue + ", maxValue=" + maxValue + ", meanValue=" + meanValue + "]";
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ *
+ * Copyright (C) 2016 Krishna Kuntala @ Mastek <krishna.kuntala@mastek.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.gov.nhs.digital.telehealth.clinician.service.domain;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measurements of an attribute between two times reduced to at most a fixed number of buckets, with the thresholds
+ * over the same period as step changes, so that the size of a chart does not depend on how much history there is.
+ */
+public class MeasurementSeries {
+
+	private Integer attributeId;
+	private Timestamp fromTime;
+	private Timestamp toTime;
+	private Long bucketWidth;
+	private List<MeasurementBucket> buckets;
+	private List<ThresholdInterval> thresholds;
+	private Measurement latestMeasurement;
+
+	public MeasurementSeries() {
+		buckets = new ArrayList<MeasurementBucket>();
+		thresholds = new ArrayList<ThresholdInterval>();
+	}
+
+	public MeasurementSeries(final Integer attributeId, final Timestamp fromTime, final Timestamp toTime, final Long bucketWidth) {
+		this();
+		this.attributeId = attributeId;
+		this.fromTime = fromTime;
+		this.toTime = toTime;
+		this.bucketWidth = bucketWidth;
+	}
+
+	public Integer getAttributeId() {
+		return attributeId;
+	}
+
+	public void setAttributeId(final Integer attributeId) {
+		this.attributeId = attributeId;
+	}
+
+	public Timestamp getFromTime() {
+		return fromTime;
+	}
+
+	public void setFromTime(final Timestamp fromTime) {
+		this.fromTime = fromTime;
+	}
+
+	public Timestamp getToTime() {
+		return toTime;
+	}
+
+	public void setToTime(final Timestamp toTime) {
+		this.toTime = toTime;
+	}
+
+	public Long getBucketWidth() {
+		return bucketWidth;
+	}
+
+	public void setBucketWidth(final Long bucketWidth) {
+		this.bucketWidth = bucketWidth;
+	}
+
+	public List<MeasurementBucket> getBuckets() {
+		return buckets;
+	}
+
+	public void setBuckets(final List<MeasurementBucket> buckets) {
+		this.buckets = buckets;
+	}
+
+	public List<ThresholdInterval> getThresholds() {
+		return thresholds;
+	}
+
+	public void setThresholds(final List<ThresholdInterval> thresholds) {
+		this.thresholds = thresholds;
+	}
+
+	public Measurement getLatestMeasurement() {
+		return latestMeasurement;
+	}
+
+	public void setLatestMeasurement(final Measurement latestMeasurement) {
+		this.latestMeasurement = latestMeasurement;
+	}
+
+	@Override
+	public String toString() {
+		return "MeasurementSeries [attributeId=" + attributeId + ", fromTime=" + fromTime + ", toTime=" + toTime + ", bucketWidth=" + bucketWidth + ", buckets=" + buckets.size() + ", thresholds=" + thresholds + "]";
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ *
+ * Copyright (C) 2016 Krishna Kuntala @ Mastek <krishna.kuntala@mastek.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.gov.nhs.digital.telehealth.clinician.service.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PatientView {
+
+	private Patient patient;
+	private List<RecordingDeviceAttribute> similarDeviceAttributes;
+	private List<RecordingDeviceAttribute> bloodPressureDeviceAttributes;
+	private List<RecordingDeviceAttribute> questionnaireDeviceAttributes;
+
+	public PatientView() {
+		similarDeviceAttributes = new ArrayList<RecordingDeviceAttribute>();
+		bloodPressureDeviceAttributes = new ArrayList<RecordingDeviceAttribute>();
+		questionnaireDeviceAttributes = new ArrayList<RecordingDeviceAttribute>();
+	}
+
+	public PatientView(final Patient patient) {
+		this();
+		this.patient = patient;
+	}
+
+	public Patient getPatient() {
+		return patient;
+	}
+
+	public void setPatient(final Patient patient) {
+		this.patient = patient;
+	}
+
+	public List<RecordingDeviceAttribute> getSimilarDeviceAttributes() {
+		return similarDeviceAttributes;
+	}
+
+	public void setSimilarDeviceAttributes(final List<RecordingDeviceAttribute> similarDeviceAttributes) {
+		this.similarDeviceAttributes = similarDeviceAttributes;
+	}
+
+	public List<RecordingDeviceAttribute> getBloodPressureDeviceAttributes() {
+		return bloodPressureDeviceAttributes;
+	}
+
+	public void setBloodPressureDeviceAttributes(final List<RecordingDeviceAttribute> bloodPressureDeviceAttributes) {
+		this.bloodPressureDeviceAttributes = bloodPressureDeviceAttributes;
+	}
+
+	public List<RecordingDeviceAttribute> getQuestionnaireDeviceAttributes() {
+		return questionnaireDeviceAttributes;
+	}
+
+	public void setQuestionnaireDeviceAttributes(final List<RecordingDeviceAttribute> questionnaireDeviceAttributes) {
+		this.questionnaireDeviceAttributes = questionnaireDeviceAttributes;
+	}
+
+	@Override
+	public String toString() {
+		return "PatientView [patient=" + patient + ", similarDeviceAttributes=" + similarDeviceAttributes + ", bloodPressureDeviceAttributes=" + bloodPressureDeviceAttributes + ", questionnaireDeviceAttributes=" + questionnaireDeviceAttributes + "]";
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ *
+ * Copyright (C) 2016 Krishna Kuntala @ Mastek <krishna.kuntala@mastek.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.gov.nhs.digital.telehealth.clinician.service.domain;
+
+import java.sql.Timestamp;
+
+/**
+ * Lower and upper threshold values which apply unchanged from one time until another.
+ */
+public class ThresholdInterval {
+
+	private Timestamp fromTime;
+	private Timestamp toTime;
+	private Double minValue;
+	private Double maxValue;
+
+	public ThresholdInterval() {
+	}
+
+	public ThresholdInterval(final Timestamp fromTime, final Timestamp toTime, final Double minValue, final Double maxValue) {
+		this();
+		this.fromTime = fromTime;
+		this.toTime = toTime;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+	}
+
+	public Timestamp getFromTime() {
+		return fromTime;
+	}
+
+	public void setFromTime(final Timestamp fromTime) {
+		this.fromTime = fromTime;
+	}
+
+	public Timestamp getToTime() {
+		return toTime;
+	}
+
+	public void setToTime(final Timestamp toTime) {
+		this.toTime = toTime;
+	}
+
+	public Double getMinValue() {
+		return minValue;
+	}
+
+	public void setMinValue(final Double minValue) {
+		this.minValue = minValue;
+	}
+
+	public Double getMaxValue() {
+		return maxValue;
+	}
+
+	public void setMaxValue(final Double maxValue) {
+		this.maxValue = maxValue;
+	}
+
+	@Override
+	public String toString() {
+		return "ThresholdInterval [fromTime=" + fromTime + ", toTime=" + toTime + ", minValue=" + minValue + ", maxValue=" + maxValue + "]";
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ *
+ * Copyright (C) 2016 Krishna Kuntala @ Mastek <krishna.kuntala@mastek.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.gov.nhs.digital.telehealth.clinician.service.entities;
+
+import java.sql.Timestamp;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Latest measurement of an attribute for a patient as returned by the native
+ * group level recent measurements query. Only the columns needed to roll up
+ * the patient status are read.
+ */
+@Entity
+public class LatestMeasurementEntity {
+
+	@Id
+	private Long dataId;
+	private String patientUuid;
+	private String attributeName;
+	private Timestamp scheduleExpiryTime;
+	private String alertStatus;
+
+	public LatestMeasurementEntity() {
+	}
+
+	public Long getDataId() {
+		return dataId;
+	}
+
+	public void setDataId(final Long dataId) {
+		this.dataId = dataId;
+	}
+
+	public String getPatientUuid() {
+		return patientUuid;
+	}
+
+	public void setPatientUuid(final String patientUuid) {
+		this.patientUuid = patientUuid;
+	}
+
+	public String getAttributeName() {
+		return attributeName;
+	}
+
+	public void setAttributeName(final String attributeName) {
+		this.attributeName = attributeName;
+	}
+
+	public Timestamp getScheduleExpiryTime() {
+		return scheduleExpiryTime;
+	}
+
+	public void setScheduleExpiryTime(final Timestamp scheduleExpiryTime) {
+		this.scheduleExpiryTime = scheduleExpiryTime;
+	}
+
+	public String getAlertStatus() {
+		return alertStatus;
+	}
+
+	public void setAlertStatus(final String alertStatus) {
+		this.alertStatus = alertStatus;
+	}
+}
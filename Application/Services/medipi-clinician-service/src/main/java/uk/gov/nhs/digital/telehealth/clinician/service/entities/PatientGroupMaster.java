@@ -38,6 +38,8 @@ import org.hibernate.annotations.GenericGenerator;
 @Table(name = "patient_group")
 @NamedQueries({
 	@NamedQuery(name = "PatientGroupMaster.fetchAllPatientGroups", query = "SELECT patientGroup FROM PatientGroupMaster patientGroup"),
+	@NamedQuery(name = "PatientGroupMaster.fetchDataVersion", query = "SELECT patientGroup.dataVersion FROM PatientGroupMaster patientGroup WHERE patientGroup.patientGroupId = :patientGroupId"),
+	@NamedQuery(name = "PatientGroupMaster.fetchTotalDataVersion", query = "SELECT SUM(patientGroup.dataVersion) FROM PatientGroupMaster patientGroup"),
 })
 //@formatter:on
 public class PatientGroupMaster {
@@ -50,6 +52,10 @@ public class PatientGroupMaster {
 	@Column(name = "patient_group_name")
 	private String patientGroupName;
 
+	//Incremented by MediPiClinical each time new data is persisted for the group
+	@Column(name = "data_version")
+	private long dataVersion;
+
 	@ManyToMany(fetch = FetchType.LAZY, mappedBy = "patientGroups")
 	private List<PatientMaster> patientDetails;
 
@@ -76,6 +82,10 @@ public class PatientGroupMaster {
 		this.patientGroupName = patientGroupName;
 	}
 
+	public long getDataVersion() {
+		return dataVersion;
+	}
+
 	public List<PatientMaster> getPatientDetails() {
 		return patientDetails;
 	}
@@ -49,6 +49,17 @@ import javax.persistence.Table;
            	+ " AND recordingDeviceAttribute.attributeId = :attributeId"
            	+ " ORDER BY recordingDeviceDataMaster.dataValueTime ASC"),
 
+	@NamedQuery(name = "RecordingDeviceDataMaster.fetchLatestPatientMeasurementByAttribute", query = "SELECT recordingDeviceDataMaster FROM RecordingDeviceDataMaster recordingDeviceDataMaster"
+			+ " JOIN recordingDeviceDataMaster.patient patient"
+          	+ " JOIN recordingDeviceDataMaster.recordingDeviceAttribute recordingDeviceAttribute"
+           	+ " WHERE patient.patientUUID = :patientUUID"
+           	+ " AND recordingDeviceAttribute.attributeId = :attributeId"
+           	+ " ORDER BY recordingDeviceDataMaster.dataValueTime DESC"),
+
+	@NamedQuery(name = "RecordingDeviceDataMaster.fetchFirstPatientMeasurementTime", query = "SELECT MIN(recordingDeviceDataMaster.dataValueTime) FROM RecordingDeviceDataMaster recordingDeviceDataMaster"
+			+ " WHERE recordingDeviceDataMaster.patient.patientUUID = :patientUUID"
+           	+ " AND recordingDeviceDataMaster.recordingDeviceAttribute.attributeId = :attributeId"),
+
 	@NamedQuery(name = "RecordingDeviceDataMaster.fetchPatientAttributesHavingData", query = "SELECT distinct recordingDeviceDataMaster.recordingDeviceAttribute FROM RecordingDeviceDataMaster recordingDeviceDataMaster"
 			+ " JOIN recordingDeviceDataMaster.patient patient"
           	+ " JOIN recordingDeviceDataMaster.recordingDeviceAttribute recordingDeviceAttribute"
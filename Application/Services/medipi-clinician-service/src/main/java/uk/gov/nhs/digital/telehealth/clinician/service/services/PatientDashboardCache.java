@@ -0,0 +1,62 @@
+/*
+ *
+ * Copyright (C) 2016 Krishna Kuntala @ Mastek <krishna.kuntala@mastek.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.gov.nhs.digital.telehealth.clinician.service.services;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+/*
+ * Dashboard snapshots keyed by patient group. MediPiClinical increments a group's data version in the transaction
+ * which persists new data and alerts for the group, so the snapshot is only rebuilt when the group's data has changed
+ * or one of its schedules has expired. Checking whether a snapshot is current costs a single primary key lookup.
+ */
+@Component
+public class PatientDashboardCache {
+
+	public static final String ALL_PATIENTS = "*";
+
+	private final ConcurrentHashMap<String, PatientDashboardSnapshot> snapshots = new ConcurrentHashMap<String, PatientDashboardSnapshot>();
+
+	private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+	public PatientDashboardSnapshot find(final String key, final long dataVersion) {
+		final PatientDashboardSnapshot snapshot = snapshots.get(key);
+		if(snapshot != null && snapshot.isCurrent(dataVersion, System.currentTimeMillis())) {
+			return snapshot;
+		}
+		return null;
+	}
+
+	public void put(final String key, final PatientDashboardSnapshot snapshot) {
+		snapshots.put(key, snapshot);
+	}
+
+	//Only one thread rebuilds a group's snapshot at a time, the others wait for and then share its result
+	public Object lockFor(final String key) {
+		Object lock = locks.get(key);
+		if(lock == null) {
+			final Object newLock = new Object();
+			lock = locks.putIfAbsent(key, newLock);
+			if(lock == null) {
+				lock = newLock;
+			}
+		}
+		return lock;
+	}
+}
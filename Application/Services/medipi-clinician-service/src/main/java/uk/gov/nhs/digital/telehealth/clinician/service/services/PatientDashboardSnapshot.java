@@ -0,0 +1,62 @@
+/*
+ *
+ * Copyright (C) 2016 Krishna Kuntala @ Mastek <krishna.kuntala@mastek.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.gov.nhs.digital.telehealth.clinician.service.services;
+
+import java.util.Collections;
+import java.util.List;
+
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.Patient;
+
+/*
+ * Immutable list of patients with their statuses as shown on the patient dashboard. The snapshot is current while the
+ * data version of the patients' group is unchanged and the time is before validUntil, which is the earliest time that
+ * a patient's status may change without new data arriving (i.e. when a schedule expires).
+ */
+public class PatientDashboardSnapshot {
+
+	private final List<Patient> patients;
+
+	private final long dataVersion;
+
+	private final long validUntil;
+
+	private final String eTag;
+
+	public PatientDashboardSnapshot(final List<Patient> patients, final long dataVersion, final long builtAt, final long validUntil) {
+		this.patients = Collections.unmodifiableList(patients);
+		this.dataVersion = dataVersion;
+		this.validUntil = validUntil;
+		this.eTag = "\"" + dataVersion + "-" + Long.toHexString(builtAt) + "\"";
+	}
+
+	public List<Patient> getPatients() {
+		return patients;
+	}
+
+	public long getDataVersion() {
+		return dataVersion;
+	}
+
+	public String getETag() {
+		return eTag;
+	}
+
+	public boolean isCurrent(final long currentDataVersion, final long now) {
+		return dataVersion == currentDataVersion && now < validUntil;
+	}
+}
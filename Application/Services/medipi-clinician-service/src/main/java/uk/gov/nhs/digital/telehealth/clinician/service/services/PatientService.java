@@ -17,8 +17,15 @@
  */
 package uk.gov.nhs.digital.telehealth.clinician.service.services;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import ma.glasnost.orika.MapperFacade;
 
@@ -33,15 +40,21 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import uk.gov.nhs.digital.telehealth.clinician.service.dao.impl.AttributeThresholdDAO;
+import uk.gov.nhs.digital.telehealth.clinician.service.dao.impl.MeasurementBucketRow;
 import uk.gov.nhs.digital.telehealth.clinician.service.dao.impl.PatientDAO;
 import uk.gov.nhs.digital.telehealth.clinician.service.dao.impl.RecordingDeviceDataDAO;
 import uk.gov.nhs.digital.telehealth.clinician.service.domain.DataValue;
 import uk.gov.nhs.digital.telehealth.clinician.service.domain.Measurement;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.MeasurementBucket;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.MeasurementSeries;
 import uk.gov.nhs.digital.telehealth.clinician.service.domain.Patient;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.PatientView;
 import uk.gov.nhs.digital.telehealth.clinician.service.domain.RecordingDeviceAttribute;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.ThresholdInterval;
 import uk.gov.nhs.digital.telehealth.clinician.service.domain.enums.PatientStatus;
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.AttributeThresholdMaster;
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.DataValueEntity;
+import uk.gov.nhs.digital.telehealth.clinician.service.entities.LatestMeasurementEntity;
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.PatientMaster;
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.RecordingDeviceAttributeMaster;
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.RecordingDeviceDataMaster;
@@ -71,9 +84,22 @@ public class PatientService {
     @Autowired
     private ThresholdTestFactory thresholdTestFactory;
 
+    @Autowired
+    private PatientDashboardCache patientDashboardCache;
+
     @Value("#{'${medipi.patient.required.device.attributes}'.split(',')}")
     private List<String> requiredDeviceAttributes;
 
+    //Longest time in seconds a dashboard snapshot is used for, so that changes made directly to the DB are seen
+    @Value("${medipi.clinician.dashboard.snapshot.max.age:300}")
+    private long dashboardSnapshotMaxAge;
+
+    @Value("${medipi.clinician.series.default.points:200}")
+    private int seriesDefaultPoints;
+
+    @Value("${medipi.clinician.series.max.points:1000}")
+    private int seriesMaxPoints;
+
     private static final Logger LOGGER = LogManager.getLogger(PatientService.class);
 
     @Transactional(rollbackFor = {Exception.class})
@@ -90,23 +116,91 @@ public class PatientService {
 
     @Transactional(rollbackFor = {Exception.class})
     public List<Patient> getAllPatients() throws DefaultWrappedException {
-        final List<PatientMaster> patientMasters = this.patientDAO.fetchAllPatients();
-        final List<Patient> patients = setPatientStatus(patientMasters);
-        return patients;
+        return getAllPatientsSnapshot().getPatients();
     }
 
     @Transactional(rollbackFor = {Exception.class})
     public List<Patient> getPatientsByGroup(final String patientGroupId) throws DefaultWrappedException {
-        final List<PatientMaster> patientMasters = this.patientDAO.fetchPatientsByPatientGroupId(patientGroupId);
-        final List<Patient> patients = setPatientStatus(patientMasters);
-        return patients;
+        return getPatientsByGroupSnapshot(patientGroupId).getPatients();
+    }
+
+    @Transactional(rollbackFor = {Exception.class})
+    public PatientDashboardSnapshot getAllPatientsSnapshot() throws DefaultWrappedException {
+        final Long version = this.patientDAO.fetchAllPatientGroupsDataVersion();
+        final long dataVersion = version == null ? 0 : version;
+        PatientDashboardSnapshot snapshot = patientDashboardCache.find(PatientDashboardCache.ALL_PATIENTS, dataVersion);
+        if (snapshot == null) {
+            synchronized (patientDashboardCache.lockFor(PatientDashboardCache.ALL_PATIENTS)) {
+                snapshot = patientDashboardCache.find(PatientDashboardCache.ALL_PATIENTS, dataVersion);
+                if (snapshot == null) {
+                    LOGGER.debug("Rebuilding the dashboard for all patients at data version:" + dataVersion);
+                    final List<PatientMaster> patientMasters = this.patientDAO.fetchAllPatients();
+                    snapshot = buildSnapshot(patientMasters, recordingDeviceDataDAO.fetchLatestMeasurementsForAllPatients(requiredDeviceAttributes), dataVersion);
+                    patientDashboardCache.put(PatientDashboardCache.ALL_PATIENTS, snapshot);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /*
+     * The group's data version is read before its data so that data committed in between is at worst shown a poll
+     * early, and is then read again when the newer version is seen.
+     */
+    @Transactional(rollbackFor = {Exception.class})
+    public PatientDashboardSnapshot getPatientsByGroupSnapshot(final String patientGroupId) throws DefaultWrappedException {
+        final Long version = this.patientDAO.fetchPatientGroupDataVersion(patientGroupId);
+        final long dataVersion = version == null ? 0 : version;
+        PatientDashboardSnapshot snapshot = patientDashboardCache.find(patientGroupId, dataVersion);
+        if (snapshot == null) {
+            synchronized (patientDashboardCache.lockFor(patientGroupId)) {
+                snapshot = patientDashboardCache.find(patientGroupId, dataVersion);
+                if (snapshot == null) {
+                    LOGGER.debug("Rebuilding the dashboard for patient group:" + patientGroupId + " at data version:" + dataVersion);
+                    final List<PatientMaster> patientMasters = this.patientDAO.fetchPatientsByPatientGroupId(patientGroupId);
+                    snapshot = buildSnapshot(patientMasters, recordingDeviceDataDAO.fetchLatestMeasurementsByPatientGroup(patientGroupId, requiredDeviceAttributes), dataVersion);
+                    patientDashboardCache.put(patientGroupId, snapshot);
+                }
+            }
+        }
+        return snapshot;
     }
 
-    private List<Patient> setPatientStatus(final List<PatientMaster> patientMasters) {
+    private PatientDashboardSnapshot buildSnapshot(final List<PatientMaster> patientMasters, final List<LatestMeasurementEntity> latestMeasurements, final long dataVersion) {
+        final long now = System.currentTimeMillis();
+        //The snapshot must be rebuilt when the first schedule which has not yet expired does, as the patient's status changes then
+        long validUntil = now + dashboardSnapshotMaxAge * 1000;
+        for (LatestMeasurementEntity latestMeasurement : latestMeasurements) {
+            final long expiryTime = latestMeasurement.getScheduleExpiryTime().getTime();
+            if (expiryTime >= now && expiryTime < validUntil) {
+                validUntil = expiryTime + 1;
+            }
+        }
+        return new PatientDashboardSnapshot(setPatientStatus(patientMasters, latestMeasurements), dataVersion, now, validUntil);
+    }
+
+    /*
+     * The latest measurements of the required attributes for all the patients are read by the caller in a single query
+     * and grouped by patient here, so the status of every patient is rolled up in one pass without a query per patient.
+     */
+    private List<Patient> setPatientStatus(final List<PatientMaster> patientMasters, final List<LatestMeasurementEntity> latestMeasurements) {
+        final Map<String, List<LatestMeasurementEntity>> measurementsByPatient = new HashMap<String, List<LatestMeasurementEntity>>();
+        for (LatestMeasurementEntity latestMeasurement : latestMeasurements) {
+            List<LatestMeasurementEntity> patientMeasurements = measurementsByPatient.get(latestMeasurement.getPatientUuid());
+            if (patientMeasurements == null) {
+                patientMeasurements = new ArrayList<LatestMeasurementEntity>();
+                measurementsByPatient.put(latestMeasurement.getPatientUuid(), patientMeasurements);
+            }
+            patientMeasurements.add(latestMeasurement);
+        }
+        final List<LatestMeasurementEntity> noMeasurements = new ArrayList<LatestMeasurementEntity>();
         final List<Patient> patients = new ArrayList<Patient>();
         for (final PatientMaster patientMaster : patientMasters) {
             final Patient patient = this.mapperFacade.map(patientMaster, Patient.class);
-            List<DataValueEntity> patientMeasurements = recordingDeviceDataDAO.fetchRecentMeasurementsSQL(patient.getPatientUUID());
+            List<LatestMeasurementEntity> patientMeasurements = measurementsByPatient.get(patient.getPatientUUID());
+            if (patientMeasurements == null) {
+                patientMeasurements = noMeasurements;
+            }
 
             //Clone the required attributes so that we can compare whether all the required attributes has data against it
             List<String> requiredAttributes = new ArrayList<String>(requiredDeviceAttributes);
@@ -114,7 +208,7 @@ public class PatientService {
             //Set the default status as null
             PatientStatus patientStatus = null;
 
-            for (DataValueEntity patientMeasurement : patientMeasurements) {
+            for (LatestMeasurementEntity patientMeasurement : patientMeasurements) {
                 //Check the alert status and scheduled expiry date only if they are listed as required/mandatory attributes.
                 if (requiredAttributes.contains(patientMeasurement.getAttributeName())) {
 
@@ -186,20 +280,25 @@ public class PatientService {
 		}*/
 
         List<RecordingDeviceDataMaster> patientData = recordingDeviceDataDAO.fetchPatientMeasurementsByAttribute(patientUUID, attributeId);
+        // the thresholds are read once and matched to the measurements, which are in time order
+        List<AttributeThresholdMaster> attributeThresholdMasters = attributeThresholdDAO.fetchPatientAttributeThresholds(patientUUID, attributeId);
         int numberOfRecords = patientData.size();
         int counter = 0;
+        int thresholdIndex = -1;
         List<Measurement> measurements = new ArrayList<Measurement>();
+        // measurements to be given threshold values grouped by the type of their effective threshold
+        Map<String, List<Integer>> measurementsByThresholdType = new LinkedHashMap<String, List<Integer>>();
         for (RecordingDeviceDataMaster data : patientData) {
             Measurement measurement = this.mapperFacade.map(data, Measurement.class);
-            AttributeThresholdMaster attributeThresholdMaster = attributeThresholdDAO.findEffectiveAttributeThreshold(data.getRecordingDeviceAttribute().getAttributeId(), patientUUID, data.getDataValueTime());
-
-            if (attributeThresholdMaster != null) {
-                AttributeThresholdTest thresholdTest = thresholdTestFactory.getInstance(attributeThresholdMaster.getThresholdType());
-                List<Double> thresholds = thresholdTest.getThreshold(data.getRecordingDeviceAttribute().getAttributeId(), patientUUID, data.getDataValueTime(), data.getDataValue());
-                if (thresholds != null && (thresholds.get(0) == null || thresholds.get(1) == null)) {
-                    LOGGER.debug("AttributeThresholdMaster:<thresholdLowValue=" + attributeThresholdMaster.getThresholdLowValue() + " thresholdHighValue: " + attributeThresholdMaster.getThresholdHighValue() + "> thresholds:<" + thresholds + ">");
+            while (thresholdIndex + 1 < attributeThresholdMasters.size() && !attributeThresholdMasters.get(thresholdIndex + 1).getEffectiveDate().after(data.getDataValueTime())) {
+                thresholdIndex++;
+            }
+            if (thresholdIndex >= 0) {
+                String thresholdType = attributeThresholdMasters.get(thresholdIndex).getThresholdType();
+                if (!measurementsByThresholdType.containsKey(thresholdType)) {
+                    measurementsByThresholdType.put(thresholdType, new ArrayList<Integer>());
                 }
-                measurement.setMinMaxValues(thresholds);
+                measurementsByThresholdType.get(thresholdType).add(counter);
             }
             //Check if this is the last measurement
             if(counter == numberOfRecords - 1) {
@@ -212,9 +311,157 @@ public class PatientService {
             measurements.add(measurement);
             counter ++;
         }
+        // each threshold test calculates the values for all its measurements at once
+        for (Map.Entry<String, List<Integer>> entry : measurementsByThresholdType.entrySet()) {
+            List<Date> dataValueTimes = new ArrayList<Date>();
+            List<String> dataValues = new ArrayList<String>();
+            for (Integer index : entry.getValue()) {
+                dataValueTimes.add(patientData.get(index).getDataValueTime());
+                dataValues.add(patientData.get(index).getDataValue());
+            }
+            AttributeThresholdTest thresholdTest = thresholdTestFactory.getInstance(entry.getKey());
+            List<List<Double>> thresholdsList = thresholdTest.getThresholds(attributeId, patientUUID, dataValueTimes, dataValues);
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                List<Double> thresholds = thresholdsList.get(i);
+                if (thresholds != null && (thresholds.get(0) == null || thresholds.get(1) == null)) {
+                    LOGGER.debug("Measurement at " + dataValueTimes.get(i) + " thresholds:<" + thresholds + ">");
+                }
+                measurements.get(entry.getValue().get(i)).setMinMaxValues(thresholds);
+            }
+        }
         return measurements;
     }
 
+    /*
+     * The numeric measurements between the two times are summarised by the database into at most maxPoints buckets of
+     * equal width. Where there are no more than maxPoints measurements in the range each is returned as a bucket of its
+     * own, and the series has no bucket width, so that no reading is averaged away. Where no times are given the series
+     * covers all the measurements. The thresholds are calculated once per bucket, as at its latest measurement, and
+     * consecutive buckets with the same thresholds are returned as a single interval.
+     */
+    @Transactional(rollbackFor = {Exception.class})
+    public MeasurementSeries getPatientMeasurementSeries(final String patientUUID, final Integer attributeId, final Long from, final Long to, final Integer maxPoints) throws Exception {
+        final int points = maxPoints == null ? seriesDefaultPoints : Math.min(maxPoints, seriesMaxPoints);
+        if ((from != null && to != null && from >= to) || points < 1) {
+            throw new DefaultWrappedException("INVALID_MEASUREMENT_SERIES_EXCEPTION", null, new Object[]{from, to, maxPoints});
+        }
+        final RecordingDeviceDataMaster latestData = recordingDeviceDataDAO.fetchLatestPatientMeasurement(patientUUID, attributeId);
+        if (latestData == null) {
+            return new MeasurementSeries(attributeId, from == null ? null : new Timestamp(from), to == null ? null : new Timestamp(to), null);
+        }
+        final Timestamp toTime = to != null ? new Timestamp(to) : new Timestamp(latestData.getDataValueTime().getTime() + 1);
+        final Timestamp fromTime = from != null ? new Timestamp(from) : recordingDeviceDataDAO.fetchFirstPatientMeasurementTime(patientUUID, attributeId);
+        final long bucketWidth = Math.max(1, (toTime.getTime() - fromTime.getTime() + points - 1) / points);
+        // one more measurement than will fit is read, which shows whether the range has to be bucketed
+        List<MeasurementBucketRow> bucketRows = recordingDeviceDataDAO.fetchPatientMeasurementPoints(patientUUID, attributeId, fromTime, toTime, points + 1);
+        final MeasurementSeries series;
+        if (bucketRows.size() <= points) {
+            series = new MeasurementSeries(attributeId, fromTime, toTime, null);
+        } else {
+            series = new MeasurementSeries(attributeId, fromTime, toTime, bucketWidth);
+            bucketRows = recordingDeviceDataDAO.fetchPatientMeasurementBuckets(patientUUID, attributeId, fromTime, toTime, bucketWidth);
+        }
+        for (MeasurementBucketRow bucketRow : bucketRows) {
+            series.getBuckets().add(new MeasurementBucket(bucketRow.getFirstDataValueTime(), bucketRow.getLastDataValueTime(), bucketRow.getMeasurementCount(), bucketRow.getMinValue(), bucketRow.getMaxValue(), bucketRow.getMeanValue()));
+        }
+        series.setThresholds(getThresholdIntervals(patientUUID, attributeId, series.getBuckets()));
+
+        final Measurement latestMeasurement = this.mapperFacade.map(latestData, Measurement.class);
+        if (TimestampUtil.getCurentTimestamp().after(latestData.getScheduleExpiryTime())) {
+            latestMeasurement.setAlertStatus("EXPIRED_MEASUREMENT");
+        } else if (TimestampUtil.getCurentTimestamp().before(latestData.getScheduleEffectiveTime())) {
+            latestMeasurement.setAlertStatus("FUTURE_MEASUREMENT");
+        }
+        series.setLatestMeasurement(latestMeasurement);
+        return series;
+    }
+
+    private List<ThresholdInterval> getThresholdIntervals(final String patientUUID, final Integer attributeId, final List<MeasurementBucket> buckets) throws Exception {
+        final List<AttributeThresholdMaster> attributeThresholdMasters = attributeThresholdDAO.fetchPatientAttributeThresholds(patientUUID, attributeId);
+        // buckets grouped by the type of the threshold effective at their latest measurement
+        final Map<String, List<Integer>> bucketsByThresholdType = new LinkedHashMap<String, List<Integer>>();
+        int thresholdIndex = -1;
+        for (int i = 0; i < buckets.size(); i++) {
+            while (thresholdIndex + 1 < attributeThresholdMasters.size() && !attributeThresholdMasters.get(thresholdIndex + 1).getEffectiveDate().after(buckets.get(i).getLastDataTime())) {
+                thresholdIndex++;
+            }
+            if (thresholdIndex >= 0) {
+                final String thresholdType = attributeThresholdMasters.get(thresholdIndex).getThresholdType();
+                if (!bucketsByThresholdType.containsKey(thresholdType)) {
+                    bucketsByThresholdType.put(thresholdType, new ArrayList<Integer>());
+                }
+                bucketsByThresholdType.get(thresholdType).add(i);
+            }
+        }
+        final List<List<Double>> bucketThresholds = new ArrayList<List<Double>>(buckets.size());
+        for (int i = 0; i < buckets.size(); i++) {
+            bucketThresholds.add(null);
+        }
+        for (Map.Entry<String, List<Integer>> entry : bucketsByThresholdType.entrySet()) {
+            final List<Date> dataValueTimes = new ArrayList<Date>();
+            final List<String> dataValues = new ArrayList<String>();
+            for (Integer index : entry.getValue()) {
+                dataValueTimes.add(buckets.get(index).getLastDataTime());
+                dataValues.add(String.valueOf(buckets.get(index).getMeanValue()));
+            }
+            final List<List<Double>> thresholdsList = thresholdTestFactory.getInstance(entry.getKey()).getThresholds(attributeId, patientUUID, dataValueTimes, dataValues);
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                bucketThresholds.set(entry.getValue().get(i), thresholdsList.get(i));
+            }
+        }
+        // consecutive buckets with the same thresholds make up one interval, which lasts until the thresholds next change
+        final List<ThresholdInterval> intervals = new ArrayList<ThresholdInterval>();
+        ThresholdInterval interval = null;
+        for (int i = 0; i < buckets.size(); i++) {
+            final List<Double> thresholds = bucketThresholds.get(i);
+            final Double minValue = thresholds == null ? null : thresholds.get(0);
+            final Double maxValue = thresholds == null ? null : thresholds.get(1);
+            if (interval != null && equal(interval.getMinValue(), minValue) && equal(interval.getMaxValue(), maxValue)) {
+                interval.setToTime(buckets.get(i).getLastDataTime());
+                continue;
+            }
+            if (interval != null) {
+                interval.setToTime(buckets.get(i).getFirstDataTime());
+                interval = null;
+            }
+            if (minValue != null || maxValue != null) {
+                interval = new ThresholdInterval(buckets.get(i).getFirstDataTime(), buckets.get(i).getLastDataTime(), minValue, maxValue);
+                intervals.add(interval);
+            }
+        }
+        return intervals;
+    }
+
+    private static boolean equal(final Double first, final Double second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /*
+     * Everything shown when a patient is opened, read in one transaction. The attributes for all the plots are read in a
+     * single query and then divided between them, so an attribute named in more than one list appears in each.
+     */
+    @Transactional(rollbackFor = {Exception.class})
+    public PatientView getPatientView(final String patientUUID, final List<String> similarAttributes, final List<String> bloodPressureAttributes, final List<String> questionnaireAttributes) throws DefaultWrappedException {
+        final PatientView patientView = new PatientView(getPatientDetails(patientUUID));
+        final Set<String> attributeNames = new HashSet<String>(similarAttributes);
+        attributeNames.addAll(bloodPressureAttributes);
+        attributeNames.addAll(questionnaireAttributes);
+        final List<RecordingDeviceAttributeMaster> patientAttributesWithData = recordingDeviceDataDAO.fetchPatientAttributesHavingData(patientUUID, new ArrayList<String>(attributeNames));
+        for (RecordingDeviceAttributeMaster patientAttribute : patientAttributesWithData) {
+            final RecordingDeviceAttribute recordingDeviceAttribute = mapperFacade.map(patientAttribute, RecordingDeviceAttribute.class);
+            if (similarAttributes.contains(recordingDeviceAttribute.getAttributeName())) {
+                patientView.getSimilarDeviceAttributes().add(recordingDeviceAttribute);
+            }
+            if (bloodPressureAttributes.contains(recordingDeviceAttribute.getAttributeName())) {
+                patientView.getBloodPressureDeviceAttributes().add(recordingDeviceAttribute);
+            }
+            if (questionnaireAttributes.contains(recordingDeviceAttribute.getAttributeName())) {
+                patientView.getQuestionnaireDeviceAttributes().add(recordingDeviceAttribute);
+            }
+        }
+        return patientView;
+    }
+
     @Transactional(rollbackFor = {Exception.class})
     public List<RecordingDeviceAttribute> getPatientAttributesWithDevices(final String patientUUID, final List<String> attributeNames) {
         List<RecordingDeviceAttribute> recordingDeviceAttributes = new ArrayList<RecordingDeviceAttribute>();
@@ -29,7 +29,9 @@ public interface ServiceURLMappings {
 		String GET_PATIENT = CommonConstants.Separators.URL_SEPARATOR;
 		String GET_PATIENT_RECENT_MEASURMENTS = "/recentMeasurements/";
 		String GET_PATIENT_MEASURMENTS = "/patientMeasurements/";
+		String GET_PATIENT_MEASUREMENT_SERIES = "/patientMeasurementSeries/";
 		String GET_PATIENT_ATTRIBUTES = "/patientAttributes/";
+		String GET_PATIENT_VIEW = "/patientView/";
 	}
 
 	interface AttributeThresholdServiceController {
@@ -0,0 +1,183 @@
+/*
+ *
+ * Copyright (C) 2016 Krishna Kuntala @ Mastek <krishna.kuntala@mastek.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.gov.nhs.digital.telehealth.clinician.service.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Properties;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.DockerImageName;
+
+/**
+ * Tests for the measurement series queries against PostgreSQL loaded with the clinical DDL. Docker is needed to run
+ * PostgreSQL; without it the tests are skipped.
+ */
+public class RecordingDeviceDataDAOImplTest {
+
+	private static final String PATIENT = "d9bc2478-062e-4b87-9060-4984f26b74be";
+	private static final Integer ATTRIBUTE = 1;
+	private static final long MINUTE = 60 * 1000L;
+	private static final long START = 1490000000000L;
+	// one measurement a minute, numbered from 0 so that the data_ids are also bucket indexes
+	private static final int MEASUREMENTS = 10;
+
+	private static PostgreSQLContainer<?> postgres;
+	private static LocalContainerEntityManagerFactoryBean entityManagerFactoryBean;
+
+	private EntityManager entityManager;
+	private RecordingDeviceDataDAOImpl recordingDeviceDataDAO;
+
+	@BeforeClass
+	public static void loadDatabase() throws Exception {
+		Assume.assumeTrue("Docker is not available to run PostgreSQL", DockerClientFactory.instance().isDockerAvailable());
+		postgres = new PostgreSQLContainer<>(DockerImageName.parse("postgres:11-alpine"));
+		postgres.start();
+
+		try(Connection connection = DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword()); Statement statement = connection.createStatement()) {
+			statement.execute(new String(Files.readAllBytes(Paths.get("..", "..", "Database-Scripts", "MediPi-Clinical_DDL.sql")), StandardCharsets.UTF_8));
+			statement.execute("INSERT INTO patient_group (patient_group_uuid, patient_group_name) VALUES ('group', 'group')");
+			statement.execute("INSERT INTO patient (patient_uuid, patient_group_uuid) VALUES ('" + PATIENT + "', 'group')");
+			statement.execute("INSERT INTO recording_device_type (type_id, type, display_name) VALUES (1, 'Pulse Oximeter', 'Pulse Oximeter')");
+			statement.execute("INSERT INTO recording_device_attribute (attribute_id, attribute_name, type_id, attribute_type) VALUES (" + ATTRIBUTE + ", 'pulse', 1, 'INTEGER')");
+			try(PreparedStatement insert = connection.prepareStatement("INSERT INTO recording_device_data (data_id, attribute_id, data_value, data_value_numeric, patient_uuid, data_value_time, downloaded_time) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+				for(int i = 0; i < MEASUREMENTS; i++) {
+					insert.setLong(1, i);
+					insert.setInt(2, ATTRIBUTE);
+					insert.setString(3, Integer.toString(value(i)));
+					insert.setDouble(4, value(i));
+					insert.setString(5, PATIENT);
+					insert.setTimestamp(6, new Timestamp(START + i * MINUTE));
+					insert.setTimestamp(7, new Timestamp(START + i * MINUTE));
+					insert.executeUpdate();
+				}
+			}
+		}
+
+		final DriverManagerDataSource dataSource = new DriverManagerDataSource(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+		dataSource.setDriverClassName("org.postgresql.Driver");
+		final Properties jpaProperties = new Properties();
+		jpaProperties.setProperty("hibernate.dialect", "org.hibernate.dialect.PostgreSQL9Dialect");
+		jpaProperties.setProperty("hibernate.ejb.naming_strategy", "org.hibernate.cfg.ImprovedNamingStrategy");
+		entityManagerFactoryBean = new LocalContainerEntityManagerFactoryBean();
+		entityManagerFactoryBean.setDataSource(dataSource);
+		entityManagerFactoryBean.setPackagesToScan("uk.gov.nhs.digital.telehealth.clinician.service.entities");
+		entityManagerFactoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+		entityManagerFactoryBean.setJpaProperties(jpaProperties);
+		entityManagerFactoryBean.afterPropertiesSet();
+	}
+
+	@AfterClass
+	public static void stopDatabase() {
+		if(entityManagerFactoryBean != null) {
+			entityManagerFactoryBean.destroy();
+		}
+		if(postgres != null) {
+			postgres.stop();
+		}
+	}
+
+	@Before
+	public void setUp() {
+		final EntityManagerFactory entityManagerFactory = entityManagerFactoryBean.getObject();
+		entityManager = entityManagerFactory.createEntityManager();
+		recordingDeviceDataDAO = new RecordingDeviceDataDAOImpl();
+		recordingDeviceDataDAO.setEntityManager(entityManager);
+	}
+
+	@After
+	public void tearDown() {
+		entityManager.close();
+	}
+
+	@Test
+	public void pointsAreEachMeasurementInTimeOrder() {
+		final List<MeasurementBucketRow> points = recordingDeviceDataDAO.fetchPatientMeasurementPoints(PATIENT, ATTRIBUTE, new Timestamp(START), new Timestamp(START + MEASUREMENTS * MINUTE), MEASUREMENTS + 1);
+
+		assertEquals(MEASUREMENTS, points.size());
+		for(int i = 0; i < MEASUREMENTS; i++) {
+			assertRow(points.get(i), i, START + i * MINUTE, START + i * MINUTE, 1, value(i), value(i), value(i));
+		}
+	}
+
+	@Test
+	public void pointsAreLimitedToMaxResults() {
+		final List<MeasurementBucketRow> points = recordingDeviceDataDAO.fetchPatientMeasurementPoints(PATIENT, ATTRIBUTE, new Timestamp(START), new Timestamp(START + MEASUREMENTS * MINUTE), 4);
+
+		assertEquals(4, points.size());
+		assertRow(points.get(3), 3, START + 3 * MINUTE, START + 3 * MINUTE, 1, value(3), value(3), value(3));
+	}
+
+	@Test
+	public void bucketsReadAfterPointsAreNotTakenForThePoints() {
+		// the series reads the points first and then the buckets in the same persistence context
+		recordingDeviceDataDAO.fetchPatientMeasurementPoints(PATIENT, ATTRIBUTE, new Timestamp(START), new Timestamp(START + MEASUREMENTS * MINUTE), MEASUREMENTS + 1);
+		final List<MeasurementBucketRow> buckets = recordingDeviceDataDAO.fetchPatientMeasurementBuckets(PATIENT, ATTRIBUTE, new Timestamp(START), new Timestamp(START + MEASUREMENTS * MINUTE), 3 * MINUTE);
+
+		assertEquals(4, buckets.size());
+		assertRow(buckets.get(0), 0, START, START + 2 * MINUTE, 3, value(0), value(2), value(1));
+		assertRow(buckets.get(1), 1, START + 3 * MINUTE, START + 5 * MINUTE, 3, value(3), value(5), value(4));
+		assertRow(buckets.get(2), 2, START + 6 * MINUTE, START + 8 * MINUTE, 3, value(6), value(8), value(7));
+		assertRow(buckets.get(3), 3, START + 9 * MINUTE, START + 9 * MINUTE, 1, value(9), value(9), value(9));
+	}
+
+	@Test
+	public void bucketsAreBoundedByTheRange() {
+		final List<MeasurementBucketRow> buckets = recordingDeviceDataDAO.fetchPatientMeasurementBuckets(PATIENT, ATTRIBUTE, new Timestamp(START + 2 * MINUTE), new Timestamp(START + 6 * MINUTE), 2 * MINUTE);
+
+		assertEquals(2, buckets.size());
+		assertRow(buckets.get(0), 0, START + 2 * MINUTE, START + 3 * MINUTE, 2, value(2), value(3), (value(2) + value(3)) / 2.0);
+		assertRow(buckets.get(1), 1, START + 4 * MINUTE, START + 5 * MINUTE, 2, value(4), value(5), (value(4) + value(5)) / 2.0);
+	}
+
+	private static int value(final int i) {
+		return 60 + i * 2;
+	}
+
+	private static void assertRow(final MeasurementBucketRow row, final long bucket, final long firstTime, final long lastTime, final long count, final double minValue, final double maxValue, final double meanValue) {
+		assertEquals(Long.valueOf(bucket), row.getBucket());
+		assertEquals(firstTime, row.getFirstDataValueTime().getTime());
+		assertEquals(lastTime, row.getLastDataValueTime().getTime());
+		assertEquals(Long.valueOf(count), row.getMeasurementCount());
+		assertEquals(minValue, row.getMinValue(), 0.0001);
+		assertEquals(maxValue, row.getMaxValue(), 0.0001);
+		assertEquals(meanValue, row.getMeanValue(), 0.0001);
+	}
+}
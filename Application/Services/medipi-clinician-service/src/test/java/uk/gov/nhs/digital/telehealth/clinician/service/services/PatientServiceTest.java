@@ -0,0 +1,300 @@
+/*
+ *
+ * Copyright (C) 2016 Krishna Kuntala @ Mastek <krishna.kuntala@mastek.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package uk.gov.nhs.digital.telehealth.clinician.service.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ma.glasnost.orika.MapperFacade;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.medipi.clinical.threshold.AttributeThresholdTest;
+import org.medipi.clinical.threshold.ThresholdTestFactory;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import uk.gov.nhs.digital.telehealth.clinician.service.dao.impl.AttributeThresholdDAO;
+import uk.gov.nhs.digital.telehealth.clinician.service.dao.impl.MeasurementBucketRow;
+import uk.gov.nhs.digital.telehealth.clinician.service.dao.impl.RecordingDeviceDataDAO;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.Measurement;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.MeasurementBucket;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.MeasurementSeries;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.ThresholdInterval;
+import uk.gov.nhs.digital.telehealth.clinician.service.entities.AttributeThresholdMaster;
+import uk.gov.nhs.digital.telehealth.clinician.service.entities.RecordingDeviceDataMaster;
+
+import com.dev.ops.exceptions.impl.DefaultWrappedException;
+
+/**
+ * Tests for the measurement series, with the DAOs and the threshold tests mocked.
+ */
+public class PatientServiceTest {
+
+	private static final String PATIENT = "d9bc2478-062e-4b87-9060-4984f26b74be";
+	private static final Integer ATTRIBUTE = 7;
+	private static final long HOUR = 60 * 60 * 1000L;
+	private static final long START = 1490000000000L;
+
+	private PatientService patientService;
+	private RecordingDeviceDataDAO recordingDeviceDataDAO;
+	private AttributeThresholdDAO attributeThresholdDAO;
+
+	// thresholds which the mocked threshold test returns for a bucket, by the time of the bucket's latest measurement
+	private Map<Long, List<Double>> thresholdsByTime;
+
+	// times which the mocked threshold test was asked for
+	private List<Date> thresholdTimes;
+
+	@Before
+	public void setUp() throws Exception {
+		recordingDeviceDataDAO = mock(RecordingDeviceDataDAO.class);
+		attributeThresholdDAO = mock(AttributeThresholdDAO.class);
+		thresholdsByTime = new HashMap<Long, List<Double>>();
+		thresholdTimes = new ArrayList<Date>();
+
+		final AttributeThresholdTest thresholdTest = mock(AttributeThresholdTest.class);
+		when(thresholdTest.getThresholds(anyInt(), anyString(), anyListOf(Date.class), anyListOf(String.class))).thenAnswer(new Answer<List<List<Double>>>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public List<List<Double>> answer(final InvocationOnMock invocation) {
+				final List<List<Double>> thresholds = new ArrayList<List<Double>>();
+				for (Date dataValueTime : (List<Date>) invocation.getArguments()[2]) {
+					thresholdTimes.add(dataValueTime);
+					thresholds.add(thresholdsByTime.get(dataValueTime.getTime()));
+				}
+				return thresholds;
+			}
+		});
+		final ThresholdTestFactory thresholdTestFactory = mock(ThresholdTestFactory.class);
+		when(thresholdTestFactory.getInstance(anyString())).thenReturn(thresholdTest);
+
+		final MapperFacade mapperFacade = mock(MapperFacade.class);
+		when(mapperFacade.map(any(RecordingDeviceDataMaster.class), eq(Measurement.class))).thenReturn(new Measurement());
+
+		patientService = new PatientService();
+		ReflectionTestUtils.setField(patientService, "recordingDeviceDataDAO", recordingDeviceDataDAO);
+		ReflectionTestUtils.setField(patientService, "attributeThresholdDAO", attributeThresholdDAO);
+		ReflectionTestUtils.setField(patientService, "thresholdTestFactory", thresholdTestFactory);
+		ReflectionTestUtils.setField(patientService, "mapperFacade", mapperFacade);
+		ReflectionTestUtils.setField(patientService, "seriesDefaultPoints", 200);
+		ReflectionTestUtils.setField(patientService, "seriesMaxPoints", 1000);
+
+		when(attributeThresholdDAO.fetchPatientAttributeThresholds(PATIENT, ATTRIBUTE)).thenReturn(new ArrayList<AttributeThresholdMaster>());
+	}
+
+	@Test
+	public void emptySeriesWithoutMeasurements() throws Exception {
+		final MeasurementSeries series = patientService.getPatientMeasurementSeries(PATIENT, ATTRIBUTE, null, null, null);
+		assertTrue(series.getBuckets().isEmpty());
+		assertTrue(series.getThresholds().isEmpty());
+		assertNull(series.getLatestMeasurement());
+	}
+
+	@Test(expected = DefaultWrappedException.class)
+	public void rangeMustEndAfterItStarts() throws Exception {
+		patientService.getPatientMeasurementSeries(PATIENT, ATTRIBUTE, START, START, null);
+	}
+
+	@Test
+	public void fewMeasurementsAreReturnedAsTheyAre() throws Exception {
+		latestMeasurementAt(START + 2 * HOUR);
+		when(recordingDeviceDataDAO.fetchPatientMeasurementPoints(eq(PATIENT), eq(ATTRIBUTE), any(Timestamp.class), any(Timestamp.class), eq(4))).thenReturn(Arrays.asList(point(START, 88), point(START + HOUR, 97), point(START + 2 * HOUR, 96)));
+
+		final MeasurementSeries series = patientService.getPatientMeasurementSeries(PATIENT, ATTRIBUTE, START, START + 3 * HOUR, 3);
+
+		verify(recordingDeviceDataDAO, never()).fetchPatientMeasurementBuckets(anyString(), anyInt(), any(Timestamp.class), any(Timestamp.class), anyLong());
+		assertNull(series.getBucketWidth());
+		assertEquals(3, series.getBuckets().size());
+		final MeasurementBucket dip = series.getBuckets().get(0);
+		assertEquals(Long.valueOf(1), dip.getCount());
+		assertEquals(88, dip.getMinValue(), 0);
+		assertEquals(88, dip.getMeanValue(), 0);
+		assertEquals(88, dip.getMaxValue(), 0);
+	}
+
+	@Test
+	public void moreMeasurementsThanPointsAreBucketed() throws Exception {
+		latestMeasurementAt(START + 999);
+		when(recordingDeviceDataDAO.fetchPatientMeasurementPoints(eq(PATIENT), eq(ATTRIBUTE), any(Timestamp.class), any(Timestamp.class), eq(11))).thenReturn(points(11));
+		when(recordingDeviceDataDAO.fetchPatientMeasurementBuckets(PATIENT, ATTRIBUTE, new Timestamp(START), new Timestamp(START + 1000), 100)).thenReturn(Arrays.asList(bucket(START, START + 99, 2, 88, 98), bucket(START + 100, START + 100, 1, 97, 97)));
+
+		final MeasurementSeries series = patientService.getPatientMeasurementSeries(PATIENT, ATTRIBUTE, START, START + 1000, 10);
+
+		assertEquals(Long.valueOf(100), series.getBucketWidth());
+		assertEquals(2, series.getBuckets().size());
+		assertEquals(88, series.getBuckets().get(0).getMinValue(), 0);
+		assertEquals(98, series.getBuckets().get(0).getMaxValue(), 0);
+	}
+
+	@Test
+	public void bucketsCoverTheWholeRange() throws Exception {
+		latestMeasurementAt(START + 1000);
+		when(recordingDeviceDataDAO.fetchPatientMeasurementPoints(eq(PATIENT), eq(ATTRIBUTE), any(Timestamp.class), any(Timestamp.class), eq(11))).thenReturn(points(11));
+
+		patientService.getPatientMeasurementSeries(PATIENT, ATTRIBUTE, START, START + 1001, 10);
+
+		// ten buckets of 100ms would stop short of the last millisecond of the range
+		verify(recordingDeviceDataDAO).fetchPatientMeasurementBuckets(PATIENT, ATTRIBUTE, new Timestamp(START), new Timestamp(START + 1001), 101);
+	}
+
+	@Test
+	public void defaultRangeIncludesTheLatestMeasurement() throws Exception {
+		latestMeasurementAt(START + 5000);
+		when(recordingDeviceDataDAO.fetchFirstPatientMeasurementTime(PATIENT, ATTRIBUTE)).thenReturn(new Timestamp(START + 1000));
+		when(recordingDeviceDataDAO.fetchPatientMeasurementPoints(eq(PATIENT), eq(ATTRIBUTE), any(Timestamp.class), any(Timestamp.class), eq(3))).thenReturn(points(3));
+
+		patientService.getPatientMeasurementSeries(PATIENT, ATTRIBUTE, null, null, 2);
+
+		// the end of the range is exclusive so it is just after the latest measurement
+		verify(recordingDeviceDataDAO).fetchPatientMeasurementBuckets(PATIENT, ATTRIBUTE, new Timestamp(START + 1000), new Timestamp(START + 5001), 2001);
+	}
+
+	@Test
+	public void pointsAreCappedAtTheMaximum() throws Exception {
+		latestMeasurementAt(START);
+		when(recordingDeviceDataDAO.fetchPatientMeasurementPoints(eq(PATIENT), eq(ATTRIBUTE), any(Timestamp.class), any(Timestamp.class), anyInt())).thenReturn(points(1));
+
+		patientService.getPatientMeasurementSeries(PATIENT, ATTRIBUTE, START, START + HOUR, 5000);
+
+		verify(recordingDeviceDataDAO).fetchPatientMeasurementPoints(PATIENT, ATTRIBUTE, new Timestamp(START), new Timestamp(START + HOUR), 1001);
+	}
+
+	@Test
+	public void equalThresholdsAreMergedIntoOneInterval() throws Exception {
+		latestMeasurementAt(START + 3 * HOUR);
+		when(recordingDeviceDataDAO.fetchPatientMeasurementPoints(eq(PATIENT), eq(ATTRIBUTE), any(Timestamp.class), any(Timestamp.class), anyInt())).thenReturn(Arrays.asList(point(START, 95), point(START + HOUR, 96), point(START + 2 * HOUR, 94), point(START + 3 * HOUR, 93)));
+		when(attributeThresholdDAO.fetchPatientAttributeThresholds(PATIENT, ATTRIBUTE)).thenReturn(Arrays.asList(threshold(START)));
+		thresholdsByTime.put(START, Arrays.asList(90.0, 100.0));
+		thresholdsByTime.put(START + HOUR, Arrays.asList(90.0, 100.0));
+		thresholdsByTime.put(START + 2 * HOUR, Arrays.asList(92.0, 100.0));
+		thresholdsByTime.put(START + 3 * HOUR, Arrays.asList(92.0, 100.0));
+
+		final List<ThresholdInterval> intervals = patientService.getPatientMeasurementSeries(PATIENT, ATTRIBUTE, START, START + 4 * HOUR, 10).getThresholds();
+
+		assertEquals(2, intervals.size());
+		// an interval lasts until the first bucket with different thresholds
+		assertInterval(intervals.get(0), START, START + 2 * HOUR, 90.0, 100.0);
+		assertInterval(intervals.get(1), START + 2 * HOUR, START + 3 * HOUR, 92.0, 100.0);
+	}
+
+	@Test
+	public void noIntervalBeforeTheFirstThresholdIsEffective() throws Exception {
+		latestMeasurementAt(START + 2 * HOUR);
+		when(recordingDeviceDataDAO.fetchPatientMeasurementPoints(eq(PATIENT), eq(ATTRIBUTE), any(Timestamp.class), any(Timestamp.class), anyInt())).thenReturn(Arrays.asList(point(START, 95), point(START + HOUR, 96), point(START + 2 * HOUR, 94)));
+		// effective at exactly the time of the second measurement
+		when(attributeThresholdDAO.fetchPatientAttributeThresholds(PATIENT, ATTRIBUTE)).thenReturn(Arrays.asList(threshold(START + HOUR)));
+		thresholdsByTime.put(START + HOUR, Arrays.asList(90.0, 100.0));
+		thresholdsByTime.put(START + 2 * HOUR, Arrays.asList(90.0, 100.0));
+
+		final List<ThresholdInterval> intervals = patientService.getPatientMeasurementSeries(PATIENT, ATTRIBUTE, START, START + 3 * HOUR, 10).getThresholds();
+
+		assertEquals(Arrays.asList(new Date(START + HOUR), new Date(START + 2 * HOUR)), toDates(thresholdTimes));
+		assertEquals(1, intervals.size());
+		assertInterval(intervals.get(0), START + HOUR, START + 2 * HOUR, 90.0, 100.0);
+	}
+
+	@Test
+	public void bucketsWithoutThresholdsEndAnInterval() throws Exception {
+		latestMeasurementAt(START + 2 * HOUR);
+		when(recordingDeviceDataDAO.fetchPatientMeasurementPoints(eq(PATIENT), eq(ATTRIBUTE), any(Timestamp.class), any(Timestamp.class), anyInt())).thenReturn(Arrays.asList(point(START, 95), point(START + HOUR, 96), point(START + 2 * HOUR, 94)));
+		when(attributeThresholdDAO.fetchPatientAttributeThresholds(PATIENT, ATTRIBUTE)).thenReturn(Arrays.asList(threshold(START)));
+		thresholdsByTime.put(START, Arrays.asList(90.0, 100.0));
+		thresholdsByTime.put(START + HOUR, Arrays.asList((Double) null, null));
+		thresholdsByTime.put(START + 2 * HOUR, Arrays.asList(90.0, 100.0));
+
+		final List<ThresholdInterval> intervals = patientService.getPatientMeasurementSeries(PATIENT, ATTRIBUTE, START, START + 3 * HOUR, 10).getThresholds();
+
+		assertEquals(2, intervals.size());
+		assertInterval(intervals.get(0), START, START + HOUR, 90.0, 100.0);
+		assertInterval(intervals.get(1), START + 2 * HOUR, START + 2 * HOUR, 90.0, 100.0);
+	}
+
+	private void latestMeasurementAt(final long time) {
+		final RecordingDeviceDataMaster latestData = new RecordingDeviceDataMaster(1L, "95", new Timestamp(time), new Timestamp(time));
+		latestData.setScheduleEffectiveTime(new Timestamp(time - HOUR));
+		latestData.setScheduleExpiryTime(new Timestamp(time + HOUR));
+		when(recordingDeviceDataDAO.fetchLatestPatientMeasurement(PATIENT, ATTRIBUTE)).thenReturn(latestData);
+	}
+
+	private static List<MeasurementBucketRow> points(final int count) {
+		final List<MeasurementBucketRow> points = new ArrayList<MeasurementBucketRow>();
+		for (int i = 0; i < count; i++) {
+			points.add(point(START + i, 95));
+		}
+		return points;
+	}
+
+	private static MeasurementBucketRow point(final long time, final double value) {
+		return bucket(time, time, 1, value, value);
+	}
+
+	private static MeasurementBucketRow bucket(final long firstTime, final long lastTime, final long count, final double minValue, final double maxValue) {
+		final MeasurementBucketRow bucket = new MeasurementBucketRow();
+		bucket.setBucket(firstTime);
+		bucket.setFirstDataValueTime(new Timestamp(firstTime));
+		bucket.setLastDataValueTime(new Timestamp(lastTime));
+		bucket.setMeasurementCount(count);
+		bucket.setMinValue(minValue);
+		bucket.setMaxValue(maxValue);
+		bucket.setMeanValue((minValue + maxValue) / 2);
+		return bucket;
+	}
+
+	private static AttributeThresholdMaster threshold(final long effectiveTime) {
+		final AttributeThresholdMaster threshold = new AttributeThresholdMaster();
+		threshold.setThresholdType("org.medipi.clinical.threshold.NoChangeTest");
+		threshold.setEffectiveDate(new Timestamp(effectiveTime));
+		return threshold;
+	}
+
+	private static List<Date> toDates(final List<Date> times) {
+		final List<Date> dates = new ArrayList<Date>();
+		for (Date time : times) {
+			dates.add(new Date(time.getTime()));
+		}
+		return dates;
+	}
+
+	private static void assertInterval(final ThresholdInterval interval, final long fromTime, final long toTime, final Double minValue, final Double maxValue) {
+		assertEquals(fromTime, interval.getFromTime().getTime());
+		assertEquals(toTime, interval.getToTime().getTime());
+		assertEquals(minValue, interval.getMinValue());
+		assertEquals(maxValue, interval.getMaxValue());
+	}
+}
@@ -17,10 +17,16 @@
  */
 package uk.gov.nhs.digital.telehealth.clinician.web.configurations;
 
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.web.WebMvcAutoConfiguration.WebMvcAutoConfigurationAdapter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
@@ -39,6 +45,15 @@ public class WebApplicationConfig extends WebMvcAutoConfigurationAdapter {
 	@Autowired
 	private HandlerInterceptor contextInfoInterceptor;
 
+	@Value("${medipi.clinician.web.service.max.connections:20}")
+	private int serviceMaxConnections;
+
+	@Value("${medipi.clinician.web.service.connect.timeout:5000}")
+	private int serviceConnectTimeout;
+
+	@Value("${medipi.clinician.web.service.read.timeout:30000}")
+	private int serviceReadTimeout;
+
 	@Override
 	public void addResourceHandlers(final ResourceHandlerRegistry registry) {
 		registry.addResourceHandler("/js/*");
@@ -66,8 +81,21 @@ public class WebApplicationConfig extends WebMvcAutoConfigurationAdapter {
 		return resolver;
 	}
 
+	/*
+	 * All requests to the clinician service share a pool of keep-alive connections rather than opening a connection
+	 * per request. Every request goes to the same host so the whole pool is available to that route.
+	 */
+	@Bean(destroyMethod = "close")
+	public CloseableHttpClient clinicianServiceHttpClient() {
+		final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(serviceMaxConnections);
+		connectionManager.setDefaultMaxPerRoute(serviceMaxConnections);
+		final RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(serviceConnectTimeout).setConnectionRequestTimeout(serviceConnectTimeout).setSocketTimeout(serviceReadTimeout).build();
+		return HttpClients.custom().setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig).build();
+	}
+
 	@Bean
 	public RestTemplate restTemplate() {
-		return new RestTemplate();
+		return new RestTemplate(new HttpComponentsClientHttpRequestFactory(clinicianServiceHttpClient()));
 	}
 }
\ No newline at end of file
@@ -45,6 +45,7 @@ public interface WebConstants {
 			String READ_ALL = WebConstants.Operations.READ_ALL + Patient.class.getSimpleName();
 			String DELETE = WebConstants.Operations.DELETE + Patient.class.getSimpleName();
 			String PATIENT_MEASUREMENTS = "Patient Measurements " + Patient.class.getSimpleName();
+			String PATIENT_MEASUREMENT_SERIES = "Patient Measurement Series " + Patient.class.getSimpleName();
 		}
 
 		interface AttributeThreshold {
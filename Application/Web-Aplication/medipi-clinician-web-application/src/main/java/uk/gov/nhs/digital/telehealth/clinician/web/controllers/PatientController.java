@@ -28,16 +28,23 @@ import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import uk.gov.nhs.digital.telehealth.clinician.service.domain.Measurement;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.MeasurementSeries;
 import uk.gov.nhs.digital.telehealth.clinician.service.domain.Patient;
+import uk.gov.nhs.digital.telehealth.clinician.service.domain.PatientView;
 import uk.gov.nhs.digital.telehealth.clinician.service.domain.RecordingDeviceAttribute;
 import uk.gov.nhs.digital.telehealth.clinician.service.entities.Clinician;
 import uk.gov.nhs.digital.telehealth.clinician.service.url.mappings.ServiceURLMappings;
@@ -85,37 +92,50 @@ public class PatientController extends BaseController {
 		return modelAndView;
 	}
 
-	@SuppressWarnings("unchecked")
+	/*
+	 * The browser's If-None-Match is passed on to the clinician service, which responds with 304 Not Modified while the
+	 * group's dashboard is unchanged, so an unchanged dashboard is neither rebuilt, transferred nor redrawn.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
 	@RequestMapping(value = "/patientsJSON", method = RequestMethod.GET)
 	@ResponseBody
-	public List<Patient> getPatients(final HttpServletRequest request) throws DefaultWrappedException {
+	public List<Patient> getPatients(final HttpServletRequest request, final WebRequest webRequest) throws DefaultWrappedException {
 		final HttpEntity<?> entity = HttpUtil.getEntityWithHeaders(WebConstants.Operations.Patient.READ_ALL, null);
+		final HttpHeaders headers = new HttpHeaders();
+		headers.putAll(entity.getHeaders());
+		final String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if(ifNoneMatch != null) {
+			headers.set(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+		}
 		Clinician clinician = getClinicianFromSecurityContext();
-		return this.restTemplate.exchange(this.clinicianServiceURL + ServiceURLMappings.PatientServiceController.CONTROLLER_MAPPING + ServiceURLMappings.PatientServiceController.GET_PATIENTS_BY_GROUP + clinician.getPatientGroup().getPatientGroupId(), HttpMethod.GET, entity, List.class).getBody();
+		final ResponseEntity<List> response = this.restTemplate.exchange(this.clinicianServiceURL + ServiceURLMappings.PatientServiceController.CONTROLLER_MAPPING + ServiceURLMappings.PatientServiceController.GET_PATIENTS_BY_GROUP + clinician.getPatientGroup().getPatientGroupId(), HttpMethod.GET, new HttpEntity<String>(headers), List.class);
+		final String eTag = response.getHeaders().getETag();
+		if(eTag != null && webRequest.checkNotModified(eTag)) {
+			return null;
+		}
+		return response.getBody();
 	}
 
-	@SuppressWarnings("unchecked")
 	@RequestMapping(value = "/{patientUUID}", method = RequestMethod.GET)
 	@ResponseBody
 	public ModelAndView getPatient(@PathVariable final String patientUUID, final ModelAndView modelAndView, final HttpServletRequest request) throws DefaultWrappedException, IOException {
 		LOGGER.debug("Get patient details for patient id:<" + patientUUID + ">.");
 		Clinician clinician = getClinicianFromSecurityContext();
 		final HttpEntity<?> entity = HttpUtil.getEntityWithHeaders(WebConstants.Operations.Patient.READ, null);
-		final Patient patient = this.restTemplate.exchange(this.clinicianServiceURL + ServiceURLMappings.PatientServiceController.CONTROLLER_MAPPING + ServiceURLMappings.PatientServiceController.GET_PATIENT + patientUUID, HttpMethod.GET, entity, Patient.class).getBody();
+		//The patient and the attributes for all the plots are read by the clinician service in a single request
+		final PatientView patientView = this.restTemplate.exchange(this.clinicianServiceURL + ServiceURLMappings.PatientServiceController.CONTROLLER_MAPPING + ServiceURLMappings.PatientServiceController.GET_PATIENT_VIEW + patientUUID + "/" + similarPlotAttributes + "/" + bloodPressureSystolAttribute + "," + bloodPressureDiastolAttribute + "/" + questionnnaireAttributes, HttpMethod.GET, entity, PatientView.class).getBody();
+		final Patient patient = patientView.getPatient();
 		if(!StringUtils.equals(clinician.getPatientGroup().getPatientGroupId(), patient.getPatientGroupId())) {
 			LOGGER.warn("The " + clinician + " tried to access " + patient + " details from other group.");
 			throw new DefaultWrappedException("You are not authorized to access the patient details.");
 		}
 		modelAndView.addObject("patient", patient);
+		modelAndView.addObject("similarDeviceAttributes", patientView.getSimilarDeviceAttributes());
 
-		final List<RecordingDeviceAttribute> similarDeviceAttributes = this.restTemplate.exchange(this.clinicianServiceURL + ServiceURLMappings.PatientServiceController.CONTROLLER_MAPPING + ServiceURLMappings.PatientServiceController.GET_PATIENT_ATTRIBUTES + patientUUID + "/" + similarPlotAttributes, HttpMethod.GET, entity, List.class).getBody();
-		modelAndView.addObject("similarDeviceAttributes", similarDeviceAttributes);
+		final List<RecordingDeviceAttribute> bloodPressureDeviceAttributes = patientView.getBloodPressureDeviceAttributes();
+		modelAndView.addObject("bloodPressureDeviceAttributesList", BloodPressureDeviceAttributes.getBloodPressureDeviceAttributes(bloodPressureDeviceAttributes.toArray(new RecordingDeviceAttribute[bloodPressureDeviceAttributes.size()]), bloodPressureSystolAttribute, bloodPressureDiastolAttribute));
 
-		final RecordingDeviceAttribute[] bloodPressureDeviceAttributes = this.restTemplate.exchange(this.clinicianServiceURL + ServiceURLMappings.PatientServiceController.CONTROLLER_MAPPING + ServiceURLMappings.PatientServiceController.GET_PATIENT_ATTRIBUTES + patientUUID + "/" + bloodPressureSystolAttribute + "," + bloodPressureDiastolAttribute, HttpMethod.GET, entity, RecordingDeviceAttribute[].class).getBody();
-		modelAndView.addObject("bloodPressureDeviceAttributesList", BloodPressureDeviceAttributes.getBloodPressureDeviceAttributes(bloodPressureDeviceAttributes, bloodPressureSystolAttribute, bloodPressureDiastolAttribute));
-
-		final List<RecordingDeviceAttribute> questionnaireDeviceAttributes = this.restTemplate.exchange(this.clinicianServiceURL + ServiceURLMappings.PatientServiceController.CONTROLLER_MAPPING + ServiceURLMappings.PatientServiceController.GET_PATIENT_ATTRIBUTES + patientUUID + "/" + questionnnaireAttributes, HttpMethod.GET, entity, List.class).getBody();
-		modelAndView.addObject("questionnaireDeviceAttributes", questionnaireDeviceAttributes);
+		modelAndView.addObject("questionnaireDeviceAttributes", patientView.getQuestionnaireDeviceAttributes());
 
 		modelAndView.setViewName("patient/viewPatient");
 		return modelAndView;
@@ -129,4 +149,21 @@ public class PatientController extends BaseController {
 		final List<Measurement> measurements = this.restTemplate.exchange(this.clinicianServiceURL + ServiceURLMappings.PatientServiceController.CONTROLLER_MAPPING + ServiceURLMappings.PatientServiceController.GET_PATIENT_MEASURMENTS + patientUUID + "/" + attributeId, HttpMethod.GET, entity, (Class<List<Measurement>>) (Class) List.class).getBody();
 		return measurements;
 	}
+
+	@RequestMapping(value = "/patientMeasurementSeries/{patientUUID}/{attributeId}", method = RequestMethod.GET)
+	@ResponseBody
+	public MeasurementSeries patientMeasurementSeries(@PathVariable final String patientUUID, @PathVariable final Integer attributeId, @RequestParam(required = false) final Long from, @RequestParam(required = false) final Long to, @RequestParam(required = false) final Integer maxPoints, final HttpServletRequest request) throws DefaultWrappedException {
+		final HttpEntity<?> entity = HttpUtil.getEntityWithHeaders(WebConstants.Operations.Patient.PATIENT_MEASUREMENT_SERIES, null);
+		final UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromHttpUrl(this.clinicianServiceURL + ServiceURLMappings.PatientServiceController.CONTROLLER_MAPPING + ServiceURLMappings.PatientServiceController.GET_PATIENT_MEASUREMENT_SERIES + patientUUID + "/" + attributeId);
+		if(from != null) {
+			uriBuilder.queryParam("from", from);
+		}
+		if(to != null) {
+			uriBuilder.queryParam("to", to);
+		}
+		if(maxPoints != null) {
+			uriBuilder.queryParam("maxPoints", maxPoints);
+		}
+		return this.restTemplate.exchange(uriBuilder.build().toUri(), HttpMethod.GET, entity, MeasurementSeries.class).getBody();
+	}
 }
\ No newline at end of file
@@ -34,6 +34,63 @@ Array.prototype.mapQuestionnaireColor = function (property) {
     });
 };
 
+/**
+ * Maps each object to the threshold value in force at its time. The thresholds are
+ * intervals in time order, as returned with a measurement series.
+ */
+Array.prototype.mapThreshold = function (thresholds, timeProperty, thresholdProperty) {
+	var index = 0;
+    return this.map(function (obj) {
+    	//an interval ends where the next one starts
+    	while(index < thresholds.length && (thresholds[index].toTime < obj[timeProperty] || (index + 1 < thresholds.length && thresholds[index + 1].fromTime <= obj[timeProperty]))) {
+    		index++;
+    	}
+    	if(index < thresholds.length && thresholds[index].fromTime <= obj[timeProperty] && thresholds[index][thresholdProperty] != null) {
+    		return thresholds[index][thresholdProperty];
+    	} else {
+    		return 0;
+    	}
+    });
+};
+
+/**
+ * Shades the band between two line datasets. A dataset with a fillBetween property is
+ * filled down to the dataset at that index, in its fillBetweenColor. The band is drawn
+ * behind everything already on the chart so the lines and tooltips stay on top.
+ */
+Chart.pluginService.register({
+	afterDraw: function (chart) {
+		var ctx = chart.chart.ctx;
+		chart.data.datasets.forEach(function (dataset, datasetIndex) {
+			if(dataset.fillBetween == null || !chart.isDatasetVisible(datasetIndex) || !chart.isDatasetVisible(dataset.fillBetween)) {
+				return;
+			}
+			var upper = chart.getDatasetMeta(datasetIndex).data;
+			var lower = chart.getDatasetMeta(dataset.fillBetween).data;
+			if(upper.length == 0 || upper.length != lower.length) {
+				return;
+			}
+			ctx.save();
+			ctx.beginPath();
+			ctx.rect(chart.chartArea.left, chart.chartArea.top, chart.chartArea.right - chart.chartArea.left, chart.chartArea.bottom - chart.chartArea.top);
+			ctx.clip();
+			ctx.globalCompositeOperation = 'destination-over';
+			ctx.beginPath();
+			ctx.moveTo(upper[0]._view.x, upper[0]._view.y);
+			for(var i = 1; i < upper.length; i++) {
+				ctx.lineTo(upper[i]._view.x, upper[i]._view.y);
+			}
+			for(var j = lower.length - 1; j >= 0; j--) {
+				ctx.lineTo(lower[j]._view.x, lower[j]._view.y);
+			}
+			ctx.closePath();
+			ctx.fillStyle = dataset.fillBetweenColor;
+			ctx.fill();
+			ctx.restore();
+		});
+	}
+});
+
 Array.prototype.lastObject = function() {
 	return this[this.length-1];
 };
@@ -8,8 +8,13 @@ $(document).ready(function() {
 (function getPatientsDetails() {
 	$.ajax( {
 		url: '/clinician/patient/patientsJSON',
-		success: function(patients) {
+		//Send the ETag of the last response so that an unchanged patient list is not sent or redrawn
+		ifModified: true,
+		success: function(patients, status) {
 			hideErrorDiv();
+			if(status === "notmodified") {
+				return;
+			}
 			$("#patientTiles").empty();
 			$.each(patients, function(counter, patient) {
 				$("#patientTiles").prepend(getPatientTile(patient));
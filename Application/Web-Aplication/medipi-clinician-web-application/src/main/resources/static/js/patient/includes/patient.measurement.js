@@ -4,10 +4,11 @@ var measurement = {
         var data = null;
         $.ajax({
             async: false,
-            url: "/clinician/patient/patientMeasurements/" + includeObject.patientUUID + "/" + includeObject.attributeId,
+            //The series is reduced to a fixed number of points by the server however much history there is. Fewer readings come back as they are
+            url: "/clinician/patient/patientMeasurementSeries/" + includeObject.patientUUID + "/" + includeObject.attributeId,
             dataType: "json",
-            success: function (measurements) {
-                data = measurements;
+            success: function (series) {
+                data = series;
             },
             error: function(request, status, error) {
             	showDefaultErrorDiv();
@@ -34,16 +35,17 @@ var measurement = {
         });
         return data;
     },
-    createChartData: function (jsonData, includeObject) {
+    createChartData: function (series, includeObject) {
+        var jsonData = series.buckets;
         return {
-            labels: jsonData.timeMapProperty('dataTime'),
+            labels: jsonData.timeMapProperty('lastDataTime'),
             datasets: [
                 {
                     label: "Min",
                     fill: false,
                     borderColor: 'rgba(255,89,89,1)',
                     backgroundColor: 'rgba(255,89,89,1)',
-                    data: jsonData.mapValue('minValue'),
+                    data: jsonData.mapThreshold(series.thresholds, 'lastDataTime', 'minValue'),
                     borderDash: [10, 7],
                     lineTension: 0
                 },
@@ -52,7 +54,30 @@ var measurement = {
                     borderColor: 'rgba(53,94,142,1)',
                     backgroundColor: 'rgba(53,94,142,1)',
                     fill: false,
-                    data: jsonData.mapValue('value'),
+                    data: jsonData.mapValue('meanValue'),
+                    lineTension: 0
+                },
+                //The lowest and highest readings in each bucket are shaded around the mean so a reading out of range is not hidden by averaging
+                {
+                    label: "Lowest reading",
+                    fill: false,
+                    borderColor: 'rgba(53,94,142,0.4)',
+                    backgroundColor: 'rgba(53,94,142,0.4)',
+                    borderWidth: 1,
+                    pointRadius: 0,
+                    data: jsonData.mapValue('minValue'),
+                    lineTension: 0
+                },
+                {
+                    label: "Highest reading",
+                    fill: false,
+                    fillBetween: 2,
+                    fillBetweenColor: 'rgba(53,94,142,0.15)',
+                    borderColor: 'rgba(53,94,142,0.4)',
+                    backgroundColor: 'rgba(53,94,142,0.4)',
+                    borderWidth: 1,
+                    pointRadius: 0,
+                    data: jsonData.mapValue('maxValue'),
                     lineTension: 0
                 },
                 {
@@ -60,7 +85,7 @@ var measurement = {
                     fill: false,
                     borderColor: 'rgba(196,0,0,1)',
                     backgroundColor: 'rgba(196,0,0,1)',
-                    data: jsonData.mapValue('maxValue'),
+                    data: jsonData.mapThreshold(series.thresholds, 'lastDataTime', 'maxValue'),
                     borderDash: [10, 5],
                     lineTension: 0
                 }
@@ -135,11 +160,11 @@ var measurement = {
     },
 
     initChart: function (includeObject) {
-        var measurements = measurement.getData(includeObject);
+        var series = measurement.getData(includeObject);
         var attributeThreshold = measurement.getLatestAttributeThreshold(includeObject);
-        chartData = measurement.createChartData(measurements, includeObject);
+        chartData = measurement.createChartData(series, includeObject);
         measurement.renderChart(chartData, includeObject);
-        measurement.updateRecentMeasuremnts(measurements.lastObject(), includeObject);
+        measurement.updateRecentMeasuremnts(series.latestMeasurement, includeObject);
         measurement.updateAttributeThreshold(attributeThreshold);
     }
 };
@@ -16,6 +16,7 @@
 package org.medipi.clinical.dao;
 
 import java.util.Date;
+import java.util.List;
 import org.medipi.clinical.entities.AttributeThreshold;
 
 /**
@@ -34,4 +35,22 @@ public interface AttributeThresholdDAO extends GenericDAO<AttributeThreshold> {
      * @return recording device attribute object 
      */
     public AttributeThreshold findLatestByAttributeAndPatientAndDate(int attributeId, String patientUuid, Date measurementDate);
+
+    /**
+     * Find all the thresholds for an attribute and patient in the order in
+     * which they became effective
+     *
+     * @param attributeId
+     * @param patientUuid
+     * @return list of attribute thresholds ordered by effective date
+     */
+    public List<AttributeThreshold> findByAttributeAndPatient(int attributeId, String patientUuid);
+
+    /**
+     * Find a version string for the whole attribute threshold table. Thresholds
+     * are only ever added so the version changes whenever a threshold does
+     *
+     * @return version of the attribute threshold table
+     */
+    public String findVersion();
 }
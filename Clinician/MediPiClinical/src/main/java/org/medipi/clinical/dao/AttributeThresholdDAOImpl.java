@@ -16,6 +16,7 @@
 package org.medipi.clinical.dao;
 
 import java.util.Date;
+import java.util.List;
 import org.medipi.clinical.entities.AttributeThreshold;
 import org.springframework.stereotype.Repository;
 
@@ -36,5 +37,20 @@ public class AttributeThresholdDAOImpl extends GenericDAOImpl<AttributeThreshold
                 .getSingleResult();
     }
 
+    @Override
+    public List<AttributeThreshold> findByAttributeAndPatient(int attributeId, String patientUuid) {
+        return this.getEntityManager().createNamedQuery("AttributeThreshold.findByAttributeAndPatient", AttributeThreshold.class)
+                .setParameter("attributeId", attributeId)
+                .setParameter("patientUuid", patientUuid)
+                .getResultList();
+    }
+
+    @Override
+    public String findVersion() {
+        Object[] version = this.getEntityManager().createNamedQuery("AttributeThreshold.findVersion", Object[].class)
+                .getSingleResult();
+        return version[0] + ":" + version[1];
+    }
+
 
 }
@@ -15,6 +15,7 @@
  */
 package org.medipi.clinical.dao;
 
+import java.util.List;
 import org.medipi.clinical.entities.DirectMessageText;
 
 
@@ -24,4 +25,11 @@ import org.medipi.clinical.entities.DirectMessageText;
  */
 public interface DirectMessageTextDAO extends GenericDAO<DirectMessageText> {
     public DirectMessageText findByDirectMessageTextId(String directMessageTextId);
+
+    /**
+     * Find all the direct message texts
+     *
+     * @return list of all direct message texts
+     */
+    public List<DirectMessageText> findAll();
             }
@@ -15,6 +15,7 @@
  */
 package org.medipi.clinical.dao;
 
+import java.util.List;
 import org.medipi.clinical.entities.DirectMessageText;
 import org.springframework.stereotype.Repository;
 
@@ -30,4 +31,10 @@ public class DirectMessageTextDAOImpl extends GenericDAOImpl<DirectMessageText>
                 .setParameter("directMessageTextId", directMessageTextId)
                 .getSingleResult();
     }
+
+    @Override
+    public List<DirectMessageText> findAll() {
+        return this.getEntityManager().createNamedQuery("DirectMessageText.findAll", DirectMessageText.class)
+                .getResultList();
+    }
 }
\ No newline at end of file
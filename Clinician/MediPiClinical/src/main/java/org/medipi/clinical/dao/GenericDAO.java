@@ -48,4 +48,10 @@ public interface GenericDAO<T> {
      * @return data 
      */
     T findByPrimaryKey(Object id);
+
+    /**
+     * Flush pending changes to the DB and detach all managed entities so that
+     * long running batches do not grow the persistence context
+     */
+    void flushAndClear();
 }
@@ -17,6 +17,7 @@ package org.medipi.clinical.dao;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.logging.Level;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -70,27 +71,42 @@ public abstract class GenericDAOImpl<T> implements GenericDAO<T> {
     @Override
     public T save(final T object) {
         this.getEntityManager().persist(object);
-        logger.log(object.getClass().getName() + ".info", "Object persisted:" + object + " of type:" + object.getClass());
+        // called for every row so the message is only built when it will be logged
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(object.getClass().getName() + ".fine", "Object persisted:" + object + " of type:" + object.getClass());
+        }
         return object;
     }
 
     @Override
     public T update(final T object) {
         final T updatedObject = this.getEntityManager().merge(object);
-        logger.log(object.getClass().getName() + ".info", "Object updated:" + object + " of type:" + object.getClass());
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(object.getClass().getName() + ".fine", "Object updated:" + object + " of type:" + object.getClass());
+        }
         return updatedObject;
     }
 
     @Override
     public void delete(final Object id) {
         this.getEntityManager().remove(this.getEntityManager().getReference(this.type, id));
-        logger.log(id.getClass().getName() + ".info", "Object Deleted:<" + id + ">");
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(id.getClass().getName() + ".fine", "Object Deleted:<" + id + ">");
+        }
     }
 
     @Override
     public T findByPrimaryKey(final Object id) {
         final T object = this.getEntityManager().find(this.type, id);
-        logger.log(id.getClass().getName() + ".info", "Find entity by primary key:<" + id + ">");
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(id.getClass().getName() + ".fine", "Find entity by primary key:<" + id + ">");
+        }
         return object;
     }
+
+    @Override
+    public void flushAndClear() {
+        this.getEntityManager().flush();
+        this.getEntityManager().clear();
+    }
 }
@@ -27,4 +27,6 @@ public interface PatientGroupDAO extends GenericDAO<PatientGroup> {
 
     public List<PatientGroup> getAllGroups();
 
+    public int incrementDataVersion(String patientGroupUuid);
+
 }
@@ -30,4 +30,11 @@ public class PatientGroupDAOImpl extends GenericDAOImpl<PatientGroup> implements
         return this.getEntityManager().createNamedQuery("PatientGroup.findAll", PatientGroup.class)
                 .getResultList();
     }
+
+    @Override
+    public int incrementDataVersion(String patientGroupUuid) {
+        return this.getEntityManager().createNamedQuery("PatientGroup.incrementDataVersion")
+                .setParameter("patientGroupUuid", patientGroupUuid)
+                .executeUpdate();
+    }
 }
\ No newline at end of file
@@ -33,4 +33,16 @@ public interface RecordingDeviceAttributeDAO extends GenericDAO<RecordingDeviceA
      * @return recording device attribute object 
      */
     public RecordingDeviceAttribute findByAttributeNameTypeUnitsTypeId(String name, String type, String units,int typeId);
+
+    /**
+     * Find the RecordingDeviceAttribute or create it in its own transaction if
+     * it does not yet exist
+     *
+     * @param name
+     * @param type
+     * @param units
+     * @param rdt recording device type the attribute belongs to
+     * @return recording device attribute object
+     */
+    public RecordingDeviceAttribute findOrCreate(String name, String type, String units, RecordingDeviceType rdt);
 }
@@ -15,9 +15,12 @@
  */
 package org.medipi.clinical.dao;
 
+import java.util.List;
 import org.medipi.clinical.entities.RecordingDeviceAttribute;
 import org.medipi.clinical.entities.RecordingDeviceType;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Implementation of data access object for RecordingDeviceAttribute
@@ -36,4 +39,24 @@ public class RecordingDeviceAttributeDAOImpl extends GenericDAOImpl<RecordingDev
                 .setParameter("typeId", typeId)
                 .getSingleResult();
     }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW, rollbackFor = RuntimeException.class)
+    public RecordingDeviceAttribute findOrCreate(String name, String type, String units, RecordingDeviceType rdt) {
+        List<RecordingDeviceAttribute> found = this.getEntityManager().createNamedQuery("RecordingDeviceAttribute.findByAttributeNameTypeUnitsTypeId", RecordingDeviceAttribute.class)
+                .setParameter("attributeName", name)
+                .setParameter("attributeType", type)
+                .setParameter("attributeUnits", units)
+                .setParameter("typeId", rdt.getTypeId())
+                .getResultList();
+        if (!found.isEmpty()) {
+            return found.get(0);
+        }
+        RecordingDeviceAttribute rda = new RecordingDeviceAttribute();
+        rda.setAttributeName(name);
+        rda.setAttributeType(type);
+        rda.setAttributeUnits(units);
+        rda.setTypeId(rdt);
+        return this.save(rda);
+    }
 }
@@ -51,4 +51,16 @@ public interface RecordingDeviceDataDAO extends GenericDAO<RecordingDeviceData>
     public List<RecordingDeviceData> findByPatientAndAttributeAndPeriod(String patientUuid, int attributeId, Date periodStartTime, Date periodEndTime);
 
     public Date findFirstEntryBeforePeriod(String patientUuid, int attributeId, Date periodStartTime);
+
+    /**
+     * Find the time and value of every data point for a patient and attribute
+     * taken at or after a time. Only numeric values are returned
+     *
+     * @param patientUuid
+     * @param attributeId
+     * @param periodStartTime earliest data value time to return
+     * @return list of [dataValueTime, dataValueNumeric] pairs ordered by data
+     * value time
+     */
+    public List<Object[]> findValuesByPatientAndAttributeFromTime(String patientUuid, int attributeId, Date periodStartTime);
 }
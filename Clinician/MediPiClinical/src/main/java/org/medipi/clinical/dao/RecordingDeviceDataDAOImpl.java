@@ -21,6 +21,7 @@ import org.medipi.clinical.entities.RecordingDeviceData;
 import org.medipi.clinical.entities.Patient;
 import org.medipi.clinical.entities.PatientGroup;
 import org.medipi.clinical.entities.RecordingDeviceAttribute;
+import org.medipi.model.TypedDataValue;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -33,6 +34,16 @@ public class RecordingDeviceDataDAOImpl extends GenericDAOImpl<RecordingDeviceDa
 
     @Override
     public List<RecordingDeviceData> isAlreadyStored(RecordingDeviceAttribute rda, Patient patient, String data, Date dataPointTime) {
+        // numeric values are compared by value so that e.g. 70 and 70.0 are the same measurement
+        Double numeric = TypedDataValue.numericValue(data);
+        if (numeric != null) {
+            return this.getEntityManager().createNamedQuery("RecordingDeviceData.isAlreadyStoredNumeric", RecordingDeviceData.class)
+                    .setParameter("attributeId", rda)
+                    .setParameter("patientUuid", patient)
+                    .setParameter("dataValueNumeric", numeric)
+                    .setParameter("dataValueTime", dataPointTime)
+                    .getResultList();
+        }
         return this.getEntityManager().createNamedQuery("RecordingDeviceData.isAlreadyStored", RecordingDeviceData.class)
                 .setParameter("attributeId", rda)
                 .setParameter("patientUuid", patient)
@@ -96,4 +107,13 @@ public class RecordingDeviceDataDAOImpl extends GenericDAOImpl<RecordingDeviceDa
                 .getSingleResult();
     }
 
+    @Override
+    public List<Object[]> findValuesByPatientAndAttributeFromTime(String patientUuid, int attributeId, Date periodStartTime) {
+        return this.getEntityManager().createNamedQuery("RecordingDeviceData.findValuesByPatientAndAttributeFromTime", Object[].class)
+                .setParameter("patientUuid", patientUuid)
+                .setParameter("attributeId", attributeId)
+                .setParameter("periodStartTime", periodStartTime)
+                .getResultList();
+    }
+
 }
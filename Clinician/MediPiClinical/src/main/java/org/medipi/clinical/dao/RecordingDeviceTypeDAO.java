@@ -26,4 +26,16 @@ import org.medipi.clinical.entities.RecordingDeviceType;
 public interface RecordingDeviceTypeDAO extends GenericDAO<RecordingDeviceType> {
 
     public RecordingDeviceType findByTypeMakeModelDisplayName(String type,String make,String model,String displayName);
+
+    /**
+     * Find the RecordingDeviceType or create it in its own transaction if it
+     * does not yet exist
+     *
+     * @param type
+     * @param make
+     * @param model
+     * @param displayName
+     * @return recording device type object
+     */
+    public RecordingDeviceType findOrCreate(String type, String make, String model, String displayName);
 }
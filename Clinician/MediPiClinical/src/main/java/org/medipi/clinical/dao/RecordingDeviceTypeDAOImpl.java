@@ -18,6 +18,8 @@ package org.medipi.clinical.dao;
 import java.util.List;
 import org.medipi.clinical.entities.RecordingDeviceType;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Implementation of data access object for RecordingDeviceType
@@ -36,4 +38,24 @@ public class RecordingDeviceTypeDAOImpl extends GenericDAOImpl<RecordingDeviceTy
                 .setParameter("displayname", displayName)
                 .getSingleResult();
     }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW, rollbackFor = RuntimeException.class)
+    public RecordingDeviceType findOrCreate(String type, String make, String model, String displayName) {
+        List<RecordingDeviceType> found = this.getEntityManager().createNamedQuery("RecordingDeviceType.findByTypeMakeModelDisplayName", RecordingDeviceType.class)
+                .setParameter("type", type)
+                .setParameter("make", make)
+                .setParameter("model", model)
+                .setParameter("displayname", displayName)
+                .getResultList();
+        if (!found.isEmpty()) {
+            return found.get(0);
+        }
+        RecordingDeviceType rdt = new RecordingDeviceType();
+        rdt.setType(type);
+        rdt.setMake(make);
+        rdt.setModel(model);
+        rdt.setDisplayName(displayName);
+        return this.save(rdt);
+    }
 }
@@ -39,7 +39,8 @@ import javax.xml.bind.annotation.XmlTransient;
 @XmlRootElement
 @NamedQueries({
     @NamedQuery(name = "PatientGroup.findAll", query = "SELECT p FROM PatientGroup p"),
-    @NamedQuery(name = "PatientGroup.findByPatientGroupUuid", query = "SELECT p FROM PatientGroup p WHERE p.patientGroupUuid = :patientGroupUuid")})
+    @NamedQuery(name = "PatientGroup.findByPatientGroupUuid", query = "SELECT p FROM PatientGroup p WHERE p.patientGroupUuid = :patientGroupUuid"),
+    @NamedQuery(name = "PatientGroup.incrementDataVersion", query = "UPDATE PatientGroup p SET p.dataVersion = p.dataVersion + 1 WHERE p.patientGroupUuid = :patientGroupUuid")})
 public class PatientGroup implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -54,7 +55,10 @@ public class PatientGroup implements Serializable {
     @Size(max = 100)
     @Column(name = "patient_group_name")
     private String patientGroupName;
-
+    @Basic(optional = false)
+    @NotNull
+    @Column(name = "data_version")
+    private long dataVersion;
 
     public PatientGroup() {
     }
@@ -77,6 +81,14 @@ public class PatientGroup implements Serializable {
     public void setPatientGroupName(String patientGroupName) {
         this.patientGroupName = patientGroupName;
     }
+
+    public long getDataVersion() {
+        return dataVersion;
+    }
+
+    public void setDataVersion(long dataVersion) {
+        this.dataVersion = dataVersion;
+    }
     
     @XmlTransient
     public Collection<Patient> getPatientCollection() {
@@ -44,12 +44,14 @@ import javax.validation.constraints.Size;
 @NamedQueries({
     //Added
     @NamedQuery(name = "RecordingDeviceData.isAlreadyStored", query = "SELECT d FROM RecordingDeviceData d WHERE d.attributeId = :attributeId AND d.dataValue = :dataValue AND d.dataValueTime = :dataValueTime AND d.patientUuid = :patientUuid"),
+    @NamedQuery(name = "RecordingDeviceData.isAlreadyStoredNumeric", query = "SELECT d FROM RecordingDeviceData d WHERE d.attributeId = :attributeId AND d.dataValueNumeric = :dataValueNumeric AND d.dataValueTime = :dataValueTime AND d.patientUuid = :patientUuid"),
     @NamedQuery(name = "RecordingDeviceData.findByPatientUuidAfterDate", query = "SELECT d FROM RecordingDeviceData d WHERE d.patientUuid = :patientUuid AND d.dataValueTime>:requestDate"),
-    @NamedQuery(name = "RecordingDeviceData.dateOfLatestPatientGroupSync", query = "SELECT MAX(d.downloadedTime) FROM RecordingDeviceData d, RecordingDeviceAttribute a, RecordingDeviceType t, Patient p WHERE d.attributeId = a.attributeId AND a.typeId = t.typeId AND d.patientUuid = p.patientUuid AND p.patientGroupUuid = :patientGroup"),
+    @NamedQuery(name = "RecordingDeviceData.dateOfLatestPatientGroupSync", query = "SELECT MAX(d.downloadedTime) FROM RecordingDeviceData d, Patient p WHERE d.patientUuid = p.patientUuid AND p.patientGroupUuid = :patientGroup"),
     @NamedQuery(name = "RecordingDeviceData.dateOfLatestMeasurement", query = "SELECT MAX(d.dataValueTime) FROM RecordingDeviceData d, RecordingDeviceAttribute a, RecordingDeviceType t WHERE d.attributeId = a.attributeId AND a.typeId = t.typeId AND d.patientUuid = :patientUuid AND t.type = :type"),
     @NamedQuery(name = "RecordingDeviceData.findByPatientAndScheduledTime", query = "SELECT d FROM RecordingDeviceData d WHERE d.patientUuid = :patientUuid AND d.scheduleEffectiveTime >= :scheduleEffectiveTime AND d.scheduleExpiryTime <= :scheduleExpiryTime AND d.dataValueTime IN (SELECT MAX(e.dataValueTime) FROM RecordingDeviceData e WHERE e.patientUuid = :patientUuid AND e.scheduleEffectiveTime >= :scheduleEffectiveTime AND e.scheduleExpiryTime <= :scheduleExpiryTime)"),
     @NamedQuery(name = "RecordingDeviceData.findByGroupedPatientAndScheduledTime", query = "SELECT d.scheduleEffectiveTime FROM RecordingDeviceData d WHERE d.scheduleExpiryTime >= :scheduleEffectiveTime AND d.scheduleEffectiveTime < :scheduleEffectiveTime AND d.patientUuid = :patientUuid GROUP BY d.scheduleEffectiveTime"),
     @NamedQuery(name = "RecordingDeviceData.findByPatientAndAttributeAndPeriod", query = "SELECT d FROM RecordingDeviceData d WHERE d.patientUuid.patientUuid = :patientUuid AND d.attributeId.attributeId = :attributeId AND d.dataValueTime >= :periodStartTime AND d.dataValueTime < :periodEndTime"),
+    @NamedQuery(name = "RecordingDeviceData.findValuesByPatientAndAttributeFromTime", query = "SELECT d.dataValueTime, d.dataValueNumeric FROM RecordingDeviceData d WHERE d.patientUuid.patientUuid = :patientUuid AND d.attributeId.attributeId = :attributeId AND d.dataValueTime >= :periodStartTime AND d.dataValueNumeric IS NOT NULL ORDER BY d.dataValueTime"),
     @NamedQuery(name = "RecordingDeviceData.findFirstEntryBeforePeriod", query = "SELECT MAX(e.dataValueTime) from RecordingDeviceData e WHERE e.patientUuid.patientUuid = :patientUuid AND e.attributeId.attributeId = :attributeId AND e.dataValueTime < :periodStartTime"),
 
     @NamedQuery(name = "RecordingDeviceData.findAll", query = "SELECT r FROM RecordingDeviceData r"),
@@ -82,6 +84,12 @@ public class RecordingDeviceData implements Serializable {
     @Size(min = 1, max = 1000)
     @Column(name = "data_value")
     private String dataValue;
+    // typed forms of the data value, derived when it is stored
+    @Column(name = "data_value_numeric")
+    private Double dataValueNumeric;
+    @Size(max = 100)
+    @Column(name = "data_value_text")
+    private String dataValueText;
     @Basic(optional = false)
     @NotNull
     @Column(name = "data_value_time")
@@ -131,6 +139,22 @@ public class RecordingDeviceData implements Serializable {
         this.dataValue = dataValue;
     }
 
+    public Double getDataValueNumeric() {
+        return dataValueNumeric;
+    }
+
+    public void setDataValueNumeric(Double dataValueNumeric) {
+        this.dataValueNumeric = dataValueNumeric;
+    }
+
+    public String getDataValueText() {
+        return dataValueText;
+    }
+
+    public void setDataValueText(String dataValueText) {
+        this.dataValueText = dataValueText;
+    }
+
     public Date getDataValueTime() {
         return dataValueTime;
     }
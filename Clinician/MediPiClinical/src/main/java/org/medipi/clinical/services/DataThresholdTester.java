@@ -17,19 +17,20 @@ package org.medipi.clinical.services;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.annotation.PostConstruct;
 import org.medipi.clinical.dao.AlertDAOImpl;
-import org.medipi.clinical.dao.AttributeThresholdDAOImpl;
 import org.medipi.clinical.dao.RecordingDeviceDataDAOImpl;
 import org.medipi.clinical.entities.Alert;
-import org.medipi.clinical.entities.AttributeThreshold;
 import org.medipi.clinical.entities.Patient;
 import org.medipi.clinical.entities.RecordingDeviceAttribute;
 import org.medipi.clinical.entities.RecordingDeviceData;
 import org.medipi.clinical.logging.MediPiLogger;
-import org.medipi.clinical.threshold.AttributeThresholdTest;
-import org.medipi.clinical.threshold.ThresholdTestFactory;
+import org.medipi.clinical.threshold.ThresholdResult;
+import org.medipi.clinical.threshold.ThresholdRule;
+import org.medipi.clinical.threshold.ThresholdRuleCache;
 import org.medipi.clinical.utilities.Utilities;
 import org.medipi.model.AlertDO;
 import org.medipi.model.AlertListDO;
@@ -48,13 +49,11 @@ public class DataThresholdTester implements Tester {
     @Autowired
     private RecordingDeviceDataDAOImpl recordingDeviceDataDAOImpl;
     @Autowired
-    private AttributeThresholdDAOImpl attributeThresholdDAOImpl;
-    @Autowired
     private AlertDAOImpl alertDAOImpl;
     @Autowired
     private Utilities utils;
     @Autowired
-    private ThresholdTestFactory thresholdTestFactory;
+    private ThresholdRuleCache thresholdRuleCache;
 
     @Autowired
     private MediPiLogger logger;
@@ -80,10 +79,6 @@ public class DataThresholdTester implements Tester {
         } else {
             enabled = false;
         }
-    }
-
-    public void testNewData(RecordingDeviceAttribute rda, Patient patient, RecordingDeviceData rddSet, AlertListDO alertListDO) throws InstantiationException, ClassNotFoundException, IllegalAccessException {
-
         String spa = utils.getProperties().getProperty(MEDIPICLINICALALERTSENDPOSITIVEALERTS);
         if (spa != null && spa.toLowerCase().startsWith("y")) {
             sendPositiveAlerts = true;
@@ -102,58 +97,65 @@ public class DataThresholdTester implements Tester {
         } else {
             sendCannotCalculateAlerts = false;
         }
-        // find the latest threshold type using the attribute
-        AttributeThreshold at = this.attributeThresholdDAOImpl.findLatestByAttributeAndPatientAndDate(rda.getAttributeId(), patient.getPatientUuid(), rddSet.getDataValueTime());
-        if (at != null) {
-            String testType = at.getThresholdType();
-            // if there is an unrecognised test type returned
-            if (testType != null) {
-                AttributeThresholdTest thresholdTest = thresholdTestFactory.getInstance(testType);
-                try {
-                    thresholdTest.init(utils.getProperties(), at);
-                    String testStatus;
-                    Boolean result = thresholdTest.test(rddSet);
-                    if (result == null) {
-                        //This means the result is not calculatable
-                        testStatus = "CANNOT_CALCULATE";
-                        if (sendCannotCalculateAlerts) {
-                            String alertText = thresholdTest.getCantCalculateTestText()
-                                    .replace("__ATTRIBUTE_NAME__", rddSet.getAttributeId().getAttributeName())
-                                    .replace("__MEASUREMENT_DATE__", Utilities.DISPLAY_FORMAT.format(rddSet.getDataValueTime()));
-                            CreateAlert(thresholdTest, rddSet, patient, alertListDO, alertText, testStatus);
-                        }
-                    } else if (!result) {
-                        // send alert
-                        testStatus = "OUT_OF_THRESHOLD";
-                        if (sendNegativeAlerts) {
-                            String alertText = thresholdTest.getFailedTestText()
-                                    .replace("__ATTRIBUTE_NAME__", rddSet.getAttributeId().getAttributeName())
-                                    .replace("__MEASUREMENT_DATE__", Utilities.DISPLAY_FORMAT.format(rddSet.getDataValueTime()));
-                            CreateAlert(thresholdTest, rddSet, patient, alertListDO, alertText, testStatus);
-                        }
-                    } else {
-                        testStatus = "IN_THRESHOLD";
-                        if (sendPositiveAlerts) {
-                            String alertText = thresholdTest.getPassedTestText()
-                                    .replace("__ATTRIBUTE_NAME__", rddSet.getAttributeId().getAttributeName())
-                                    .replace("__MEASUREMENT_DATE__", Utilities.DISPLAY_FORMAT.format(rddSet.getDataValueTime()));
-                            CreateAlert(thresholdTest, rddSet, patient, alertListDO, alertText, testStatus);
-                        }
-                    }
-                    rddSet.setAlertStatus(testStatus);
-                    this.recordingDeviceDataDAOImpl.update(rddSet);
+        thresholdRuleCache.refresh(utils.getProperties());
+    }
 
-                } catch (Exception e) {
-                    MediPiLogger.getInstance().log(DataThresholdTester.class.getName() + "error", e.getLocalizedMessage());
-                    System.out.println(e.getLocalizedMessage());
+    /**
+     * Tests a newly persisted data item against its effective threshold rule.
+     * This may be called concurrently for different patient groups, the flags
+     * used are only set by init() before the groups are synchronised and the
+     * compiled rules are immutable
+     *
+     * @param rda attribute of the data item
+     * @param patient patient the data item belongs to
+     * @param rddSet the persisted data item
+     * @param alertListDO container for any alerts created
+     */
+    public void testNewData(RecordingDeviceAttribute rda, Patient patient, RecordingDeviceData rddSet, AlertListDO alertListDO) {
+
+        // find the rule compiled from the latest threshold for the attribute
+        ThresholdRule rule = thresholdRuleCache.findRule(rda.getAttributeId(), patient.getPatientUuid(), rddSet.getDataValueTime());
+        if (rule != null) {
+            try {
+                ThresholdResult result = rule.evaluate(rddSet);
+                String testStatus = result.getStatus();
+                boolean send;
+                switch (testStatus) {
+                    case ThresholdResult.CANNOT_CALCULATE:
+                        //This means the result is not calculatable
+                        send = sendCannotCalculateAlerts;
+                        break;
+                    case ThresholdResult.OUT_OF_THRESHOLD:
+                        send = sendNegativeAlerts;
+                        break;
+                    default:
+                        send = sendPositiveAlerts;
+                }
+                if (send) {
+                    Map<String, String> values = new HashMap<>();
+                    values.put("__ATTRIBUTE_NAME__", rddSet.getAttributeId().getAttributeName());
+                    values.put("__MEASUREMENT_DATE__", formatDisplayDate(rddSet.getDataValueTime()));
+                    CreateAlert(rddSet, patient, alertListDO, result.getText(values), testStatus);
                 }
+                rddSet.setAlertStatus(testStatus);
+                this.recordingDeviceDataDAOImpl.update(rddSet);
+
+            } catch (Exception e) {
+                MediPiLogger.getInstance().log(DataThresholdTester.class.getName() + "error", e.getLocalizedMessage());
+                System.out.println(e.getLocalizedMessage());
             }
         } else {
             // if there is no associated test for a data attribute type - no action
         }
     }
 
-    private void CreateAlert(AttributeThresholdTest thresholdTest, RecordingDeviceData rddSet, Patient patient, AlertListDO alertListDO, String alertText, String testStatus) {
+    private String formatDisplayDate(Date date) {
+        synchronized (Utilities.DISPLAY_FORMAT) {
+            return Utilities.DISPLAY_FORMAT.format(date);
+        }
+    }
+
+    private void CreateAlert(RecordingDeviceData rddSet, Patient patient, AlertListDO alertListDO, String alertText, String testStatus) {
         if (rddSet.getScheduleEffectiveTime().before(new Date()) && rddSet.getScheduleExpiryTime().after(new Date())) {
             System.out.println(testStatus + " ALERT TO BE SENT");
             //create the Alert
@@ -0,0 +1,299 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.medipi.clinical.dao.PatientDAOImpl;
+import org.medipi.clinical.dao.PatientGroupDAOImpl;
+import org.medipi.clinical.dao.RecordingDeviceAttributeDAOImpl;
+import org.medipi.clinical.dao.RecordingDeviceDataDAOImpl;
+import org.medipi.clinical.dao.RecordingDeviceTypeDAOImpl;
+import org.medipi.clinical.entities.Patient;
+import org.medipi.clinical.entities.PatientGroup;
+import org.medipi.clinical.entities.RecordingDeviceAttribute;
+import org.medipi.clinical.entities.RecordingDeviceData;
+import org.medipi.clinical.entities.RecordingDeviceType;
+import org.medipi.clinical.exception.InternalServerError500Exception;
+import org.medipi.clinical.logging.MediPiLogger;
+import org.medipi.clinical.model.PatientDataRequestDO;
+import org.medipi.clinical.threshold.TrendStore;
+import org.medipi.model.AlertListDO;
+import org.medipi.model.DirectPatientMessage;
+import org.medipi.model.SimpleMessageDO;
+import org.medipi.model.TypedDataValue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Class to persist the data returned from the concentrator for a single
+ * patient group.
+ *
+ * Each patient group is persisted in its own transaction so that a failure in
+ * one group does not roll back or hold up any other. As the watermark for a
+ * group is the latest downloaded time persisted for it, a group which fails
+ * will simply be requested again from its previous watermark on the next sync.
+ *
+ * Each patient's data rows are persisted first and flushed in batches, then
+ * the threshold and linked submission tests are run against the persisted
+ * rows.
+ * Any resulting alerts and simple messages are returned rather than sent so
+ * that they are only transmitted once the group has been committed
+ */
+@Component
+public class PatientGroupSyncService {
+
+    @Autowired
+    private PatientDAOImpl patientDAOImpl;
+    @Autowired
+    private PatientGroupDAOImpl patientGroupDAOImpl;
+    @Autowired
+    private RecordingDeviceDataDAOImpl recordingDeviceDataDAOImpl;
+    @Autowired
+    private RecordingDeviceTypeDAOImpl recordingDeviceTypeDAOImpl;
+    @Autowired
+    private RecordingDeviceAttributeDAOImpl recordingDeviceAttributeDAOImpl;
+    @Autowired
+    private DataThresholdTester dataThresholdTester;
+    @Autowired
+    private LinkedSubmissionsTester linkedSubmissionsTester;
+    @Autowired
+    private TrendStore trendStore;
+    @Autowired
+    private MediPiLogger logger;
+
+    //Number of rows persisted before the persistence context is flushed and cleared
+    @Value("${medipi.clinical.syncdata.batchsize:50}")
+    private int batchSize;
+
+    // Types and attributes are shared by all the groups being synchronised.
+    // The cached entities are always detached as they are found or created in
+    // their own transaction
+    private final Map<String, RecordingDeviceType> typeCache = new ConcurrentHashMap<>();
+    private final Map<String, RecordingDeviceAttribute> attributeCache = new ConcurrentHashMap<>();
+    private final Object createLock = new Object();
+
+    /**
+     * Empties the type and attribute caches. Called at the start of each
+     * synchronisation so that changes made outside this application are seen
+     */
+    public void clearCaches() {
+        typeCache.clear();
+        attributeCache.clear();
+    }
+
+    /**
+     * Persists the data returned from the concentrator for a patient group and
+     * tests it against any thresholds.
+     *
+     * The data is taken from the source one patient at a time so that only a
+     * single patient's data is held in memory. Each patient's data is persisted
+     * and flushed before it is tested, and the persistence context is cleared
+     * before the next patient is read. As the concentrator returns the data in
+     * pages a patient may be returned more than once, so the alerts for a
+     * patient are collected into a single message and the linked submissions
+     * are tested once all the group's data has been persisted. If any data was
+     * persisted the group's data version is incremented in the same
+     * transaction so that the clinician service rebuilds its dashboard for
+     * the group
+     *
+     * @param pg patient group the data was requested for
+     * @param source data returned from the concentrator
+     * @return list of alerts and simple messages to be sent once the group has
+     * been committed
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW, rollbackFor = RuntimeException.class)
+    public List<PendingDirectMessage> persistPatientGroupData(PatientGroup pg, PatientDataSource source) {
+        Map<Patient, AlertListDO> alerts = new LinkedHashMap<>();
+        int count = 0;
+        PatientDataRequestDO pdr;
+        while ((pdr = nextPatientData(pg, source)) != null) {
+            //find the patient in the clinical db
+            Patient patient = patientDAOImpl.findByPrimaryKey(pdr.getPatientUuid());
+            if (patient == null) {
+                MediPiLogger.getInstance().log(PatientGroupSyncService.class.getName() + "error", "Error - Can't find a returned patient in the local DB: " + pdr.getPatientUuid());
+                System.out.println("Error - Can't find a returned patient in the local DB: " + pdr.getPatientUuid());
+                continue;
+            }
+            System.out.println("patient:" + patient.getPatientUuid() + " data items:" + pdr.getRecordingDeviceDataList().size());
+            // Stage 1 - persist all the data items for the patient
+            List<RecordingDeviceData> rows = new ArrayList<>(pdr.getRecordingDeviceDataList().size());
+            for (RecordingDeviceData rdd : pdr.getRecordingDeviceDataList()) {
+                RecordingDeviceData rddSet = saveRecordingDeviceData(rdd, patient);
+                // keep any trend held for the measurement up to date
+                trendStore.record(rddSet);
+                rows.add(rddSet);
+                if (++count % batchSize == 0) {
+                    recordingDeviceDataDAOImpl.flushAndClear();
+                }
+            }
+            recordingDeviceDataDAOImpl.flushAndClear();
+            // Stage 2 - generate alerts from the persisted data
+            // Create the container for any possible alerts
+            AlertListDO alertListDO = alerts.get(patient);
+            if (alertListDO == null) {
+                alertListDO = new AlertListDO(patient.getPatientUuid());
+                alerts.put(patient, alertListDO);
+            }
+            testPatientData(pg, patient, rows, alertListDO);
+        }
+        if (count > 0) {
+            patientGroupDAOImpl.incrementDataVersion(pg.getPatientGroupUuid());
+        }
+
+        // Stage 3 - collect the alerts and simple messages to be sent
+        List<PendingDirectMessage> pending = new ArrayList<>();
+        for (Map.Entry<Patient, AlertListDO> entry : alerts.entrySet()) {
+            Patient patient = entry.getKey();
+            if (!entry.getValue().getAlert().isEmpty()) {
+                pending.add(new PendingDirectMessage(dataThresholdTester, entry.getValue(), patient.getPatientUuid()));
+            }
+            if (linkedSubmissionsTester.isEnabled()) {
+                SimpleMessageDO simpleMessageDO = new SimpleMessageDO(patient.getPatientUuid());
+                try {
+                    linkedSubmissionsTester.testNewData(patient, simpleMessageDO);
+                } catch (Exception e) {
+                    logger.log(PatientGroupSyncService.class.getName() + ".dbIssue", "Attempt to test linked submissions for patient " + patient.getPatientUuid() + " failed");
+                    throw new InternalServerError500Exception("Attempt to test linked submissions for patient " + patient.getPatientUuid() + " failed");
+                }
+                // only a message which has been written to the DB can be sent
+                if (simpleMessageDO.getSimpleMessageId() != null) {
+                    pending.add(new PendingDirectMessage(linkedSubmissionsTester, simpleMessageDO, patient.getPatientUuid()));
+                }
+            }
+        }
+        return pending;
+    }
+
+    private PatientDataRequestDO nextPatientData(PatientGroup pg, PatientDataSource source) {
+        try {
+            return source.next();
+        } catch (IOException e) {
+            // any data already persisted for the group is rolled back
+            logger.log(PatientGroupSyncService.class.getName() + "error", "Error reading the data for patient group " + pg.getPatientGroupUuid() + " from the concentrator: " + e.getLocalizedMessage());
+            throw new InternalServerError500Exception("Error reading the data for patient group " + pg.getPatientGroupUuid() + " from the concentrator: " + e.getLocalizedMessage());
+        }
+    }
+
+    private void testPatientData(PatientGroup pg, Patient patient, List<RecordingDeviceData> rows, AlertListDO alertListDO) {
+        if (!dataThresholdTester.isEnabled()) {
+            return;
+        }
+        for (RecordingDeviceData rddSet : rows) {
+            try {
+                dataThresholdTester.testNewData(rddSet.getAttributeId(), patient, rddSet, alertListDO);
+            } catch (EmptyResultDataAccessException e) {
+                // Nothing to do if there is no Attribute threshold for the reading
+            } catch (Exception e) {
+                logger.log(PatientGroupSyncService.class.getName() + ".dbIssue", "Attempt to test data for " + rddSet.getAttributeId().getAttributeName() + " in patient group " + pg.getPatientGroupUuid() + " failed");
+                throw new InternalServerError500Exception("Attempt to test data for " + rddSet.getAttributeId().getAttributeName() + " failed");
+            }
+        }
+    }
+
+    private RecordingDeviceData saveRecordingDeviceData(RecordingDeviceData rdd, Patient patient) {
+        RecordingDeviceAttribute rda = getRecordingDeviceAttribute(rdd);
+        RecordingDeviceData rddSet = new RecordingDeviceData();
+        rddSet.setAttributeId(rda);
+        rddSet.setDataValue(rdd.getDataValue());
+        rddSet.setDataValueNumeric(TypedDataValue.numericValue(rdd.getDataValue()));
+        rddSet.setDataValueText(TypedDataValue.textValue(rdd.getDataValue()));
+        rddSet.setDataValueTime(rdd.getDataValueTime());
+        rddSet.setDownloadedTime(rdd.getDownloadedTime());
+        rddSet.setPatientUuid(patient);
+        rddSet.setScheduleEffectiveTime(rdd.getScheduleEffectiveTime());
+        rddSet.setScheduleExpiryTime(rdd.getScheduleExpiryTime());
+        try {
+            return this.recordingDeviceDataDAOImpl.save(rddSet);
+        } catch (Exception e) {
+            logger.log(PatientGroupSyncService.class.getName() + ".dbIssue", "Attempt to write data for " + rdd.getAttributeId().getAttributeName() + " to DB failed");
+            throw new InternalServerError500Exception("Attempt to write data for " + rdd.getAttributeId().getAttributeName() + " to DB failed");
+        }
+    }
+
+    private RecordingDeviceAttribute getRecordingDeviceAttribute(RecordingDeviceData rdd) {
+        RecordingDeviceType t = rdd.getAttributeId().getTypeId();
+        String typeKey = t.getType() + "|" + t.getMake() + "|" + t.getModel() + "|" + t.getDisplayName();
+        RecordingDeviceType rdt = typeCache.get(typeKey);
+        if (rdt == null) {
+            // serialise creation so that two groups cannot create the same type
+            synchronized (createLock) {
+                rdt = recordingDeviceTypeDAOImpl.findOrCreate(t.getType(), t.getMake(), t.getModel(), t.getDisplayName());
+            }
+            typeCache.put(typeKey, rdt);
+        }
+        RecordingDeviceAttribute a = rdd.getAttributeId();
+        String attributeKey = rdt.getTypeId() + "|" + a.getAttributeName() + "|" + a.getAttributeType() + "|" + a.getAttributeUnits();
+        RecordingDeviceAttribute rda = attributeCache.get(attributeKey);
+        if (rda == null) {
+            synchronized (createLock) {
+                rda = recordingDeviceAttributeDAOImpl.findOrCreate(a.getAttributeName(), a.getAttributeType(), a.getAttributeUnits(), rdt);
+            }
+            attributeCache.put(attributeKey, rda);
+        }
+        return rda;
+    }
+
+    /**
+     * Source of the data returned from the concentrator for a patient group,
+     * read one patient at a time
+     */
+    public interface PatientDataSource {
+
+        /**
+         * @return the next patient's data or null when there is no more data
+         * @throws IOException if the data cannot be read
+         */
+        PatientDataRequestDO next() throws IOException;
+    }
+
+    /**
+     * Alert or simple message which has been committed to the DB and is
+     * waiting to be sent to the concentrator
+     */
+    public static class PendingDirectMessage {
+
+        private final Tester tester;
+        private final DirectPatientMessage directPatientMessage;
+        private final String patientUuid;
+
+        public PendingDirectMessage(Tester tester, DirectPatientMessage directPatientMessage, String patientUuid) {
+            this.tester = tester;
+            this.directPatientMessage = directPatientMessage;
+            this.patientUuid = patientUuid;
+        }
+
+        public Tester getTester() {
+            return tester;
+        }
+
+        public DirectPatientMessage getDirectPatientMessage() {
+            return directPatientMessage;
+        }
+
+        public String getPatientUuid() {
+            return patientUuid;
+        }
+    }
+}
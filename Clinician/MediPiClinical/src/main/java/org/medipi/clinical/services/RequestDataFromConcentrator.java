@@ -15,56 +15,72 @@
  */
 package org.medipi.clinical.services;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import org.medipi.clinical.dao.PatientDAOImpl;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.medipi.clinical.dao.PatientGroupDAOImpl;
-import org.medipi.clinical.dao.RecordingDeviceAttributeDAOImpl;
 import org.medipi.clinical.dao.RecordingDeviceDataDAOImpl;
-import org.medipi.clinical.dao.RecordingDeviceTypeDAOImpl;
-import org.medipi.clinical.entities.Patient;
 import org.medipi.clinical.entities.PatientGroup;
-import org.medipi.clinical.entities.RecordingDeviceAttribute;
-import org.medipi.clinical.entities.RecordingDeviceData;
-import org.medipi.clinical.entities.RecordingDeviceType;
-import org.medipi.clinical.exception.InternalServerError500Exception;
 import org.medipi.clinical.logging.MediPiLogger;
 import org.medipi.clinical.model.PatientDataRequestDO;
-import org.medipi.model.AlertListDO;
-import org.medipi.model.SimpleMessageDO;
+import org.medipi.clinical.services.PatientGroupSyncService.PatientDataSource;
+import org.medipi.clinical.services.PatientGroupSyncService.PendingDirectMessage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
 /**
+ * Class to synchronise the patient data from the concentrator.
+ *
+ * Each patient group is requested and persisted on a bounded pool of sync
+ * threads so that a slow or failing group does not hold up any other. The
+ * concentrator returns a group's data in pages which are pulled in turn using a
+ * keyset cursor, starting after the latest downloaded time held for the group,
+ * until the concentrator has no next cursor. Once a group has been committed
+ * the latest downloaded time held for it is acknowledged to the concentrator,
+ * which may then archive the data every group has acknowledged. The
+ * alerts and simple messages generated by a group are sent on a separate pool
+ * once the group has been committed. Each synchronisation waits for all its
+ * groups and messages to complete before returning so that the next scheduled
+ * synchronisation never overlaps it
  *
  * @author rick@robinsonhq.com
  */
 @Component
 public class RequestDataFromConcentrator {
 
-    @Autowired
-    private PatientDAOImpl patientDAOImpl;
     @Autowired
     private PatientGroupDAOImpl patientGroupDAOImpl;
     @Autowired
     private RecordingDeviceDataDAOImpl recordingDeviceDataDAOImpl;
     @Autowired
-    private RecordingDeviceTypeDAOImpl recordingDeviceTypeDAOImpl;
-    @Autowired
-    private RecordingDeviceAttributeDAOImpl recordingDeviceAttributeDAOImpl;
-    @Autowired
     private SSLClientHttpRequestFactory requestFactory;
     @Autowired
     private SendAlertService sendAlertService;
@@ -73,17 +89,69 @@ public class RequestDataFromConcentrator {
     @Autowired
     private LinkedSubmissionsTester linkedSubmissionsTester;
     @Autowired
-    private MediPiLogger logger;
+    private PatientGroupSyncService patientGroupSyncService;
 
     private static final SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss");
+    // response header holding the cursor of the next page of data
+    private static final String NEXTCURSORHEADER = "MediPi-Next-Cursor";
 
     //Path for posting requests for synchronising patient data
     @Value("${medipi.clinical.syncdata.resourcepath}")
     private String syncDataResourcePath;
 
-    //FIX - Connection refused or any unexpected results
+    //Path for acknowledging the data which has been committed for a patient group
+    @Value("${medipi.clinical.syncdata.syncedresourcepath}")
+    private String syncedResourcePath;
+
+    //Maximum number of data points requested from the concentrator in each page
+    @Value("${medipi.clinical.syncdata.pagesize:1000}")
+    private int pageSize;
+
+    //Number of patient groups which are synchronised concurrently
+    @Value("${medipi.clinical.syncdata.threads:4}")
+    private int syncThreads;
+
+    //Number of alerts and simple messages which are sent concurrently
+    @Value("${medipi.clinical.alert.sendthreads:2}")
+    private int sendThreads;
+
+    //Maximum number of tasks waiting for a thread before the caller runs the task itself
+    @Value("${medipi.clinical.syncdata.queuesize:100}")
+    private int queueSize;
+
+    // ObjectMapper and ObjectReader are thread safe once configured and are
+    // shared by all the sync threads
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectReader patientDataReader = mapper.readerFor(PatientDataRequestDO.class);
+    private ThreadPoolExecutor syncExecutor;
+    private ThreadPoolExecutor sendExecutor;
+
+    @PostConstruct
+    public void init() {
+        syncExecutor = createExecutor("medipi-sync-", syncThreads);
+        sendExecutor = createExecutor("medipi-send-", sendThreads);
+    }
+
+    private ThreadPoolExecutor createExecutor(String name, int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = (Runnable r) -> {
+            Thread t = new Thread(r, name + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        // when the queue is full the scheduler thread runs the task itself
+        // which holds back the submission of any more work
+        return new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        syncExecutor.shutdownNow();
+        sendExecutor.shutdownNow();
+    }
+
     @Scheduled(fixedRateString = "${medipi.clinical.dataRefreshRate}")
-    @Transactional(rollbackFor = RuntimeException.class)
     public void requestDataFromConcentrator() {
         System.out.println("The time is now " + dateFormat.format(new Date()));
 
@@ -108,152 +176,199 @@ public class RequestDataFromConcentrator {
 
         // get List of all the patient groups to retreive data for 
         List<PatientGroup> patGrpList = patientGroupDAOImpl.getAllGroups();
+        if (patGrpList.isEmpty()) {
+            System.out.println("Warning: No patient Groups defined in DB found to request data for");
+            return;
+        }
+        patientGroupSyncService.clearCaches();
 
-        // Loop through the patient group list and retreive the latest date of retreival
-        if (!patGrpList.isEmpty() && !patGrpList.isEmpty()) {
-            for (PatientGroup pg : patGrpList) {
-                Date d = recordingDeviceDataDAOImpl.dateOfLatestPatientGroupSync(pg);
-                Date lastMeasurementDate;
-                if (d == null) {
-                    // if there is no date found use epoch date
-                    lastMeasurementDate = new Date(0L);
-                } else {
-                    lastMeasurementDate = d;
-                }
-
-                // create a URL of the concentrator inclusing the patient group uuid and the last sync time
-                URI targetUrl = UriComponentsBuilder.fromUriString(syncDataResourcePath)
-                        .path("/")
-                        .path(pg.getPatientGroupUuid())
-                        .queryParam("date", lastMeasurementDate.getTime())
-                        .build()
-                        .toUri();
+        // Fan out a synchronisation for each patient group
+        List<Future<?>> sendFutures = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> syncFutures = new ArrayList<>();
+        for (PatientGroup pg : patGrpList) {
+            syncFutures.add(syncExecutor.submit(() -> synchronisePatientGroup(pg, restTemplate, sendFutures)));
+        }
+        // Wait for all the groups and then all the messages they generated
+        waitFor(syncFutures);
+        waitFor(sendFutures);
+    }
 
-                try {
-                    // transmit request to concentrator
-                    String responseString = restTemplate.getForObject(targetUrl, String.class);
+    private void synchronisePatientGroup(PatientGroup pg, RestTemplate restTemplate, List<Future<?>> sendFutures) {
+        // retreive the latest date of retreival for this group
+        Date d = recordingDeviceDataDAOImpl.dateOfLatestPatientGroupSync(pg);
+        // start the cursor after everything downloaded up to the latest date
+        String cursor;
+        if (d == null) {
+            // if there is no date found start from the beginning
+            cursor = "0:0";
+        } else {
+            cursor = d.getTime() + ":" + Integer.MAX_VALUE;
+        }
 
-                    if (responseString != null) {
-                        ObjectMapper mapper = new ObjectMapper();
+        try (PagedPatientDataSource source = new PagedPatientDataSource(pg, restTemplate.getRequestFactory(), cursor)) {
+            // request each page from the concentrator and persist the response as it is read
 // TO DO - THIS RESPONSE SHOULD BE ENCRYPTED AND SIGNED AND THERFORE WILL NEED DECRYTING AND VERIFIYING
-                        List<PatientDataRequestDO> response;
-                        try {
-                            response = mapper.readValue(responseString, new TypeReference<List<PatientDataRequestDO>>() {
-                            });
-                            //Loop through each patient in the response and persist any returned data
-                            for (PatientDataRequestDO pdr : response) {
-                                if (pdr != null) {
-                                    //find the patient in the clinical db
-                                    Patient patient = patientDAOImpl.findByPrimaryKey(pdr.getPatientUuid());
-                                    if (patient != null) {
-                                        // Create the container for any possible alerts
-                                        AlertListDO alertListDO = new AlertListDO(patient.getPatientUuid());
-                                        // loop through all the individual datapoints, persiste them to the DB and test for any thresholds
-                                        System.out.println("patient:" + patient.getPatientUuid() + " data items:" + pdr.getRecordingDeviceDataList().size());
-                                        for (RecordingDeviceData rdd : pdr.getRecordingDeviceDataList()) {
-                                            updateRecordingDeviceData(rdd, patient, alertListDO);
-                                        }
-
-                                        if (!alertListDO.getAlert().isEmpty() && dataThresholdTester.isEnabled()) {
-                                            sendAlertService.sendDirectMessage(dataThresholdTester, alertListDO, patient.getPatientUuid(), restTemplate);
-                                        }
-
-                                        if (linkedSubmissionsTester.isEnabled()) {
-                                            SimpleMessageDO simpleMessageDO = new SimpleMessageDO(patient.getPatientUuid());
-                                            linkedSubmissionsTester.testNewData(patient, simpleMessageDO);
-                                            sendAlertService.sendDirectMessage(linkedSubmissionsTester, simpleMessageDO, patient.getPatientUuid(), restTemplate);
-                                        }
-
-                                    } else {
-                                        MediPiLogger.getInstance().log(RequestDataFromConcentrator.class.getName() + "error", "Error - Can't find a returned patient in the local DB: " + pdr.getPatientUuid());
-                                        System.out.println("Error - Can't find a returned patient in the local DB: " + pdr.getPatientUuid());
-                                    }
-                                }
-                            }
-                        } catch (IOException ex) {
-                            MediPiLogger.getInstance().log(RequestDataFromConcentrator.class.getName() + "error", "Error mapping values from host response onto the PatientDataRequestDO: " + ex.getLocalizedMessage());
-                            System.out.println("Error mapping values from host response onto the PatientDataRequestDO: " + ex.getLocalizedMessage());
-                        }
-                    }
-                } catch (ResourceAccessException e) {
-                    MediPiLogger.getInstance().log(RequestDataFromConcentrator.class.getName() + "error", "Error in connectiong to target system using SSL: " + e.getLocalizedMessage());
-                    System.out.println("Error in connectiong to target system using SSL: " + e.getLocalizedMessage());
-                } catch (Exception e) {
-                    MediPiLogger.getInstance().log(RequestDataFromConcentrator.class.getName() + "error", "Error occurred: " + e.getLocalizedMessage());
-                    System.out.println("Error occurred: " + e.getLocalizedMessage());
-                }
+            List<PendingDirectMessage> pending = patientGroupSyncService.persistPatientGroupData(pg, source);
+            // send on any alerts and simple messages now that the group has been committed
+            for (PendingDirectMessage pdm : pending) {
+                sendFutures.add(sendExecutor.submit(() -> {
+                    sendAlertService.sendDirectMessage(pdm.getTester(), pdm.getDirectPatientMessage(), pdm.getPatientUuid(), restTemplate);
+                }));
             }
-        } else {
-            System.out.println("Warning: No patient Groups defined in DB found to request data for");
+        } catch (Exception e) {
+            MediPiLogger.getInstance().log(RequestDataFromConcentrator.class.getName() + "error", "Error occurred synchronising patient group " + pg.getPatientGroupUuid() + ": " + e.getLocalizedMessage());
+            System.out.println("Error occurred synchronising patient group " + pg.getPatientGroupUuid() + ": " + e.getLocalizedMessage());
+            return;
+        }
+        try {
+            acknowledgeSync(pg, restTemplate);
+        } catch (Exception e) {
+            MediPiLogger.getInstance().log(RequestDataFromConcentrator.class.getName() + "error", "Error occurred acknowledging the data for patient group " + pg.getPatientGroupUuid() + ": " + e.getLocalizedMessage());
+            System.out.println("Error occurred acknowledging the data for patient group " + pg.getPatientGroupUuid() + ": " + e.getLocalizedMessage());
         }
     }
 
-    @Transactional
-    private void updateRecordingDeviceData(RecordingDeviceData rdd, Patient patient, AlertListDO alertListDO) {
-        RecordingDeviceType rdt = null;
-        try {
-            rdt = recordingDeviceTypeDAOImpl.findByTypeMakeModelDisplayName(
-                    rdd.getAttributeId().getTypeId().getType(),
-                    rdd.getAttributeId().getTypeId().getMake(),
-                    rdd.getAttributeId().getTypeId().getModel(),
-                    rdd.getAttributeId().getTypeId().getDisplayName());
-        } catch (EmptyResultDataAccessException emptyType) {
-            rdt = updateRecordingDeviceType(rdt, rdd);
+    /**
+     * Tells the concentrator that everything downloaded up to the latest
+     * downloaded time held for the group has been committed. If it fails the
+     * concentrator keeps the data until a later synchronisation is acknowledged
+     */
+    private void acknowledgeSync(PatientGroup pg, RestTemplate restTemplate) {
+        Date d = recordingDeviceDataDAOImpl.dateOfLatestPatientGroupSync(pg);
+        if (d == null) {
+            return;
         }
-        RecordingDeviceAttribute rda = null;
-        try {
-            rda = recordingDeviceAttributeDAOImpl.findByAttributeNameTypeUnitsTypeId(
-                    rdd.getAttributeId().getAttributeName(),
-                    rdd.getAttributeId().getAttributeType(),
-                    rdd.getAttributeId().getAttributeUnits(),
-                    rdt.getTypeId());
-        } catch (EmptyResultDataAccessException emptyAttribute) {
-            rda = updateRecordingDeviceAttribute(rda, rdd, rdt);
+        URI targetUrl = UriComponentsBuilder.fromUriString(syncedResourcePath)
+                .path("/")
+                .path(pg.getPatientGroupUuid())
+                .queryParam("date", d.getTime())
+                .build()
+                .toUri();
+        restTemplate.put(targetUrl, null);
+    }
+
+    /**
+     * Source of a patient group's data which requests each page from the
+     * concentrator in turn until there is no next cursor. Each page's JSON array
+     * of PatientDataRequestDO is read from the response stream one patient at a
+     * time, so neither a whole page nor the whole group is held in memory
+     */
+    private class PagedPatientDataSource implements PatientDataSource, Closeable {
+
+        private final PatientGroup pg;
+        private final ClientHttpRequestFactory clientHttpRequestFactory;
+        private String cursor;
+        private ClientHttpResponse response;
+        private JsonParser parser;
+
+        PagedPatientDataSource(PatientGroup pg, ClientHttpRequestFactory clientHttpRequestFactory, String cursor) {
+            this.pg = pg;
+            this.clientHttpRequestFactory = clientHttpRequestFactory;
+            this.cursor = cursor;
         }
 
-        RecordingDeviceData rddSet = new RecordingDeviceData();
-        rddSet.setAttributeId(rda);
-        rddSet.setDataValue(rdd.getDataValue());
-        rddSet.setDataValueTime(rdd.getDataValueTime());
-        rddSet.setDownloadedTime(rdd.getDownloadedTime());
-        rddSet.setPatientUuid(patient);
-        rddSet.setScheduleEffectiveTime(rdd.getScheduleEffectiveTime());
-        rddSet.setScheduleExpiryTime(rdd.getScheduleExpiryTime());
+        @Override
+        public PatientDataRequestDO next() throws IOException {
+            while (true) {
+                if (parser == null) {
+                    if (cursor == null) {
+                        return null;
+                    }
+                    openPage();
+                    continue;
+                }
+                JsonToken t;
+                while ((t = parser.nextToken()) == JsonToken.VALUE_NULL) {
+                    // skip any null entries
+                }
+                if (t == JsonToken.END_ARRAY) {
+                    closePage();
+                    continue;
+                }
+                if (t == null) {
+                    // a truncated response must not be committed as the watermark would skip the missing data
+                    throw new IOException("Unexpected end of the response from the concentrator");
+                }
+                return patientDataReader.readValue(parser);
+            }
+        }
 
-        try {
-            this.recordingDeviceDataDAOImpl.save(rddSet);
-            if (dataThresholdTester.isEnabled()) {
-                dataThresholdTester.testNewData(rda, patient, rddSet, alertListDO);
+        private void openPage() throws IOException {
+            String pageCursor = cursor;
+            cursor = null;
+            // create a URL of the concentrator including the patient group uuid and the cursor
+            URI targetUrl = UriComponentsBuilder.fromUriString(syncDataResourcePath)
+                    .path("/")
+                    .path(pg.getPatientGroupUuid())
+                    .queryParam("cursor", pageCursor)
+                    .queryParam("limit", pageSize)
+                    .build()
+                    .toUri();
+            ClientHttpRequest request = clientHttpRequestFactory.createRequest(targetUrl, HttpMethod.GET);
+            request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+            response = request.execute();
+            HttpStatus status = response.getStatusCode();
+            if (status == HttpStatus.NO_CONTENT) {
+                closePage();
+                return;
             }
-        } catch (EmptyResultDataAccessException e) {
-            // Nothing to do if there is no Attribute threshold for the reading
-        } catch (Exception e) {
-            logger.log(RequestDataFromConcentrator.class.getName() + ".dbIssue", "Attempt to write data for " + rdd.getAttributeId().getAttributeName() + " to DB failed");
-            throw new InternalServerError500Exception("Attempt to write data for " + rdd.getAttributeId().getAttributeName() + " to DB failed");
+            if (!status.is2xxSuccessful()) {
+                closePage();
+                throw new IOException("The concentrator returned HTTP status " + status + " for patient group " + pg.getPatientGroupUuid());
+            }
+            cursor = response.getHeaders().getFirst(NEXTCURSORHEADER);
+            if (pageCursor.equals(cursor)) {
+                closePage();
+                throw new IOException("The concentrator returned the same cursor " + cursor + " for patient group " + pg.getPatientGroupUuid());
+            }
+            parser = mapper.getFactory().createParser(response.getBody());
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.VALUE_NULL) {
+                // empty page
+                closePage();
+            } else if (token != JsonToken.START_ARRAY) {
+                closePage();
+                throw new IOException("Error mapping values from host response onto the PatientDataRequestDO: expected a JSON array but found " + token);
+            }
+        }
 
+        private void closePage() throws IOException {
+            try {
+                if (parser != null) {
+                    parser.close();
+                }
+            } finally {
+                parser = null;
+                if (response != null) {
+                    response.close();
+                    response = null;
+                }
+            }
         }
-    }
 
-    @Transactional
-    private RecordingDeviceAttribute updateRecordingDeviceAttribute(RecordingDeviceAttribute rda, RecordingDeviceData rdd, RecordingDeviceType rdt) {
-        rda = new RecordingDeviceAttribute();
-        rda.setAttributeName(rdd.getAttributeId().getAttributeName());
-        rda.setAttributeType(rdd.getAttributeId().getAttributeType());
-        rda.setAttributeUnits(rdd.getAttributeId().getAttributeUnits());
-        rda.setTypeId(rdt);
-        recordingDeviceAttributeDAOImpl.save(rda);
-        return rda;
+        @Override
+        public void close() throws IOException {
+            closePage();
+        }
     }
 
-    @Transactional
-    private RecordingDeviceType updateRecordingDeviceType(RecordingDeviceType rdt, RecordingDeviceData rdd) {
-        rdt = new RecordingDeviceType();
-        rdt.setType(rdd.getAttributeId().getTypeId().getType());
-        rdt.setMake(rdd.getAttributeId().getTypeId().getMake());
-        rdt.setModel(rdd.getAttributeId().getTypeId().getModel());
-        rdt.setDisplayName(rdd.getAttributeId().getTypeId().getDisplayName());
-        recordingDeviceTypeDAOImpl.save(rdt);
-        return rdt;
+    private void waitFor(List<Future<?>> futures) {
+        // copy as the list of send futures is added to by the sync threads
+        List<Future<?>> copy;
+        synchronized (futures) {
+            copy = new ArrayList<>(futures);
+        }
+        for (Future<?> f : copy) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                MediPiLogger.getInstance().log(RequestDataFromConcentrator.class.getName() + "error", "Error occurred: " + e.getCause().getLocalizedMessage());
+                System.out.println("Error occurred: " + e.getCause().getLocalizedMessage());
+            }
+        }
     }
 
 }
@@ -54,6 +54,9 @@ public class SSLClientHttpRequestFactory {
     private String connectionRT;
     @Value("${medipi.clinical.readtimeout}")
     private String readTO;
+    //Patient groups are synchronised concurrently so allow more than the default 2 connections to the concentrator
+    @Value("${medipi.clinical.maxconnections:20}")
+    private int maxConnections;
     
     private int connectTimeout = 0;
     private int connectionRequestTimeout = 0;
@@ -73,7 +76,11 @@ public class SSLClientHttpRequestFactory {
         }
         //Create RestTemplate to send message to MediPiConcentrator
         SSLConnectionSocketFactory socketFactory = new SSLConnectionSocketFactory(createSSLContext(), NoopHostnameVerifier.INSTANCE);
-        HttpClient httpClient = HttpClients.custom().setSSLSocketFactory(socketFactory).build();
+        HttpClient httpClient = HttpClients.custom()
+                .setSSLSocketFactory(socketFactory)
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .build();
         HttpComponentsClientHttpRequestFactory componentsRequestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
         componentsRequestFactory.setConnectTimeout(connectTimeout);
         componentsRequestFactory.setConnectionRequestTimeout(connectionRequestTimeout);
@@ -30,6 +30,7 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestClientException;
@@ -37,6 +38,11 @@ import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
 /**
+ * Class to send alerts and simple messages to the concentrator.
+ *
+ * Messages are sent after the data which generated them has been committed, so
+ * each send runs in its own transaction to record the outcome against the
+ * alert or simple message
  *
  * @author rick@robinsonhq.com
  */
@@ -50,6 +56,7 @@ public class SendAlertService {
     @Value("${medipi.clinical.patientcertificate.resourcepath}")
     private String patientCertificateResourcePath;
 
+    @Transactional(rollbackFor = RuntimeException.class)
     public void resendDirectMessages(Tester tester, RestTemplate restTemplate) {
 
         List<DirectPatientMessage> retryDirectMessageList = tester.findDirectPatientMessagesToResend();
@@ -61,6 +68,7 @@ public class SendAlertService {
         }
     }
 
+    @Transactional(rollbackFor = RuntimeException.class)
     public boolean sendDirectMessage(Tester tester, DirectPatientMessage directPatientMessage, String patientUuid, RestTemplate restTemplate) {
 
         // create a URL of the concentrator inclusing the patient group uuid and the last sync time
@@ -30,22 +30,17 @@ import org.springframework.stereotype.Component;
 public interface AttributeThresholdTest {
     
     /**
-     * Initialises the threshold test setting the parameters for its use
+     * Compiles an attribute threshold into an immutable rule which can be
+     * evaluated concurrently against any number of measurements. All the
+     * threshold values are parsed and the message templates resolved here so
+     * that evaluation needs no further lookups of the threshold
      *
      * @param properties properties class
      * @param attributeThreshold to obtain attributes from the DB
-     * @throws Exception
-     */
-    public void init(Properties properties,AttributeThreshold attributeThreshold) throws Exception;
-
-    /**
-     * Method to test if a new measurement is in or out of threshold
-     *
-     * @param rdd data to be tested as part of a RecordingDeviceData object
-     * @return returns true if test in within bounds false if test is out of
-     * bounds
+     * @return compiled rule
+     * @throws Exception if the threshold values cannot be parsed
      */
-    public Boolean test(RecordingDeviceData rdd);
+    public ThresholdRule compile(Properties properties, AttributeThreshold attributeThreshold) throws Exception;
 
     /**
      * Method to return upper and lower boundary values of the threshold of a
@@ -60,26 +55,18 @@ public interface AttributeThresholdTest {
     public List<Double> getThreshold(int attributeId, String patientUuid, Date dataValueTime, String dataValue)throws Exception;
 
     /**
-     * Method to return a descriptive string taken from the properties file and
-     * substituted with values from the measurement data describing a failure condition
+     * Method to return the upper and lower boundary values of the threshold
+     * for each of a series of measurements of one attribute, as getThreshold
+     * would for each measurement. The thresholds and any history needed are
+     * read once for the whole series
      *
-     * @return descriptive string of the alert
-     */
-    public String getFailedTestText();
-
-    /**
-     * Method to return a descriptive string taken from the properties file and
-     * substituted with values from the measurement data describing a cant calculate condition
-     *
-     * @return descriptive string of the alert
-     */
-    public String getCantCalculateTestText();
-
-    /**
-     * Method to return a descriptive string taken from the properties file and
-     * substituted with values from the measurement data describing a non-failure condition
-     *
-     * @return descriptive string of the alert
+     * @param attributeId attribute of the measurements
+     * @param patientUuid patient the measurements belong to
+     * @param dataValueTimes times of the measurements
+     * @param dataValues values of the measurements
+     * @return List of threshold boundary values for each measurement, in the
+     * same order as the measurements
+     * @throws Exception
      */
-    public String getPassedTestText();
+    public List<List<Double>> getThresholds(int attributeId, String patientUuid, List<Date> dataValueTimes, List<String> dataValues) throws Exception;
 }
@@ -22,14 +22,13 @@
 package org.medipi.clinical.threshold;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.medipi.clinical.dao.AttributeThresholdDAOImpl;
-import org.medipi.clinical.dao.DirectMessageTextDAOImpl;
-import org.medipi.clinical.dao.RecordingDeviceDataDAOImpl;
 import org.medipi.clinical.entities.AttributeThreshold;
 import org.medipi.clinical.entities.RecordingDeviceData;
 import org.medipi.clinical.logging.MediPiLogger;
@@ -60,59 +59,52 @@ public class ChangeOverTimeTest implements AttributeThresholdTest {
     private static final String MEDIPICLINICALALERTCANTCALCULATETESTTEXT = "medipi.clinical.alert.changeovertimetest.cantcalculatetesttext";
     private static final String MEDIPICLINICALFEWESTNUMBEROFDATAPOINTSTOCALCULATEFROM = "medipi.clinical.alert.changeovertimetest.fewestnumberofdatapointstocalculatefrom";
 
-    @Autowired
-    private RecordingDeviceDataDAOImpl recordingDeviceDataDAOImpl;
+    private static final int DEFAULT_FEWEST_CALCULATING_POINTS = 3;
+    private static final long MILLIS_PER_HOUR = 3600000L;
 
     @Autowired
     private AttributeThresholdDAOImpl attributeThresholdDAOImpl;
-    
-    @Autowired
-    private DirectMessageTextDAOImpl directMessageTextDAOImpl;
-
-    private AttributeThreshold attributeThreshold;
-    // This measures the number of hours' period the change should be measured over - IT IS AN INTEGER
-    private int measurementPeriod;
-    // This measure the maximum allowable change which is acceptable
-    private double measurementChangeThreshold;
 
-    private double currentValue;
-    private String attributeUnits = null;
+    @Autowired
+    private MessageTemplateCache messageTemplateCache;
 
-    private String failedTestText = null;
-    private String cantCalculateTestText = null;
-    private String passedTestText = null;
-    private int fewestCalculatingPoints = 3;
+    @Autowired
+    private TrendStore trendStore;
 
     /**
-     * Initialises the threshold test setting the parameters for its use
+     * Compiles the threshold into an immutable rule
      *
      * @param properties properties class
      * @param attributeThreshold to obtain attributes from the DB
+     * @return compiled rule
      * @throws Exception
      */
     @Override
-    public void init(Properties properties, AttributeThreshold attributeThreshold) throws Exception {
-        failedTestText = this.directMessageTextDAOImpl.findByDirectMessageTextId(MEDIPICLINICALALERTFAILEDTESTTEXT).getDirectMessageText();
-        cantCalculateTestText = this.directMessageTextDAOImpl.findByDirectMessageTextId(MEDIPICLINICALALERTCANTCALCULATETESTTEXT).getDirectMessageText();
-        passedTestText = this.directMessageTextDAOImpl.findByDirectMessageTextId(MEDIPICLINICALALERTPASSEDTESTTEXT).getDirectMessageText();
-
-        measurementPeriod = getMeasurementPeriod(attributeThreshold.getThresholdLowValue());
-        measurementChangeThreshold = getMeasurementChangeThreshold(attributeThreshold.getThresholdHighValue());
+    public ThresholdRule compile(Properties properties, AttributeThreshold attributeThreshold) throws Exception {
+        // This measures the number of hours' period the change should be measured over - IT IS AN INTEGER
+        int measurementPeriod = getMeasurementPeriod(attributeThreshold.getThresholdLowValue());
+        // This measure the maximum allowable change which is acceptable
+        double measurementChangeThreshold = getMeasurementChangeThreshold(attributeThreshold.getThresholdHighValue());
+        int fewestCalculatingPoints;
         String fewestCalculatingPointsString = properties.getProperty(MEDIPICLINICALFEWESTNUMBEROFDATAPOINTSTOCALCULATEFROM);
         if (fewestCalculatingPointsString == null || fewestCalculatingPointsString.trim().length() == 0) {
             MediPiLogger.getInstance().log(ChangeOverTimeTest.class.getName() + "warning", "Warning - The fewest number of calculating points to be used is not set on the properties file (default to 3)");
             System.out.println("Warning - The fewest number of calculating points to be used is not set on the properties file (default to 3)");
-            fewestCalculatingPoints = 3;
+            fewestCalculatingPoints = DEFAULT_FEWEST_CALCULATING_POINTS;
         } else {
             try {
                 fewestCalculatingPoints = Integer.parseInt(fewestCalculatingPointsString);
             } catch (NumberFormatException numberFormatException) {
                 MediPiLogger.getInstance().log(ChangeOverTimeTest.class.getName() + "error", "Error - Can't read the fewest number of calculating points to be used from the properties file (default to 3): " + numberFormatException.getLocalizedMessage());
                 System.out.println("Error - Can't read the fewest number of calculating points to be used from the properties file (default to 3): " + numberFormatException.getLocalizedMessage());
-                fewestCalculatingPoints = 3;
+                fewestCalculatingPoints = DEFAULT_FEWEST_CALCULATING_POINTS;
             }
         }
-
+        return new Rule(attributeThreshold.getAttributeThresholdId(), attributeThreshold.getEffectiveDate(),
+                messageTemplateCache.getTemplate(MEDIPICLINICALALERTPASSEDTESTTEXT),
+                messageTemplateCache.getTemplate(MEDIPICLINICALALERTFAILEDTESTTEXT),
+                messageTemplateCache.getTemplate(MEDIPICLINICALALERTCANTCALCULATETESTTEXT),
+                measurementPeriod, measurementChangeThreshold, fewestCalculatingPoints);
     }
 
     private double getMeasurementChangeThreshold(String threshold) throws Exception {
@@ -145,120 +137,17 @@ public class ChangeOverTimeTest implements AttributeThresholdTest {
         }
     }
 
-    /**
-     * Method to test if a new measurement is in or out of threshold
-     *
-     * @param rdd data to be tested as part of a RecordingDeviceData object
-     * @return returns true if test in within bounds false if test is out of
-     * bounds
-     */
-    @Override
-    public Boolean test(RecordingDeviceData rdd) {
-
-        try {
-            attributeUnits = rdd.getAttributeId().getAttributeUnits();
-            currentValue = Double.valueOf(rdd.getDataValue());
-            Double historicValue = getHistoricValue(rdd.getAttributeId().getAttributeId(), rdd.getPatientUuid().getPatientUuid(), rdd.getDataValueTime(), measurementPeriod);
-            if (historicValue == null) {
-                return null;
-            } else if (historicValue + measurementChangeThreshold <= currentValue) { // Gained too much
-                return false;
-            } else if (historicValue - measurementChangeThreshold >= currentValue) { // lost too much
-                return false;
-            } else {
-                return true;
-            }
-        } catch (NumberFormatException nfe) {
-            MediPiLogger.getInstance().log(ChangeOverTimeTest.class.getName() + "error", "Error in converting the incoming data value to be tested to a double " + nfe.getLocalizedMessage());
-            System.out.println("Error in converting the incoming data value to be tested to a double" + nfe.getLocalizedMessage());
-            return null;
-        } catch (Exception e) {
-            MediPiLogger.getInstance().log(ChangeOverTimeTest.class.getName() + "error", "Error in testing the change over time: " + e.getLocalizedMessage());
-            System.out.println("Error in testing the change over time: " + e.getLocalizedMessage());
-            return null;
-        }
-
-    }
-
-    private Double getHistoricValue(int attributeId, String patientUuid, Date dataValueTime, int period) {
-        try {
-            // Can  a date value be found for x hours ago? we will use linear least squared method
-            Calendar start = Calendar.getInstance();
-            start.setTime(dataValueTime);
-            start.add(Calendar.HOUR, -period);
-            Date periodStartTime = start.getTime();
-            // Access the database and find the first  entry before the started period so that the least square method will have at least the epriod stated
-            Date firstBeforePeriod = recordingDeviceDataDAOImpl.findFirstEntryBeforePeriod(patientUuid, attributeId, periodStartTime);
-            if (firstBeforePeriod == null) {
-                return null;
-            }
-            // Access the database and collect all records within this period
-            List<RecordingDeviceData> historicList = recordingDeviceDataDAOImpl.findByPatientAndAttributeAndPeriod(patientUuid, attributeId, firstBeforePeriod, dataValueTime);
-
-            if (historicList == null || historicList.isEmpty()) {
-                // DONT KNOW WHAT TO DO HERE WHERE THERE IS NOT PRECEDING DATAPOINT?
-                // 1. return null and count as failure - but this will fail whenever there is a new patient for n days
-                // 2. return a true - however the test hagetHistoricValues not passed
-                // 3. return a false - however the test has not failed
-                // 4. interpolate from surrounding data and perform test - tricky and dangerous
-
-                return null;
-            } else {
-                int MAXN = 1000;
-                int n = 0;
-                double[] x = new double[MAXN];
-                double[] y = new double[MAXN];
-
-                // first pass: read in data, compute xbar and ybar
-                double sumx = 0.0, sumy = 0.0, sumx2 = 0.0;
-                for (RecordingDeviceData historic : historicList) {
-                    Long startMillis = firstBeforePeriod.getTime();
-                    Long pointMillis = historic.getDataValueTime().getTime();
-                    Long millisAfterStart = pointMillis - startMillis;
-                    x[n] = Double.valueOf(millisAfterStart);
-                    y[n] = Double.valueOf(historic.getDataValue());
-                    sumx += x[n];
-                    sumx2 += x[n] * x[n];
-                    sumy += y[n];
-                    n++;
-                }
-                //if there are fewer than 2 values its not got enough data to perform a least squarea
-                if (n < fewestCalculatingPoints || n <= 1) {
-                    return null;
-                }
-                double xbar = sumx / n;
-                double ybar = sumy / n;
-
-                // second pass: compute summary statistics
-                double xxbar = 0.0, yybar = 0.0, xybar = 0.0;
-                for (int i = 0; i < n; i++) {
-                    xxbar += (x[i] - xbar) * (x[i] - xbar);
-                    yybar += (y[i] - ybar) * (y[i] - ybar);
-                    xybar += (x[i] - xbar) * (y[i] - ybar);
-                }
-                double beta1 = xybar / xxbar;
-                double beta0 = ybar - beta1 * xbar;
-
-                // print results
-                System.out.println("y   = " + beta1 + " * x + " + beta0);
-                long millisAtPeriodStartTime = dataValueTime.getTime() - periodStartTime.getTime();
-                // As we are wanting the value at millisecondsAfter Start=0 need to return beta1*0+ beta0
-                // y=ax * b
-                Double h = (beta1 * millisAtPeriodStartTime) + beta0;
-                System.out.println("millisAtPeriodStartTime=" + millisAtPeriodStartTime);
-                System.out.println("weight at lastPoint==" + h);
-                return h;
-            }
-        } catch (NumberFormatException nfe) {
-            MediPiLogger.getInstance().log(ChangeOverTimeTest.class.getName() + "error", "Error in converting the incoming data value to be tested to a double " + nfe.getLocalizedMessage());
-            System.out.println("Error in converting the incoming data value to be tested to a double" + nfe.getLocalizedMessage());
-            return null;
-        } catch (Exception e) {
-            MediPiLogger.getInstance().log(ChangeOverTimeTest.class.getName() + "error", "Error in testing the change over time: " + e.getLocalizedMessage());
-            System.out.println("Error in testing the change over time: " + e.getLocalizedMessage());
-            return null;
-        }
-
+    // Reads the history for a single measurement from the DB. New measurements
+    // being tested use the trends held by the TrendStore instead
+    private Double getHistoricValue(int attributeId, String patientUuid, Date dataValueTime, int period, int fewestCalculatingPoints) {
+        long periodMillis = period * MILLIS_PER_HOUR;
+        TrendSeries series = trendStore.loadSeries(attributeId, patientUuid, new Date(dataValueTime.getTime() - periodMillis));
+        // DONT KNOW WHAT TO DO HERE WHERE THERE IS NOT PRECEDING DATAPOINT?
+        // 1. return null and count as failure - but this will fail whenever there is a new patient for n days
+        // 2. return a true - however the test has not passed
+        // 3. return a false - however the test has not failed
+        // 4. interpolate from surrounding data and perform test - tricky and dangerous
+        return series.predict(dataValueTime.getTime(), periodMillis, fewestCalculatingPoints);
     }
 //    private Double getHistoricValue(RecordingDeviceData rdd, int period) {
 //        try {
@@ -321,7 +210,7 @@ public class ChangeOverTimeTest implements AttributeThresholdTest {
             int period = getMeasurementPeriod(at.getThresholdLowValue());
             double threshold = getMeasurementChangeThreshold(at.getThresholdHighValue());
             List<Double> thresholdList = new ArrayList<>();
-            Double historicValue = getHistoricValue(attributeId, patientUuid, dataValueTime, period);
+            Double historicValue = getHistoricValue(attributeId, patientUuid, dataValueTime, period, DEFAULT_FEWEST_CALCULATING_POINTS);
             if (historicValue == null) {
                 thresholdList.add(getDataValue(dataValue));
                 thresholdList.add(getDataValue(dataValue));
@@ -333,55 +222,95 @@ public class ChangeOverTimeTest implements AttributeThresholdTest {
         }
     }
 
-    /**
-     * Method to return a descriptive string taken from the properties file and
-     * substituted with values from the measurement data describing a failure
-     * condition
-     *
-     * @return descriptive string of the alert
-     */
     @Override
-    public String getFailedTestText() {
-        String response = failedTestText
-                .replace(DATA_VALUE, String.valueOf(currentValue))
-                .replace(ATTRIBUTE_UNITS, attributeUnits)
-                .replace(MEASUREMENT_PERIOD, String.valueOf(measurementPeriod))
-                .replace(MEASUREMENT_CHANGE_THRESHOLD, String.valueOf(measurementChangeThreshold));
+    public List<List<Double>> getThresholds(int attributeId, String patientUuid, List<Date> dataValueTimes, List<String> dataValues) throws Exception {
+        EffectiveThresholds thresholds = new EffectiveThresholds(attributeThresholdDAOImpl.findByAttributeAndPatient(attributeId, patientUuid));
+        // find the threshold for each measurement and the earliest history needed
+        AttributeThreshold[] effective = new AttributeThreshold[dataValueTimes.size()];
+        long earliest = Long.MAX_VALUE;
+        for (int i = 0; i < effective.length; i++) {
+            effective[i] = thresholds.find(dataValueTimes.get(i));
+            if (effective[i] != null) {
+                long periodStart = dataValueTimes.get(i).getTime() - getMeasurementPeriod(effective[i].getThresholdLowValue()) * MILLIS_PER_HOUR;
+                earliest = Math.min(earliest, periodStart);
+            }
+        }
+        List<List<Double>> response = new ArrayList<>();
+        if (earliest == Long.MAX_VALUE) {
+            for (int i = 0; i < effective.length; i++) {
+                response.add(null);
+            }
+            return response;
+        }
+        // one series covers the history of every measurement in the list
+        TrendSeries series = trendStore.loadSeries(attributeId, patientUuid, new Date(earliest));
+        for (int i = 0; i < effective.length; i++) {
+            if (effective[i] == null) {
+                response.add(null);
+                continue;
+            }
+            int period = getMeasurementPeriod(effective[i].getThresholdLowValue());
+            double threshold = getMeasurementChangeThreshold(effective[i].getThresholdHighValue());
+            Double historicValue = series.predict(dataValueTimes.get(i).getTime(), period * MILLIS_PER_HOUR, DEFAULT_FEWEST_CALCULATING_POINTS);
+            List<Double> thresholdList = new ArrayList<>();
+            if (historicValue == null) {
+                thresholdList.add(getDataValue(dataValues.get(i)));
+                thresholdList.add(getDataValue(dataValues.get(i)));
+            } else {
+                thresholdList.add(historicValue - threshold);
+                thresholdList.add(historicValue + threshold);
+            }
+            response.add(thresholdList);
+        }
         return response;
     }
 
     /**
-     * Method to return a descriptive string taken from the properties file and
-     * substituted with values from the measurement data describing a
-     * non-failure condition
-     *
-     * @return descriptive string of the alert
+     * Immutable rule which fails when the new measurement has moved further
+     * than the change threshold from the least squares prediction of the
+     * measurements taken over the measurement period
      */
-    @Override
-    public String getPassedTestText() {
-        String response = passedTestText
-                .replace(DATA_VALUE, String.valueOf(currentValue))
-                .replace(ATTRIBUTE_UNITS, attributeUnits)
-                .replace(MEASUREMENT_PERIOD, String.valueOf(measurementPeriod))
-                .replace(MEASUREMENT_CHANGE_THRESHOLD, String.valueOf(measurementChangeThreshold));
-        return response;
-    }
+    private final class Rule extends ThresholdRule {
 
-    /**
-     * Method to return a descriptive string taken from the properties file and
-     * substituted with values from the measurement data describing a cant
-     * calculate condition
-     *
-     * @return descriptive string of the alert
-     */
-    @Override
-    public String getCantCalculateTestText() {
-        String response = cantCalculateTestText
-                .replace(DATA_VALUE, String.valueOf(currentValue))
-                .replace(ATTRIBUTE_UNITS, attributeUnits)
-                .replace(MEASUREMENT_PERIOD, String.valueOf(measurementPeriod))
-                .replace(MEASUREMENT_CHANGE_THRESHOLD, String.valueOf(measurementChangeThreshold));
-        return response;
-    }
+        private final int measurementPeriod;
+        private final double measurementChangeThreshold;
+        private final int fewestCalculatingPoints;
 
+        private Rule(int attributeThresholdId, Date effectiveDate, MessageTemplate passedTestText, MessageTemplate failedTestText, MessageTemplate cantCalculateTestText, int measurementPeriod, double measurementChangeThreshold, int fewestCalculatingPoints) {
+            super(attributeThresholdId, effectiveDate, passedTestText, failedTestText, cantCalculateTestText);
+            this.measurementPeriod = measurementPeriod;
+            this.measurementChangeThreshold = measurementChangeThreshold;
+            this.fewestCalculatingPoints = fewestCalculatingPoints;
+        }
+
+        @Override
+        public ThresholdResult evaluate(RecordingDeviceData rdd) {
+            Map<String, String> values = new HashMap<>();
+            values.put(ATTRIBUTE_UNITS, rdd.getAttributeId().getAttributeUnits());
+            values.put(MEASUREMENT_PERIOD, String.valueOf(measurementPeriod));
+            values.put(MEASUREMENT_CHANGE_THRESHOLD, String.valueOf(measurementChangeThreshold));
+            values.put(DATA_VALUE, rdd.getDataValue());
+            Boolean result;
+            Double numeric = rdd.getDataValueNumeric();
+            if (numeric != null) {
+                double currentValue = numeric;
+                values.put(DATA_VALUE, String.valueOf(currentValue));
+                Double historicValue = trendStore.getHistoricValue(rdd.getAttributeId().getAttributeId(), rdd.getPatientUuid().getPatientUuid(), rdd.getDataValueTime(), measurementPeriod, fewestCalculatingPoints);
+                if (historicValue == null) {
+                    result = null;
+                } else if (historicValue + measurementChangeThreshold <= currentValue) { // Gained too much
+                    result = false;
+                } else if (historicValue - measurementChangeThreshold >= currentValue) { // lost too much
+                    result = false;
+                } else {
+                    result = true;
+                }
+            } else {
+                MediPiLogger.getInstance().log(ChangeOverTimeTest.class.getName() + "error", "The incoming data value to be tested is not numeric: " + rdd.getDataValue());
+                System.out.println("The incoming data value to be tested is not numeric: " + rdd.getDataValue());
+                result = null;
+            }
+            return result(result, values);
+        }
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.Date;
+import java.util.List;
+import org.medipi.clinical.entities.AttributeThreshold;
+
+/**
+ * The thresholds for a patient's attribute in the order in which they became
+ * effective, used to find the threshold in force at any time without a query
+ * per measurement
+ */
+final class EffectiveThresholds {
+
+    private final List<AttributeThreshold> thresholds;
+    private final long[] effectiveTimes;
+
+    /**
+     * Constructor
+     *
+     * @param thresholds thresholds ordered by effective date
+     */
+    EffectiveThresholds(List<AttributeThreshold> thresholds) {
+        this.thresholds = thresholds;
+        this.effectiveTimes = new long[thresholds.size()];
+        for (int i = 0; i < effectiveTimes.length; i++) {
+            effectiveTimes[i] = thresholds.get(i).getEffectiveDate().getTime();
+        }
+    }
+
+    /**
+     * Finds the threshold in force at a time. Where thresholds share an
+     * effective date the last one added is used
+     *
+     * @param time time of the measurement
+     * @return threshold or null if none was in force
+     */
+    AttributeThreshold find(Date time) {
+        long t = time.getTime();
+        int low = 0;
+        int high = effectiveTimes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (effectiveTimes[mid] <= t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == 0 ? null : thresholds.get(low - 1);
+    }
+}
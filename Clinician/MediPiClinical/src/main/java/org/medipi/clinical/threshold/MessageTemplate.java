@@ -0,0 +1,91 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable, pre-parsed form of a direct message text. The text is split once
+ * into literal sections and __TOKEN__ placeholders so that rendering an alert
+ * is a single pass over the parts. Tokens which have no value supplied are
+ * left in the rendered text as they were
+ */
+public final class MessageTemplate {
+
+    private static final Pattern TOKEN = Pattern.compile("__[A-Z_]+?__");
+
+    private final String text;
+    private final List<String> parts;
+    private final boolean[] tokens;
+
+    public MessageTemplate(String text) {
+        this.text = text == null ? "" : text;
+        List<String> p = new ArrayList<>();
+        List<Boolean> t = new ArrayList<>();
+        Matcher m = TOKEN.matcher(this.text);
+        int last = 0;
+        while (m.find()) {
+            if (m.start() > last) {
+                p.add(this.text.substring(last, m.start()));
+                t.add(Boolean.FALSE);
+            }
+            p.add(m.group());
+            t.add(Boolean.TRUE);
+            last = m.end();
+        }
+        if (last < this.text.length()) {
+            p.add(this.text.substring(last));
+            t.add(Boolean.FALSE);
+        }
+        this.parts = Collections.unmodifiableList(p);
+        this.tokens = new boolean[t.size()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = t.get(i);
+        }
+    }
+
+    /**
+     * Renders the template substituting the tokens with the supplied values
+     *
+     * @param values map of token (including the surrounding underscores) to
+     * value
+     * @return rendered text
+     */
+    public String render(Map<String, String> values) {
+        StringBuilder sb = new StringBuilder(text.length() + 32);
+        for (int i = 0; i < tokens.length; i++) {
+            String part = parts.get(i);
+            if (tokens[i] && values.containsKey(part)) {
+                sb.append(values.get(part));
+            } else {
+                sb.append(part);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the unparsed text the template was created from
+     */
+    public String getText() {
+        return text;
+    }
+}
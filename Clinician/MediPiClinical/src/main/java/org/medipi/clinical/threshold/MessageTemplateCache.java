@@ -0,0 +1,90 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.medipi.clinical.dao.DirectMessageTextDAOImpl;
+import org.medipi.clinical.entities.DirectMessageText;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cache of the pre-parsed direct message texts used by the threshold tests.
+ *
+ * refresh() reads the whole direct_message_text table in one query and reports
+ * whether any text has changed since it was last called so that rules compiled
+ * with the old templates can be discarded
+ */
+@Component
+public class MessageTemplateCache {
+
+    @Autowired
+    private DirectMessageTextDAOImpl directMessageTextDAOImpl;
+
+    private final ConcurrentHashMap<String, MessageTemplate> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the parsed template for a direct message text id, reading it from
+     * the DB if it has not been seen before
+     *
+     * @param directMessageTextId id of the direct message text
+     * @return parsed template
+     */
+    public MessageTemplate getTemplate(String directMessageTextId) {
+        MessageTemplate template = templates.get(directMessageTextId);
+        if (template == null) {
+            template = new MessageTemplate(directMessageTextDAOImpl.findByDirectMessageTextId(directMessageTextId).getDirectMessageText());
+            MessageTemplate existing = templates.putIfAbsent(directMessageTextId, template);
+            if (existing != null) {
+                template = existing;
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Re-reads all the direct message texts
+     *
+     * @return true if any text has been changed or removed since the last
+     * refresh
+     */
+    public boolean refresh() {
+        List<DirectMessageText> texts = directMessageTextDAOImpl.findAll();
+        Map<String, String> latest = new HashMap<>();
+        for (DirectMessageText dmt : texts) {
+            latest.put(dmt.getDirectMessageTextId(), dmt.getDirectMessageText() == null ? "" : dmt.getDirectMessageText());
+        }
+        boolean changed = false;
+        for (Map.Entry<String, MessageTemplate> entry : templates.entrySet()) {
+            String text = latest.get(entry.getKey());
+            if (text == null || !text.equals(entry.getValue().getText())) {
+                changed = true;
+                break;
+            }
+        }
+        Map<String, MessageTemplate> parsed = new HashMap<>();
+        for (Map.Entry<String, String> entry : latest.entrySet()) {
+            MessageTemplate current = templates.get(entry.getKey());
+            parsed.put(entry.getKey(), current != null && current.getText().equals(entry.getValue()) ? current : new MessageTemplate(entry.getValue()));
+        }
+        templates.clear();
+        templates.putAll(parsed);
+        return changed;
+    }
+}
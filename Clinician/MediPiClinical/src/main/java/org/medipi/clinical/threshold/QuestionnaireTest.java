@@ -15,19 +15,15 @@
  */
 package org.medipi.clinical.threshold;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import org.medipi.clinical.dao.DirectMessageTextDAOImpl;
 import org.medipi.clinical.entities.AttributeThreshold;
 import org.medipi.clinical.entities.RecordingDeviceData;
 import org.springframework.stereotype.Component;
-import org.medipi.clinical.model.QuestionnaireDO;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
@@ -38,7 +34,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 public class QuestionnaireTest implements AttributeThresholdTest {
 
     @Autowired
-    private DirectMessageTextDAOImpl directMessageTextDAOImpl;
+    private MessageTemplateCache messageTemplateCache;
 
     private static final String GREEN_FLAG = "GREEN_FLAG";
     private static final String RED_FLAG = "RED_FLAG";
@@ -47,59 +43,20 @@ public class QuestionnaireTest implements AttributeThresholdTest {
     private static final String MEDIPICLINICALALERTFAILEDTESTTEXT = "medipi.clinical.alert.questionnairetest.failedtesttext";
     private static final String MEDIPICLINICALALERTCANTCALCULATETESTTEXT = "medipi.clinical.alert.questionnairetest.cantcalculatetesttext";
 
-    private String failedTestText = null;
-    private String passedTestText = null;
-    private String questionnaireType = null;
-    private String cantCalculateTestText = null;
-
     /**
-     * Initialises the threshold test setting the parameters for its use
+     * Compiles the threshold into an immutable rule
      *
      * @param properties properties class
      * @param attributeThreshold to obtain attributes from the DB
+     * @return compiled rule
      * @throws Exception
      */
     @Override
-    public void init(Properties properties, AttributeThreshold attributeThreshold) throws Exception {
-        failedTestText = this.directMessageTextDAOImpl.findByDirectMessageTextId(MEDIPICLINICALALERTFAILEDTESTTEXT).getDirectMessageText();
-        cantCalculateTestText = this.directMessageTextDAOImpl.findByDirectMessageTextId(MEDIPICLINICALALERTCANTCALCULATETESTTEXT).getDirectMessageText();
-        passedTestText = this.directMessageTextDAOImpl.findByDirectMessageTextId(MEDIPICLINICALALERTPASSEDTESTTEXT).getDirectMessageText();
-
-    }
-
-    /**
-     * Method to test if a new measurement is in or out of threshold
-     *
-     * @param rdd data to be tested as part of a RecordingDeviceData object
-     * @return returns true if test in within bounds false if test is out of
-     * bounds
-     */
-    @Override
-    public Boolean test(RecordingDeviceData rdd) {
-            questionnaireType = rdd.getAttributeId().getTypeId().getDisplayName();
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            QuestionnaireDO qdo = mapper.readValue(rdd.getDataValue(), new TypeReference<QuestionnaireDO>() {
-            });
-            
-            switch (qdo.getStatus()) {
-                case GREEN_FLAG:
-                    return true;
-                case RED_FLAG:
-                    return false;
-                default:
-                    // QUESTION: the structure of the questionnaire is to have multiple
-                    //data points for each qurtion and answer. This means that each of
-                    //these will trigger a test for questionnaireTest and therefore all
-                    //except the last data point will return null whihc is equivalent
-                    //to "CANNOT_CALCULATE" - a failure condition. Should the whole
-                    //questionnaire be concatenated into one string line ?
-                    return null;
-            }
-        } catch (IOException ex) {
-            return null;
-        }
-
+    public ThresholdRule compile(Properties properties, AttributeThreshold attributeThreshold) throws Exception {
+        return new Rule(attributeThreshold.getAttributeThresholdId(), attributeThreshold.getEffectiveDate(),
+                messageTemplateCache.getTemplate(MEDIPICLINICALALERTPASSEDTESTTEXT),
+                messageTemplateCache.getTemplate(MEDIPICLINICALALERTFAILEDTESTTEXT),
+                messageTemplateCache.getTemplate(MEDIPICLINICALALERTCANTCALCULATETESTTEXT));
     }
 
     /**
@@ -118,32 +75,48 @@ public class QuestionnaireTest implements AttributeThresholdTest {
         return null;
     }
 
-    /**
-     * Method to return a descriptive string taken from the properties file and
-     * substituted with values from the measurement data describing a
-     * non-failure condition
-     *
-     * @return descriptive string of the alert
-     */
     @Override
-    public String getFailedTestText() {
-        String response = failedTestText
-                .replace(QUESTIONNAIRE_TYPE, String.valueOf(questionnaireType));
+    public List<List<Double>> getThresholds(int attributeId, String patientUuid, List<Date> dataValueTimes, List<String> dataValues) throws Exception {
+        List<List<Double>> response = new ArrayList<>();
+        for (int i = 0; i < dataValueTimes.size(); i++) {
+            response.add(null);
+        }
         return response;
     }
 
-    @Override
-    public String getPassedTestText() {
-        String response = passedTestText
-                .replace(QUESTIONNAIRE_TYPE, String.valueOf(questionnaireType));
-        return response;
-    }
+    /**
+     * Immutable rule which takes the result from the status flag of the
+     * questionnaire
+     */
+    private static final class Rule extends ThresholdRule {
 
-    @Override
-    public String getCantCalculateTestText() {
-        String response = cantCalculateTestText
-                .replace(QUESTIONNAIRE_TYPE, String.valueOf(questionnaireType));
-        return response;
-    }
+        private Rule(int attributeThresholdId, Date effectiveDate, MessageTemplate passedTestText, MessageTemplate failedTestText, MessageTemplate cantCalculateTestText) {
+            super(attributeThresholdId, effectiveDate, passedTestText, failedTestText, cantCalculateTestText);
+        }
 
+        @Override
+        public ThresholdResult evaluate(RecordingDeviceData rdd) {
+            Map<String, String> values = new HashMap<>();
+            values.put(QUESTIONNAIRE_TYPE, String.valueOf(rdd.getAttributeId().getTypeId().getDisplayName()));
+            Boolean result;
+            // the status flag of the questionnaire is held in the text column when it is stored
+            switch (String.valueOf(rdd.getDataValueText())) {
+                case GREEN_FLAG:
+                    result = true;
+                    break;
+                case RED_FLAG:
+                    result = false;
+                    break;
+                default:
+                    // QUESTION: the structure of the questionnaire is to have multiple
+                    //data points for each qurtion and answer. This means that each of
+                    //these will trigger a test for questionnaireTest and therefore all
+                    //except the last data point will return null whihc is equivalent
+                    //to "CANNOT_CALCULATE" - a failure condition. Should the whole
+                    //questionnaire be concatenated into one string line ?
+                    result = null;
+            }
+            return result(result, values);
+        }
+    }
 }
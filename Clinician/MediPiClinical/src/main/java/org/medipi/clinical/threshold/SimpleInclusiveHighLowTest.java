@@ -17,11 +17,11 @@ package org.medipi.clinical.threshold;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import org.medipi.clinical.dao.AttributeThresholdDAOImpl;
-import org.medipi.clinical.dao.DirectMessageTextDAOImpl;
-import org.medipi.clinical.dao.RecordingDeviceDataDAOImpl;
 import org.medipi.clinical.entities.AttributeThreshold;
 import org.medipi.clinical.entities.RecordingDeviceData;
 import org.medipi.clinical.logging.MediPiLogger;
@@ -43,42 +43,28 @@ public class SimpleInclusiveHighLowTest implements AttributeThresholdTest {
     private static final String MEDIPICLINICALALERTFAILEDTESTTEXT = "medipi.clinical.alert.simpleinclusivehighlowtest.failedtesttext";
     private static final String MEDIPICLINICALALERTCANTCALCULATETESTTEXT = "medipi.clinical.alert.simpleinclusivehighlowtest.cantcalculatetesttext";
 
-    @Autowired
-    private RecordingDeviceDataDAOImpl recordingDeviceDataDAOImpl;
-
     @Autowired
     private AttributeThresholdDAOImpl attributeThresholdDAOImpl;
 
     @Autowired
-    private DirectMessageTextDAOImpl directMessageTextDAOImpl;
-
-    private Properties properties;
-    private AttributeThreshold attributeThreshold;
-    private double lowValue;
-    private double highValue;
-    private double dataValue;
-    private String attributeUnits = null;
-
-    private String failedTestText = null;
-    private String passedTestText = null;
-    private String cantCalculateTestText = null;
+    private MessageTemplateCache messageTemplateCache;
 
     /**
-     * Initialises the threshold test setting the parameters for its use
+     * Compiles the threshold into an immutable rule
      *
      * @param properties properties class
      * @param attributeThreshold to obtain attributes from the DB
+     * @return compiled rule
      * @throws Exception
      */
     @Override
-    public void init(Properties properties, AttributeThreshold attributeThreshold) throws Exception {
-        failedTestText = this.directMessageTextDAOImpl.findByDirectMessageTextId(MEDIPICLINICALALERTFAILEDTESTTEXT).getDirectMessageText();
-        cantCalculateTestText = this.directMessageTextDAOImpl.findByDirectMessageTextId(MEDIPICLINICALALERTCANTCALCULATETESTTEXT).getDirectMessageText();
-        passedTestText = this.directMessageTextDAOImpl.findByDirectMessageTextId(MEDIPICLINICALALERTPASSEDTESTTEXT).getDirectMessageText();
-
-        lowValue = getLowValue(attributeThreshold.getThresholdLowValue());
-        highValue = getHighValue(attributeThreshold.getThresholdHighValue());
-
+    public ThresholdRule compile(Properties properties, AttributeThreshold attributeThreshold) throws Exception {
+        return new Rule(attributeThreshold.getAttributeThresholdId(), attributeThreshold.getEffectiveDate(),
+                messageTemplateCache.getTemplate(MEDIPICLINICALALERTPASSEDTESTTEXT),
+                messageTemplateCache.getTemplate(MEDIPICLINICALALERTFAILEDTESTTEXT),
+                messageTemplateCache.getTemplate(MEDIPICLINICALALERTCANTCALCULATETESTTEXT),
+                getLowValue(attributeThreshold.getThresholdLowValue()),
+                getHighValue(attributeThreshold.getThresholdHighValue()));
     }
 
     private double getLowValue(String low) throws Exception {
@@ -110,32 +96,6 @@ public class SimpleInclusiveHighLowTest implements AttributeThresholdTest {
         }
     }
 
-    /**
-     * Method to test if a new measurement is in or out of threshold
-     *
-     * @param rdd data to be tested as part of a RecordingDeviceData object
-     * @return returns true if test in within bounds false if test is out of
-     * bounds
-     */
-    @Override
-    public Boolean test(RecordingDeviceData rdd) {
-        try {
-            attributeUnits = rdd.getAttributeId().getAttributeUnits();
-            dataValue = Double.valueOf(rdd.getDataValue());
-
-            return !(dataValue > highValue || dataValue < lowValue);
-
-        } catch (NumberFormatException nfe) {
-            MediPiLogger.getInstance().log(SimpleInclusiveHighLowTest.class.getName() + "error", "Error in converting the incoming data value to be tested to a double " + nfe.getLocalizedMessage());
-            System.out.println("Error in converting the incoming data value to be tested to a double" + nfe.getLocalizedMessage());
-            return null;
-        } catch (Exception e) {
-            MediPiLogger.getInstance().log(ChangeOverTimeTest.class.getName() + "error", "Error in testing the simple inclusive high low value: " + e.getLocalizedMessage());
-            System.out.println("Error in testing the simple inclusive high low value: " + e.getLocalizedMessage());
-            return null;
-        }
-    }
-
     /**
      * Method to return a descriptive string taken from the properties file and
      * substituted with values from the measurement data describing a failure
@@ -164,41 +124,58 @@ public class SimpleInclusiveHighLowTest implements AttributeThresholdTest {
         }
     }
 
-    /**
-     * Method to return a descriptive string taken from the properties file and
-     * substituted with values from the measurement data describing a
-     * non-failure condition
-     *
-     * @return descriptive string of the alert
-     */
     @Override
-    public String getFailedTestText() {
-        String response = failedTestText
-                .replace(DATA_VALUE, String.valueOf(dataValue))
-                .replace(ATTRIBUTE_UNITS, attributeUnits)
-                .replace(UPPER_THRESHOLD_LIMIT, String.valueOf(highValue))
-                .replace(LOWER_THRESHOLD_LIMIT, String.valueOf(lowValue));
+    public List<List<Double>> getThresholds(int attributeId, String patientUuid, List<Date> dataValueTimes, List<String> dataValues) throws Exception {
+        EffectiveThresholds thresholds = new EffectiveThresholds(attributeThresholdDAOImpl.findByAttributeAndPatient(attributeId, patientUuid));
+        List<List<Double>> response = new ArrayList<>();
+        for (Date dataValueTime : dataValueTimes) {
+            AttributeThreshold at = thresholds.find(dataValueTime);
+            if (at == null) {
+                response.add(null);
+            } else {
+                List<Double> thresholdList = new ArrayList<>();
+                thresholdList.add(getLowValue(at.getThresholdLowValue()));
+                thresholdList.add(getHighValue(at.getThresholdHighValue()));
+                response.add(thresholdList);
+            }
+        }
         return response;
     }
 
-    @Override
-    public String getPassedTestText() {
-        String response = passedTestText
-                .replace(DATA_VALUE, String.valueOf(dataValue))
-                .replace(ATTRIBUTE_UNITS, attributeUnits)
-                .replace(UPPER_THRESHOLD_LIMIT, String.valueOf(highValue))
-                .replace(LOWER_THRESHOLD_LIMIT, String.valueOf(lowValue));
-        return response;
-    }
+    /**
+     * Immutable rule which passes when the data value is within the inclusive
+     * low and high threshold values
+     */
+    private static final class Rule extends ThresholdRule {
 
-    @Override
-    public String getCantCalculateTestText() {
-        String response = cantCalculateTestText
-                .replace(DATA_VALUE, String.valueOf(dataValue))
-                .replace(ATTRIBUTE_UNITS, attributeUnits)
-                .replace(UPPER_THRESHOLD_LIMIT, String.valueOf(highValue))
-                .replace(LOWER_THRESHOLD_LIMIT, String.valueOf(lowValue));
-        return response;
-    }
+        private final double lowValue;
+        private final double highValue;
 
+        private Rule(int attributeThresholdId, Date effectiveDate, MessageTemplate passedTestText, MessageTemplate failedTestText, MessageTemplate cantCalculateTestText, double lowValue, double highValue) {
+            super(attributeThresholdId, effectiveDate, passedTestText, failedTestText, cantCalculateTestText);
+            this.lowValue = lowValue;
+            this.highValue = highValue;
+        }
+
+        @Override
+        public ThresholdResult evaluate(RecordingDeviceData rdd) {
+            Map<String, String> values = new HashMap<>();
+            values.put(ATTRIBUTE_UNITS, rdd.getAttributeId().getAttributeUnits());
+            values.put(UPPER_THRESHOLD_LIMIT, String.valueOf(highValue));
+            values.put(LOWER_THRESHOLD_LIMIT, String.valueOf(lowValue));
+            Boolean result;
+            Double numeric = rdd.getDataValueNumeric();
+            if (numeric != null) {
+                double dataValue = numeric;
+                values.put(DATA_VALUE, String.valueOf(dataValue));
+                result = !(dataValue > highValue || dataValue < lowValue);
+            } else {
+                MediPiLogger.getInstance().log(SimpleInclusiveHighLowTest.class.getName() + "error", "The incoming data value to be tested is not numeric: " + rdd.getDataValue());
+                System.out.println("The incoming data value to be tested is not numeric: " + rdd.getDataValue());
+                values.put(DATA_VALUE, rdd.getDataValue());
+                result = null;
+            }
+            return result(result, values);
+        }
+    }
 }
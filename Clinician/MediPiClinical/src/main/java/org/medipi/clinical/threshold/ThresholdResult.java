@@ -0,0 +1,84 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable outcome of evaluating a ThresholdRule against a single
+ * measurement. It holds the test status, the message template which describes
+ * it and the values to substitute into that template
+ */
+public final class ThresholdResult {
+
+    public static final String IN_THRESHOLD = "IN_THRESHOLD";
+    public static final String OUT_OF_THRESHOLD = "OUT_OF_THRESHOLD";
+    public static final String CANNOT_CALCULATE = "CANNOT_CALCULATE";
+
+    private final Boolean result;
+    private final MessageTemplate template;
+    private final Map<String, String> values;
+
+    /**
+     * Constructor
+     *
+     * @param result true if in threshold, false if out of threshold and null if
+     * the test could not be calculated
+     * @param template message template describing the result
+     * @param values token values for the template
+     */
+    public ThresholdResult(Boolean result, MessageTemplate template, Map<String, String> values) {
+        this.result = result;
+        this.template = template;
+        this.values = Collections.unmodifiableMap(new HashMap<>(values));
+    }
+
+    /**
+     * @return true if in threshold, false if out of threshold and null if the
+     * test could not be calculated
+     */
+    public Boolean getResult() {
+        return result;
+    }
+
+    /**
+     * @return the alert status recorded against the measurement
+     */
+    public String getStatus() {
+        if (result == null) {
+            return CANNOT_CALCULATE;
+        } else if (!result) {
+            return OUT_OF_THRESHOLD;
+        } else {
+            return IN_THRESHOLD;
+        }
+    }
+
+    /**
+     * Renders the descriptive text of the result
+     *
+     * @param additionalValues values for tokens which are not known to the rule
+     * e.g. __ATTRIBUTE_NAME__ and __MEASUREMENT_DATE__
+     * @return descriptive string of the alert
+     */
+    public String getText(Map<String, String> additionalValues) {
+        Map<String, String> all = new HashMap<>(values);
+        all.putAll(additionalValues);
+        return template.render(all);
+    }
+}
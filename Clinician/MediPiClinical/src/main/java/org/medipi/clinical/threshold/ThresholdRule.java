@@ -0,0 +1,81 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.Date;
+import java.util.Map;
+import org.medipi.clinical.entities.RecordingDeviceData;
+
+/**
+ * Base class for a threshold rule compiled from a single AttributeThreshold
+ * row by an AttributeThresholdTest. Rules are immutable: all threshold values
+ * are parsed and all message templates resolved when the rule is compiled and
+ * anything calculated during an evaluation is held in local variables, so a
+ * rule can be evaluated concurrently for any number of measurements
+ */
+public abstract class ThresholdRule {
+
+    private final int attributeThresholdId;
+    private final Date effectiveDate;
+    private final MessageTemplate passedTestText;
+    private final MessageTemplate failedTestText;
+    private final MessageTemplate cantCalculateTestText;
+
+    protected ThresholdRule(int attributeThresholdId, Date effectiveDate, MessageTemplate passedTestText, MessageTemplate failedTestText, MessageTemplate cantCalculateTestText) {
+        this.attributeThresholdId = attributeThresholdId;
+        this.effectiveDate = new Date(effectiveDate.getTime());
+        this.passedTestText = passedTestText;
+        this.failedTestText = failedTestText;
+        this.cantCalculateTestText = cantCalculateTestText;
+    }
+
+    /**
+     * Method to test if a new measurement is in or out of threshold
+     *
+     * @param rdd data to be tested as part of a RecordingDeviceData object
+     * @return result of the test
+     */
+    public abstract ThresholdResult evaluate(RecordingDeviceData rdd);
+
+    /**
+     * Creates the result object choosing the message template which matches
+     * the outcome
+     *
+     * @param result true if in threshold, false if out of threshold and null
+     * if the test could not be calculated
+     * @param values token values for the message template
+     * @return result of the test
+     */
+    protected ThresholdResult result(Boolean result, Map<String, String> values) {
+        MessageTemplate template;
+        if (result == null) {
+            template = cantCalculateTestText;
+        } else if (!result) {
+            template = failedTestText;
+        } else {
+            template = passedTestText;
+        }
+        return new ThresholdResult(result, template, values);
+    }
+
+    public int getAttributeThresholdId() {
+        return attributeThresholdId;
+    }
+
+    public Date getEffectiveDate() {
+        return new Date(effectiveDate.getTime());
+    }
+}
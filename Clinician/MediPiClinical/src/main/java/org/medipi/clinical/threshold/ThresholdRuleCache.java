@@ -0,0 +1,155 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import org.medipi.clinical.dao.AttributeThresholdDAOImpl;
+import org.medipi.clinical.entities.AttributeThreshold;
+import org.medipi.clinical.logging.MediPiLogger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cache of compiled threshold rules.
+ *
+ * All the thresholds for a patient and attribute are read in one query the
+ * first time they are needed and each is compiled into an immutable
+ * ThresholdRule which applies from its effective date until the effective date
+ * of the next threshold. Finding the rule for a measurement is then a binary
+ * search of these effective date ranges and needs no DB access.
+ *
+ * refresh() is called before each synchronisation and discards every compiled
+ * rule if a threshold has been added or removed, or a direct message text has
+ * changed, since the last refresh. Between refreshes the rules may be read
+ * concurrently by any number of threads
+ */
+@Component
+public class ThresholdRuleCache {
+
+    @Autowired
+    private AttributeThresholdDAOImpl attributeThresholdDAOImpl;
+
+    @Autowired
+    private ThresholdTestFactory thresholdTestFactory;
+
+    @Autowired
+    private MessageTemplateCache messageTemplateCache;
+
+    private final ConcurrentHashMap<String, CompiledThresholds> rules = new ConcurrentHashMap<>();
+    private volatile Properties properties = new Properties();
+    private volatile String thresholdVersion = null;
+
+    /**
+     * Checks whether the thresholds or message texts have changed and if so
+     * discards all the compiled rules. This must not be called while rules are
+     * being looked up
+     *
+     * @param properties properties used when compiling the rules
+     */
+    public void refresh(Properties properties) {
+        this.properties = properties;
+        String version = attributeThresholdDAOImpl.findVersion();
+        boolean textsChanged = messageTemplateCache.refresh();
+        if (textsChanged || !version.equals(thresholdVersion)) {
+            rules.clear();
+            thresholdVersion = version;
+        }
+    }
+
+    /**
+     * Discards all the compiled rules
+     */
+    public void invalidate() {
+        rules.clear();
+        thresholdVersion = null;
+    }
+
+    /**
+     * Finds the rule which is effective for a measurement
+     *
+     * @param attributeId attribute of the measurement
+     * @param patientUuid patient the measurement belongs to
+     * @param measurementDate time the measurement was taken
+     * @return the effective rule or null if there is no threshold or the
+     * effective threshold could not be compiled
+     */
+    public ThresholdRule findRule(int attributeId, String patientUuid, Date measurementDate) {
+        String key = patientUuid + "|" + attributeId;
+        CompiledThresholds compiled = rules.get(key);
+        if (compiled == null) {
+            compiled = compile(attributeId, patientUuid);
+            CompiledThresholds existing = rules.putIfAbsent(key, compiled);
+            if (existing != null) {
+                compiled = existing;
+            }
+        }
+        return compiled.find(measurementDate.getTime());
+    }
+
+    private CompiledThresholds compile(int attributeId, String patientUuid) {
+        List<AttributeThreshold> thresholds = attributeThresholdDAOImpl.findByAttributeAndPatient(attributeId, patientUuid);
+        long[] effectiveTimes = new long[thresholds.size()];
+        ThresholdRule[] compiledRules = new ThresholdRule[thresholds.size()];
+        for (int i = 0; i < thresholds.size(); i++) {
+            AttributeThreshold at = thresholds.get(i);
+            effectiveTimes[i] = at.getEffectiveDate().getTime();
+            // if there is an unrecognised test type no rule is applied
+            if (at.getThresholdType() != null) {
+                try {
+                    compiledRules[i] = thresholdTestFactory.getInstance(at.getThresholdType()).compile(properties, at);
+                } catch (Exception e) {
+                    MediPiLogger.getInstance().log(ThresholdRuleCache.class.getName() + "error", "Unable to compile attribute threshold " + at.getAttributeThresholdId() + ": " + e.getLocalizedMessage());
+                    System.out.println("Unable to compile attribute threshold " + at.getAttributeThresholdId() + ": " + e.getLocalizedMessage());
+                }
+            }
+        }
+        return new CompiledThresholds(effectiveTimes, compiledRules);
+    }
+
+    /**
+     * Immutable set of rules for a patient and attribute ordered by the time
+     * they became effective
+     */
+    private static final class CompiledThresholds {
+
+        private final long[] effectiveTimes;
+        private final ThresholdRule[] rules;
+
+        private CompiledThresholds(long[] effectiveTimes, ThresholdRule[] rules) {
+            this.effectiveTimes = effectiveTimes;
+            this.rules = rules;
+        }
+
+        // the latest rule effective at or before the time. Where thresholds
+        // share an effective date the last one added is used
+        private ThresholdRule find(long time) {
+            int low = 0;
+            int high = effectiveTimes.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (effectiveTimes[mid] <= time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low == 0 ? null : rules[low - 1];
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.Arrays;
+
+/**
+ * Time ordered series of the measurements of one attribute for one patient
+ * holding running sums of x, y, x squared and x times y, where x is the time
+ * of the measurement in hours and y its value.
+ *
+ * The sums are held as prefix sums so that the least squares fit of any run of
+ * consecutive measurements can be calculated from the difference of two
+ * entries rather than by revisiting every measurement. Measurements are added
+ * at the end and dropped from the start as they move out of the period being
+ * tested. There is no limit on the number of measurements held.
+ *
+ * The series is not thread safe
+ */
+final class TrendSeries {
+
+    private static final double MILLIS_PER_HOUR = 3600000.0;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // x values are taken relative to this time to keep the sums small
+    private long origin;
+    private long[] times = new long[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    // sums of the measurements with index less than i are held at index i
+    private double[] sumX = new double[INITIAL_CAPACITY + 1];
+    private double[] sumY = new double[INITIAL_CAPACITY + 1];
+    private double[] sumXX = new double[INITIAL_CAPACITY + 1];
+    private double[] sumXY = new double[INITIAL_CAPACITY + 1];
+    private int start = 0;
+    private int size = 0;
+    // true when there are no measurements earlier than the first one held
+    private boolean complete;
+
+    /**
+     * Constructor
+     *
+     * @param complete true if there are no measurements earlier than the first
+     * one which will be added
+     */
+    TrendSeries(boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * Adds a measurement to the end of the series
+     *
+     * @param time time of the measurement in milliseconds
+     * @param value value of the measurement
+     * @return false if the measurement is earlier than the last one in the
+     * series, in which case it has not been added and the series can no longer
+     * be used
+     */
+    boolean add(long time, double value) {
+        if (size > start && time < times[size - 1]) {
+            return false;
+        }
+        if (size == 0) {
+            origin = time;
+        }
+        if (size == times.length) {
+            int capacity = times.length * 2;
+            times = Arrays.copyOf(times, capacity);
+            values = Arrays.copyOf(values, capacity);
+            sumX = Arrays.copyOf(sumX, capacity + 1);
+            sumY = Arrays.copyOf(sumY, capacity + 1);
+            sumXX = Arrays.copyOf(sumXX, capacity + 1);
+            sumXY = Arrays.copyOf(sumXY, capacity + 1);
+        }
+        times[size] = time;
+        values[size] = value;
+        accumulate(size);
+        size++;
+        return true;
+    }
+
+    /**
+     * Whether the series holds all the measurements needed to test a
+     * measurement taken at the given time
+     *
+     * @param time time of the measurement being tested in milliseconds
+     * @param period period the change is measured over in milliseconds
+     * @return true if predict can be called for the time and period
+     */
+    boolean covers(long time, long period) {
+        return complete || lastBefore(time - period) >= start;
+    }
+
+    /**
+     * Calculates the least squares prediction used as the historic value for a
+     * measurement. The fit is made over the last measurement taken before the
+     * start of the period and every measurement after it up to, but not
+     * including, the time of the measurement being tested
+     *
+     * @param time time of the measurement being tested in milliseconds
+     * @param period period the change is measured over in milliseconds
+     * @param fewestCalculatingPoints fewest number of measurements the fit may
+     * be made from
+     * @return predicted value or null if there is not enough data
+     */
+    Double predict(long time, long period, int fewestCalculatingPoints) {
+        int last = lastBefore(time - period);
+        if (last < start) {
+            return null;
+        }
+        int from = lowerBound(times[last]);
+        int to = lowerBound(time);
+        int n = to - from;
+        //if there are fewer than 2 values its not got enough data to perform a least squarea
+        if (n < fewestCalculatingPoints || n <= 1) {
+            return null;
+        }
+        double sx = sumX[to] - sumX[from];
+        double sy = sumY[to] - sumY[from];
+        double sxx = sumXX[to] - sumXX[from];
+        double sxy = sumXY[to] - sumXY[from];
+        double xbar = sx / n;
+        double ybar = sy / n;
+        double xxbar = sxx - sx * xbar;
+        double xybar = sxy - sx * ybar;
+        double beta1 = xybar / xxbar;
+        double beta0 = ybar - beta1 * xbar;
+        // the prediction is made for the end of the period measured from the
+        // first measurement used in the fit
+        double x = (times[from] + period - origin) / MILLIS_PER_HOUR;
+        return (beta1 * x) + beta0;
+    }
+
+    /**
+     * Drops the measurements which are no longer needed to test measurements
+     * taken at or after the cutoff, keeping the last measurements taken before
+     * it
+     *
+     * @param cutoff start of the period of the earliest measurement still to
+     * be tested in milliseconds
+     */
+    void evict(long cutoff) {
+        int last = lastBefore(cutoff);
+        if (last <= start) {
+            return;
+        }
+        int from = lowerBound(times[last]);
+        if (from > start) {
+            start = from;
+            complete = false;
+        }
+        if (start >= INITIAL_CAPACITY && start * 2 >= size) {
+            compact();
+        }
+    }
+
+    // index of the last measurement before the time, or start - 1 if none
+    private int lastBefore(long time) {
+        return lowerBound(time) - 1;
+    }
+
+    // index of the first measurement at or after the time, or size if none
+    private int lowerBound(long time) {
+        int low = start;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void accumulate(int i) {
+        double x = (times[i] - origin) / MILLIS_PER_HOUR;
+        double y = values[i];
+        sumX[i + 1] = sumX[i] + x;
+        sumY[i + 1] = sumY[i] + y;
+        sumXX[i + 1] = sumXX[i] + x * x;
+        sumXY[i + 1] = sumXY[i] + x * y;
+    }
+
+    // moves the held measurements to the start of the arrays and recalculates
+    // the sums from the first of them so that the sums do not grow without
+    // limit
+    private void compact() {
+        size -= start;
+        System.arraycopy(times, start, times, 0, size);
+        System.arraycopy(values, start, values, 0, size);
+        start = 0;
+        if (size > 0) {
+            origin = times[0];
+        }
+        for (int i = 0; i < size; i++) {
+            accumulate(i);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.medipi.clinical.dao.RecordingDeviceDataDAOImpl;
+import org.medipi.clinical.entities.RecordingDeviceData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Store of the measurement trends used by the ChangeOverTimeTest.
+ *
+ * A TrendSeries is read from the DB the first time a patient's attribute is
+ * tested and is then kept up to date as new measurements are persisted, so
+ * testing a new measurement does not need to re-read its history. Measurements
+ * which have moved out of the period being tested are dropped from the series.
+ *
+ * A series is discarded and read again from the DB when a measurement arrives
+ * out of time order, when a test needs history which has already been dropped
+ * or when the transaction which added measurements to it is rolled back
+ */
+@Component
+public class TrendStore {
+
+    private static final long MILLIS_PER_HOUR = 3600000L;
+
+    @Autowired
+    private RecordingDeviceDataDAOImpl recordingDeviceDataDAOImpl;
+
+    private final ConcurrentHashMap<String, TrendSeries> trends = new ConcurrentHashMap<>();
+
+    /**
+     * Calculates the historic value a new measurement is tested against
+     *
+     * @param attributeId attribute of the measurement
+     * @param patientUuid patient the measurement belongs to
+     * @param dataValueTime time the measurement was taken
+     * @param period number of hours the change is measured over
+     * @param fewestCalculatingPoints fewest number of measurements the
+     * prediction may be made from
+     * @return the least squares prediction or null if there is not enough data
+     */
+    public Double getHistoricValue(int attributeId, String patientUuid, Date dataValueTime, int period, int fewestCalculatingPoints) {
+        String key = patientUuid + "|" + attributeId;
+        long time = dataValueTime.getTime();
+        long periodMillis = period * MILLIS_PER_HOUR;
+        TrendSeries series = trends.get(key);
+        if (series != null) {
+            synchronized (series) {
+                if (series.covers(time, periodMillis)) {
+                    Double h = series.predict(time, periodMillis, fewestCalculatingPoints);
+                    series.evict(time - periodMillis);
+                    return h;
+                }
+            }
+        }
+        series = loadSeries(attributeId, patientUuid, new Date(time - periodMillis));
+        trends.put(key, series);
+        touched(key);
+        synchronized (series) {
+            Double h = series.predict(time, periodMillis, fewestCalculatingPoints);
+            series.evict(time - periodMillis);
+            return h;
+        }
+    }
+
+    /**
+     * Adds a newly persisted measurement to its trend if one is being kept
+     *
+     * @param rdd the persisted measurement
+     */
+    public void record(RecordingDeviceData rdd) {
+        String key = rdd.getPatientUuid().getPatientUuid() + "|" + rdd.getAttributeId().getAttributeId();
+        TrendSeries series = trends.get(key);
+        if (series == null) {
+            return;
+        }
+        // non numeric values are not part of the trend
+        if (rdd.getDataValueNumeric() == null) {
+            return;
+        }
+        synchronized (series) {
+            if (!series.add(rdd.getDataValueTime().getTime(), rdd.getDataValueNumeric())) {
+                trends.remove(key, series);
+                return;
+            }
+        }
+        touched(key);
+    }
+
+    /**
+     * Discards all the trends
+     */
+    public void clear() {
+        trends.clear();
+    }
+
+    /**
+     * Reads a series from the DB containing the last measurement before the
+     * start time and all those after it
+     *
+     * @param attributeId attribute of the measurements
+     * @param patientUuid patient the measurements belong to
+     * @param periodStartTime start of the earliest period to be tested
+     * @return the series read
+     */
+    TrendSeries loadSeries(int attributeId, String patientUuid, Date periodStartTime) {
+        // Access the database and find the first entry before the started period so that the least square method will have at least the period stated
+        Date firstBeforePeriod = recordingDeviceDataDAOImpl.findFirstEntryBeforePeriod(patientUuid, attributeId, periodStartTime);
+        TrendSeries series = new TrendSeries(firstBeforePeriod == null);
+        List<Object[]> rows = recordingDeviceDataDAOImpl.findValuesByPatientAndAttributeFromTime(patientUuid, attributeId, firstBeforePeriod == null ? periodStartTime : firstBeforePeriod);
+        // only the numeric values are read
+        for (Object[] row : rows) {
+            series.add(((Date) row[0]).getTime(), (Double) row[1]);
+        }
+        return series;
+    }
+
+    // a trend which has had uncommitted measurements added to it must be
+    // discarded if the transaction is rolled back
+    @SuppressWarnings("unchecked")
+    private void touched(String key) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        Set<String> keys = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (keys == null) {
+            final Set<String> transactionKeys = new HashSet<>();
+            TransactionSynchronizationManager.bindResource(this, transactionKeys);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(TrendStore.this);
+                    if (status != STATUS_COMMITTED) {
+                        for (String k : transactionKeys) {
+                            trends.remove(k);
+                        }
+                    }
+                }
+            });
+            keys = transactionKeys;
+        }
+        keys.add(key);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.dao;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.persistence.Entity;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.EJB3NamingStrategy;
+import org.hibernate.dialect.PostgreSQL9Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.internal.ast.ASTQueryTranslatorFactory;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.Container;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.DockerImageName;
+import org.testcontainers.utility.MountableFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the hot recording_device_data queries are answered from the
+ * indexes added by the db_updates. The baseline schema is loaded into
+ * PostgreSQL with a synthetic dataset, every script in db_updates is applied
+ * to it in order, as it would be to a live MediPi Clinical DB, and each query
+ * is then run under EXPLAIN ANALYZE. A query must use one of its indexes,
+ * must not scan recording_device_data sequentially and must finish within the
+ * latency budget.
+ *
+ * The SQL explained is translated by Hibernate from the named queries of the
+ * entities, so it is the SQL run by RecordingDeviceDataDAOImpl. Docker is
+ * needed to run PostgreSQL; without it the tests are skipped
+ */
+public class RecordingDeviceDataQueryPlanTest {
+
+    private static final int ROWS = 2000000;
+    private static final double LATENCY_BUDGET_MS = 100;
+
+    private static final String DUPLICATE_CHECK_INDEX = "recording_device_data_patient_attribute_time_numeric_idx";
+    private static final String PATIENT_DOWNLOADED_TIME_INDEX = "recording_device_data_patient_downloaded_time_idx";
+    private static final String PATIENT_SCHEDULE_INDEX = "recording_device_data_patient_schedule_idx";
+
+    private static final String LATEST_PATIENT_GROUP_SYNC = "RecordingDeviceData.dateOfLatestPatientGroupSync";
+    private static final String DUPLICATE_CHECK = "RecordingDeviceData.isAlreadyStoredNumeric";
+    private static final String GROUPED_PATIENT_SCHEDULE = "RecordingDeviceData.findByGroupedPatientAndScheduledTime";
+
+    private static final Pattern INDEX_SCAN = Pattern.compile("Index (?:Only )?Scan (?:Backward )?using (\\S+) on|Bitmap Index Scan on (\\S+)");
+    private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\S+)");
+    private static final Pattern EXECUTION_TIME = Pattern.compile("Execution Time: ([0-9.]+) ms", Pattern.CASE_INSENSITIVE);
+
+    private static PostgreSQLContainer<?> postgres;
+    private static Connection connection;
+    private static SessionFactoryImplementor sessionFactory;
+
+    @BeforeClass
+    public static void loadDatabase() throws Exception {
+        Assume.assumeTrue("Docker is not available to run PostgreSQL", DockerClientFactory.instance().isDockerAvailable());
+        postgres = new PostgreSQLContainer<>(DockerImageName.parse("postgres:11-alpine")).withUsername("postgres");
+        postgres.start();
+        connection = DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+
+        // owner of some of the objects in the baseline schema
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE ROLE medipi_admin");
+        }
+        psql(MountableFile.forHostPath(Paths.get("..", "clinical_schema_only.sqlc")));
+        psql(MountableFile.forClasspathResource("org/medipi/clinical/dao/RecordingDeviceDataQueryPlanTest.sql"), "rows=" + ROWS);
+        List<Path> updates;
+        try (Stream<Path> files = Files.list(Paths.get("..", "db_updates"))) {
+            updates = files.filter(p -> p.toString().endsWith(".sql")).sorted().collect(Collectors.toList());
+        }
+        for (Path update : updates) {
+            psql(MountableFile.forHostPath(update));
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("VACUUM ANALYZE recording_device_data");
+        }
+    }
+
+    @AfterClass
+    public static void stopDatabase() throws SQLException {
+        if (sessionFactory != null) {
+            sessionFactory.close();
+        }
+        if (connection != null) {
+            connection.close();
+        }
+        if (postgres != null) {
+            postgres.stop();
+        }
+    }
+
+    @Test
+    public void latestPatientGroupSyncUsesThePatientDownloadedTimeIndex() throws Exception {
+        assertUsesIndex(LATEST_PATIENT_GROUP_SYNC, Collections.singletonMap("patientGroup", "group-1"), PATIENT_DOWNLOADED_TIME_INDEX);
+    }
+
+    @Test
+    public void duplicateCheckUsesThePatientAttributeTimeIndex() throws Exception {
+        Map<String, Object> stored = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT attribute_id, data_value_numeric, data_value_time, patient_uuid"
+                        + " FROM recording_device_data WHERE patient_uuid = 'patient-1' ORDER BY data_value_time DESC LIMIT 1")) {
+            assertTrue(rs.next());
+            stored.put("attributeId", rs.getInt(1));
+            stored.put("dataValueNumeric", rs.getDouble(2));
+            stored.put("dataValueTime", rs.getTimestamp(3));
+            stored.put("patientUuid", rs.getString(4));
+        }
+        assertUsesIndex(DUPLICATE_CHECK, stored, DUPLICATE_CHECK_INDEX);
+    }
+
+    @Test
+    public void groupedPatientScheduleUsesThePatientScheduleIndex() throws Exception {
+        Timestamp scheduleEffectiveTime;
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT date_trunc('day', MAX(data_value_time)) - interval '10 days'"
+                        + " FROM recording_device_data WHERE patient_uuid = 'patient-1'")) {
+            assertTrue(rs.next());
+            scheduleEffectiveTime = rs.getTimestamp(1);
+        }
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("scheduleEffectiveTime", scheduleEffectiveTime);
+        parameters.put("patientUuid", "patient-1");
+        assertUsesIndex(GROUPED_PATIENT_SCHEDULE, parameters, PATIENT_SCHEDULE_INDEX);
+    }
+
+    private static void psql(MountableFile script, String... variables) throws Exception {
+        postgres.copyFileToContainer(script, "/tmp/script.sql");
+        List<String> command = new ArrayList<>(Arrays.asList("psql", "-q", "-v", "ON_ERROR_STOP=1",
+                "-U", postgres.getUsername(), "-d", postgres.getDatabaseName(), "-f", "/tmp/script.sql"));
+        for (String variable : variables) {
+            command.add("-v");
+            command.add(variable);
+        }
+        Container.ExecResult result = postgres.execInContainer(command.toArray(new String[command.size()]));
+        assertEquals(script.getResolvedPath() + ": " + result.getStderr(), 0, result.getExitCode());
+    }
+
+    // the entities mapped as they are by MediPi Clinical. Hibernate only needs a connection to run queries, not to translate them
+    private static synchronized SessionFactoryImplementor sessionFactory() throws ClassNotFoundException {
+        if (sessionFactory == null) {
+            Configuration configuration = new Configuration()
+                    .setNamingStrategy(EJB3NamingStrategy.INSTANCE)
+                    .setProperty(AvailableSettings.DIALECT, PostgreSQL9Dialect.class.getName())
+                    .setProperty("hibernate.temp.use_jdbc_metadata_defaults", "false");
+            ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
+            scanner.addIncludeFilter(new AnnotationTypeFilter(Entity.class));
+            for (BeanDefinition entity : scanner.findCandidateComponents("org.medipi.clinical.entities")) {
+                configuration.addAnnotatedClass(Class.forName(entity.getBeanClassName()));
+            }
+            sessionFactory = (SessionFactoryImplementor) configuration.buildSessionFactory(
+                    new StandardServiceRegistryBuilder().applySettings(configuration.getProperties()).build());
+        }
+        return sessionFactory;
+    }
+
+    /**
+     * Runs the SQL of a named query under EXPLAIN ANALYZE and checks its plan
+     *
+     * @param namedQuery name of the entity's named query
+     * @param parameters values for all of the query's named parameters. An
+     * entity parameter is given as its id
+     * @param indexes names of the indexes the query may use
+     */
+    private static void assertUsesIndex(String namedQuery, Map<String, Object> parameters, String... indexes) throws Exception {
+        QueryTranslator translator = new ASTQueryTranslatorFactory().createQueryTranslator(namedQuery,
+                sessionFactory().getNamedQuery(namedQuery).getQueryString(), Collections.emptyMap(), sessionFactory(), null);
+        translator.compile(Collections.emptyMap(), false);
+        assertEquals(namedQuery + " parameters", translator.getParameterTranslations().getNamedParameterNames(), parameters.keySet());
+
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN ANALYZE " + translator.getSQLString())) {
+            for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                for (int location : translator.getParameterTranslations().getNamedParameterSqlLocations(parameter.getKey())) {
+                    statement.setObject(location + 1, parameter.getValue());
+                }
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+            }
+        }
+
+        Set<String> used = new HashSet<>();
+        Matcher m = INDEX_SCAN.matcher(plan);
+        while (m.find()) {
+            used.add(m.group(1) != null ? m.group(1) : m.group(2));
+        }
+        used.retainAll(Arrays.asList(indexes));
+        assertFalse("none of " + Arrays.toString(indexes) + " is used:\n" + plan, used.isEmpty());
+
+        m = SEQ_SCAN.matcher(plan);
+        while (m.find()) {
+            assertFalse("recording_device_data is scanned sequentially:\n" + plan, m.group(1).equals("recording_device_data"));
+        }
+
+        m = EXECUTION_TIME.matcher(plan);
+        assertTrue("no execution time:\n" + plan, m.find());
+        assertTrue("over the latency budget of " + LATENCY_BUDGET_MS + " ms:\n" + plan,
+                Double.parseDouble(m.group(1)) <= LATENCY_BUDGET_MS);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-memory history of one attribute for one patient and the full least
+ * squares refit which ChangeOverTimeTest made over it before TrendSeries: every
+ * measurement from the last one before the period up to the time being tested
+ * is visited twice for each test. The old refit held at most 1000 measurements
+ * - this one has no limit so that it can be compared with longer series
+ */
+class LeastSquaresRefit {
+
+    final List<Long> times = new ArrayList<>();
+    final List<Double> values = new ArrayList<>();
+
+    void add(long time, double value) {
+        times.add(time);
+        values.add(value);
+    }
+
+    /**
+     * @return the time of the last measurement before the time or null if none
+     */
+    Long lastBefore(long time) {
+        Long last = null;
+        for (long t : times) {
+            if (t < time && (last == null || t > last)) {
+                last = t;
+            }
+        }
+        return last;
+    }
+
+    Double predict(long time, long period, int fewestCalculatingPoints) {
+        Long firstBeforePeriod = lastBefore(time - period);
+        if (firstBeforePeriod == null) {
+            return null;
+        }
+        List<Double> x = new ArrayList<>();
+        List<Double> y = new ArrayList<>();
+        double sumx = 0.0, sumy = 0.0;
+        for (int i = 0; i < times.size(); i++) {
+            long t = times.get(i);
+            if (t >= firstBeforePeriod && t < time) {
+                x.add((double) (t - firstBeforePeriod));
+                y.add(values.get(i));
+                sumx += t - firstBeforePeriod;
+                sumy += values.get(i);
+            }
+        }
+        int n = x.size();
+        if (n < fewestCalculatingPoints || n <= 1) {
+            return null;
+        }
+        double xbar = sumx / n;
+        double ybar = sumy / n;
+        double xxbar = 0.0, xybar = 0.0;
+        for (int i = 0; i < n; i++) {
+            xxbar += (x.get(i) - xbar) * (x.get(i) - xbar);
+            xybar += (x.get(i) - xbar) * (y.get(i) - ybar);
+        }
+        double beta1 = xybar / xxbar;
+        double beta0 = ybar - beta1 * xbar;
+        return (beta1 * period) + beta0;
+    }
+}
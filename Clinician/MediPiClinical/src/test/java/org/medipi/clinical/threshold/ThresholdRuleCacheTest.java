@@ -0,0 +1,221 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Before;
+import org.junit.Test;
+import org.medipi.clinical.dao.AttributeThresholdDAOImpl;
+import org.medipi.clinical.entities.AttributeThreshold;
+import org.medipi.clinical.entities.RecordingDeviceData;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks which compiled rule ThresholdRuleCache finds for a measurement and
+ * that the compiled rules are discarded when the thresholds or message texts
+ * change
+ */
+public class ThresholdRuleCacheTest {
+
+    private static final String PATIENT = "d9bc2478-062e-4b87-9060-4984f26b74be";
+    private static final int ATTRIBUTE = 7;
+    private static final long DAY = 86400000L;
+    private static final long START = 1496307600000L;
+    private static final String TEST_TYPE = "org.medipi.clinical.threshold.SimpleInclusiveHighLowTest";
+
+    private AttributeThresholdDAOImpl dao;
+    private MessageTemplateCache messageTemplateCache;
+    private ThresholdRuleCache cache;
+    // thresholds which the mocked DB holds, in the order the DB returns them
+    private List<AttributeThreshold> thresholds;
+
+    @Before
+    public void setUp() throws Exception {
+        thresholds = new ArrayList<>();
+        dao = mock(AttributeThresholdDAOImpl.class);
+        when(dao.findByAttributeAndPatient(ATTRIBUTE, PATIENT)).thenAnswer(new Answer<List<AttributeThreshold>>() {
+            @Override
+            public List<AttributeThreshold> answer(InvocationOnMock invocation) {
+                return new ArrayList<>(thresholds);
+            }
+        });
+        when(dao.findVersion()).thenReturn("0:null");
+        messageTemplateCache = mock(MessageTemplateCache.class);
+
+        // each threshold compiles to a rule which only records its id
+        AttributeThresholdTest test = mock(AttributeThresholdTest.class);
+        when(test.compile(any(Properties.class), any(AttributeThreshold.class))).thenAnswer(new Answer<ThresholdRule>() {
+            @Override
+            public ThresholdRule answer(InvocationOnMock invocation) throws Exception {
+                AttributeThreshold at = (AttributeThreshold) invocation.getArguments()[1];
+                if (at.getThresholdHighValue().equals("unparseable")) {
+                    throw new Exception("Error in converting the high threshold values to a double");
+                }
+                return new IdRule(at.getAttributeThresholdId(), at.getEffectiveDate());
+            }
+        });
+        ThresholdTestFactory factory = mock(ThresholdTestFactory.class);
+        when(factory.getInstance(anyString())).thenReturn(test);
+
+        cache = new ThresholdRuleCache();
+        ReflectionTestUtils.setField(cache, "attributeThresholdDAOImpl", dao);
+        ReflectionTestUtils.setField(cache, "thresholdTestFactory", factory);
+        ReflectionTestUtils.setField(cache, "messageTemplateCache", messageTemplateCache);
+        cache.refresh(new Properties());
+    }
+
+    @Test
+    public void noRuleWithoutThresholds() {
+        assertNull(cache.findRule(ATTRIBUTE, PATIENT, new Date(START)));
+    }
+
+    @Test
+    public void noRuleBeforeTheFirstThreshold() {
+        addThreshold(1, START);
+        assertNull(cache.findRule(ATTRIBUTE, PATIENT, new Date(START - 1)));
+    }
+
+    @Test
+    public void ruleAppliesFromExactlyItsEffectiveDate() {
+        addThreshold(1, START);
+        addThreshold(2, START + DAY);
+        assertEquals(1, ruleAt(START));
+        assertEquals(1, ruleAt(START + DAY - 1));
+        assertEquals(2, ruleAt(START + DAY));
+    }
+
+    @Test
+    public void latestThresholdAppliesAfterTheLastEffectiveDate() {
+        addThreshold(1, START);
+        addThreshold(2, START + DAY);
+        addThreshold(3, START + 2 * DAY);
+        assertEquals(3, ruleAt(START + 100 * DAY));
+    }
+
+    @Test
+    public void sameEffectiveDateLastOneWins() {
+        addThreshold(1, START);
+        addThreshold(2, START + DAY);
+        addThreshold(3, START + DAY);
+        addThreshold(4, START + DAY);
+        addThreshold(5, START + 2 * DAY);
+        assertEquals(1, ruleAt(START + DAY - 1));
+        assertEquals(4, ruleAt(START + DAY));
+        assertEquals(4, ruleAt(START + 2 * DAY - 1));
+        assertEquals(5, ruleAt(START + 2 * DAY));
+    }
+
+    @Test
+    public void sameEffectiveDateAsTheFirstThresholdLastOneWins() {
+        addThreshold(1, START);
+        addThreshold(2, START);
+        assertNull(cache.findRule(ATTRIBUTE, PATIENT, new Date(START - 1)));
+        assertEquals(2, ruleAt(START));
+    }
+
+    @Test
+    public void noRuleWhileAThresholdCannotBeCompiled() {
+        addThreshold(1, START);
+        AttributeThreshold unparseable = addThreshold(2, START + DAY);
+        unparseable.setThresholdHighValue("unparseable");
+        assertEquals(1, ruleAt(START));
+        assertNull(cache.findRule(ATTRIBUTE, PATIENT, new Date(START + DAY)));
+    }
+
+    @Test
+    public void rulesAreCompiledOnceWhileTheVersionIsUnchanged() {
+        addThreshold(1, START);
+        ThresholdRule rule = cache.findRule(ATTRIBUTE, PATIENT, new Date(START));
+        cache.refresh(new Properties());
+        assertSame(rule, cache.findRule(ATTRIBUTE, PATIENT, new Date(START + DAY)));
+        verify(dao, times(1)).findByAttributeAndPatient(ATTRIBUTE, PATIENT);
+    }
+
+    @Test
+    public void refreshDiscardsTheRulesWhenTheVersionChanges() {
+        addThreshold(1, START);
+        assertEquals(1, ruleAt(START + DAY));
+
+        // a threshold added in the DB is not seen until the version changes
+        addThreshold(2, START + DAY);
+        assertEquals(1, ruleAt(START + DAY));
+        when(dao.findVersion()).thenReturn("2:2");
+        cache.refresh(new Properties());
+        assertEquals(2, ruleAt(START + DAY));
+        verify(dao, times(2)).findByAttributeAndPatient(ATTRIBUTE, PATIENT);
+    }
+
+    @Test
+    public void refreshDiscardsTheRulesWhenAMessageTextChanges() {
+        addThreshold(1, START);
+        ThresholdRule rule = cache.findRule(ATTRIBUTE, PATIENT, new Date(START));
+        when(messageTemplateCache.refresh()).thenReturn(true);
+        cache.refresh(new Properties());
+        ThresholdRule recompiled = cache.findRule(ATTRIBUTE, PATIENT, new Date(START));
+        assertEquals(1, recompiled.getAttributeThresholdId());
+        assertNotSame(rule, recompiled);
+        verify(dao, times(2)).findByAttributeAndPatient(ATTRIBUTE, PATIENT);
+    }
+
+    @Test
+    public void invalidateDiscardsTheRules() {
+        addThreshold(1, START);
+        assertEquals(1, ruleAt(START));
+        addThreshold(2, START);
+        cache.invalidate();
+        assertEquals(2, ruleAt(START));
+    }
+
+    private int ruleAt(long time) {
+        return cache.findRule(ATTRIBUTE, PATIENT, new Date(time)).getAttributeThresholdId();
+    }
+
+    private AttributeThreshold addThreshold(int id, long effectiveTime) {
+        AttributeThreshold at = new AttributeThreshold(id, TEST_TYPE, "", new Date(effectiveTime));
+        at.setThresholdLowValue("90");
+        at.setThresholdHighValue("100");
+        thresholds.add(at);
+        return at;
+    }
+
+    private static final class IdRule extends ThresholdRule {
+
+        private IdRule(int attributeThresholdId, Date effectiveDate) {
+            super(attributeThresholdId, effectiveDate, null, null, null);
+        }
+
+        @Override
+        public ThresholdResult evaluate(RecordingDeviceData rdd) {
+            return result(true, Collections.<String, String>emptyMap());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Properties;
+import org.junit.Before;
+import org.junit.Test;
+import org.medipi.clinical.entities.AttributeThreshold;
+import org.medipi.clinical.entities.Patient;
+import org.medipi.clinical.entities.RecordingDeviceAttribute;
+import org.medipi.clinical.entities.RecordingDeviceData;
+import org.medipi.clinical.entities.RecordingDeviceType;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the outcome of evaluating the compiled rule of each threshold test,
+ * including the values on the boundaries of the thresholds
+ */
+public class ThresholdRuleTest {
+
+    private static final String PATIENT = "d9bc2478-062e-4b87-9060-4984f26b74be";
+    private static final int ATTRIBUTE = 7;
+    private static final long START = 1496307600000L;
+
+    private MessageTemplateCache messageTemplateCache;
+
+    @Before
+    public void setUp() {
+        // each text names its outcome and shows the values substituted into it
+        messageTemplateCache = mock(MessageTemplateCache.class);
+        when(messageTemplateCache.getTemplate(anyString())).thenAnswer(new Answer<MessageTemplate>() {
+            @Override
+            public MessageTemplate answer(InvocationOnMock invocation) {
+                String id = (String) invocation.getArguments()[0];
+                return new MessageTemplate(id.substring(id.lastIndexOf('.') + 1) + " __DATA_VALUE__ __ATTRIBUTE_UNITS__");
+            }
+        });
+    }
+
+    @Test
+    public void simpleInclusiveHighLowIsInsideTheInclusiveLimits() throws Exception {
+        ThresholdRule rule = compile(new SimpleInclusiveHighLowTest(), "90", "100");
+        assertStatus(ThresholdResult.IN_THRESHOLD, rule, 95.0);
+        assertStatus(ThresholdResult.IN_THRESHOLD, rule, 90.0);
+        assertStatus(ThresholdResult.IN_THRESHOLD, rule, 100.0);
+        assertStatus(ThresholdResult.OUT_OF_THRESHOLD, rule, 89.9);
+        assertStatus(ThresholdResult.OUT_OF_THRESHOLD, rule, 100.1);
+        assertStatus(ThresholdResult.CANNOT_CALCULATE, rule, null);
+    }
+
+    @Test
+    public void simpleInclusiveHighLowRendersTheTextOfTheOutcome() throws Exception {
+        ThresholdRule rule = compile(new SimpleInclusiveHighLowTest(), "90", "100");
+        assertEquals("passedtesttext 95.0 %", rule.evaluate(data(95.0, null)).getText(Collections.<String, String>emptyMap()));
+        assertEquals("failedtesttext 101.0 %", rule.evaluate(data(101.0, null)).getText(Collections.<String, String>emptyMap()));
+        assertEquals("cantcalculatetesttext n/a %", rule.evaluate(data(null, null)).getText(Collections.<String, String>emptyMap()));
+    }
+
+    @Test(expected = Exception.class)
+    public void simpleInclusiveHighLowDoesNotCompileAnUnparseableLimit() throws Exception {
+        compile(new SimpleInclusiveHighLowTest(), "90", "high");
+    }
+
+    @Test
+    public void relativeInclusiveHighIsBelowTheReferencePlusTheHighValue() throws Exception {
+        ThresholdRule rule = compile(new RelativeInclusiveHighTest(), "70", "2");
+        assertStatus(ThresholdResult.IN_THRESHOLD, rule, 60.0);
+        assertStatus(ThresholdResult.IN_THRESHOLD, rule, 71.9);
+        assertStatus(ThresholdResult.OUT_OF_THRESHOLD, rule, 72.0);
+        assertStatus(ThresholdResult.OUT_OF_THRESHOLD, rule, 80.0);
+        assertStatus(ThresholdResult.CANNOT_CALCULATE, rule, null);
+    }
+
+    @Test
+    public void changeOverTimeIsWithinTheChangeOfThePrediction() throws Exception {
+        TrendStore trendStore = mock(TrendStore.class);
+        when(trendStore.getHistoricValue(anyInt(), anyString(), any(Date.class), anyInt(), anyInt())).thenReturn(80.0);
+        ChangeOverTimeTest test = new ChangeOverTimeTest();
+        ReflectionTestUtils.setField(test, "trendStore", trendStore);
+        ThresholdRule rule = compile(test, "24", "2");
+        assertStatus(ThresholdResult.IN_THRESHOLD, rule, 80.0);
+        assertStatus(ThresholdResult.IN_THRESHOLD, rule, 81.9);
+        assertStatus(ThresholdResult.IN_THRESHOLD, rule, 78.1);
+        assertStatus(ThresholdResult.OUT_OF_THRESHOLD, rule, 82.0);
+        assertStatus(ThresholdResult.OUT_OF_THRESHOLD, rule, 78.0);
+        assertStatus(ThresholdResult.CANNOT_CALCULATE, rule, null);
+        // five numeric measurements each ask for a prediction over the period using the configured fewest points
+        verify(trendStore, times(5)).getHistoricValue(eq(ATTRIBUTE), eq(PATIENT), eq(new Date(START)), eq(24), eq(5));
+    }
+
+    @Test
+    public void changeOverTimeCannotCalculateWithoutAPrediction() throws Exception {
+        TrendStore trendStore = mock(TrendStore.class);
+        when(trendStore.getHistoricValue(anyInt(), anyString(), any(Date.class), anyInt(), anyInt())).thenReturn(null);
+        ChangeOverTimeTest test = new ChangeOverTimeTest();
+        ReflectionTestUtils.setField(test, "trendStore", trendStore);
+        ThresholdRule rule = compile(test, "24", "2");
+        assertStatus(ThresholdResult.CANNOT_CALCULATE, rule, 80.0);
+    }
+
+    @Test
+    public void questionnaireTakesTheStatusFlag() throws Exception {
+        ThresholdRule rule = compile(new QuestionnaireTest(), "0", "0");
+        assertEquals(ThresholdResult.IN_THRESHOLD, rule.evaluate(data(null, "GREEN_FLAG")).getStatus());
+        assertEquals(ThresholdResult.OUT_OF_THRESHOLD, rule.evaluate(data(null, "RED_FLAG")).getStatus());
+        assertEquals(ThresholdResult.CANNOT_CALCULATE, rule.evaluate(data(null, "Do you feel breathless?")).getStatus());
+        assertEquals(ThresholdResult.CANNOT_CALCULATE, rule.evaluate(data(null, null)).getStatus());
+    }
+
+    private ThresholdRule compile(AttributeThresholdTest test, String low, String high) throws Exception {
+        ReflectionTestUtils.setField(test, "messageTemplateCache", messageTemplateCache);
+        AttributeThreshold at = new AttributeThreshold(1, test.getClass().getName(), "", new Date(START));
+        at.setThresholdLowValue(low);
+        at.setThresholdHighValue(high);
+        Properties properties = new Properties();
+        properties.setProperty("medipi.clinical.alert.changeovertimetest.fewestnumberofdatapointstocalculatefrom", "5");
+        return test.compile(properties, at);
+    }
+
+    private static void assertStatus(String expected, ThresholdRule rule, Double value) {
+        assertEquals(String.valueOf(value), expected, rule.evaluate(data(value, null)).getStatus());
+    }
+
+    private static RecordingDeviceData data(Double numeric, String text) {
+        RecordingDeviceType type = new RecordingDeviceType(1);
+        type.setDisplayName("Questionnaire");
+        RecordingDeviceAttribute attribute = new RecordingDeviceAttribute(ATTRIBUTE);
+        attribute.setAttributeUnits("%");
+        attribute.setTypeId(type);
+        RecordingDeviceData rdd = new RecordingDeviceData();
+        rdd.setAttributeId(attribute);
+        rdd.setPatientUuid(new Patient(PATIENT));
+        rdd.setDataValueTime(new Date(START));
+        rdd.setDataValueNumeric(numeric);
+        rdd.setDataValueText(text);
+        rdd.setDataValue(numeric != null ? String.valueOf(numeric) : text != null ? text : "n/a");
+        return rdd;
+    }
+}
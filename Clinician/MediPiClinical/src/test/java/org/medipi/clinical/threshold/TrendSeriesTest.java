@@ -0,0 +1,154 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the predictions of TrendSeries against a full least squares refit of
+ * the history
+ */
+public class TrendSeriesTest {
+
+    private static final long HOUR = 3600000L;
+    private static final long START = 1496307600000L;
+    private static final double DELTA = 1e-6;
+
+    @Test
+    public void outOfOrderMeasurementIsRefused() {
+        TrendSeries series = new TrendSeries(true);
+        assertTrue(series.add(START, 70));
+        assertTrue(series.add(START + HOUR, 71));
+        assertTrue(series.add(START + HOUR, 72));
+        assertFalse(series.add(START + HOUR - 1, 73));
+    }
+
+    @Test
+    public void tooFewMeasurementsGiveNoPrediction() {
+        TrendSeries series = new TrendSeries(true);
+        series.add(START, 70);
+        series.add(START + HOUR, 71);
+        // nothing before the period
+        assertNull(series.predict(START + 2 * HOUR, 2 * HOUR, 1));
+        // two measurements when three are needed
+        assertNull(series.predict(START + 2 * HOUR, HOUR, 3));
+        // the value an hour after the first measurement in the fit
+        assertEquals(71, series.predict(START + 2 * HOUR, HOUR, 2), DELTA);
+    }
+
+    @Test
+    public void equalTimestampsMatchFullRefit() {
+        TrendSeries series = new TrendSeries(true);
+        LeastSquaresRefit refit = new LeastSquaresRefit();
+        // three measurements at each hour, including the last one before each period
+        for (int h = 0; h < 48; h++) {
+            for (int k = 0; k < 3; k++) {
+                double value = 70 + h * 0.1 + k;
+                series.add(START + h * HOUR, value);
+                refit.add(START + h * HOUR, value);
+            }
+        }
+        for (int h = 1; h <= 48; h++) {
+            for (long period : new long[]{HOUR, 6 * HOUR, 24 * HOUR}) {
+                long time = START + h * HOUR;
+                assertSame(refit.predict(time, period, 3), series.predict(time, period, 3));
+                // a time between two hours
+                assertSame(refit.predict(time - HOUR / 2, period, 3), series.predict(time - HOUR / 2, period, 3));
+            }
+        }
+    }
+
+    @Test
+    public void measurementsAllAtOneTimeGiveNoSlope() {
+        TrendSeries series = new TrendSeries(true);
+        LeastSquaresRefit refit = new LeastSquaresRefit();
+        for (int k = 0; k < 5; k++) {
+            series.add(START, 70 + k);
+            refit.add(START, 70 + k);
+        }
+        assertSame(refit.predict(START + 2 * HOUR, HOUR, 3), series.predict(START + 2 * HOUR, HOUR, 3));
+    }
+
+    @Test
+    public void moreThan1000MeasurementsMatchFullRefit() {
+        TrendSeries series = new TrendSeries(true);
+        LeastSquaresRefit refit = new LeastSquaresRefit();
+        Random random = new Random(12);
+        // a reading a minute for four days
+        for (int m = 0; m < 4 * 24 * 60; m++) {
+            double value = 95 + m * 0.001 + random.nextGaussian();
+            series.add(START + m * 60000L, value);
+            refit.add(START + m * 60000L, value);
+        }
+        long time = START + 4 * 24 * HOUR;
+        // 4320 measurements in the fit
+        assertSame(refit.predict(time, 72 * HOUR, 3), series.predict(time, 72 * HOUR, 3));
+        assertSame(refit.predict(time, 24 * HOUR, 3), series.predict(time, 24 * HOUR, 3));
+    }
+
+    @Test
+    public void evictionAndCompactionMatchFullRefit() {
+        // each measurement is tested and then added as ChangeOverTimeTest and
+        // TrendStore do, so the series drops and compacts many times
+        long period = 24 * HOUR;
+        TrendSeries series = new TrendSeries(true);
+        LeastSquaresRefit refit = new LeastSquaresRefit();
+        Random random = new Random(7);
+        long time = START;
+        for (int i = 0; i < 3000; i++) {
+            // irregular times with some repeated
+            time += random.nextInt(4) == 0 ? 0 : random.nextInt(4 * (int) HOUR);
+            double value = 80 + Math.sin(i / 50.0) * 5 + random.nextGaussian();
+            assertTrue(series.covers(time, period));
+            assertSame(refit.predict(time, period, 3), series.predict(time, period, 3));
+            series.evict(time - period);
+            assertTrue(series.add(time, value));
+            refit.add(time, value);
+        }
+    }
+
+    @Test
+    public void incompleteSeriesOnlyCoversItsHistory() {
+        TrendSeries series = new TrendSeries(false);
+        series.add(START, 70);
+        series.add(START + HOUR, 71);
+        series.add(START + 2 * HOUR, 72);
+        assertTrue(series.covers(START + 2 * HOUR, HOUR));
+        assertFalse(series.covers(START + 2 * HOUR, 2 * HOUR));
+        // once dropped, history is no longer covered
+        TrendSeries complete = new TrendSeries(true);
+        for (int h = 0; h < 40; h++) {
+            complete.add(START + h * HOUR, 70);
+        }
+        assertTrue(complete.covers(START + 10 * HOUR, 20 * HOUR));
+        complete.evict(START + 30 * HOUR);
+        assertFalse(complete.covers(START + 10 * HOUR, 20 * HOUR));
+        assertTrue(complete.covers(START + 40 * HOUR, 10 * HOUR));
+    }
+
+    private static void assertSame(Double expected, Double actual) {
+        if (expected == null) {
+            assertNull(actual);
+        } else {
+            assertEquals(expected, actual, DELTA * Math.max(1, Math.abs(expected)));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.clinical.threshold;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.medipi.clinical.dao.RecordingDeviceDataDAOImpl;
+import org.medipi.clinical.entities.Patient;
+import org.medipi.clinical.entities.RecordingDeviceAttribute;
+import org.medipi.clinical.entities.RecordingDeviceData;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that TrendStore keeps its series in step with the DB and reads them
+ * again when it cannot
+ */
+public class TrendStoreTest {
+
+    private static final String PATIENT = "d9bc2478-062e-4b87-9060-4984f26b74be";
+    private static final int ATTRIBUTE = 7;
+    private static final long HOUR = 3600000L;
+    private static final long START = 1496307600000L;
+    private static final int PERIOD = 24;
+
+    private RecordingDeviceDataDAOImpl dao;
+    private TrendStore store;
+    // measurements which the mocked DB holds
+    private LeastSquaresRefit db;
+
+    @Before
+    public void setUp() {
+        db = new LeastSquaresRefit();
+        dao = mock(RecordingDeviceDataDAOImpl.class);
+        when(dao.findFirstEntryBeforePeriod(anyString(), anyInt(), any(Date.class))).thenAnswer(new Answer<Date>() {
+            @Override
+            public Date answer(InvocationOnMock invocation) {
+                Long t = db.lastBefore(((Date) invocation.getArguments()[2]).getTime());
+                return t == null ? null : new Date(t);
+            }
+        });
+        when(dao.findValuesByPatientAndAttributeFromTime(anyString(), anyInt(), any(Date.class))).thenAnswer(new Answer<List<Object[]>>() {
+            @Override
+            public List<Object[]> answer(InvocationOnMock invocation) {
+                long from = ((Date) invocation.getArguments()[2]).getTime();
+                List<Object[]> rows = new ArrayList<>();
+                for (int i = 0; i < db.times.size(); i++) {
+                    if (db.times.get(i) >= from) {
+                        rows.add(new Object[]{new Date(db.times.get(i)), db.values.get(i)});
+                    }
+                }
+                // in time order as the query reads them
+                Collections.sort(rows, new Comparator<Object[]>() {
+                    @Override
+                    public int compare(Object[] a, Object[] b) {
+                        return ((Date) a[0]).compareTo((Date) b[0]);
+                    }
+                });
+                return rows;
+            }
+        });
+        store = new TrendStore();
+        ReflectionTestUtils.setField(store, "recordingDeviceDataDAOImpl", dao);
+        for (int h = 0; h < 48; h++) {
+            db.add(START + h * HOUR, 70 + h * 0.2 + (h % 3));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void seriesIsReadOnceAndKeptUpToDate() {
+        for (int h = 48; h < 120; h++) {
+            long time = START + h * HOUR;
+            assertSame(db.predict(time, PERIOD * HOUR, 3), store.getHistoricValue(ATTRIBUTE, PATIENT, new Date(time), PERIOD, 3));
+            persist(time, 70 + h * 0.2 + (h % 3));
+        }
+        verify(dao, times(1)).findValuesByPatientAndAttributeFromTime(anyString(), anyInt(), any(Date.class));
+    }
+
+    @Test
+    public void outOfOrderMeasurementDiscardsTheSeries() {
+        long time = START + 48 * HOUR;
+        store.getHistoricValue(ATTRIBUTE, PATIENT, new Date(time), PERIOD, 3);
+        persist(START + 30 * HOUR + HOUR / 2, 100);
+        assertSame(db.predict(time, PERIOD * HOUR, 3), store.getHistoricValue(ATTRIBUTE, PATIENT, new Date(time), PERIOD, 3));
+        verify(dao, times(2)).findValuesByPatientAndAttributeFromTime(anyString(), anyInt(), any(Date.class));
+    }
+
+    @Test
+    public void droppedHistoryIsReadAgain() {
+        store.getHistoricValue(ATTRIBUTE, PATIENT, new Date(START + 47 * HOUR), PERIOD, 3);
+        // a longer period needs measurements which were never read
+        long time = START + 47 * HOUR;
+        assertSame(db.predict(time, 40 * HOUR, 3), store.getHistoricValue(ATTRIBUTE, PATIENT, new Date(time), 40, 3));
+        verify(dao, times(2)).findValuesByPatientAndAttributeFromTime(anyString(), anyInt(), any(Date.class));
+    }
+
+    @Test
+    public void rolledBackMeasurementDiscardsTheSeries() {
+        long time = START + 48 * HOUR;
+        store.getHistoricValue(ATTRIBUTE, PATIENT, new Date(time), PERIOD, 3);
+        TransactionSynchronizationManager.initSynchronization();
+        store.record(measurement(time, 500));
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        // the DB never held the rolled back measurement
+        long next = START + 49 * HOUR;
+        assertSame(db.predict(next, PERIOD * HOUR, 3), store.getHistoricValue(ATTRIBUTE, PATIENT, new Date(next), PERIOD, 3));
+        verify(dao, times(2)).findValuesByPatientAndAttributeFromTime(anyString(), anyInt(), any(Date.class));
+    }
+
+    @Test
+    public void committedMeasurementIsKept() {
+        long time = START + 48 * HOUR;
+        store.getHistoricValue(ATTRIBUTE, PATIENT, new Date(time), PERIOD, 3);
+        TransactionSynchronizationManager.initSynchronization();
+        persist(time, 75);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        long next = START + 49 * HOUR;
+        assertSame(db.predict(next, PERIOD * HOUR, 3), store.getHistoricValue(ATTRIBUTE, PATIENT, new Date(next), PERIOD, 3));
+        verify(dao, times(1)).findValuesByPatientAndAttributeFromTime(anyString(), anyInt(), any(Date.class));
+    }
+
+    @Test
+    public void nonNumericMeasurementIsIgnored() {
+        long time = START + 48 * HOUR;
+        store.getHistoricValue(ATTRIBUTE, PATIENT, new Date(time), PERIOD, 3);
+        RecordingDeviceData rdd = measurement(time, 0);
+        rdd.setDataValueNumeric(null);
+        store.record(rdd);
+        long next = START + 49 * HOUR;
+        assertSame(db.predict(next, PERIOD * HOUR, 3), store.getHistoricValue(ATTRIBUTE, PATIENT, new Date(next), PERIOD, 3));
+        verify(dao, times(1)).findValuesByPatientAndAttributeFromTime(anyString(), anyInt(), any(Date.class));
+    }
+
+    // writes a measurement to the DB and tells the store
+    private void persist(long time, double value) {
+        db.add(time, value);
+        store.record(measurement(time, value));
+    }
+
+    private static RecordingDeviceData measurement(long time, double value) {
+        RecordingDeviceData rdd = new RecordingDeviceData();
+        rdd.setPatientUuid(new Patient(PATIENT));
+        rdd.setAttributeId(new RecordingDeviceAttribute(ATTRIBUTE));
+        rdd.setDataValueTime(new Date(time));
+        rdd.setDataValue(String.valueOf(value));
+        rdd.setDataValueNumeric(value);
+        return rdd;
+    }
+
+    private static void complete(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        for (TransactionSynchronization synchronization : synchronizations) {
+            synchronization.afterCompletion(status);
+        }
+    }
+
+    private static void assertSame(Double expected, Double actual) {
+        if (expected == null) {
+            assertNull(actual);
+        } else {
+            assertEquals(expected, actual, 1e-6 * Math.max(1, Math.abs(expected)));
+        }
+    }
+}
@@ -0,0 +1,10 @@
+--
+-- MediPi Clinical DB update 001
+-- Version of each patient group's data, incremented by MediPiClinical in the
+-- transaction which persists new data for the group, so that the clinician
+-- service can tell whether its dashboard for the group is out of date
+--
+
+SET search_path = public, pg_catalog;
+
+ALTER TABLE patient_group ADD COLUMN data_version bigint DEFAULT 0 NOT NULL;
@@ -0,0 +1,47 @@
+--
+-- MediPi Clinical DB update 002
+-- Typed forms of recording_device_data.data_value, derived when a value is
+-- stored so that it does not have to be re-parsed each time it is read:
+--   data_value_numeric holds a plain decimal value as a number
+--   data_value_text holds any other short value (e.g. a True/False answer)
+--   or the status flag of a questionnaire
+-- The existing data is backfilled using the same rules as
+-- org.medipi.model.TypedDataValue: a value which matches the numeric pattern
+-- but is too large for a double precision has no numeric value (Java parses
+-- it as infinity) and one which is too small is held as zero. Neither has a
+-- text value
+--
+
+SET search_path = public, pg_catalog;
+
+ALTER TABLE recording_device_data ADD COLUMN data_value_numeric double precision;
+ALTER TABLE recording_device_data ADD COLUMN data_value_text character varying(100);
+
+CREATE FUNCTION pg_temp.typed_numeric_value(data_value text) RETURNS double precision AS $$
+BEGIN
+    RETURN CAST(data_value AS double precision);
+EXCEPTION WHEN numeric_value_out_of_range THEN
+    BEGIN
+        RETURN CASE WHEN abs(CAST(data_value AS numeric)) < 1 THEN 0 END;
+    EXCEPTION WHEN numeric_value_out_of_range THEN
+        -- beyond even numeric: the sign of the exponent tells which way
+        RETURN CASE WHEN data_value ~ '[eE]-' THEN 0 END;
+    END;
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
+
+UPDATE recording_device_data
+    SET data_value_numeric = pg_temp.typed_numeric_value(data_value)
+    WHERE data_value ~ '^[-+]?([0-9]+[.]?[0-9]*|[.][0-9]+)([eE][-+]?[0-9]+)?$';
+
+UPDATE recording_device_data
+    SET data_value_text = CASE WHEN data_value LIKE '{%'
+        THEN substring(data_value from '"status"\s*:\s*"([^"]{0,100})"')
+        ELSE data_value END
+    WHERE data_value !~ '^[-+]?([0-9]+[.]?[0-9]*|[.][0-9]+)([eE][-+]?[0-9]+)?$'
+    AND (data_value LIKE '{%' OR char_length(data_value) <= 100);
+
+-- threshold trends and chart series read the numeric values of a patient's attribute
+-- in time order
+CREATE INDEX recording_device_data_patient_attribute_time_numeric_idx
+    ON recording_device_data (patient_uuid, attribute_id, data_value_time, data_value_numeric);
@@ -0,0 +1,27 @@
+--
+-- MediPi Clinical DB update 003
+-- Composite indexes for the recording_device_data queries which are run for
+-- every synchronisation and every threshold test:
+--   RecordingDeviceData.isAlreadyStored, findByPatientAndAttributeAndPeriod,
+--   findFirstEntryBeforePeriod and findValuesByPatientAndAttributeFromTime use
+--   recording_device_data_patient_attribute_time_numeric_idx (update 002)
+--   RecordingDeviceData.dateOfLatestPatientGroupSync uses
+--   recording_device_data_patient_downloaded_time_idx
+--   RecordingDeviceData.findByGroupedPatientAndScheduledTime and
+--   findByPatientAndScheduledTime use
+--   recording_device_data_patient_schedule_idx
+-- The indexes are built concurrently so that synchronisation is not blocked
+-- while they are created on a large table. CREATE INDEX CONCURRENTLY cannot be
+-- run inside a transaction so this script must be run by psql in autocommit
+-- mode
+--
+
+SET search_path = public, pg_catalog;
+
+CREATE INDEX CONCURRENTLY recording_device_data_patient_downloaded_time_idx
+    ON recording_device_data (patient_uuid, downloaded_time);
+
+CREATE INDEX CONCURRENTLY recording_device_data_patient_schedule_idx
+    ON recording_device_data (patient_uuid, schedule_effective_time, schedule_expiry_time);
+
+ANALYZE recording_device_data;
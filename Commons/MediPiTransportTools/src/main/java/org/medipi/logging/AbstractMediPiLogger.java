@@ -0,0 +1,376 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.logging;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.function.Supplier;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.FileHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Logging shared by the MediPi patient unit, concentrator and clinical
+ * applications. Each application's MediPiLogger singleton extends this class.
+ *
+ * The level of a message is checked before the message is built so that a
+ * message below the configured level costs no more than the check. Messages
+ * which are expensive to build can be passed as a Supplier or as a
+ * MessageFormat pattern and arguments, which are only evaluated when the
+ * message will be logged. Records are written to the console or the log file
+ * by an AsyncLogHandler so that the caller does not wait for the write.
+ *
+ * The logfile name pattern: [application name]_yyyyMMddHHmmss.log in the
+ * specified directory
+ *
+ * Note: setAppName(String name, String ldir) should be called before any
+ * logging call. closeLog() will close the logging file. setAppName() and
+ * closeLog() should be called as a pair with a logging file.
+ *
+ * @author Damian Murphy <murff@warlock.org>
+ */
+public abstract class AbstractMediPiLogger {
+
+    private static final String INTERNALLOGLEVELS = "MediPiInternalLoggingLevels.txt";
+    private static final String LOGLEVEL = "medipi.log.level";
+    private static final String LOGQUEUESIZE = "medipi.log.queuesize";
+    private static final String NOTGIVEN = "Not given";
+
+    /**
+     *
+     */
+    public static final String CONSOLE_LOGGER = "Console";
+    private final HashMap<String, Level> logLevelsMap = new HashMap<>();
+    private final String dateString;
+    private final java.util.logging.Logger consoleLogger;
+    private java.util.logging.Logger appLogger = null;
+    private volatile java.util.logging.Logger eventLog;
+    // lowest level which any handler of the event log will write
+    private volatile int threshold;
+    private Level level = Level.ALL;
+    private int queueSize = AsyncLogHandler.DEFAULTQUEUESIZE;
+    private String logDir = null;
+    private String appName = null;
+    private String logFileName = null;
+
+    /**
+     * Constructor
+     *
+     * @param dateString date used in the log file name
+     */
+    protected AbstractMediPiLogger(String dateString) {
+        this.dateString = dateString;
+        consoleLogger = java.util.logging.Logger.getLogger(CONSOLE_LOGGER);
+        consoleLogger.setUseParentHandlers(false);
+        consoleLogger.setLevel(Level.ALL);
+        ConsoleHandler ch = new ConsoleHandler();
+        ch.setFormatter(new SimpleFormatter());
+        consoleLogger.addHandler(new AsyncLogHandler(ch, queueSize, "medipi-console-log"));
+        useLogger(consoleLogger);
+
+        /* load the Internal Loggin Levels file - this may be updated at a later stage by having an
+         external one but for the time being this will be sufficient */
+        InputStream levels = getClass().getResourceAsStream(INTERNALLOGLEVELS);
+        if (levels == null) {
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(levels, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("#") || line.length() == 0) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                if (tokens.length != 2) {
+                    throw new Exception("Wrong number of elements in the logging Levels file" + INTERNALLOGLEVELS);
+                }
+                logLevelsMap.put(tokens[0], Level.parse(tokens[1]));
+            }
+        } catch (Exception e) {
+            System.err.println("Internal logging level file " + INTERNALLOGLEVELS + " has not loaded properly - " + e.toString());
+        }
+    }
+
+    /**
+     * Reads the level below which messages are not logged and the size of the
+     * log queue from the properties. Should be called before setAppName
+     *
+     * @param properties application properties
+     */
+    public synchronized void configure(Properties properties) {
+        String l = properties.getProperty(LOGLEVEL);
+        if (l != null && l.trim().length() != 0) {
+            try {
+                level = Level.parse(l.trim());
+            } catch (IllegalArgumentException e) {
+                System.err.println(LOGLEVEL + " is not a logging level: " + l);
+            }
+        }
+        String q = properties.getProperty(LOGQUEUESIZE);
+        if (q != null && q.trim().length() != 0) {
+            try {
+                queueSize = Math.max(1, Integer.parseInt(q.trim()));
+            } catch (NumberFormatException e) {
+                System.err.println(LOGQUEUESIZE + " is not a number: " + q);
+            }
+        }
+        useLogger(eventLog);
+    }
+
+    /**
+     * Whether a message at the level would be logged
+     *
+     * @param l java.util.logging.Level
+     * @return true if the message would be logged
+     */
+    public boolean isLoggable(Level l) {
+        return l.intValue() >= threshold && threshold != Level.OFF.intValue();
+    }
+
+    /**
+     * Log the given exception.
+     *
+     * @param location where the message has been raised.
+     * @param e Exception to be logged
+     */
+    public void log(String location, Exception e) {
+        log(levelOf(location), location, e);
+    }
+
+    private String makeMessage(Exception e) {
+        StringBuilder sb = new StringBuilder("Exception: ");
+        sb.append(e.getClass().getName());
+        sb.append(" Message: ");
+        sb.append(e.getMessage());
+        Throwable t = e;
+        while ((t = t.getCause()) != null) {
+            sb.append(" Caused by: ");
+            sb.append(t.getClass().getName());
+            sb.append(" Message: ");
+            sb.append(t.getMessage());
+        }
+        return sb.toString();
+    }
+
+    public void log(String location, String message) {
+        log(levelOf(location), location, message);
+    }
+
+    /**
+     * Log a message which is only built if it will be logged
+     *
+     * @param location where the message has been raised.
+     * @param message supplies the message to be logged
+     */
+    public void log(String location, Supplier<String> message) {
+        log(levelOf(location), location, message);
+    }
+
+    public void warn(String location, String message) {
+        log(Level.WARNING, location, message);
+    }
+
+    public void fine(String location, String message) {
+        log(Level.FINE, location, message);
+    }
+
+    public void fine(String location, Supplier<String> message) {
+        log(Level.FINE, location, message);
+    }
+
+    public void finer(String location, String message) {
+        log(Level.FINER, location, message);
+    }
+
+    public void finest(String location, String message) {
+        log(Level.FINEST, location, message);
+    }
+
+    public void info(String location, String message) {
+        log(Level.INFO, location, message);
+    }
+
+    public void error(String location, String message) {
+        log(Level.SEVERE, location, message);
+    }
+
+    /**
+     * Log the given exception.
+     *
+     * @param l java.util.logging.Level
+     * @param location where the message has been raised.
+     * @param e Exception to be logged
+     */
+    public void log(Level l, String location, Exception e) {
+        if (isLoggable(levelOf(l))) {
+            publish(levelOf(l), location, makeMessage(e));
+        }
+    }
+
+    /**
+     * Log the given message, declare it as coming from the given location.
+     *
+     * If the log file has not been opened successfully, the message will be
+     * sent to the console.
+     *
+     * @param l java.util.logging.Level
+     * @param location where the message has been raised.
+     * @param message the message to be logged.
+     */
+    public void log(Level l, String location, String message) {
+        if (isLoggable(levelOf(l))) {
+            publish(levelOf(l), location, message);
+        }
+    }
+
+    /**
+     * Log a message which is only built if it will be logged
+     *
+     * @param l java.util.logging.Level
+     * @param location where the message has been raised.
+     * @param message supplies the message to be logged
+     */
+    public void log(Level l, String location, Supplier<String> message) {
+        if (isLoggable(levelOf(l))) {
+            publish(levelOf(l), location, message.get());
+        }
+    }
+
+    /**
+     * Log a message which is only formatted if it will be logged
+     *
+     * @param l java.util.logging.Level
+     * @param location where the message has been raised.
+     * @param pattern java.text.MessageFormat pattern of the message
+     * @param arguments arguments of the pattern
+     */
+    public void log(Level l, String location, String pattern, Object... arguments) {
+        if (isLoggable(levelOf(l))) {
+            publish(levelOf(l), location, MessageFormat.format(pattern, arguments));
+        }
+    }
+
+    /**
+     * Writes any queued messages and closes the log file
+     */
+    public void close() {
+        if (appName != null) {
+            java.util.logging.Logger log = java.util.logging.Logger.getLogger(appName);
+            for (Handler h : log.getHandlers()) {
+                h.close();
+            }
+        }
+    }
+
+    /**
+     * set the application name and logging direction for the composition of
+     * log filename
+     *
+     * the function will attempt to create a log file; if successful, the
+     * instance is ready for logging, otherwise an error will be sent via the
+     * standard err channel.
+     *
+     * @param name application name
+     * @param ldir the log file directory
+     */
+    public synchronized void setAppName(String name, String ldir) {
+        if ((name == null) || (name.trim().length() == 0)) {
+            return;
+        }
+        if ((ldir == null) || (ldir.trim().length() == 0)) {
+            return;
+        }
+        if (appName == null) {
+            logDir = ldir;
+            appName = name;
+
+            appLogger = java.util.logging.Logger.getLogger(appName);
+            appLogger.setUseParentHandlers(false);
+            appLogger.setLevel(Level.ALL);
+            StringBuilder sb = new StringBuilder(logDir);
+            if (!(logDir.endsWith("/") || logDir.endsWith("\\"))) {
+                sb.append("/");
+            }
+            sb.append(appName);
+            sb.append("_");
+            sb.append(dateString);
+            sb.append(".log");
+            logFileName = sb.toString();
+            try {
+                FileHandler fh = new FileHandler(logFileName, 0, 1, true);
+                fh.setFormatter(new SimpleFormatter());
+                appLogger.addHandler(new AsyncLogHandler(fh, queueSize, "medipi-file-log"));
+                useLogger(appLogger);
+            } catch (Exception e) {
+                StringBuilder sbe = new StringBuilder("Failed to initialise logger ");
+                sbe.append(appName);
+                sbe.append(" to ");
+                sbe.append(logFileName);
+                sbe.append(" : ");
+                sbe.append(e.toString());
+                publish(Level.SEVERE, null, sbe.toString());
+            }
+        }
+    }
+
+    /**
+     * Logs the given string with a level of "INFO".
+     *
+     * @param string Message to log
+     */
+    public void log(String string) {
+        this.log(Level.INFO, "Location not given", string);
+    }
+
+    private Level levelOf(String location) {
+        return levelOf(logLevelsMap.get(location));
+    }
+
+    private static Level levelOf(Level l) {
+        return l == null ? Level.INFO : l;
+    }
+
+    // switches to the logger and recalculates the lowest level it will write
+    private synchronized void useLogger(java.util.logging.Logger logger) {
+        int lowest = Level.OFF.intValue();
+        for (Handler h : logger.getHandlers()) {
+            lowest = Math.min(lowest, h.getLevel().intValue());
+        }
+        threshold = Math.max(lowest, level.intValue());
+        eventLog = logger;
+    }
+
+    private void publish(Level l, String location, String message) {
+        String m = "Location: "
+                + ((location == null) || (location.trim().length() == 0) ? NOTGIVEN : location)
+                + " : Message: "
+                + ((message == null) || (message.trim().length() == 0) ? NOTGIVEN : message);
+        LogRecord record = new LogRecord(l, m);
+        // set now as the record is formatted on another thread
+        record.setSourceClassName(getClass().getName());
+        record.setSourceMethodName("log");
+        eventLog.log(record);
+    }
+}
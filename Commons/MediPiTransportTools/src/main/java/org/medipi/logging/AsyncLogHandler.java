@@ -0,0 +1,165 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.logging;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Handler which queues log records and publishes them to another handler on a
+ * writer thread, so that the thread logging a message does not wait for it to
+ * be formatted and written.
+ *
+ * The queue is a fixed size ring buffer allocated when the handler is
+ * created. When it is full, debugging records below INFO are dropped and INFO,
+ * WARNING and SEVERE records wait a short time for space before being
+ * dropped. The number of records dropped is written to the log once the
+ * writer has caught up.
+ *
+ * Closing the handler writes any records still queued before closing the
+ * target handler
+ */
+public class AsyncLogHandler extends Handler {
+
+    /**
+     * Number of records the queue holds unless otherwise configured
+     */
+    public static final int DEFAULTQUEUESIZE = 8192;
+    private static final int BATCHSIZE = 256;
+    private static final long FULLWAITMILLIS = 100;
+    private static final long POLLMILLIS = 500;
+
+    private final Handler target;
+    private final ArrayBlockingQueue<LogRecord> queue;
+    private final LogRecord[] batch = new LogRecord[BATCHSIZE];
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor
+     *
+     * @param target handler the records are published to
+     * @param queueSize number of records which can be queued
+     * @param name name of the writer thread
+     */
+    public AsyncLogHandler(Handler target, int queueSize, String name) {
+        this.target = target;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        setLevel(target.getLevel());
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the record to be written
+     *
+     * @param record record to be logged
+     */
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        if (queue.offer(record)) {
+            return;
+        }
+        if (record.getLevel().intValue() >= Level.INFO.intValue()) {
+            try {
+                if (queue.offer(record, FULLWAITMILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Number of records which have been dropped and not yet reported
+     *
+     * @return number of records dropped
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void flush() {
+        target.flush();
+    }
+
+    /**
+     * Writes the queued records and closes the target handler. Records
+     * published after the handler has been closed are ignored
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.join(POLLMILLIS * 4);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        target.close();
+    }
+
+    // runs on the writer thread until the handler is closed and the queue is empty
+    private void write() {
+        while (!closed || !queue.isEmpty()) {
+            LogRecord record;
+            try {
+                record = queue.poll(POLLMILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (record == null) {
+                continue;
+            }
+            target.publish(record);
+            int n = 0;
+            while (n < BATCHSIZE && (batch[n] = queue.poll()) != null) {
+                n++;
+            }
+            for (int i = 0; i < n; i++) {
+                target.publish(batch[i]);
+                batch[i] = null;
+            }
+            long d = dropped.getAndSet(0);
+            if (d > 0) {
+                LogRecord warning = new LogRecord(Level.WARNING, d + " log messages were dropped because the log queue was full");
+                warning.setSourceClassName(AsyncLogHandler.class.getName());
+                warning.setSourceMethodName("publish");
+                target.publish(warning);
+            }
+            target.flush();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Versioned binary codec for DevicesPayloadDO used in place of Java
+ * serialisation inside the signed and encrypted upload envelope.
+ *
+ * The codec is negotiated using a codec parameter on the Data-Format HTTP
+ * header e.g. "MediPiNative;codec=mpb1+deflate". Units which send the data
+ * format without a codec parameter continue to use Java serialisation.
+ *
+ * Version 1 layout: the magic bytes 'M' 'P', a version byte and a flags byte
+ * followed (optionally deflated) by the uploadUuid, the uploadedDate, the
+ * number of DeviceDataDOs and for each one the deviceDataUuid, profileId and
+ * payload. Strings are written as a length prefixed UTF-8 byte array where a
+ * length of -1 denotes null. The magic bytes can never be confused with a Java
+ * serialisation stream, which always starts 0xACED
+ */
+public final class DevicesPayloadCodec {
+
+    /**
+     * Name of the Data-Format header parameter which carries the codec
+     */
+    public static final String CODECPARAMETER = "codec";
+    /**
+     * Binary codec version 1
+     */
+    public static final String MPB1 = "mpb1";
+    /**
+     * Binary codec version 1 with deflate compression
+     */
+    public static final String MPB1DEFLATE = "mpb1+deflate";
+
+    private static final byte MAGIC0 = 'M';
+    private static final byte MAGIC1 = 'P';
+    private static final byte VERSION1 = 1;
+    private static final byte FLAGDEFLATE = 0x01;
+    private static final int MAXSTRINGBYTES = 16 * 1024 * 1024;
+    private static final int MAXDEVICEDATA = 10000;
+
+    private DevicesPayloadCodec() {
+    }
+
+    /**
+     * Checks whether a codec name is understood by this version of the codec
+     *
+     * @param codec codec name from the Data-Format header
+     * @return true if the codec can be decoded
+     */
+    public static boolean isSupported(String codec) {
+        return MPB1.equals(codec) || MPB1DEFLATE.equals(codec);
+    }
+
+    /**
+     * Returns the data format token from a Data-Format header value with any
+     * parameters removed
+     *
+     * @param dataFormatHeader Data-Format header value
+     * @return data format token
+     */
+    public static String getDataFormat(String dataFormatHeader) {
+        if (dataFormatHeader == null) {
+            return null;
+        }
+        int i = dataFormatHeader.indexOf(';');
+        return (i < 0 ? dataFormatHeader : dataFormatHeader.substring(0, i)).trim();
+    }
+
+    /**
+     * Returns the codec parameter from a Data-Format header value
+     *
+     * @param dataFormatHeader Data-Format header value
+     * @return codec name or null if none is present
+     */
+    public static String getCodec(String dataFormatHeader) {
+        if (dataFormatHeader == null) {
+            return null;
+        }
+        String[] parts = dataFormatHeader.split(";");
+        for (int i = 1; i < parts.length; i++) {
+            String[] nv = parts[i].split("=", 2);
+            if (nv.length == 2 && nv[0].trim().equalsIgnoreCase(CODECPARAMETER)) {
+                return nv[1].trim().toLowerCase();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds a Data-Format header value for a data format and codec
+     *
+     * @param dataFormat data format token
+     * @param codec codec name or null for Java serialisation
+     * @return Data-Format header value
+     */
+    public static String toDataFormatHeader(String dataFormat, String codec) {
+        if (codec == null || codec.trim().length() == 0) {
+            return dataFormat;
+        }
+        return dataFormat + ";" + CODECPARAMETER + "=" + codec.trim();
+    }
+
+    /**
+     * Checks whether a byte array was written by this codec
+     *
+     * @param b bytes to test
+     * @return true if the bytes start with the codec magic
+     */
+    public static boolean isEncoded(byte[] b) {
+        return b != null && b.length >= 4 && b[0] == MAGIC0 && b[1] == MAGIC1;
+    }
+
+    /**
+     * Encodes a DevicesPayloadDO
+     *
+     * @param dp payload to be encoded
+     * @param codec codec name
+     * @return encoded bytes
+     * @throws IOException
+     */
+    public static byte[] encode(DevicesPayloadDO dp, String codec) throws IOException {
+        if (!isSupported(codec)) {
+            throw new IOException("Unsupported payload codec: " + codec);
+        }
+        boolean deflate = MPB1DEFLATE.equals(codec);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+        bos.write(MAGIC0);
+        bos.write(MAGIC1);
+        bos.write(VERSION1);
+        bos.write(deflate ? FLAGDEFLATE : 0);
+        Deflater deflater = null;
+        OutputStream os = bos;
+        if (deflate) {
+            deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            os = new DeflaterOutputStream(bos, deflater);
+        }
+        try {
+            DataOutputStream out = new DataOutputStream(os);
+            writeString(out, dp.getUploadUuid());
+            Date uploadedDate = dp.getUploadedDate();
+            out.writeBoolean(uploadedDate != null);
+            if (uploadedDate != null) {
+                out.writeLong(uploadedDate.getTime());
+            }
+            List<DeviceDataDO> payload = dp.getPayload();
+            out.writeInt(payload == null ? 0 : payload.size());
+            if (payload != null) {
+                for (DeviceDataDO dd : payload) {
+                    writeString(out, dd.getDeviceDataUuid());
+                    writeString(out, dd.getProfileId());
+                    writeString(out, dd.getPayload());
+                }
+            }
+            out.close();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Decodes a DevicesPayloadDO
+     *
+     * @param b encoded bytes
+     * @return decoded payload
+     * @throws IOException if the bytes are not a supported version of the codec
+     * or are malformed
+     */
+    public static DevicesPayloadDO decode(byte[] b) throws IOException {
+        if (!isEncoded(b)) {
+            throw new IOException("Payload is not in a MediPi binary format");
+        }
+        if (b[2] != VERSION1) {
+            throw new IOException("Unsupported MediPi binary payload version: " + b[2]);
+        }
+        InputStream is = new ByteArrayInputStream(b, 4, b.length - 4);
+        if ((b[3] & FLAGDEFLATE) != 0) {
+            is = new InflaterInputStream(is);
+        }
+        try (DataInputStream in = new DataInputStream(is)) {
+            DevicesPayloadDO dp = new DevicesPayloadDO(readString(in));
+            if (in.readBoolean()) {
+                dp.setUploadedDate(new Date(in.readLong()));
+            }
+            int count = in.readInt();
+            if (count < 0 || count > MAXDEVICEDATA) {
+                throw new IOException("Invalid number of device data entries: " + count);
+            }
+            List<DeviceDataDO> payload = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                DeviceDataDO dd = new DeviceDataDO(readString(in));
+                dd.setProfileId(readString(in));
+                dd.setPayload(readString(in));
+                payload.add(dd);
+            }
+            dp.setPayload(payload);
+            return dp;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] sb = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(sb.length);
+            out.write(sb);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAXSTRINGBYTES) {
+            throw new IOException("Invalid string length in payload: " + length);
+        }
+        byte[] sb = new byte[length];
+        in.readFully(sb);
+        return new String(sb, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.model;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Derives the typed columns held alongside the data value of a recording
+ * device data point so that the value only has to be parsed once, when it is
+ * stored.
+ *
+ * A value is numeric when it is a plain decimal number, optionally with an
+ * exponent. Any other value is held as text: a questionnaire is held as the
+ * status flag of its JSON and any other answer (e.g. True/False) as it is,
+ * provided it is short enough. The rules are the same as those used by the DB
+ * update which backfills the columns
+ */
+public final class TypedDataValue {
+
+    public static final int MAX_TEXT_LENGTH = 100;
+
+    private static final Pattern NUMERIC = Pattern.compile("[-+]?([0-9]+[.]?[0-9]*|[.][0-9]+)([eE][-+]?[0-9]+)?");
+    private static final Pattern QUESTIONNAIRE_STATUS = Pattern.compile("\"status\"\\s*:\\s*\"([^\"]{0,100})\"");
+
+    private TypedDataValue() {
+    }
+
+    /**
+     * Returns the numeric value of a data value
+     *
+     * @param dataValue the data value as sent by the device
+     * @return the number or null if the data value is not numeric or is too
+     * large to be held
+     */
+    public static Double numericValue(String dataValue) {
+        if (dataValue == null || !NUMERIC.matcher(dataValue).matches()) {
+            return null;
+        }
+        Double d = Double.valueOf(dataValue);
+        return d.isInfinite() ? null : d;
+    }
+
+    /**
+     * Returns the text value of a non numeric data value
+     *
+     * @param dataValue the data value as sent by the device
+     * @return the questionnaire status or answer, or null if the data value
+     * is numeric or has no short text form
+     */
+    public static String textValue(String dataValue) {
+        if (dataValue == null || NUMERIC.matcher(dataValue).matches()) {
+            return null;
+        }
+        if (dataValue.startsWith("{")) {
+            Matcher m = QUESTIONNAIRE_STATUS.matcher(dataValue);
+            return m.find() ? m.group(1) : null;
+        }
+        return dataValue.length() > MAX_TEXT_LENGTH ? null : dataValue;
+    }
+}
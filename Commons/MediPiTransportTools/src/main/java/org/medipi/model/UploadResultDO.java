@@ -0,0 +1,65 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.model;
+
+import java.io.Serializable;
+
+/**
+ * Data Object for the outcome of one upload in a batch upload. The status is
+ * the HTTP status the upload would have been answered with if it had been sent
+ * on its own
+ */
+public class UploadResultDO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private String uploadUuid;
+    private int status;
+    private String message;
+
+    public UploadResultDO() {
+    }
+
+    public UploadResultDO(String uploadUuid, int status, String message) {
+        this.uploadUuid = uploadUuid;
+        this.status = status;
+        this.message = message;
+    }
+
+    public String getUploadUuid() {
+        return uploadUuid;
+    }
+
+    public void setUploadUuid(String uploadUuid) {
+        this.uploadUuid = uploadUuid;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+}
@@ -0,0 +1,333 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.security;
+
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.RSADecrypter;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide registry of key material loaded from JKS key stores and trust
+ * stores.
+ *
+ * Each store is read from disk once and the keys, certificate chains and the
+ * Nimbus signers, decrypters and verifiers derived from them are kept as
+ * immutable objects which can be shared between threads and between
+ * UploadEncryptionAdapter instances. The store files are watched by checking
+ * their size and modification time at most once every
+ * CHECKINTERVALMILLIS and are reloaded when they change
+ */
+public class KeyMaterialRegistry {
+
+    private static final long CHECKINTERVALMILLIS = 5000;
+    private static final int MAXVERIFIERS = 1000;
+
+    private final ConcurrentHashMap<List<String>, LoadedStore> stores = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, JWSVerifier> verifiers = new ConcurrentHashMap<>();
+    private final long checkIntervalMillis;
+
+    private KeyMaterialRegistry() {
+        this(CHECKINTERVALMILLIS);
+    }
+
+    // a registry of its own which checks the store files at the given interval, for the tests
+    KeyMaterialRegistry(long checkIntervalMillis) {
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    public static KeyMaterialRegistry getInstance() {
+        return KeyMaterialRegistryHolder.INSTANCE;
+    }
+
+    private static class KeyMaterialRegistryHolder {
+
+        private static final KeyMaterialRegistry INSTANCE = new KeyMaterialRegistry();
+    }
+
+    /**
+     * Returns the signing key held under the alias in a key store
+     *
+     * @param location key store file location
+     * @param alias alias of the signing key
+     * @param password key store password
+     * @return immutable signing key material
+     * @throws Exception if the key store cannot be loaded or the alias is not
+     * a private key entry
+     */
+    public SigningKey getSigningKey(String location, String alias, String password) throws Exception {
+        LoadedStore ls = getStore(location, password);
+        Object o = ls.derived.get("sign:" + alias);
+        if (o == null) {
+            o = new SigningKey(ls.store, alias, password);
+            ls.derived.put("sign:" + alias, o);
+        }
+        return (SigningKey) o;
+    }
+
+    /**
+     * Returns the decryption key held under the alias in a key store
+     *
+     * @param location key store file location
+     * @param alias alias of the decryption key
+     * @param password key store password
+     * @return immutable decryption key material
+     * @throws Exception if the key store cannot be loaded or the alias is not
+     * a private key entry
+     */
+    public DecryptionKey getDecryptionKey(String location, String alias, String password) throws Exception {
+        LoadedStore ls = getStore(location, password);
+        Object o = ls.derived.get("decrypt:" + alias);
+        if (o == null) {
+            o = new DecryptionKey(ls.store, alias, password);
+            ls.derived.put("decrypt:" + alias, o);
+        }
+        return (DecryptionKey) o;
+    }
+
+    /**
+     * Returns the public key of the certificate held under the alias in a
+     * trust store
+     *
+     * @param location trust store file location
+     * @param alias alias of the certificate
+     * @param password trust store password
+     * @return public key
+     * @throws Exception if the trust store cannot be loaded or the alias is
+     * not present
+     */
+    public RSAPublicKey getTrustedPublicKey(String location, String alias, String password) throws Exception {
+        LoadedStore ls = getStore(location, password);
+        Object o = ls.derived.get("public:" + alias);
+        if (o == null) {
+            X509Certificate trustcert = (X509Certificate) ls.store.getCertificate(alias);
+            if (trustcert == null) {
+                throw new Exception("Certificate alias " + alias + " is not present in " + location);
+            }
+            o = trustcert.getPublicKey();
+            ls.derived.put("public:" + alias, o);
+        }
+        return (RSAPublicKey) o;
+    }
+
+    /**
+     * Returns all the certificates in a trust store
+     *
+     * @param location trust store file location
+     * @param password trust store password
+     * @return trusted certificates - the array must not be modified
+     * @throws Exception if the trust store cannot be loaded
+     */
+    public X509Certificate[] getTrustedCertificates(String location, String password) throws Exception {
+        LoadedStore ls = getStore(location, password);
+        Object o = ls.derived.get("trust");
+        if (o == null) {
+            X509Certificate[] certs = new X509Certificate[ls.store.size()];
+            int i = 0;
+            Enumeration<String> alias = ls.store.aliases();
+            while (alias.hasMoreElements()) {
+                certs[i++] = (X509Certificate) ls.store.getCertificate(alias.nextElement());
+            }
+            o = certs;
+            ls.derived.put("trust", o);
+        }
+        return (X509Certificate[]) o;
+    }
+
+    /**
+     * Returns the subject DN index of a trust store. The index holds the cache
+     * of validated client certificates and is rebuilt when the trust store is
+     * reloaded
+     *
+     * @param location trust store file location
+     * @param password trust store password
+     * @return trusted certificate index
+     * @throws Exception if the trust store cannot be loaded
+     */
+    public TrustedCertificateIndex getTrustIndex(String location, String password) throws Exception {
+        LoadedStore ls = getStore(location, password);
+        Object o = ls.derived.get("trustindex");
+        if (o == null) {
+            o = new TrustedCertificateIndex(getTrustedCertificates(location, password));
+            Object existing = ls.derived.putIfAbsent("trustindex", o);
+            if (existing != null) {
+                o = existing;
+            }
+        }
+        return (TrustedCertificateIndex) o;
+    }
+
+    /**
+     * Returns a signature verifier for the public key of a certificate. The
+     * verifiers are cached against the encoded certificate
+     *
+     * @param cert certificate of the signer
+     * @return signature verifier
+     * @throws Exception if the certificate cannot be encoded
+     */
+    public JWSVerifier getVerifier(X509Certificate cert) throws Exception {
+        String key = com.nimbusds.jose.util.Base64.encode(cert.getEncoded()).toString();
+        JWSVerifier verifier = verifiers.get(key);
+        if (verifier == null) {
+            verifier = new RSASSAVerifier((RSAPublicKey) cert.getPublicKey());
+            if (verifiers.size() >= MAXVERIFIERS) {
+                Iterator<String> it = verifiers.keySet().iterator();
+                if (it.hasNext()) {
+                    verifiers.remove(it.next());
+                }
+            }
+            verifiers.put(key, verifier);
+        }
+        return verifier;
+    }
+
+    private LoadedStore getStore(String location, String password) throws Exception {
+        List<String> key = Collections.unmodifiableList(Arrays.asList(location, password));
+        LoadedStore ls = stores.get(key);
+        long now = System.currentTimeMillis();
+        if (ls != null && now - ls.lastChecked < checkIntervalMillis) {
+            return ls;
+        }
+        synchronized (this) {
+            ls = stores.get(key);
+            if (ls != null && now - ls.lastChecked < checkIntervalMillis) {
+                return ls;
+            }
+            File f = new File(location);
+            if (ls == null || ls.lastModified != f.lastModified() || ls.length != f.length()) {
+                ls = new LoadedStore(location, password);
+                stores.put(key, ls);
+            } else {
+                ls.lastChecked = now;
+            }
+            return ls;
+        }
+    }
+
+    /**
+     * A key store loaded from disk together with the material derived from it
+     */
+    private static class LoadedStore {
+
+        private final KeyStore store;
+        private final long lastModified;
+        private final long length;
+        private volatile long lastChecked;
+        private final ConcurrentHashMap<String, Object> derived = new ConcurrentHashMap<>();
+
+        LoadedStore(String location, String password) throws Exception {
+            File f = new File(location);
+            lastModified = f.lastModified();
+            length = f.length();
+            store = KeyStore.getInstance("JKS");
+            try (InputStream fis = new FileInputStream(f)) {
+                store.load(fis, password.toCharArray());
+            }
+            lastChecked = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Immutable signing key material: the private key, the certificate chain
+     * to be passed in the JWS header and a signer which is safe to share
+     * between threads
+     */
+    public static final class SigningKey {
+
+        private final RSAPrivateKey privateKey;
+        private final X509Certificate signingCertificate;
+        private final List<com.nimbusds.jose.util.Base64> certChain;
+        private final JWSSigner signer;
+
+        SigningKey(KeyStore sks, String alias, String password) throws Exception {
+            KeyStore.PasswordProtection pp = new KeyStore.PasswordProtection(password.toCharArray());
+            KeyStore.Entry entry = sks.getEntry(alias, pp);
+            if (!(entry instanceof KeyStore.PrivateKeyEntry)) {
+                throw new Exception("Signing key alias " + alias + " is not present");
+            }
+            privateKey = (RSAPrivateKey) ((KeyStore.PrivateKeyEntry) entry).getPrivateKey();
+            // We pass the full certificate chain but will only use the signing cert when this arrives at the host concentrator.
+            // The signing cert will be used to walk up the chain in the local trusted store
+            List<com.nimbusds.jose.util.Base64> chain = new ArrayList<>();
+            for (Certificate cert : sks.getCertificateChain(alias)) {
+                chain.add(com.nimbusds.jose.util.Base64.encode(((X509Certificate) cert).getEncoded()));
+            }
+            certChain = Collections.unmodifiableList(chain);
+            signingCertificate = (X509Certificate) sks.getCertificate(alias);
+            signer = new RSASSASigner(privateKey);
+        }
+
+        public RSAPrivateKey getPrivateKey() {
+            return privateKey;
+        }
+
+        public X509Certificate getSigningCertificate() {
+            return signingCertificate;
+        }
+
+        public List<com.nimbusds.jose.util.Base64> getCertChain() {
+            return certChain;
+        }
+
+        public JWSSigner getSigner() {
+            return signer;
+        }
+    }
+
+    /**
+     * Immutable decryption key material: the private key and a decrypter which
+     * is safe to share between threads
+     */
+    public static final class DecryptionKey {
+
+        private final RSAPrivateKey privateKey;
+        private final RSADecrypter decrypter;
+
+        DecryptionKey(KeyStore sks, String alias, String password) throws Exception {
+            KeyStore.PasswordProtection pp = new KeyStore.PasswordProtection(password.toCharArray());
+            KeyStore.Entry entry = sks.getEntry(alias, pp);
+            if (!(entry instanceof KeyStore.PrivateKeyEntry)) {
+                throw new Exception("Encryption key alias " + alias + " is not present");
+            }
+            privateKey = (RSAPrivateKey) ((KeyStore.PrivateKeyEntry) entry).getPrivateKey();
+            decrypter = new RSADecrypter(privateKey);
+        }
+
+        public RSAPrivateKey getPrivateKey() {
+            return privateKey;
+        }
+
+        public RSADecrypter getDecrypter() {
+            return decrypter;
+        }
+    }
+}
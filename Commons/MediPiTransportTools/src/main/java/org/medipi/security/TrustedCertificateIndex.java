@@ -0,0 +1,176 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.security;
+
+import java.security.MessageDigest;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Immutable index of the certificates in a trust store, keyed by subject DN,
+ * together with a cache of the client certificates which have already been
+ * validated against it.
+ *
+ * Successful validations are cached against the SHA-256 fingerprint of the
+ * client certificate until the earliest notAfter date of the chain which was
+ * used to validate it. A new index (and so an empty cache) is built whenever
+ * the trust store is reloaded
+ */
+public class TrustedCertificateIndex {
+
+    private static final int MAXVALIDATED = 10000;
+
+    private final Map<X500Principal, List<X509Certificate>> bySubject;
+    private final Set<X509Certificate> selfSigned;
+    private final ConcurrentHashMap<String, Long> validated = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param trustedCerts all the certificates in the trust store
+     * @throws Exception if the certificates cannot be read
+     */
+    public TrustedCertificateIndex(X509Certificate... trustedCerts) throws Exception {
+        Map<X500Principal, List<X509Certificate>> subjects = new HashMap<>();
+        Set<X509Certificate> roots = new HashSet<>();
+        // iterate from the end of the array to keep the order in which the original linear scan tried the anchors
+        for (int i = trustedCerts.length - 1; i >= 0; i--) {
+            X509Certificate cert = trustedCerts[i];
+            if (cert == null) {
+                continue;
+            }
+            List<X509Certificate> l = subjects.get(cert.getSubjectX500Principal());
+            if (l == null) {
+                l = new ArrayList<>();
+                subjects.put(cert.getSubjectX500Principal(), l);
+            }
+            l.add(cert);
+            if (UploadEncryptionAdapter.isSelfSigned(cert)) {
+                roots.add(cert);
+            }
+        }
+        for (Map.Entry<X500Principal, List<X509Certificate>> e : subjects.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        bySubject = Collections.unmodifiableMap(subjects);
+        selfSigned = Collections.unmodifiableSet(roots);
+    }
+
+    /**
+     * Validates that the client certificate chains up to a self signed
+     * certificate in the trust store. Results are cached until the chain
+     * expires
+     *
+     * @param client certificate to be validated
+     * @return true if validation until root certificate succeeds, false
+     * otherwise
+     * @throws Exception
+     */
+    public boolean isTrusted(X509Certificate client) throws Exception {
+        String fingerprint = fingerprint(client);
+        long now = System.currentTimeMillis();
+        Long expiry = validated.get(fingerprint);
+        if (expiry != null) {
+            if (now < expiry) {
+                return true;
+            }
+            validated.remove(fingerprint);
+        }
+        long chainExpiry = validate(client, new HashSet<X509Certificate>());
+        if (chainExpiry < 0) {
+            return false;
+        }
+        if (validated.size() >= MAXVALIDATED) {
+            Iterator<String> it = validated.keySet().iterator();
+            if (it.hasNext()) {
+                validated.remove(it.next());
+            }
+        }
+        validated.put(fingerprint, chainExpiry);
+        return true;
+    }
+
+    /**
+     * Walks the chain from the client up to a self signed trusted certificate
+     * using the subject DN index
+     *
+     * @return the earliest notAfter time of the chain or -1 if the chain does
+     * not validate
+     */
+    private long validate(X509Certificate client, Set<X509Certificate> visited) throws Exception {
+        List<X509Certificate> issuers = bySubject.get(client.getIssuerX500Principal());
+        if (issuers == null || !visited.add(client)) {
+            return -1;
+        }
+        CertificateFactory cf = CertificateFactory.getInstance("X.509");
+        CertPath path = cf.generateCertPath(Arrays.asList(new Certificate[]{client}));
+        CertPathValidator validator = CertPathValidator.getInstance("PKIX");
+        for (X509Certificate issuer : issuers) {
+            PKIXParameters params = new PKIXParameters(Collections.singleton(new TrustAnchor(issuer, null)));
+            params.setRevocationEnabled(false);
+            try {
+                validator.validate(path, params);
+            } catch (CertPathValidatorException e) {
+                // validation fail, check next certificate with this subject
+                continue;
+            }
+            long expiry = Math.min(client.getNotAfter().getTime(), issuer.getNotAfter().getTime());
+            if (selfSigned.contains(issuer)) {
+                // found root ca
+                return expiry;
+            } else if (!client.equals(issuer)) {
+                // find parent ca
+                long parentExpiry = validate(issuer, visited);
+                if (parentExpiry >= 0) {
+                    return Math.min(expiry, parentExpiry);
+                }
+            }
+        }
+        return -1;
+    }
+
+    // whether a successful validation of the client certificate is cached, for the tests
+    boolean isCached(X509Certificate client) throws Exception {
+        Long expiry = validated.get(fingerprint(client));
+        return expiry != null && System.currentTimeMillis() < expiry;
+    }
+
+    private static String fingerprint(X509Certificate cert) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(cert.getEncoded());
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -23,20 +23,16 @@ import com.nimbusds.jose.JWEObject;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.JWSObject;
-import com.nimbusds.jose.JWSSigner;
 import com.nimbusds.jose.JWSVerifier;
 import com.nimbusds.jose.Payload;
 import com.nimbusds.jose.crypto.AESDecrypter;
 import com.nimbusds.jose.crypto.AESEncrypter;
 import com.nimbusds.jose.crypto.RSADecrypter;
 import com.nimbusds.jose.crypto.RSAEncrypter;
-import com.nimbusds.jose.crypto.RSASSASigner;
-import com.nimbusds.jose.crypto.RSASSAVerifier;
 import com.nimbusds.jwt.EncryptedJWT;
 import com.nimbusds.jwt.JWTClaimsSet;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -44,37 +40,26 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PublicKey;
 import java.security.SignatureException;
-import java.security.cert.CertPath;
-import java.security.cert.CertPathValidator;
-import java.security.cert.CertPathValidatorException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.CertificateNotYetValidException;
-import java.security.cert.PKIXParameters;
-import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
-import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Enumeration;
 import java.util.List;
-import java.util.Set;
 import java.util.UUID;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import org.apache.commons.codec.binary.Base64;
+import org.medipi.model.DevicesPayloadCodec;
+import org.medipi.model.DevicesPayloadDO;
 import org.medipi.model.EncryptedAndSignedUploadDO;
 
 /**
@@ -87,7 +72,7 @@ import org.medipi.model.EncryptedAndSignedUploadDO;
  */
 public class UploadEncryptionAdapter {
 
-    private List<com.nimbusds.jose.util.Base64> certChain;
+    private final KeyMaterialRegistry keyMaterialRegistry = KeyMaterialRegistry.getInstance();
 
     /**
      * Client mode encrypts and signs the payload - used for sending data from
@@ -119,11 +104,20 @@ public class UploadEncryptionAdapter {
     private int mode;
     private CertificateDefinitions cd;
 
-    private RSAPrivateKey signPrivateKey;
-    private X509Certificate[] signTrustCerts;
-
+    // Key material is held in the shared KeyMaterialRegistry and looked up on
+    // use so that changes to the stores on disk are picked up
+    private String signKeyLocation;
+    private String signKeyAlias;
+    private String signKeyPassword;
+    private String signTrustLocation;
+    private String signTrustPassword;
+    private String encryptKeyLocation;
+    private String encryptKeyAlias;
+    private String encryptKeyPassword;
+    private String encryptTrustLocation;
+    private String encryptTrustAlias;
+    private String encryptTrustPassword;
     private RSAPublicKey encryptPublicKey;
-    private RSAPrivateKey encryptPrivateKey;
     private static final int AESKEYSIZE = 256;
 
     /**
@@ -201,25 +195,13 @@ public class UploadEncryptionAdapter {
             if (signAlias != null) {
                 if (signPassword != null) {
                     try {
-                        KeyStore.PasswordProtection pp = new KeyStore.PasswordProtection(signPassword.toCharArray());
-                        KeyStore sks = KeyStore.getInstance("JKS");
-                        FileInputStream fis = new FileInputStream(signKey);
-                        sks.load(fis, signPassword.toCharArray());
-                        signPrivateKey = (RSAPrivateKey) (((KeyStore.PrivateKeyEntry) sks.getEntry(signAlias, pp)).getPrivateKey());
-                        // We pass the full certificate chain but will only use the signing cert when this arrives at the host concentrator.
-                        // The signing cert will be used to walk up the chain in the local trusted store
-                        Certificate[] c = sks.getCertificateChain(signAlias);
-                        certChain = new ArrayList<>();
-                        for (Certificate cert : c) {
-                            X509Certificate xcert = (X509Certificate) cert;
-                            com.nimbusds.jose.util.Base64 b64 = com.nimbusds.jose.util.Base64.encode(xcert.getEncoded());
-                            certChain.add(b64);
-                        }
-                        X509Certificate signingCert = (X509Certificate) sks.getCertificate(signAlias);
-                        RSAPublicKey signPublicKey = (RSAPublicKey) signingCert.getPublicKey();
+                        X509Certificate signingCert = keyMaterialRegistry.getSigningKey(signKey, signAlias, signPassword).getSigningCertificate();
                         if (signingCert == null) {
                             return "Signing certificate is not present";
                         }
+                        signKeyLocation = signKey;
+                        signKeyAlias = signAlias;
+                        signKeyPassword = signPassword;
                         try {
                             signingCert.checkValidity();
                             return null;
@@ -260,9 +242,10 @@ public class UploadEncryptionAdapter {
                 if (truststoreLocation != null) {
                     if (truststorePass != null) {
                         if (truststoreAlias != null) {
-                            KeyStore trustStore = loadStore(truststoreLocation, truststorePass);
-                            X509Certificate trustcert = (X509Certificate) trustStore.getCertificate(truststoreAlias);
-                            encryptPublicKey = (RSAPublicKey) trustcert.getPublicKey();
+                            keyMaterialRegistry.getTrustedPublicKey(truststoreLocation, truststoreAlias, truststorePass);
+                            encryptTrustLocation = truststoreLocation;
+                            encryptTrustAlias = truststoreAlias;
+                            encryptTrustPassword = truststorePass;
                         } else {
                             return "Encryption truststore alias not set";
                         }
@@ -287,16 +270,9 @@ public class UploadEncryptionAdapter {
             if (truststoreLocation != null) {
                 if (truststorePass != null) {
 
-                    KeyStore trustStore = loadStore(truststoreLocation, truststorePass);
-
-                    signTrustCerts = new X509Certificate[trustStore.size()];
-                    int i = 0;
-                    Enumeration<String> alias = trustStore.aliases();
-
-                    while (alias.hasMoreElements()) {
-                        signTrustCerts[i++] = (X509Certificate) trustStore.getCertificate(alias
-                                .nextElement());
-                    }
+                    keyMaterialRegistry.getTrustedCertificates(truststoreLocation, truststorePass);
+                    signTrustLocation = truststoreLocation;
+                    signTrustPassword = truststorePass;
                 } else {
                     return "Signature truststore password not set";
                 }
@@ -320,11 +296,10 @@ public class UploadEncryptionAdapter {
                 if (encryptPassword != null) {
                     try {
                         //THIS IS FOR THE SERVER DECRYPT
-                        KeyStore.PasswordProtection pp = new KeyStore.PasswordProtection(encryptPassword.toCharArray());
-                        KeyStore sks = KeyStore.getInstance("JKS");
-                        FileInputStream fis = new FileInputStream(encryptKey);
-                        sks.load(fis, encryptPassword.toCharArray());
-                        encryptPrivateKey = (RSAPrivateKey) (((KeyStore.PrivateKeyEntry) sks.getEntry(encryptAlias, pp)).getPrivateKey());
+                        keyMaterialRegistry.getDecryptionKey(encryptKey, encryptAlias, encryptPassword);
+                        encryptKeyLocation = encryptKey;
+                        encryptKeyAlias = encryptAlias;
+                        encryptKeyPassword = encryptPassword;
                         return null;
                     } catch (Exception e) {
                         return "error loading Encryption certificate: " + e.getLocalizedMessage();
@@ -340,10 +315,11 @@ public class UploadEncryptionAdapter {
         }
     }
 
-    private KeyStore loadStore(String trustStoreFile, String password) throws Exception {
-        KeyStore store = KeyStore.getInstance("JKS");
-        store.load(new FileInputStream(trustStoreFile), password.toCharArray());
-        return store;
+    private RSAPublicKey getEncryptPublicKey() throws Exception {
+        if (encryptPublicKey != null) {
+            return encryptPublicKey;
+        }
+        return keyMaterialRegistry.getTrustedPublicKey(encryptTrustLocation, encryptTrustAlias, encryptTrustPassword);
     }
 
     /**
@@ -362,20 +338,7 @@ public class UploadEncryptionAdapter {
                 out = new ObjectOutputStream(bos);
                 out.writeObject(dp);
                 byte[] yourBytes = bos.toByteArray();
-                String signedPayload = signPayload(yourBytes);
-                KeyGenerator kgen;
-                try {
-                    kgen = KeyGenerator.getInstance("AES");
-                    kgen.init(AESKEYSIZE);
-                } catch (NoSuchAlgorithmException ex) {
-                    throw new Exception("encryption algorithm is unrecognised. " + ex.getLocalizedMessage());
-                }
-                SecretKey key = kgen.generateKey();
-                EncryptedAndSignedUploadDO easu = new EncryptedAndSignedUploadDO(UUID.randomUUID().toString());
-                String aesEncryptedPayload = symmetricallyEncrypt(signedPayload, key);
-                String rsaEncryptedSharedKey = encryptSharedKey(key);
-                return new EncryptedAndSignedUploadDO(UUID.randomUUID().toString(), rsaEncryptedSharedKey, aesEncryptedPayload);
-
+                return encryptAndSignBytes(yourBytes);
             } finally {
                 try {
                     if (out != null) {
@@ -396,6 +359,42 @@ public class UploadEncryptionAdapter {
         }
     }
 
+    /**
+     * Method to encryptAndSign a devices payload using the MediPi binary codec
+     * rather than Java serialisation
+     *
+     * @param dp payload to be encrypted
+     * @param codec payload codec name (see DevicesPayloadCodec) or null to use
+     * Java serialisation
+     * @return Encrypted and signed representation of the data payload
+     * @throws Exception
+     */
+    public EncryptedAndSignedUploadDO encryptAndSign(DevicesPayloadDO dp, String codec) throws Exception {
+        if (codec == null || codec.trim().length() == 0) {
+            return encryptAndSign(dp);
+        }
+        try {
+            return encryptAndSignBytes(DevicesPayloadCodec.encode(dp, codec.trim().toLowerCase()));
+        } catch (IOException ex) {
+            throw new Exception("cannot encode payload for transmission ." + ex.getLocalizedMessage());
+        }
+    }
+
+    private EncryptedAndSignedUploadDO encryptAndSignBytes(byte[] yourBytes) throws Exception {
+        String signedPayload = signPayload(yourBytes);
+        KeyGenerator kgen;
+        try {
+            kgen = KeyGenerator.getInstance("AES");
+            kgen.init(AESKEYSIZE);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new Exception("encryption algorithm is unrecognised. " + ex.getLocalizedMessage());
+        }
+        SecretKey key = kgen.generateKey();
+        String aesEncryptedPayload = symmetricallyEncrypt(signedPayload, key);
+        String rsaEncryptedSharedKey = encryptSharedKey(key);
+        return new EncryptedAndSignedUploadDO(UUID.randomUUID().toString(), rsaEncryptedSharedKey, aesEncryptedPayload);
+    }
+
     /**
      * Method to sign a payload
      *
@@ -405,16 +404,16 @@ public class UploadEncryptionAdapter {
      */
     public String signPayload(byte[] pay) throws Exception {
         try {
-            // Create RSA-signer with the private key
-            JWSSigner signer = new RSASSASigner(signPrivateKey);
+            // Use the shared RSA-signer for the private key
+            KeyMaterialRegistry.SigningKey signingKey = keyMaterialRegistry.getSigningKey(signKeyLocation, signKeyAlias, signKeyPassword);
 
             // Prepare JWS object with simple string as payload
             JWSHeader.Builder builder = new JWSHeader.Builder(JWSAlgorithm.RS256);
-            builder.x509CertChain(certChain);
+            builder.x509CertChain(signingKey.getCertChain());
             JWSObject jwsObject = new JWSObject(builder.build(), new Payload(pay));
 
             // Compute the RSA signature
-            jwsObject.sign(signer);
+            jwsObject.sign(signingKey.getSigner());
 
             return jwsObject.serialize();
         } catch (JOSEException ex) {
@@ -463,7 +462,7 @@ public class UploadEncryptionAdapter {
             EncryptedJWT jwt = new EncryptedJWT(header, claimsSet);
 
             // Create an encrypter with the specified public RSA key
-            RSAEncrypter encrypter = new RSAEncrypter(encryptPublicKey);
+            RSAEncrypter encrypter = new RSAEncrypter(getEncryptPublicKey());
 
             // Do the actual encryption
             jwt.encrypt(encrypter);
@@ -492,8 +491,8 @@ public class UploadEncryptionAdapter {
             throw new Exception("cannot understand incoming encrypted key. " + ex.getLocalizedMessage());
         }
 
-        // Create a decrypter with the specified private RSA key
-        RSADecrypter decrypter = new RSADecrypter(encryptPrivateKey);
+        // Use the shared decrypter for the specified private RSA key
+        RSADecrypter decrypter = keyMaterialRegistry.getDecryptionKey(encryptKeyLocation, encryptKeyAlias, encryptKeyPassword).getDecrypter();
 
         try {
             // Decrypt
@@ -560,9 +559,9 @@ public class UploadEncryptionAdapter {
         }
         if (signPublicKey == null) {
             throw new Exception("No valid patient signing certificate was recevied with the signature");
-        } else if (validateKeyChain(clientCert, signTrustCerts)) {
+        } else if (keyMaterialRegistry.getTrustIndex(signTrustLocation, signTrustPassword).isTrusted(clientCert)) {
             try {
-                JWSVerifier verifier = new RSASSAVerifier(signPublicKey);
+                JWSVerifier verifier = keyMaterialRegistry.getVerifier(clientCert);
                 if (jwsObject.verify(verifier)) {
 //                    System.out.println(jwsObject.getPayload().toString());
                     return true;
@@ -581,6 +580,10 @@ public class UploadEncryptionAdapter {
     private Object serializePayload(JWSObject jwsObject) throws Exception {
         try {
             byte b[] = jwsObject.getPayload().toBytes();
+            // payloads written by the MediPi binary codec are recognised by their magic bytes
+            if (DevicesPayloadCodec.isEncoded(b)) {
+                return DevicesPayloadCodec.decode(b);
+            }
             ByteArrayInputStream bi = new ByteArrayInputStream(b);
             ObjectInputStream si = new ObjectInputStream(bi);
             return si.readObject();
@@ -589,63 +592,6 @@ public class UploadEncryptionAdapter {
         }
     }
 
-    /**
-     * Validate keychain
-     *
-     * @param client is the client X509Certificate
-     * @param trustedCerts is Array containing all trusted X509Certificate
-     * @return true if validation until root certificate success, false
-     * otherwise
-     * @throws CertificateException
-     * @throws InvalidAlgorithmParameterException
-     * @throws NoSuchAlgorithmException
-     * @throws NoSuchProviderException
-     */
-    public static boolean validateKeyChain(X509Certificate client,
-            X509Certificate... trustedCerts) throws CertificateException,
-            InvalidAlgorithmParameterException, NoSuchAlgorithmException,
-            NoSuchProviderException {
-        boolean found = false;
-        int i = trustedCerts.length;
-        CertificateFactory cf = CertificateFactory.getInstance("X.509");
-        TrustAnchor anchor;
-        Set anchors;
-        CertPath path;
-        List list;
-        PKIXParameters params;
-        CertPathValidator validator = CertPathValidator.getInstance("PKIX");
-
-        while (!found && i > 0) {
-            anchor = new TrustAnchor(trustedCerts[--i], null);
-            anchors = Collections.singleton(anchor);
-
-            list = Arrays.asList(new Certificate[]{client});
-            path = cf.generateCertPath(list);
-
-            params = new PKIXParameters(anchors);
-            params.setRevocationEnabled(false);
-
-            if (client.getIssuerDN().equals(trustedCerts[i].getSubjectDN())) {
-                try {
-                    validator.validate(path, params);
-                    if (isSelfSigned(trustedCerts[i])) {
-                        // found root ca
-                        found = true;
-//                        System.out.println("validating root" + trustedCerts[i].getSubjectX500Principal().getName());
-                    } else if (!client.equals(trustedCerts[i])) {
-                        // find parent ca
-//                        System.out.println("validating via:" + trustedCerts[i].getSubjectX500Principal().getName());
-                        found = validateKeyChain(trustedCerts[i], trustedCerts);
-                    }
-                } catch (CertPathValidatorException e) {
-                    // validation fail, check next certifiacet in the trustedCerts array
-                }
-            }
-        }
-
-        return found;
-    }
-
     /**
      *
      * @param cert is X509Certificate that will be tested
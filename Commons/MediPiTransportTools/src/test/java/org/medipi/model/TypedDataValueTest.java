@@ -0,0 +1,82 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.model;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the split of data values into numeric and text values
+ */
+public class TypedDataValueTest {
+
+    @Test
+    public void plainDecimalsAreNumeric() {
+        String[] values = {"0", "72", "-5", "+5", "98.6", "98.", ".5", "-.5", "1e3", "1E-3", "2.5e+2", "007"};
+        double[] expected = {0, 72, -5, 5, 98.6, 98, 0.5, -0.5, 1000, 0.001, 250, 7};
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], expected[i], TypedDataValue.numericValue(values[i]), 0);
+            assertNull(values[i], TypedDataValue.textValue(values[i]));
+        }
+    }
+
+    @Test
+    public void valuesTooLargeForADoubleHaveNoValue() {
+        assertNull(TypedDataValue.numericValue("1e999"));
+        assertNull(TypedDataValue.numericValue("-1e999"));
+        assertNull(TypedDataValue.textValue("1e999"));
+    }
+
+    @Test
+    public void valuesTooSmallForADoubleAreZero() {
+        assertEquals(0, TypedDataValue.numericValue("1e-999"), 0);
+        assertNull(TypedDataValue.textValue("1e-999"));
+    }
+
+    @Test
+    public void otherValuesAreText() {
+        String[] values = {"True", "false", "", " 72", "72 ", "1,5", "1e", "e3", ".", "-", "NaN", "Infinity", "0x1F", "72bpm"};
+        for (String value : values) {
+            assertNull(value, TypedDataValue.numericValue(value));
+            assertEquals(value, value, TypedDataValue.textValue(value));
+        }
+    }
+
+    @Test
+    public void longTextHasNoTextValue() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < TypedDataValue.MAX_TEXT_LENGTH; i++) {
+            sb.append('a');
+        }
+        assertEquals(sb.toString(), TypedDataValue.textValue(sb.toString()));
+        assertNull(TypedDataValue.textValue(sb.append('a').toString()));
+    }
+
+    @Test
+    public void questionnairesAreHeldAsTheirStatus() {
+        assertEquals("RED", TypedDataValue.textValue("{\"status\" : \"RED\", \"answers\": [\"Yes\", \"No\"]}"));
+        assertEquals("GREEN", TypedDataValue.textValue("{\"answers\":[],\"status\":\"GREEN\"}"));
+        assertNull(TypedDataValue.textValue("{\"answers\":[]}"));
+        assertNull(TypedDataValue.numericValue("{\"status\":\"RED\"}"));
+    }
+
+    @Test
+    public void nullHasNoValue() {
+        assertNull(TypedDataValue.numericValue(null));
+        assertNull(TypedDataValue.textValue(null));
+    }
+}
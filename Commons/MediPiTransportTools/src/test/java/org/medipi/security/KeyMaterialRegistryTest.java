@@ -0,0 +1,132 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.security;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.X509Certificate;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.medipi.security.TrustedCertificateIndexTest.PASSWORD;
+
+/**
+ * Checks that the key material read from a store is shared until the store
+ * file changes, using the stores described in TrustedCertificateIndexTest
+ */
+public class KeyMaterialRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String trust;
+    private String clients;
+    private X509Certificate client;
+    private X509Certificate untrusted;
+
+    @Before
+    public void copyStores() throws Exception {
+        trust = copy("trust.jks", folder.newFile("trust.jks")).getPath();
+        clients = copy("client.jks", folder.newFile("client.jks")).getPath();
+        client = (X509Certificate) TrustedCertificateIndexTest.load("client.jks").getCertificate("client");
+        untrusted = (X509Certificate) TrustedCertificateIndexTest.load("client.jks").getCertificate("untrusted");
+    }
+
+    @Test
+    public void storeIsReadOnce() throws Exception {
+        KeyMaterialRegistry registry = new KeyMaterialRegistry(0);
+        X509Certificate[] certs = registry.getTrustedCertificates(trust, PASSWORD);
+        assertEquals(3, certs.length);
+        assertSame(certs, registry.getTrustedCertificates(trust, PASSWORD));
+        assertSame(registry.getTrustIndex(trust, PASSWORD), registry.getTrustIndex(trust, PASSWORD));
+        assertSame(registry.getTrustedPublicKey(trust, "root", PASSWORD), registry.getTrustedPublicKey(trust, "root", PASSWORD));
+        assertSame(registry.getSigningKey(clients, "client", PASSWORD), registry.getSigningKey(clients, "client", PASSWORD));
+        assertSame(registry.getDecryptionKey(clients, "client", PASSWORD), registry.getDecryptionKey(clients, "client", PASSWORD));
+    }
+
+    @Test
+    public void signingKeyCarriesTheCertificateChain() throws Exception {
+        KeyMaterialRegistry.SigningKey key = new KeyMaterialRegistry(0).getSigningKey(clients, "client", PASSWORD);
+        assertEquals(client, key.getSigningCertificate());
+        assertEquals(2, key.getCertChain().size());
+    }
+
+    @Test
+    public void eachAliasHasItsOwnKey() throws Exception {
+        KeyMaterialRegistry registry = new KeyMaterialRegistry(0);
+        assertNotSame(registry.getSigningKey(clients, "client", PASSWORD), registry.getSigningKey(clients, "direct", PASSWORD));
+        assertNotSame(registry.getTrustedPublicKey(trust, "root", PASSWORD), registry.getTrustedPublicKey(trust, "decoyroot", PASSWORD));
+    }
+
+    @Test
+    public void missingAliasIsRefused() throws Exception {
+        KeyMaterialRegistry registry = new KeyMaterialRegistry(0);
+        try {
+            registry.getTrustedPublicKey(trust, "missing", PASSWORD);
+            fail("A missing trusted certificate alias was accepted");
+        } catch (Exception e) {
+            // expected
+        }
+        try {
+            registry.getSigningKey(clients, "missing", PASSWORD);
+            fail("A missing signing key alias was accepted");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void changedStoreIsReloaded() throws Exception {
+        KeyMaterialRegistry registry = new KeyMaterialRegistry(0);
+        X509Certificate[] certs = registry.getTrustedCertificates(trust, PASSWORD);
+        TrustedCertificateIndex index = registry.getTrustIndex(trust, PASSWORD);
+        assertTrue(index.isTrusted(client));
+
+        copy("othertrust.jks", new File(trust));
+        TrustedCertificateIndex reloaded = registry.getTrustIndex(trust, PASSWORD);
+        assertNotSame(index, reloaded);
+        assertNotSame(certs, registry.getTrustedCertificates(trust, PASSWORD));
+        assertEquals(1, registry.getTrustedCertificates(trust, PASSWORD).length);
+        // the validations cached against the old store are gone with it
+        assertFalse(reloaded.isCached(client));
+        assertFalse(reloaded.isTrusted(client));
+        assertTrue(reloaded.isTrusted(untrusted));
+    }
+
+    @Test
+    public void storeIsNotCheckedWithinTheInterval() throws Exception {
+        KeyMaterialRegistry registry = new KeyMaterialRegistry(Long.MAX_VALUE);
+        TrustedCertificateIndex index = registry.getTrustIndex(trust, PASSWORD);
+        copy("othertrust.jks", new File(trust));
+        assertSame(index, registry.getTrustIndex(trust, PASSWORD));
+    }
+
+    private static File copy(String resource, File to) throws Exception {
+        try (InputStream in = KeyMaterialRegistryTest.class.getResourceAsStream(resource)) {
+            Files.copy(in, to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return to;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.security;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the validation of client certificates against the subject DN index
+ * and the cache of validated certificates.
+ *
+ * The test stores hold two self signed roots which share the DN CN=MediPi
+ * Test Root. The client certificate is issued by an intermediate signed by
+ * one of them, the direct certificate by that root itself and the untrusted
+ * certificate by a root which is not in trust.jks. The store password is
+ * medipitest
+ */
+public class TrustedCertificateIndexTest {
+
+    static final String PASSWORD = "medipitest";
+
+    private static X509Certificate root;
+    private static X509Certificate decoyRoot;
+    private static X509Certificate intermediate;
+    private static X509Certificate client;
+    private static X509Certificate direct;
+    private static X509Certificate untrusted;
+
+    @BeforeClass
+    public static void loadCertificates() throws Exception {
+        KeyStore trust = load("trust.jks");
+        root = (X509Certificate) trust.getCertificate("root");
+        decoyRoot = (X509Certificate) trust.getCertificate("decoyroot");
+        intermediate = (X509Certificate) trust.getCertificate("intermediate");
+        KeyStore clients = load("client.jks");
+        client = (X509Certificate) clients.getCertificate("client");
+        direct = (X509Certificate) clients.getCertificate("direct");
+        untrusted = (X509Certificate) clients.getCertificate("untrusted");
+        assertEquals(root.getSubjectX500Principal(), decoyRoot.getSubjectX500Principal());
+    }
+
+    @Test
+    public void clientIsTrustedThroughTheIntermediate() throws Exception {
+        TrustedCertificateIndex index = new TrustedCertificateIndex(root, decoyRoot, intermediate);
+        assertTrue(index.isTrusted(client));
+        assertTrue(index.isTrusted(direct));
+    }
+
+    @Test
+    public void clientIsRefusedWithoutTheIntermediate() throws Exception {
+        TrustedCertificateIndex index = new TrustedCertificateIndex(root, decoyRoot);
+        assertFalse(index.isTrusted(client));
+    }
+
+    @Test
+    public void untrustedClientIsRefused() throws Exception {
+        TrustedCertificateIndex index = new TrustedCertificateIndex(root, decoyRoot, intermediate);
+        assertFalse(index.isTrusted(untrusted));
+    }
+
+    @Test
+    public void rootSharingTheIssuerDnIsPassedOver() throws Exception {
+        // whichever of the roots with the same DN is tried first the one which signed the certificate is found
+        assertTrue(new TrustedCertificateIndex(decoyRoot, root).isTrusted(direct));
+        assertTrue(new TrustedCertificateIndex(root, decoyRoot).isTrusted(direct));
+        assertTrue(new TrustedCertificateIndex(decoyRoot, intermediate, root).isTrusted(client));
+        assertTrue(new TrustedCertificateIndex(root, intermediate, decoyRoot).isTrusted(client));
+    }
+
+    @Test
+    public void rootWithTheIssuerDnAloneIsNotEnough() throws Exception {
+        TrustedCertificateIndex index = new TrustedCertificateIndex(decoyRoot, intermediate);
+        assertFalse(index.isTrusted(direct));
+        assertFalse(index.isTrusted(client));
+    }
+
+    @Test
+    public void successfulValidationIsCached() throws Exception {
+        TrustedCertificateIndex index = new TrustedCertificateIndex(root, decoyRoot, intermediate);
+        assertFalse(index.isCached(client));
+        assertTrue(index.isTrusted(client));
+        assertTrue(index.isCached(client));
+        // answered from the cache
+        assertTrue(index.isTrusted(client));
+        assertFalse(index.isCached(direct));
+    }
+
+    @Test
+    public void failedValidationIsNotCached() throws Exception {
+        TrustedCertificateIndex index = new TrustedCertificateIndex(root, decoyRoot, intermediate);
+        assertFalse(index.isTrusted(untrusted));
+        assertFalse(index.isCached(untrusted));
+        assertFalse(index.isTrusted(untrusted));
+    }
+
+    @Test
+    public void newIndexStartsWithAnEmptyCache() throws Exception {
+        TrustedCertificateIndex index = new TrustedCertificateIndex(root, decoyRoot, intermediate);
+        assertTrue(index.isTrusted(client));
+        assertFalse(new TrustedCertificateIndex(root, decoyRoot, intermediate).isCached(client));
+    }
+
+    static KeyStore load(String name) throws Exception {
+        KeyStore ks = KeyStore.getInstance("JKS");
+        try (InputStream in = TrustedCertificateIndexTest.class.getResourceAsStream(name)) {
+            ks.load(in, PASSWORD.toCharArray());
+        }
+        return ks;
+    }
+}
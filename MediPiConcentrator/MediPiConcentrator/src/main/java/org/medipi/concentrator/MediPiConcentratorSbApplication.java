@@ -24,6 +24,14 @@ import org.medipi.concentrator.dataformat.DataFormatFactory;
 import org.medipi.concentrator.dataformat.PatientUploadDataFormat;
 import org.medipi.security.UploadEncryptionAdapter;
 import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.services.DataRetentionService;
+import org.medipi.concentrator.services.DownloadableChangeService;
+import org.medipi.concentrator.services.DownloadableLongPollService;
+import org.medipi.concentrator.services.DownloadableVersionService;
+import org.medipi.concentrator.services.PatientBatchUploadService;
+import org.medipi.concentrator.services.ProcessedUploadService;
+import org.medipi.concentrator.services.RecordingDeviceCatalogService;
+import org.medipi.concentrator.services.SubmissionNotificationService;
 import org.medipi.concentrator.utilities.ConfigurationStringTokeniser;
 import org.medipi.concentrator.utilities.Utilities;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -69,6 +77,30 @@ public class MediPiConcentratorSbApplication implements CommandLineRunner {
     @Autowired
     DataFormatFactory dff;
 
+    @Autowired
+    RecordingDeviceCatalogService recordingDeviceCatalog;
+
+    @Autowired
+    SubmissionNotificationService submissionNotificationService;
+
+    @Autowired
+    DataRetentionService dataRetentionService;
+
+    @Autowired
+    DownloadableVersionService downloadableVersionService;
+
+    @Autowired
+    DownloadableLongPollService downloadableLongPollService;
+
+    @Autowired
+    DownloadableChangeService downloadableChangeService;
+
+    @Autowired
+    PatientBatchUploadService patientBatchUploadService;
+
+    @Autowired
+    ProcessedUploadService processedUploadService;
+
     /**
      * Run method inherited by the commandLineRunner. This method sets the
      * version, calls the properties and utilities classes and instantiates any
@@ -106,6 +138,7 @@ public class MediPiConcentratorSbApplication implements CommandLineRunner {
             System.out.println(log + " - MediPi log directory is not set");
             System.exit(1);
         } else if (new File(log).isDirectory()) {
+            logger.configure(properties);
             logger.setAppName("MEDIPI", log);
             logger.log(MediPiConcentratorSbApplication.class.getName() + "startup", versionIdent);
         } else {
@@ -134,6 +167,70 @@ public class MediPiConcentratorSbApplication implements CommandLineRunner {
             System.out.println("Failed to instantiate Clinician Encryption Adapter: " + ClinicicanAdapterError);
         }
 
+        // warm the recording device type and attribute catalog
+        try {
+            recordingDeviceCatalog.warm();
+        } catch (Exception e) {
+            logger.log(MediPiConcentratorSbApplication.class.getName() + ".error", "Failed to warm the recording device catalog: " + e.getMessage());
+            System.out.println("Failed to warm the recording device catalog: " + e.getMessage());
+        }
+
+        // start the notifiers which are told about successfully processed submissions
+        String notificationError = submissionNotificationService.init();
+        if (notificationError != null) {
+            System.out.println("FATAL: Cannot start submission notification: " + notificationError);
+            logger.log(MediPiConcentratorSbApplication.class.getName() + ".fatal", "FATAL: Cannot start submission notification: " + notificationError);
+            System.exit(1);
+        }
+
+        // start the job which creates and archives the partitions of the recording device data
+        String retentionError = dataRetentionService.init();
+        if (retentionError != null) {
+            System.out.println("FATAL: Cannot start data retention: " + retentionError);
+            logger.log(MediPiConcentratorSbApplication.class.getName() + ".fatal", "FATAL: Cannot start data retention: " + retentionError);
+            System.exit(1);
+        }
+
+        // read the period for which downloadable lists are answered from memory
+        String downloadableVersionError = downloadableVersionService.init();
+        if (downloadableVersionError != null) {
+            System.out.println("FATAL: Cannot start downloadable versions: " + downloadableVersionError);
+            logger.log(MediPiConcentratorSbApplication.class.getName() + ".fatal", "FATAL: Cannot start downloadable versions: " + downloadableVersionError);
+            System.exit(1);
+        }
+
+        // start the threads which answer the downloadable list requests waiting for a change
+        String longPollError = downloadableLongPollService.init();
+        if (longPollError != null) {
+            System.out.println("FATAL: Cannot start downloadable long polling: " + longPollError);
+            logger.log(MediPiConcentratorSbApplication.class.getName() + ".fatal", "FATAL: Cannot start downloadable long polling: " + longPollError);
+            System.exit(1);
+        }
+
+        // start the job which wakes the waiting requests when hardware downloadables are added to the DB
+        String changeError = downloadableChangeService.init();
+        if (changeError != null) {
+            System.out.println("FATAL: Cannot start reading the downloadable changes: " + changeError);
+            logger.log(MediPiConcentratorSbApplication.class.getName() + ".fatal", "FATAL: Cannot start reading the downloadable changes: " + changeError);
+            System.exit(1);
+        }
+
+        // load the ledger of processed uploads which answers replayed uploads
+        String ledgerError = processedUploadService.init();
+        if (ledgerError != null) {
+            System.out.println("FATAL: Cannot load the processed upload ledger: " + ledgerError);
+            logger.log(MediPiConcentratorSbApplication.class.getName() + ".fatal", "FATAL: Cannot load the processed upload ledger: " + ledgerError);
+            System.exit(1);
+        }
+
+        // start the threads which decrypt batch uploads
+        String batchUploadError = patientBatchUploadService.init();
+        if (batchUploadError != null) {
+            System.out.println("FATAL: Cannot start batch uploads: " + batchUploadError);
+            logger.log(MediPiConcentratorSbApplication.class.getName() + ".fatal", "FATAL: Cannot start batch uploads: " + batchUploadError);
+            System.exit(1);
+        }
+
         try {
             // loop through all the data format class tokens defined in the properties file and instantiate
             String e = properties.getProperty("medipi.concentrator.dataformatclasstokens");
@@ -20,17 +20,22 @@ import java.util.List;
 import org.medipi.concentrator.logging.MediPiLogger;
 import org.medipi.concentrator.model.DownloadableDO;
 import org.medipi.concentrator.services.DownloadableListService;
+import org.medipi.concentrator.services.DownloadableLongPollService;
+import org.medipi.concentrator.services.DownloadableVersionService;
 import org.medipi.concentrator.services.HardwareDownloadableService;
 import org.medipi.concentrator.services.PatientDownloadableService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
  * Class for controlling the download service for the MediPi patient units .
@@ -46,6 +51,12 @@ public class DownloadServiceController {
     @Autowired
     private DownloadableListService downloadableListService;
 
+    @Autowired
+    private DownloadableVersionService downloadableVersionService;
+
+    @Autowired
+    private DownloadableLongPollService downloadableLongPollService;
+
     @Autowired
     private PatientDownloadableService patientDownloadableService;
 
@@ -58,19 +69,45 @@ public class DownloadServiceController {
     /**
      * Controller for downloading a list of available updates to a patient
      * device. This method passes the incoming message to the service layer for
-     * processing
+     * processing unless the list the device holds is still current, which is
+     * answered with 304 Not Modified without a transaction
      *
      * @param hardwareName incoming deviceId parameter from RESTful message
      * @param patientUuid incoming patientUuid parameter from RESTful message
+     * @param ifNoneMatch ETag of the list the device last received
      * @return Response to the request
      */
     @RequestMapping(value = "/{hardwareName}/{patientUuid}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
-    public ResponseEntity<List<DownloadableDO>> getDownloadableList(@PathVariable("hardwareName") String hardwareName, @PathVariable("patientUuid") String patientUuid) {
+    public ResponseEntity<List<DownloadableDO>> getDownloadableList(@PathVariable("hardwareName") String hardwareName, @PathVariable("patientUuid") String patientUuid, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        ResponseEntity<List<DownloadableDO>> notModified = this.downloadableVersionService.getNotModified(hardwareName, patientUuid, ifNoneMatch);
+        if (notModified != null) {
+            return notModified;
+        }
 //Removed to Reduce Logs size        logger.log(DownloadServiceController.class.getName(), new Date().toString() + " get DownloadableList called by patientUuid: " + patientUuid + " using hardwareName: " + hardwareName);
         return this.downloadableListService.getDownloadableList(hardwareName, patientUuid);
     }
 
+    /**
+     * Controller for downloading a list of available updates to a patient
+     * device which waits for the list to change. This is used in place of
+     * getDownloadableList when the request has a Prefer header giving the
+     * number of seconds the device will wait e.g. "Prefer: wait=60". This
+     * method passes the incoming message to the service layer for processing
+     *
+     * @param hardwareName incoming deviceId parameter from RESTful message
+     * @param patientUuid incoming patientUuid parameter from RESTful message
+     * @param ifNoneMatch ETag of the list the device last received
+     * @param prefer Prefer header containing the wait
+     * @return Response to the request once the list has changed or 304 Not
+     * Modified once the wait has expired
+     */
+    @RequestMapping(value = "/{hardwareName}/{patientUuid}", method = RequestMethod.GET, headers = "Prefer", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public DeferredResult<ResponseEntity<List<DownloadableDO>>> waitForDownloadableList(@PathVariable("hardwareName") String hardwareName, @PathVariable("patientUuid") String patientUuid, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch, @RequestHeader("Prefer") String prefer) {
+        return this.downloadableLongPollService.waitForDownloadableList(hardwareName, patientUuid, ifNoneMatch, prefer);
+    }
+
     /**
      * Controller for downloading a patient message to a patient device. This
      * method passes the incoming request to the service layer for processing
@@ -20,10 +20,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Date;
+import java.util.List;
 import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.services.PatientBatchUploadService;
 import org.medipi.concentrator.services.PatientUploadService;
 import org.medipi.concentrator.utilities.Utilities;
 import org.medipi.model.EncryptedAndSignedUploadDO;
+import org.medipi.model.UploadResultDO;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
@@ -50,6 +53,9 @@ public class PatientUploadServiceController {
     @Autowired
     private PatientUploadService patientUploadService;
 
+    @Autowired
+    private PatientBatchUploadService patientBatchUploadService;
+
     @Autowired
     private MediPiLogger logger;
 
@@ -81,44 +87,77 @@ public class PatientUploadServiceController {
         EncryptedAndSignedUploadDO content = easu;
 
         if (savemessagestofile) {
-            byte[] contentInBytes = null;
+            saveMessage(deviceId, content);
+        }
+        return this.patientUploadService.uploadRecordingDeviceData(deviceId, patientUuid, dataFormat, content);
+    }
 
-            FileOutputStream fop = null;
-            try {
-                StringBuilder fnb = new StringBuilder(inboundsavedmessagedir);
-                fnb.append(System.getProperty("file.separator"));
-                fnb.append("uuid_");
-                fnb.append(content.getUploadUuid());
-                fnb.append("_device_");
-                fnb.append(deviceId);
-                fnb.append("_at_");
-                fnb.append(Utilities.INTERNAL_SPINE_FORMAT.format(new Date()));
-                fnb.append(".log");
-                File file = new File(fnb.toString());
-                fop = new FileOutputStream(file);
-                // if file doesnt exists, then create it
-                if (!file.exists()) {
-                    file.createNewFile();
+    /**
+     * Controller for a batch of Patient Uploads of data from a MediPi Patient
+     * unit, typically the outbox of a unit which has been out of contact.
+     *
+     * This method saves each incoming upload to file, if configured, and
+     * passes the batch to the service layer for processing
+     *
+     * @param deviceId incoming deviceId parameter from RESTful message
+     * @param patientUuid incoming patientUuid parameter from RESTful message
+     * @param dataFormat incoming Data-Format HTTP header parameter from RESTful
+     * message
+     * @param uploads incoming messages each in an encrypted and signed data
+     * object
+     * @return Response to the request containing the result of each upload
+     */
+    @RequestMapping(value = "/{deviceId}/{patientUuid}/batch", method = RequestMethod.PUT, produces = {MediaType.APPLICATION_JSON_VALUE}, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<List<UploadResultDO>> updateMessages(@PathVariable("deviceId") String deviceId, @PathVariable("patientUuid") String patientUuid, @RequestHeader(value = "Data-Format") String dataFormat, @RequestBody List<EncryptedAndSignedUploadDO> uploads) {
+        logger.log(PatientUploadServiceController.class.getName(), new Date().toString() + " Batch of " + (uploads == null ? 0 : uploads.size()) + " called by patientUuid: " + patientUuid + " using deviceId: " + deviceId);
+        if (savemessagestofile && uploads != null) {
+            for (EncryptedAndSignedUploadDO content : uploads) {
+                if (content != null) {
+                    saveMessage(deviceId, content);
                 }
+            }
+        }
+        return this.patientBatchUploadService.uploadBatch(deviceId, patientUuid, dataFormat, uploads);
+    }
 
-                // get the content in bytes
-                writeJSON(content, fop);
-                fop.flush();
-                fop.close();
-                logger.log(PatientUploadServiceController.class.getName(), new Date().toString() + " Encrypted payload uuid: " + easu.getUploadUuid());
+    private void saveMessage(String deviceId, EncryptedAndSignedUploadDO content) {
+        byte[] contentInBytes = null;
+
+        FileOutputStream fop = null;
+        try {
+            StringBuilder fnb = new StringBuilder(inboundsavedmessagedir);
+            fnb.append(System.getProperty("file.separator"));
+            fnb.append("uuid_");
+            fnb.append(content.getUploadUuid());
+            fnb.append("_device_");
+            fnb.append(deviceId);
+            fnb.append("_at_");
+            fnb.append(Utilities.INTERNAL_SPINE_FORMAT.format(new Date()));
+            fnb.append(".log");
+            File file = new File(fnb.toString());
+            fop = new FileOutputStream(file);
+            // if file doesnt exists, then create it
+            if (!file.exists()) {
+                file.createNewFile();
+            }
+
+            // get the content in bytes
+            writeJSON(content, fop);
+            fop.flush();
+            fop.close();
+            logger.log(PatientUploadServiceController.class.getName(), new Date().toString() + " Encrypted payload uuid: " + content.getUploadUuid());
+        } catch (IOException e) {
+            logger.log(PatientUploadServiceController.class.getName() + ".error", "Cannot save outbound message payload to local drive - check the configured directory: " + inboundsavedmessagedir);
+        } finally {
+            try {
+                if (fop != null) {
+                    fop.close();
+                }
             } catch (IOException e) {
                 logger.log(PatientUploadServiceController.class.getName() + ".error", "Cannot save outbound message payload to local drive - check the configured directory: " + inboundsavedmessagedir);
-            } finally {
-                try {
-                    if (fop != null) {
-                        fop.close();
-                    }
-                } catch (IOException e) {
-                    logger.log(PatientUploadServiceController.class.getName() + ".error", "Cannot save outbound message payload to local drive - check the configured directory: " + inboundsavedmessagedir);
-                }
             }
         }
-        return this.patientUploadService.uploadRecordingDeviceData(deviceId, patientUuid, dataFormat, content);
     }
 
     private void writeJSON(EncryptedAndSignedUploadDO encryptedAndSignedUploadDO, FileOutputStream f) throws IOException {
@@ -18,6 +18,7 @@ package org.medipi.concentrator.controllers;
 import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
 import java.util.Date;
 import java.util.List;
+import org.medipi.concentrator.exception.BadRequest400Exception;
 import org.medipi.concentrator.exception.InternalServerError500Exception;
 import org.medipi.concentrator.logging.MediPiLogger;
 import org.medipi.concentrator.model.PatientDataRequestDO;
@@ -81,4 +82,46 @@ public class RequestDataServiceController {
 //Removed to Reduce Logs size        logger.log(PatientUploadServiceController.class.getName(), new Date().toString() + " new data requested from Patient Group: " + patientGroupUuid + " since the last download at: " + new ISO8601DateFormat().format(lastDownloadDate));
         return this.requestDataService.getData(patientGroupUuid, lastDownloadDate);
     }
+
+    /**
+     * Controller for synchronising data from all patients within a patient
+     * group a page at a time. Each page is ordered by the time the data was
+     * downloaded to the concentrator and the cursor of the next page is
+     * returned in the MediPi-Next-Cursor response header. There is no more data
+     * to synchronise when the header is absent
+     *
+     * @param patientGroupUuid the patient group for which to synchronise
+     * @param cursor keyset cursor in the form [downloaded time epoch
+     * millis]:[data id] as returned by the previous page. To start from a last
+     * downloaded time use [epoch millis]:2147483647 and 0:0 to return all data
+     * @param limit optional maximum number of data points in the page
+     * @return Response to the request
+     */
+    @RequestMapping(value = "/requestdata/page/{patientGroupUuid}", method = RequestMethod.GET, produces = {MediaType.APPLICATION_JSON_VALUE})
+    @ResponseBody
+    public ResponseEntity<List<PatientDataRequestDO>> requestNewDataPage(@PathVariable("patientGroupUuid") String patientGroupUuid, @RequestParam("cursor") String cursor, @RequestParam(value = "limit", required = false) Integer limit) {
+        return this.requestDataService.getDataPage(patientGroupUuid, cursor, limit);
+    }
+
+    /**
+     * Controller for a requesting clinical system to acknowledge that it has
+     * committed all the data for a patient group downloaded up to a time. Data
+     * which every patient group has acknowledged may be archived by the
+     * concentrator once it is older than the retention period. Requesting data
+     * does not move the acknowledged time
+     *
+     * @param patientGroupUuid the patient group which has been synchronised
+     * @param syncedEpochMillis the latest downloaded time held by the
+     * requesting system in the format of Unix epoch time (millis after January
+     * 1, 1970, 00:00:00 GMT)
+     * @return Response to the request
+     */
+    @RequestMapping(value = "/requestdata/synced/{patientGroupUuid}", method = RequestMethod.PUT)
+    @ResponseBody
+    public ResponseEntity<Void> acknowledgeData(@PathVariable("patientGroupUuid") String patientGroupUuid, @RequestParam("date") Long syncedEpochMillis) {
+        if (syncedEpochMillis < 0) {
+            throw new BadRequest400Exception("Invalid Unix epoch representation of the synchronised date");
+        }
+        return this.requestDataService.acknowledgeData(patientGroupUuid, new Date(syncedEpochMillis));
+    }
 }
@@ -15,8 +15,10 @@
  */
 package org.medipi.concentrator.dao;
 
+import java.util.Date;
 import java.util.List;
 import org.medipi.concentrator.entities.HardwareDownloadable;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
 /**
  * Data Access Object interface for HardwareDownloadable
@@ -25,4 +27,31 @@ import org.medipi.concentrator.entities.HardwareDownloadable;
 public interface HardwareDownloadableDAO extends GenericDAO<HardwareDownloadable> {
     public List<HardwareDownloadable> getHardwareDownloads(String hardware);
     public HardwareDownloadable getHardwareDownload(String downloadUuid);
+
+    /**
+     * Method to read the hardware downloadable changes recorded after a change
+     * and those recorded recently, as a change which committed late can have a
+     * lower change_id than one already read. Rows are read in change_id order
+     * as change_id and hardware_name, which is null for the all hardware list
+     *
+     * @param changeId last change_id read
+     * @param recentSeconds age in seconds of the changes which are read again
+     * @param handler called with each row
+     */
+    public void readChangesAfter(long changeId, int recentSeconds, RowCallbackHandler handler);
+
+    /**
+     * Method to find the last hardware downloadable change recorded
+     *
+     * @return last change_id or 0 if there are none
+     */
+    public long getLastChangeId();
+
+    /**
+     * Method to remove the hardware downloadable changes recorded before a time
+     *
+     * @param changeTime time before which rows are removed
+     * @return number of rows removed
+     */
+    public int deleteChangesBefore(Date changeTime);
 }
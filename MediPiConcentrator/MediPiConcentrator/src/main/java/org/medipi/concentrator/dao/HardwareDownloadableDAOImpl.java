@@ -15,8 +15,13 @@
  */
 package org.medipi.concentrator.dao;
 
+import java.sql.Timestamp;
+import java.util.Date;
 import java.util.List;
 import org.medipi.concentrator.entities.HardwareDownloadable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -26,6 +31,13 @@ import org.springframework.stereotype.Repository;
 @Repository
 public class HardwareDownloadableDAOImpl extends GenericDAOImpl<HardwareDownloadable> implements HardwareDownloadableDAO {
 
+    private static final String READCHANGESSQL = "SELECT change_id, hardware_name FROM downloadable_change WHERE change_id > ? OR change_time > now() - ? * interval '1 second' ORDER BY change_id";
+    private static final String LASTCHANGESQL = "SELECT coalesce(max(change_id), 0) FROM downloadable_change";
+    private static final String DELETECHANGESBEFORESQL = "DELETE FROM downloadable_change WHERE change_time < ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Override
     public List<HardwareDownloadable> getHardwareDownloads(String hardware) {
         return this.getEntityManager().createNamedQuery("HardwareDownloadable.findByHardware", HardwareDownloadable.class)
@@ -40,4 +52,18 @@ public class HardwareDownloadableDAOImpl extends GenericDAOImpl<HardwareDownload
                 .getSingleResult();
     }
 
-}
\ No newline at end of file
+    @Override
+    public void readChangesAfter(long changeId, int recentSeconds, RowCallbackHandler handler) {
+        jdbcTemplate.query(READCHANGESSQL, handler, changeId, recentSeconds);
+    }
+
+    @Override
+    public long getLastChangeId() {
+        return jdbcTemplate.queryForObject(LASTCHANGESQL, Long.class);
+    }
+
+    @Override
+    public int deleteChangesBefore(Date changeTime) {
+        return jdbcTemplate.update(DELETECHANGESBEFORESQL, new Timestamp(changeTime.getTime()));
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.medipi.concentrator.dao;
 
+import java.util.Date;
 import java.util.List;
 import org.medipi.concentrator.entities.PatientGroup;
 
@@ -27,4 +28,24 @@ public interface PatientGroupDAO extends GenericDAO<PatientGroup> {
 
     public List<PatientGroup> getAllGroups();
 
+    /**
+     * Method to move a patient group's synchronisation time forward. The time
+     * is never moved back
+     *
+     * @param patientGroupUuid patient group UUID
+     * @param dataSyncedTime time before which all the group's data has been
+     * synchronised
+     * @return number of patient groups updated
+     */
+    public int updateDataSyncedTime(String patientGroupUuid, Date dataSyncedTime);
+
+    /**
+     * Method to find the time before which all the data has been synchronised
+     * by every patient group with patients
+     *
+     * @return earliest synchronisation time or null if any patient group has
+     * never synchronised
+     */
+    public Date findEarliestDataSyncedTime();
+
 }
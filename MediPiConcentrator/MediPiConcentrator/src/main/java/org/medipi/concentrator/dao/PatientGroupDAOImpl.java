@@ -15,6 +15,7 @@
  */
 package org.medipi.concentrator.dao;
 
+import java.util.Date;
 import java.util.List;
 import org.medipi.concentrator.entities.PatientGroup;
 import org.springframework.stereotype.Repository;
@@ -30,4 +31,23 @@ public class PatientGroupDAOImpl extends GenericDAOImpl<PatientGroup> implements
         return this.getEntityManager().createNamedQuery("PatientGroup.findAll", PatientGroup.class)
                 .getResultList();
     }
+
+    @Override
+    public int updateDataSyncedTime(String patientGroupUuid, Date dataSyncedTime) {
+        return this.getEntityManager().createNamedQuery("PatientGroup.updateDataSyncedTime")
+                .setParameter("patientGroupUuid", patientGroupUuid)
+                .setParameter("dataSyncedTime", dataSyncedTime)
+                .executeUpdate();
+    }
+
+    @Override
+    public Date findEarliestDataSyncedTime() {
+        Long unsynced = this.getEntityManager().createNamedQuery("PatientGroup.countUnsyncedWithPatients", Long.class)
+                .getSingleResult();
+        if (unsynced > 0) {
+            return null;
+        }
+        return this.getEntityManager().createNamedQuery("PatientGroup.findEarliestDataSyncedTime", Date.class)
+                .getSingleResult();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.dao;
+
+import java.util.Collection;
+import java.util.Set;
+import org.medipi.concentrator.entities.ProcessedUpload;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Data Access Object interface for ProcessedUpload
+ */
+public interface ProcessedUploadDAO extends GenericDAO<ProcessedUpload> {
+
+    /**
+     * Method to find the patient for whom an upload was processed
+     *
+     * @param processedUuid upload UUID
+     * @return patient UUID or null if it has not been processed
+     */
+    public String findPatientUuid(String processedUuid);
+
+    /**
+     * Method to claim uploads as processed. A UUID which has already been
+     * claimed, including by a transaction which has not yet committed, is not
+     * claimed again
+     *
+     * @param processedUuids upload UUIDs
+     * @param processedType ProcessedUpload.UPLOAD
+     * @param patientUuid patient the data belongs to
+     * @return the UUIDs which were claimed by this call
+     */
+    public Set<String> claim(Collection<String> processedUuids, String processedType, String patientUuid);
+
+    /**
+     * Method to give up the claims on uploads which could not be processed
+     *
+     * @param processedUuids upload UUIDs
+     */
+    public void release(Collection<String> processedUuids);
+
+    /**
+     * Method to stream every UUID in the ledger
+     *
+     * @param handler called with each row
+     */
+    public void readAll(RowCallbackHandler handler);
+
+    /**
+     * Method to remove the ledger rows processed more than a number of days
+     * ago by the DB clock, which also sets processed_time
+     *
+     * @param days age in days beyond which rows are removed
+     * @return number of rows removed
+     */
+    public int deleteProcessedOlderThan(int days);
+}
@@ -0,0 +1,112 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.medipi.concentrator.entities.ProcessedUpload;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Implementation of the ProcessedUpload data access object
+ */
+@Repository
+public class ProcessedUploadDAOImpl extends GenericDAOImpl<ProcessedUpload> implements ProcessedUploadDAO {
+
+    private static final String FINDPATIENTSQL = "SELECT patient_uuid FROM processed_upload WHERE processed_uuid = ?";
+    // one statement for any number of UUIDs - a UUID claimed by a concurrent transaction waits for it and is then skipped
+    private static final String CLAIMSQL = "INSERT INTO processed_upload (processed_uuid, processed_type, patient_uuid) SELECT DISTINCT unnest(?), ?, ? ON CONFLICT (processed_uuid) DO NOTHING RETURNING processed_uuid";
+    private static final String RELEASESQL = "DELETE FROM processed_upload WHERE processed_uuid = ANY (?)";
+    private static final String READALLSQL = "SELECT processed_uuid FROM processed_upload";
+    // compared with the DB clock which set processed_time
+    private static final String DELETEOLDERTHANSQL = "DELETE FROM processed_upload WHERE processed_time < now() - ? * interval '1 day'";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public String findPatientUuid(String processedUuid) {
+        List<String> patientUuid = jdbcTemplate.queryForList(FINDPATIENTSQL, String.class, processedUuid);
+        return patientUuid.isEmpty() ? null : patientUuid.get(0);
+    }
+
+    @Override
+    public Set<String> claim(final Collection<String> processedUuids, final String processedType, final String patientUuid) {
+        final Set<String> claimed = new HashSet<>();
+        if (processedUuids.isEmpty()) {
+            return claimed;
+        }
+        jdbcTemplate.query(new PreparedStatementCreator() {
+            @Override
+            public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                PreparedStatement ps = con.prepareStatement(CLAIMSQL);
+                ps.setArray(1, con.createArrayOf("varchar", processedUuids.toArray()));
+                ps.setString(2, processedType);
+                ps.setString(3, patientUuid);
+                return ps;
+            }
+        }, new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                claimed.add(rs.getString(1));
+            }
+        });
+        return claimed;
+    }
+
+    @Override
+    public void release(final Collection<String> processedUuids) {
+        if (processedUuids.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(new PreparedStatementCreator() {
+            @Override
+            public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                PreparedStatement ps = con.prepareStatement(RELEASESQL);
+                ps.setArray(1, con.createArrayOf("varchar", processedUuids.toArray()));
+                return ps;
+            }
+        });
+    }
+
+    @Override
+    public void readAll(RowCallbackHandler handler) {
+        jdbcTemplate.query(new PreparedStatementCreator() {
+            @Override
+            public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                PreparedStatement ps = con.prepareStatement(READALLSQL);
+                // stream the rows rather than reading the whole ledger into memory
+                ps.setFetchSize(10000);
+                return ps;
+            }
+        }, handler);
+    }
+
+    @Override
+    public int deleteProcessedOlderThan(int days) {
+        return jdbcTemplate.update(DELETEOLDERTHANSQL, days);
+    }
+}
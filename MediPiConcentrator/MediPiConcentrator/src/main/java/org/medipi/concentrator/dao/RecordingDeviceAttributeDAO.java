@@ -15,6 +15,7 @@
  */
 package org.medipi.concentrator.dao;
 
+import java.util.List;
 import org.medipi.concentrator.entities.RecordingDeviceAttribute;
 import org.medipi.concentrator.entities.RecordingDeviceType;
 
@@ -33,4 +34,24 @@ public interface RecordingDeviceAttributeDAO extends GenericDAO<RecordingDeviceA
      * @return recording device attribute object 
      */
     public RecordingDeviceAttribute findByTypeUnitsFormatAndAttributeName(RecordingDeviceType typeId, String column, String units, String format);
+
+    /**
+     * Find all RecordingDeviceAttributes
+     *
+     * @return list of all recording device attributes
+     */
+    public List<RecordingDeviceAttribute> findAll();
+
+    /**
+     * Find a RecordingDeviceAttribute or create it if it does not exist. This
+     * is committed in its own transaction so that the new attribute is visible
+     * to any concurrent uploads straight away
+     *
+     * @param typeId
+     * @param column
+     * @param units
+     * @param format
+     * @return the existing or newly created recording device attribute
+     */
+    public RecordingDeviceAttribute findOrCreate(RecordingDeviceType typeId, String column, String units, String format);
 }
@@ -15,9 +15,12 @@
  */
 package org.medipi.concentrator.dao;
 
+import java.util.List;
 import org.medipi.concentrator.entities.RecordingDeviceAttribute;
 import org.medipi.concentrator.entities.RecordingDeviceType;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Implementation of data access object for RecordingDeviceAttribute
@@ -32,8 +35,35 @@ public class RecordingDeviceAttributeDAOImpl extends GenericDAOImpl<RecordingDev
         return this.getEntityManager().createNamedQuery("RecordingDeviceAttribute.findByTypeUnitsFormatAndAttributeName", RecordingDeviceAttribute.class)
                 .setParameter("attributeName", column)
                 .setParameter("typeId", typeId)
-                .setParameter("units", units)
+                .setParameter("units", units == null ? "" : units)
                 .setParameter("format", format)
                 .getSingleResult();
     }
+
+    @Override
+    public List<RecordingDeviceAttribute> findAll() {
+        return this.getEntityManager().createNamedQuery("RecordingDeviceAttribute.findAll", RecordingDeviceAttribute.class)
+                .getResultList();
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW, rollbackFor = RuntimeException.class)
+    public RecordingDeviceAttribute findOrCreate(RecordingDeviceType typeId, String column, String units, String format) {
+        // no units match empty units as they do in the unique index added by DB update 001
+        List<RecordingDeviceAttribute> found = this.getEntityManager().createNamedQuery("RecordingDeviceAttribute.findByTypeUnitsFormatAndAttributeName", RecordingDeviceAttribute.class)
+                .setParameter("attributeName", column)
+                .setParameter("typeId", typeId)
+                .setParameter("units", units == null ? "" : units)
+                .setParameter("format", format)
+                .getResultList();
+        if (!found.isEmpty()) {
+            return found.get(0);
+        }
+        RecordingDeviceAttribute rda = new RecordingDeviceAttribute();
+        rda.setAttributeName(column);
+        rda.setAttributeType(format);
+        rda.setAttributeUnits(units);
+        rda.setTypeId(typeId);
+        return this.save(rda);
+    }
 }
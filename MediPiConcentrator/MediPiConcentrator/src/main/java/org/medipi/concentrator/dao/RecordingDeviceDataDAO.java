@@ -15,11 +15,13 @@
  */
 package org.medipi.concentrator.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import org.medipi.concentrator.entities.RecordingDeviceData;
 import org.medipi.concentrator.entities.Patient;
 import org.medipi.concentrator.entities.RecordingDeviceAttribute;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
 /**
  * Data Access Object interface for RecordingDeviceData
@@ -39,9 +41,88 @@ public interface RecordingDeviceDataDAO extends GenericDAO<RecordingDeviceData>
      */
     public List<RecordingDeviceData> isAlreadyStored(RecordingDeviceAttribute rda, Patient patient, String data, Date dataPointTime);
 
+    /**
+     * Method to return all data points already persisted for a patient against
+     * any of the supplied attributes within a period. Used to detect duplicates
+     * for a whole upload with a single query
+     *
+     * @param patient patient
+     * @param rdas recordingDeviceAttributes to be checked
+     * @param startTime earliest measurement time (inclusive)
+     * @param endTime latest measurement time (inclusive)
+     * @param downloadedFrom earliest downloaded time of the data points to be
+     * checked, so that only the recent partitions are searched
+     * @return list of already persisted data points
+     */
+    public List<RecordingDeviceData> findStoredInPeriod(Patient patient, Collection<RecordingDeviceAttribute> rdas, Date startTime, Date endTime, Date downloadedFrom);
+
+    /**
+     * Method to persist a list of new data points using a single JDBC batch
+     * rather than one insert per data point
+     *
+     * @param data list of new data points
+     * @return number of rows written
+     */
+    public int saveAll(List<RecordingDeviceData> data);
+
     public List<RecordingDeviceData> findByPatientUuidAfterDate(String patientUuid, Date requestDate, String type);
 
     public RecordingDeviceData findByTypeAttributeAndData(String patientUuid, String type, String AttributeName, Date dataValueTime, String dataValue);
 
     public List<RecordingDeviceData> findByPatientAndDownloadedTime(String patientUuid, Date downloadedTime, Date endTime);
+
+    /**
+     * Method to return a page of data for all the patients in a patient group
+     * which was downloaded after the keyset cursor position, ordered by
+     * downloaded time and data id
+     *
+     * @param patientGroupUuid patient group UUID
+     * @param downloadedTime downloaded time of the cursor position
+     * @param dataId data id of the cursor position
+     * @param endTime latest downloaded time to be returned
+     * @param maxResults maximum number of data points to be returned
+     * @return list of data points
+     */
+    public List<RecordingDeviceData> findByPatientGroupAfterCursor(String patientGroupUuid, Date downloadedTime, int dataId, Date endTime, int maxResults);
+
+    /**
+     * Method to find whether the recording_device_data table has been
+     * partitioned by downloaded time
+     *
+     * @return true if the table is partitioned
+     */
+    public boolean isPartitioned();
+
+    /**
+     * Method to create the partition for a month if it does not already exist
+     *
+     * @param monthStart any time in the month
+     * @return name of the partition
+     */
+    public String createPartition(Date monthStart);
+
+    /**
+     * Method to return the names of all the partitions, including the default
+     * partition
+     *
+     * @return list of partition names
+     */
+    public List<String> findPartitions();
+
+    /**
+     * Method to read every data point in a partition, ordered by downloaded
+     * time and data id, without holding them all in memory
+     *
+     * @param partitionName name of the partition
+     * @param handler called for each row
+     */
+    public void readPartition(String partitionName, RowCallbackHandler handler);
+
+    /**
+     * Method to detach a partition from the recording_device_data table and
+     * drop it
+     *
+     * @param partitionName name of the partition
+     */
+    public void dropPartition(String partitionName);
 }
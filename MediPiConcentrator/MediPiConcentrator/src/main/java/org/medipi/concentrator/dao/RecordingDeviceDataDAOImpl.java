@@ -15,11 +15,23 @@
  */
 package org.medipi.concentrator.dao;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import org.medipi.concentrator.entities.RecordingDeviceData;
 import org.medipi.concentrator.entities.Patient;
 import org.medipi.concentrator.entities.RecordingDeviceAttribute;
+import org.medipi.model.TypedDataValue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -30,8 +42,32 @@ import org.springframework.stereotype.Repository;
 @Repository
 public class RecordingDeviceDataDAOImpl extends GenericDAOImpl<RecordingDeviceData> implements RecordingDeviceDataDAO {
 
+    // data_id and downloaded_time are populated by the database defaults
+    private static final String INSERTSQL = "INSERT INTO recording_device_data (attribute_id, data_value, data_value_numeric, data_value_text, patient_uuid, data_value_time, schedule_effective_time, schedule_expiry_time) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String PARTITIONEDSQL = "SELECT CAST(c.relkind AS text) FROM pg_class c WHERE c.oid = to_regclass('recording_device_data')";
+    private static final String CREATEPARTITIONSQL = "SELECT create_recording_device_data_partition(?)";
+    private static final String PARTITIONSSQL = "SELECT CAST(c.relname AS text) FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = to_regclass('recording_device_data') ORDER BY c.relname";
+    /**
+     * Columns of a partition in the order they are read by readPartition
+     */
+    public static final String PARTITIONCOLUMNS = "data_id, attribute_id, data_value, data_value_numeric, data_value_text, patient_uuid, data_value_time, downloaded_time, schedule_effective_time, schedule_expiry_time";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Override
     public List<RecordingDeviceData> isAlreadyStored(RecordingDeviceAttribute rda, Patient patient, String data, Date dataPointTime) {
+        // numeric values are compared by value so that e.g. 70 and 70.0 are the same measurement
+        Double numeric = TypedDataValue.numericValue(data);
+        if (numeric != null) {
+            return this.getEntityManager().createNamedQuery("RecordingDeviceData.isAlreadyStoredNumeric", RecordingDeviceData.class)
+                    .setParameter("attributeId", rda)
+                    .setParameter("patientUuid", patient)
+                    .setParameter("dataValueNumeric", numeric)
+                    .setParameter("dataValueTime", dataPointTime)
+                    .getResultList();
+        }
         return this.getEntityManager().createNamedQuery("RecordingDeviceData.isAlreadyStored", RecordingDeviceData.class)
                 .setParameter("attributeId", rda)
                 .setParameter("patientUuid", patient)
@@ -40,6 +76,64 @@ public class RecordingDeviceDataDAOImpl extends GenericDAOImpl<RecordingDeviceDa
                 .getResultList();
 
     }
+
+    @Override
+    public List<RecordingDeviceData> findStoredInPeriod(Patient patient, Collection<RecordingDeviceAttribute> rdas, Date startTime, Date endTime, Date downloadedFrom) {
+        return this.getEntityManager().createNamedQuery("RecordingDeviceData.findStoredInPeriod", RecordingDeviceData.class)
+                .setParameter("patientUuid", patient)
+                .setParameter("attributeIds", rdas)
+                .setParameter("startTime", startTime)
+                .setParameter("endTime", endTime)
+                .setParameter("downloadedFrom", downloadedFrom)
+                .getResultList();
+
+    }
+
+    @Override
+    public int saveAll(final List<RecordingDeviceData> data) {
+        if (data.isEmpty()) {
+            return 0;
+        }
+        // make sure any new types or attributes referenced by the batch are written first
+        this.getEntityManager().flush();
+        int[] results = jdbcTemplate.batchUpdate(INSERTSQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                RecordingDeviceData d = data.get(i);
+                ps.setInt(1, d.getAttributeId().getAttributeId());
+                ps.setString(2, d.getDataValue());
+                if (d.getDataValueNumeric() == null) {
+                    ps.setNull(3, Types.DOUBLE);
+                } else {
+                    ps.setDouble(3, d.getDataValueNumeric());
+                }
+                if (d.getDataValueText() == null) {
+                    ps.setNull(4, Types.VARCHAR);
+                } else {
+                    ps.setString(4, d.getDataValueText());
+                }
+                ps.setString(5, d.getPatientUuid().getPatientUuid());
+                ps.setTimestamp(6, new Timestamp(d.getDataValueTime().getTime()));
+                setNullableTimestamp(ps, 7, d.getScheduleEffectiveTime());
+                setNullableTimestamp(ps, 8, d.getScheduleExpiryTime());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return data.size();
+            }
+        });
+        return results.length;
+    }
+
+    private void setNullableTimestamp(PreparedStatement ps, int index, Date date) throws SQLException {
+        if (date == null) {
+            ps.setNull(index, Types.TIMESTAMP);
+        } else {
+            ps.setTimestamp(index, new Timestamp(date.getTime()));
+        }
+    }
+
     @Override
     public List<RecordingDeviceData> findByPatientUuidAfterDate(String patientUuid, Date requestDate, String type) {
         return this.getEntityManager().createNamedQuery("RecordingDeviceData.findByPatientUuidAfterDate", RecordingDeviceData.class)
@@ -69,4 +163,60 @@ public class RecordingDeviceDataDAOImpl extends GenericDAOImpl<RecordingDeviceDa
                 .getResultList();
 
     }
+
+    @Override
+    public List<RecordingDeviceData> findByPatientGroupAfterCursor(String patientGroupUuid, Date downloadedTime, int dataId, Date endTime, int maxResults) {
+        return this.getEntityManager().createNamedQuery("RecordingDeviceData.findByPatientGroupAfterCursor", RecordingDeviceData.class)
+                .setParameter("patientGroupUuid", patientGroupUuid)
+                .setParameter("downloadedTime", downloadedTime)
+                .setParameter("dataId", dataId)
+                .setParameter("endTime", endTime)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    @Override
+    public boolean isPartitioned() {
+        List<String> kind = jdbcTemplate.queryForList(PARTITIONEDSQL, String.class);
+        return !kind.isEmpty() && "p".equals(kind.get(0));
+    }
+
+    @Override
+    public String createPartition(Date monthStart) {
+        return jdbcTemplate.queryForObject(CREATEPARTITIONSQL, String.class, new java.sql.Date(monthStart.getTime()));
+    }
+
+    @Override
+    public List<String> findPartitions() {
+        return jdbcTemplate.queryForList(PARTITIONSSQL, String.class);
+    }
+
+    @Override
+    public void readPartition(String partitionName, RowCallbackHandler handler) {
+        final String sql = "SELECT " + PARTITIONCOLUMNS + " FROM " + quotePartitionName(partitionName) + " ORDER BY downloaded_time, data_id";
+        jdbcTemplate.query(new PreparedStatementCreator() {
+            @Override
+            public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                PreparedStatement ps = con.prepareStatement(sql);
+                // stream the rows rather than reading the whole partition into memory
+                ps.setFetchSize(1000);
+                return ps;
+            }
+        }, handler);
+    }
+
+    @Override
+    public void dropPartition(String partitionName) {
+        String quoted = quotePartitionName(partitionName);
+        jdbcTemplate.execute("ALTER TABLE recording_device_data DETACH PARTITION " + quoted);
+        jdbcTemplate.execute("DROP TABLE " + quoted);
+    }
+
+    // partition names are only ever made from recording_device_data and a month
+    private String quotePartitionName(String partitionName) {
+        if (!partitionName.matches("recording_device_data_[0-9]{6}")) {
+            throw new IllegalArgumentException("Not a recording_device_data partition: " + partitionName);
+        }
+        return "\"" + partitionName + "\"";
+    }
 }
@@ -29,4 +29,24 @@ public interface RecordingDeviceTypeDAO extends GenericDAO<RecordingDeviceType>
 
     public List<String> findByPatient(String patientUuid);
     public RecordingDeviceType findByType(String type);
+
+    /**
+     * Find all RecordingDeviceTypes
+     *
+     * @return list of all recording device types
+     */
+    public List<RecordingDeviceType> findAll();
+
+    /**
+     * Find a RecordingDeviceType or create it if it does not exist. This is
+     * committed in its own transaction so that the new type is visible to any
+     * concurrent uploads straight away
+     *
+     * @param type
+     * @param make
+     * @param model
+     * @param displayName
+     * @return the existing or newly created recording device type
+     */
+    public RecordingDeviceType findOrCreate(String type, String make, String model, String displayName);
 }
@@ -18,6 +18,8 @@ package org.medipi.concentrator.dao;
 import java.util.List;
 import org.medipi.concentrator.entities.RecordingDeviceType;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Implementation of data access object for RecordingDeviceType
@@ -48,4 +50,30 @@ public class RecordingDeviceTypeDAOImpl extends GenericDAOImpl<RecordingDeviceTy
                 .setParameter("type", type)
                 .getSingleResult();
     }
-}
\ No newline at end of file
+
+    @Override
+    public List<RecordingDeviceType> findAll() {
+        return this.getEntityManager().createNamedQuery("RecordingDeviceType.findAll", RecordingDeviceType.class)
+                .getResultList();
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW, rollbackFor = RuntimeException.class)
+    public RecordingDeviceType findOrCreate(String type, String make, String model, String displayName) {
+        List<RecordingDeviceType> found = this.getEntityManager().createNamedQuery("RecordingDeviceType.findByTypeMakeModelDisplayName", RecordingDeviceType.class)
+                .setParameter("make", make)
+                .setParameter("model", model)
+                .setParameter("displayname", displayName)
+                .setParameter("type", type)
+                .getResultList();
+        if (!found.isEmpty()) {
+            return found.get(0);
+        }
+        RecordingDeviceType rdt = new RecordingDeviceType();
+        rdt.setType(type);
+        rdt.setMake(make);
+        rdt.setModel(model);
+        rdt.setDisplayName(displayName);
+        return this.save(rdt);
+    }
+}
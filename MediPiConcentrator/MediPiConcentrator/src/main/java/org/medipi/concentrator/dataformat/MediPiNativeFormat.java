@@ -15,33 +15,28 @@
  */
 package org.medipi.concentrator.dataformat;
 
-import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import javax.persistence.EntityExistsException;
-import org.apache.commons.io.IOUtils;
-import org.medipi.concentrator.MediPiProperties;
 import org.medipi.concentrator.dao.RecordingDeviceDataDAOImpl;
-import org.medipi.concentrator.dao.RecordingDeviceAttributeDAOImpl;
-import org.medipi.concentrator.dao.RecordingDeviceTypeDAOImpl;
 import org.medipi.concentrator.entities.RecordingDeviceData;
 import org.medipi.concentrator.entities.Patient;
 import org.medipi.concentrator.entities.RecordingDeviceAttribute;
 import org.medipi.concentrator.entities.RecordingDeviceType;
-import org.medipi.concentrator.exception.BadRequest400Exception;
 import org.medipi.concentrator.exception.InternalServerError500Exception;
+import org.medipi.concentrator.exception.UnprocessableEntity422Exception;
 import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.services.RecordingDeviceCatalogService;
+import org.medipi.concentrator.services.SubmissionNotificationService;
 import org.medipi.concentrator.utilities.Utilities;
 import org.medipi.model.DeviceDataDO;
 import org.medipi.model.DevicesPayloadDO;
+import org.medipi.model.TypedDataValue;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -57,313 +52,344 @@ import org.springframework.transaction.annotation.Transactional;
 @Service
 public class MediPiNativeFormat extends PatientUploadDataFormat {
 
-    private static final String SUCCESSFULLYPROCESSEDSUBMISSIONSCRIPT = "medipi.concentrator.successfullyprocessedsubmissionscript";
-    private String classToken;
-    private final MediPiLogger logger = MediPiLogger.getInstance();
-    private String trackingId;
-    private String successfullyProcessedSubmission;
+    private static final String MEDIPICONCENTRATORDUPLICATECLOCKSKEW = "medipi.concentrator.data.duplicatecheck.clockskew";
+    private static final long DEFAULTDUPLICATECLOCKSKEW = 86400000L;
 
-    @Autowired
-    private RecordingDeviceTypeDAOImpl recordingDeviceTypeDAO;
+    private final MediPiLogger logger = MediPiLogger.getInstance();
+    // how far a patient unit's clock may be ahead of the concentrator's
+    private long duplicateClockSkew = DEFAULTDUPLICATECLOCKSKEW;
 
     @Autowired
-    private RecordingDeviceAttributeDAOImpl recordingDeviceAttributeDAO;
+    private RecordingDeviceCatalogService recordingDeviceCatalog;
 
     @Autowired
     private RecordingDeviceDataDAOImpl recordingDeviceDataDAO;
 
     @Autowired
-    private Utilities utils;
+    private SubmissionNotificationService submissionNotificationService;
 
     @Override
     public void setClassToken(String classToken) {
-        this.classToken = classToken;
+        // the MediPi Native format has no properties of its own
     }
 
     @Override
     public String init() {
-        successfullyProcessedSubmission = utils.getProperties().getProperty(SUCCESSFULLYPROCESSEDSUBMISSIONSCRIPT);
+        String clockSkew = Utilities.getInstance().getStringProperty(MEDIPICONCENTRATORDUPLICATECLOCKSKEW);
+        if (clockSkew != null && clockSkew.trim().length() != 0) {
+            try {
+                duplicateClockSkew = Long.parseLong(clockSkew.trim());
+            } catch (NumberFormatException nfe) {
+                return "Cannot read " + MEDIPICONCENTRATORDUPLICATECLOCKSKEW + " from the properties file: " + nfe.getLocalizedMessage();
+            }
+        }
         return null;
     }
 
+    /**
+     * Processes the upload as a batch: the whole payload is parsed before the
+     * DB is touched, all attributes for the device types are resolved in one
+     * query, duplicates are detected with one query covering every attribute
+     * and the period of the upload and new data points are written in a single
+     * JDBC batch
+     *
+     * @param content the full RESTful message content
+     * @param patient The patient class relating to the content
+     * @return boolean representation of the outcome of the process
+     */
     @Override
     @Transactional(rollbackFor = RuntimeException.class)
     public Boolean process(DevicesPayloadDO content, Patient patient) {
-        HashMap<String, String> persistentMetadata = new HashMap<>();
+        store(parse(content), patient);
+        return true;
+    }
+
+    /**
+     * Processes the uploads of a batch together. Each upload is parsed on its
+     * own so that an upload which cannot be parsed is reported without
+     * stopping the others, and the data of all the uploads which can be parsed
+     * is checked for duplicates and written as a single upload would be
+     *
+     * @param contents the decrypted contents of the uploads
+     * @param patient The patient class relating to the contents
+     * @return the exception for each content which could not be processed, in
+     * the order of the contents, or null for each content which was processed
+     */
+    @Override
+    @Transactional(rollbackFor = RuntimeException.class)
+    public List<RuntimeException> processAll(List<DevicesPayloadDO> contents, Patient patient) {
+        List<RuntimeException> results = new ArrayList<>();
+        List<ParsedDeviceData> parsedPayloads = new ArrayList<>();
+        for (DevicesPayloadDO content : contents) {
+            try {
+                parsedPayloads.addAll(parse(content));
+                results.add(null);
+            } catch (UnprocessableEntity422Exception e) {
+                results.add(e);
+            }
+        }
+        store(parsedPayloads, patient);
+        return results;
+    }
+
+    /**
+     * Parses all of the device payloads of an upload without any access to the
+     * DB
+     *
+     * @param content the full RESTful message content
+     * @return parsed device payloads
+     */
+    private List<ParsedDeviceData> parse(DevicesPayloadDO content) {
         List<DeviceDataDO> p = content.getPayload();
 
-        if (p != null) {
-            if (p.isEmpty()) {
-                //if there is an issue with the Payload
-                throwBadRequest400("The request has no payload: " + content);
+        if (p == null) {
+            //if there is an issue with the Payload
+            throwUnprocessableEntity422("Failed to parse DistributionEnvelope Payload" + content);
+        }
+        if (p.isEmpty()) {
+            //if there is an issue with the Payload
+            throwUnprocessableEntity422("The request has no payload: " + content);
+        }
+        // Parse all of the data Payloads before any DB access
+        List<ParsedDeviceData> parsedPayloads = new ArrayList<>();
+        for (DeviceDataDO pay : p) {
+            if (pay == null) {
+                //Unable to parse device's content
+                throwUnprocessableEntity422("Unable to decrypt the content of the payload");
             }
-            // Added data to the database - the design of the DB is that these are individual data points NOT rows of data
-            int totalRowsWrittenToDB = 0;
-            // Loop through each of the data Payloads
-            for (DeviceDataDO pay : p) {
-                if (pay == null) {
-                    //Unable to parse device's content
-                    throwBadRequest400("Unable to decrypt the content of the payload");
+            parsedPayloads.add(parseDeviceData(pay));
+        }
+        return parsedPayloads;
+    }
 
+    /**
+     * Writes the new data points of the parsed device payloads to the DB
+     *
+     * @param allParsedPayloads parsed device payloads
+     * @param patient The patient class relating to the payloads
+     */
+    private void store(List<ParsedDeviceData> allParsedPayloads, Patient patient) {
+        // Payloads are not looked up by their device data UUID as a unit makes a new one each time it sends
+        // readings - a payload sent again is found value by value
+        List<ParsedDeviceData> parsedPayloads = new ArrayList<>();
+        for (ParsedDeviceData pdd : allParsedPayloads) {
+            if (!pdd.rows.isEmpty()) {
+                parsedPayloads.add(pdd);
+            }
+        }
+
+        // Resolve the device type and attributes for each payload from the catalog - only hits the DB for new devices
+        List<RecordingDeviceAttribute> resolvedAttributes = new ArrayList<>();
+        Date earliest = null;
+        Date latest = null;
+        for (ParsedDeviceData pdd : parsedPayloads) {
+            pdd.recordingDeviceType = recordingDeviceCatalog.getRecordingDeviceType(pdd.type, pdd.make, pdd.model, pdd.displayName);
+            int attributeCount = Math.min(pdd.columns.length, pdd.units.length);
+            pdd.recordingDeviceAttributes = new RecordingDeviceAttribute[attributeCount];
+            for (int columnNo = 1; columnNo < attributeCount; columnNo++) {
+                RecordingDeviceAttribute rda = recordingDeviceCatalog.getRecordingDeviceAttribute(pdd.recordingDeviceType, pdd.columns[columnNo], pdd.units[columnNo], pdd.format[columnNo]);
+                pdd.recordingDeviceAttributes[columnNo] = rda;
+                resolvedAttributes.add(rda);
+            }
+            for (ParsedRow row : pdd.rows) {
+                if (earliest == null || row.dataPointTime.before(earliest)) {
+                    earliest = row.dataPointTime;
                 }
-                int rowsWrittenToDBPerPayload = 0;
-                String make = null;
-                String model = null;
-                String displayName = null;
-                String datadelimeter = null;
-                String[] columnsArray = null;
-                String[] formatArray = null;
-                String[] unitsArray = null;
-                Date scheduleeffectivedate = null;
-                Date scheduleexpirydate = null;
-                // get the device type e.g. Oximeter
-                String type = null;
-                try {
-                    type = pay.getProfileId().substring(pay.getProfileId().lastIndexOf(":") + 1, pay.getProfileId().length());
-                    if (type == null || type.trim().length() == 0) {
-                        throwBadRequest400("Unable to parse the content from the payload");
-                    }
-                } catch (IndexOutOfBoundsException e) {
-                    throwBadRequest400("Unable to parse the content from the payload");
-                }
-                BufferedReader br = null;
-                try {
-                    //Read the Device's content
-                    br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(pay.getPayload().getBytes())));
-                } catch (Exception e) {
-                    //Unable to parse device's content
-                    throwBadRequest400("Unable to parse the content from the payload with profile Id: " + pay.getProfileId());
+                if (latest == null || row.dataPointTime.after(latest)) {
+                    latest = row.dataPointTime;
                 }
-                logger.log(MediPiNativeFormat.class.getName(), new Date().toString() + " Payload device: " + type + ". Device data uuid:" + pay.getDeviceDataUuid());
-                try {
-                    String line;
-                    Boolean readAllMetadata = false;
-                    RecordingDeviceType rdt = null;
-                    while ((line = br.readLine()) != null) {
-
-                        String[] metaSplit = line.split("->");
-                        if (metaSplit[0].equals("metadata")) {
-                            // Found metadata
-                            if (metaSplit[1].equals("persist")) {
-                                //Data to be stored againast the delta of the whole downloaded dataset
-                                persistentMetadata.put(metaSplit[2], metaSplit[3]);
-                                if (metaSplit.length > 4) {
-                                    throwBadRequest400("Failed to parse metadata->persist: " + line + "in payload: " + pay.getProfileId());
-                                }
-                            } else {
-                                //Other metadata
-//                                System.out.println(metaSplit[1]);
-                                switch (metaSplit[1]) {
-                                    case "datadelimiter":
-                                        datadelimeter = metaSplit[2];
-                                        // if delimeter is a special regex charater then prpend with a double //
-                                        if ("\\.[]{}()*+-?^$|".contains(datadelimeter)) {
-                                            datadelimeter = "\\" + datadelimeter;
-                                        }
-                                        break;
-                                    case "make":
-                                        make = metaSplit[2];
-                                        break;
-                                    case "model":
-                                        model = metaSplit[2];
-                                        break;
-                                    case "displayname":
-                                        displayName = metaSplit[2];
-                                        break;
-                                    case "columns":
-                                        columnsArray = metaSplit[2].split(datadelimeter);
-                                        if (columnsArray == null || !columnsArray[0].equals("iso8601time")) {
-                                            throwBadRequest400("Failed to parse metadata in payload: " + pay.getProfileId() + " iso8601date field is not the first column");
-                                        }
-                                        break;
-                                    case "format":
-                                        formatArray = metaSplit[2].split(datadelimeter);
-                                        if (formatArray == null || !formatArray[0].equals("DATE")) {
-                                            throwBadRequest400("Failed to parse metadata in payload: " + pay.getProfileId() + " iso8601date field is not in the correct format");
-                                        }
-                                        break;
-                                    case "units":
-                                        unitsArray = metaSplit[2].split(datadelimeter);
-                                        if (unitsArray == null) {
-                                            throwBadRequest400("Failed to parse metadata in payload: " + pay.getProfileId() + " units field is not in the correct format");
-                                        }
-                                        break;
-                                    case "scheduleeffectivedate":
-                                        try {
-                                            scheduleeffectivedate = new ISO8601DateFormat().parse(metaSplit[2]);
-                                        } catch (ParseException ex) {
-                                            throwBadRequest400("scheduleeffectivedate for device: " + displayName + " metatdata->scheduleeffectivedate is in an invalid format");
-                                        }
-                                        break;
-                                    case "scheduleexpirydate":
-                                        try {
-                                            scheduleexpirydate = new ISO8601DateFormat().parse(metaSplit[2]);
-                                        } catch (ParseException ex) {
-                                            throwBadRequest400("scheduleexpirydate for device: " + displayName + " metatdata->scheduleexpirydate is in an invalid format");
-                                        }
-                                        break;
-                                    default:
-                                        // Fail - bad data
-                                        throwBadRequest400("Failed to parse metadata in payload: " + pay.getProfileId());
-                                }
-                            }
+            }
+        }
 
-                        } else if (readAllMetadata || checkMetadata(make, model, displayName, datadelimeter, columnsArray, formatArray, unitsArray)) {
-                            readAllMetadata = true;
-                            // It's data
-                            if (rdt == null) {
-                                // need to find the type - only needs to be done once per device type
-                                // Check to find the device in the device_type table
-                                try {
-                                    rdt = this.recordingDeviceTypeDAO.findByTypeMakeModelDisplayName(type, make, model, displayName);
-                                } catch (EmptyResultDataAccessException e) {
-                                    // Device does NOT exist in the database
-                                    // if not in db add it
-                                    rdt = updateRecordingDeviceType(rdt, type, make, model, displayName);
-                                }
-                            }
-                            String[] dataArray = line.split(datadelimeter);
-                            int columnNo = 0;
-                            Date dataPointTime = null;
-                            for (String data : dataArray) {
-                                if (columnNo == 0) {
-                                    try {
-                                        // The concentrator expects the incoming string representation of the time to be UTC in ISO
-                                        dataPointTime = new ISO8601DateFormat().parse(data);
-                                    } catch (ParseException ex) {
-                                        throwBadRequest400("Datapoint time for device: " + displayName + " is in an invalid format: " + data);
-                                    }
-                                } else {
-                                    RecordingDeviceAttribute rda = null;
-                                    try {
-                                        rda = this.recordingDeviceAttributeDAO.findByTypeUnitsFormatAndAttributeName(rdt, columnsArray[columnNo], unitsArray[columnNo], formatArray[columnNo]);
-                                    } catch (EmptyResultDataAccessException e) {
-                                        // Attribute Name does NOT exist in the database
-                                        // add new entry to DB
-                                        rda = updateRecordingDeviceAttribute(rda, rdt, columnsArray[columnNo], unitsArray[columnNo], formatArray[columnNo]);
-                                    }
-                                    //First check for duplicates - this is only to record the delta on machines with storage
-                                    boolean writeData = false;
-                                    List<RecordingDeviceData> dd = null;
-                                    try {
-                                        dd = this.recordingDeviceDataDAO.isAlreadyStored(rda, patient, data, dataPointTime);
-                                        if (dd.isEmpty()) {
-                                            writeData = true;
-                                        } else {
-                                            System.out.println("Duplicate data: " + data + " @ " + dataPointTime.getTime());
-                                            break;
-                                        }
-                                    } catch (Exception e) {
-                                        System.out.println("exception thrown when finding if data is already stored");
-                                        break;
-                                    }
-
-                                    //Now that the attribute id is found write device data
-                                    if (rda != null && writeData) {
-                                        RecordingDeviceData d = new RecordingDeviceData();
-                                        d.setAttributeId(rda);
-                                        d.setPatientUuid(patient);
-                                        d.setDataValue(data);
-                                        d.setDataValueTime(dataPointTime);
-                                        // Set the timedownloaded value in order to mark 
-                                        //(using a trusted, recently synchronised timestamp 
-                                        // for clinical systems to guage if data has been downloaded)
-//                                        d.setDownloadedTime(new Date());
-                                        d.setScheduleEffectiveTime(scheduleeffectivedate);
-                                        d.setScheduleExpiryTime(scheduleexpirydate);
-
-                                        try {
-                                            this.recordingDeviceDataDAO.save(d);
-                                            rowsWrittenToDBPerPayload++;
-                                            totalRowsWrittenToDB++;
-                                        } catch (Exception e) {
-                                            logger.log(MediPiNativeFormat.class.getName() + ".dbIssue", "Attempt to write data for " + type + " to DB failed");
-                                            throw new InternalServerError500Exception("Attempt to write data for " + type + " to DB failed");
-
-                                        }
-                                    }
-
-                                }
-                                columnNo++;
+        if (resolvedAttributes.isEmpty()) {
+            // no data rows in any of the payloads
+            return;
+        }
 
-                            }
-                        } else {
-                            throwBadRequest400("Unable to parse the content from the payload with profile Id: " + pay.getProfileId());
-                        }
-                    }
-                    // failure in reading bufferedReader
-                } catch (IOException e) {
-                    throwBadRequest400("Unable to parse the content from the payload with profile Id: " + pay.getProfileId());
+        // Check the payloads for duplicates with a single query - this is only to record the delta on machines with storage.
+        // A data point cannot have been downloaded before it was measured, allowing for the patient unit's clock,
+        // so only the partitions downloaded since the earliest measurement are searched. A measurement later than the
+        // concentrator's clock shows that the unit's clock is ahead by an unknown amount, which may be more than the
+        // allowance, so every partition is searched. Data in partitions which have been archived is not searched
+        HashSet<List<Object>> stored = new HashSet<>();
+        if (earliest != null) {
+            Date downloadedFrom;
+            if (latest.getTime() > System.currentTimeMillis()) {
+                logger.log(MediPiNativeFormat.class.getName() + ".dbInfo", "Patient " + patient.getPatientUuid() + " uploaded data measured in the future at " + latest + " - checking all stored data for duplicates");
+                downloadedFrom = new Date(0);
+            } else {
+                downloadedFrom = new Date(earliest.getTime() - duplicateClockSkew);
+            }
+            try {
+                for (RecordingDeviceData d : this.recordingDeviceDataDAO.findStoredInPeriod(patient, resolvedAttributes, earliest, latest, downloadedFrom)) {
+                    stored.add(dataKey(d.getAttributeId(), d.getDataValueTime(), d.getDataValueNumeric(), d.getDataValue()));
                 }
-                logger.log(MediPiNativeFormat.class.getName() + ".dbInfo", rowsWrittenToDBPerPayload + " rows of data written to the DB for payload: " + type);
-
+            } catch (Exception e) {
+                logger.log(MediPiNativeFormat.class.getName() + ".dbIssue", "Exception thrown when finding if data is already stored: " + e.getLocalizedMessage());
+                throw new InternalServerError500Exception("Exception thrown when finding if data is already stored");
             }
-            if (successfullyProcessedSubmission != null && totalRowsWrittenToDB > 0) {
-                logger.log(MediPiNativeFormat.class.getName() + ".dbInfo", totalRowsWrittenToDB + " rows of data written to the DB in total for transaction covered by trackingID: " + trackingId);
-                System.out.println("Patient " + patient.getPatientUuid() + " has submitted " + totalRowsWrittenToDB + " pieces of data at " + new Date());
-                Runtime runtime = Runtime.getRuntime();
-                try {
-                    String script = successfullyProcessedSubmission.replace("__PATIENT_UUID__", patient.getPatientUuid());
-                    Process process = runtime.exec(script);
-                    int resultCode = process.waitFor();
-                    if (resultCode == 0) {
-                        // all is good
+        }
+
+        // Build the new data points - the design of the DB is that these are individual data points NOT rows of data
+        List<RecordingDeviceData> newData = new ArrayList<>();
+        for (ParsedDeviceData pdd : parsedPayloads) {
+            int rowsToWritePerPayload = 0;
+            for (ParsedRow row : pdd.rows) {
+                for (int columnNo = 1; columnNo < row.values.length; columnNo++) {
+                    RecordingDeviceAttribute rda = pdd.recordingDeviceAttributes[columnNo];
+                    String data = row.values[columnNo];
+                    Double numeric = TypedDataValue.numericValue(data);
+                    // stored also holds the data points already added from this upload.
+                    // As before, the rest of a row is not written once a duplicate is found in it
+                    if (!stored.add(dataKey(rda, row.dataPointTime, numeric, data))) {
+                        logger.fine(MediPiNativeFormat.class.getName() + ".dbInfo", () -> "Duplicate data: " + data + " @ " + row.dataPointTime.getTime());
+                        break;
                     }
-                } catch (Throwable ex) {
-                    logger.log(MediPiNativeFormat.class.getName() + ".curlIssue", "Attempt to curl notification for " + patient.getPatientUuid() + " failed @" + new Date() + " because " + ex.getLocalizedMessage());
-                    System.out.println("Attempt to curl notification for " + patient.getPatientUuid() + " failed @" + new Date() + " because " + ex.getLocalizedMessage());
+                    RecordingDeviceData d = new RecordingDeviceData();
+                    d.setAttributeId(rda);
+                    d.setPatientUuid(patient);
+                    d.setDataValue(data);
+                    d.setDataValueNumeric(numeric);
+                    d.setDataValueText(TypedDataValue.textValue(data));
+                    d.setDataValueTime(row.dataPointTime);
+                    // The downloaded time is set by the DB on insert in order to mark 
+                    //(using a trusted, recently synchronised timestamp 
+                    // for clinical systems to guage if data has been downloaded)
+                    d.setScheduleEffectiveTime(pdd.scheduleEffectiveDate);
+                    d.setScheduleExpiryTime(pdd.scheduleExpiryDate);
+                    newData.add(d);
+                    rowsToWritePerPayload++;
                 }
             }
-            if (totalRowsWrittenToDB == 0) {
-                // should any particular response be made for no data added to db for any payload?
-            }
+            logger.log(MediPiNativeFormat.class.getName() + ".dbInfo", rowsToWritePerPayload + " rows of data to be written to the DB for payload: " + pdd.type);
+        }
 
-        } else {
-            //if there is an issue with the Payload
-            throwBadRequest400("Failed to parse DistributionEnvelope Payload" + content);
+        int totalRowsWrittenToDB = 0;
+        try {
+            totalRowsWrittenToDB = this.recordingDeviceDataDAO.saveAll(newData);
+        } catch (Exception e) {
+            logger.log(MediPiNativeFormat.class.getName() + ".dbIssue", "Attempt to write data to DB failed: " + e.getLocalizedMessage());
+            throw new InternalServerError500Exception("Attempt to write data to DB failed");
+        }
 
+        if (totalRowsWrittenToDB > 0) {
+            logger.log(MediPiNativeFormat.class.getName() + ".dbInfo", totalRowsWrittenToDB + " rows of data written to the DB in total for patient: " + patient.getPatientUuid());
+            System.out.println("Patient " + patient.getPatientUuid() + " has submitted " + totalRowsWrittenToDB + " pieces of data at " + new Date());
+            // notifications are sent asynchronously once this transaction has committed
+            submissionNotificationService.submissionProcessed(patient.getPatientUuid());
         }
-        return true;
     }
 
-    @Transactional
-    private RecordingDeviceType updateRecordingDeviceType(RecordingDeviceType rdt, String type, String make, String model, String displayName) {
+    /**
+     * Parses the metadata and data rows of a single device payload without
+     * any access to the DB
+     *
+     * @param pay device payload
+     * @return parsed metadata and data rows
+     */
+    private ParsedDeviceData parseDeviceData(final DeviceDataDO pay) {
+        final ParsedDeviceData pdd = new ParsedDeviceData();
+        // get the device type e.g. Oximeter
         try {
-            rdt = new RecordingDeviceType();
-            rdt.setType(type);
-            rdt.setMake(make);
-            rdt.setModel(model);
-            rdt.setDisplayName(displayName);
-            recordingDeviceTypeDAO.save(rdt);
-        } catch (EntityExistsException e) {
-            throwBadRequest400("Device: " + type + " " + make + " " + model + " " + displayName + " already exists in RECORDING_DEVICE_TYPE table in the DB");
+            pdd.type = pay.getProfileId().substring(pay.getProfileId().lastIndexOf(":") + 1, pay.getProfileId().length());
+            if (pdd.type == null || pdd.type.trim().length() == 0) {
+                throwUnprocessableEntity422("Unable to parse the content from the payload");
+            }
+        } catch (IndexOutOfBoundsException | NullPointerException e) {
+            throwUnprocessableEntity422("Unable to parse the content from the payload");
+        }
+        if (pay.getPayload() == null) {
+            //Unable to parse device's content
+            throwUnprocessableEntity422("Unable to parse the content from the payload with profile Id: " + pay.getProfileId());
         }
-        return rdt;
+        logger.log(MediPiNativeFormat.class.getName(), new Date().toString() + " Payload device: " + pdd.type + ". Device data uuid:" + pay.getDeviceDataUuid());
+        try {
+            MediPiNativeTokenizer.tokenize(pay.getPayload(), new MediPiNativeTokenizer.Handler() {
+                private String datadelimeter;
+                private boolean readAllMetadata = false;
 
-    }
+                @Override
+                public void persistentMetadata(String name, String value) {
+                    pdd.persistentMetadata.put(name, value);
+                }
 
-    @Transactional
-    private RecordingDeviceAttribute updateRecordingDeviceAttribute(RecordingDeviceAttribute rda, RecordingDeviceType rdt, String attributeName, String attributeUnits, String attributeType) {
-        try {
-            rda = new RecordingDeviceAttribute();
-            rda.setAttributeName(attributeName);
-            rda.setAttributeType(attributeType);
-            rda.setAttributeUnits(attributeUnits);
-            rda.setTypeId(rdt);
-            recordingDeviceAttributeDAO.save(rda);
-        } catch (EntityExistsException e) {
-            throwBadRequest400("Attribute: " + attributeName + attributeUnits + attributeType + " already exists for device " + attributeName + " " + attributeUnits + " " + attributeType + " in RECORDING_DEVICE_ATTRIBUTE table in the DB");
+                @Override
+                public void metadata(String name, String value) {
+                    switch (name) {
+                        case "datadelimiter":
+                            datadelimeter = value;
+                            break;
+                        case "make":
+                            pdd.make = value;
+                            break;
+                        case "model":
+                            pdd.model = value;
+                            break;
+                        case "displayname":
+                            pdd.displayName = value;
+                            break;
+                    }
+                }
+
+                @Override
+                public void dateMetadata(String name, Date value) {
+                    if (name.equals("scheduleeffectivedate")) {
+                        pdd.scheduleEffectiveDate = value;
+                    } else {
+                        pdd.scheduleExpiryDate = value;
+                    }
+                }
+
+                @Override
+                public void listMetadata(String name, String[] values) {
+                    switch (name) {
+                        case "columns":
+                            pdd.columns = values;
+                            if (pdd.columns.length == 0 || !pdd.columns[0].equals("iso8601time")) {
+                                throwUnprocessableEntity422("Failed to parse metadata in payload: " + pay.getProfileId() + " iso8601date field is not the first column");
+                            }
+                            break;
+                        case "format":
+                            pdd.format = values;
+                            if (pdd.format.length == 0 || !pdd.format[0].equals("DATE")) {
+                                throwUnprocessableEntity422("Failed to parse metadata in payload: " + pay.getProfileId() + " iso8601date field is not in the correct format");
+                            }
+                            break;
+                        case "units":
+                            pdd.units = values;
+                            break;
+                    }
+                }
+
+                @Override
+                public void row(Date dataPointTime, String[] dataArray) {
+                    if (!readAllMetadata) {
+                        readAllMetadata = checkMetadata(pdd.make, pdd.model, pdd.displayName, datadelimeter, pdd.columns, pdd.format, pdd.units);
+                    }
+                    if (dataArray.length > pdd.columns.length || dataArray.length > pdd.units.length) {
+                        throwUnprocessableEntity422("Data row for device: " + pdd.displayName + " has more elements than the metadata->columns or metadata->units: " + String.join(datadelimeter, dataArray));
+                    }
+                    pdd.rows.add(new ParsedRow(dataPointTime, dataArray));
+                }
+            });
+        } catch (ParseException e) {
+            throwUnprocessableEntity422("Unable to parse the content from the payload with profile Id: " + pay.getProfileId() + " - " + e.getMessage());
         }
-        return rda;
+        return pdd;
     }
 
-    private void throwBadRequest400(String message) throws BadRequest400Exception {
-        throwBadRequest400(message, "");
+    // numeric values are compared by value and any other value by its text
+    private static List<Object> dataKey(RecordingDeviceAttribute rda, Date dataPointTime, Double numeric, String data) {
+        return Arrays.asList((Object) rda.getAttributeId(), dataPointTime.getTime(), numeric != null ? numeric : data);
     }
 
-    private void throwBadRequest400(String message, String loggingAdditional) throws BadRequest400Exception {
+    private void throwUnprocessableEntity422(String message) throws UnprocessableEntity422Exception {
+        throwUnprocessableEntity422(message, "");
+    }
+
+    private void throwUnprocessableEntity422(String message, String loggingAdditional) throws UnprocessableEntity422Exception {
         logger.log(MediPiNativeFormat.class.getName() + ".dataValidationIssue", message + loggingAdditional);
-        throw new BadRequest400Exception(message);
+        throw new UnprocessableEntity422Exception(message);
     }
 
     private boolean checkMetadata(String make, String model, String displayName, String datadelimiter, String[] columns, String[] format, String[] units) {
@@ -395,10 +421,44 @@ public class MediPiNativeFormat extends PatientUploadDataFormat {
         }
 
         if (nullContent.length() != 0) {
-            throwBadRequest400("Insufficient Metadata - Metadata in error: " + nullContent);
+            throwUnprocessableEntity422("Insufficient Metadata - Metadata in error: " + nullContent);
         } else {
             return true;
         }
         return false;
     }
+
+    /**
+     * Metadata and data rows parsed from a single device payload
+     */
+    private static class ParsedDeviceData {
+
+        private String type;
+        private String make;
+        private String model;
+        private String displayName;
+        private String[] columns;
+        private String[] format;
+        private String[] units;
+        private Date scheduleEffectiveDate;
+        private Date scheduleExpiryDate;
+        private final HashMap<String, String> persistentMetadata = new HashMap<>();
+        private final List<ParsedRow> rows = new ArrayList<>();
+        private RecordingDeviceType recordingDeviceType;
+        private RecordingDeviceAttribute[] recordingDeviceAttributes;
+    }
+
+    /**
+     * A single row of data from a device payload
+     */
+    private static class ParsedRow {
+
+        private final Date dataPointTime;
+        private final String[] values;
+
+        ParsedRow(Date dataPointTime, String[] values) {
+            this.dataPointTime = dataPointTime;
+            this.values = values;
+        }
+    }
 }
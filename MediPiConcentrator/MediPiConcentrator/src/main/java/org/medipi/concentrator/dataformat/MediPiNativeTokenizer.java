@@ -0,0 +1,283 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.dataformat;
+
+import java.text.ParseException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Tokenizer for the MediPi Native text payload format.
+ *
+ * The payload is a series of lines. Lines starting metadata-> carry metadata
+ * about the device and the layout of the data rows and all other lines are
+ * data rows split using the metadata->datadelimiter. The tokenizer works
+ * directly on the characters of the payload without copying it, using regular
+ * expressions or creating a date formatter per row and passes typed events to
+ * a Handler. It holds no state between calls and is safe to share between
+ * threads
+ */
+public final class MediPiNativeTokenizer {
+
+    private static final String METADATAPREFIX = "metadata->";
+    private static final String METADATASEPARATOR = "->";
+    private static final long MILLISPERDAY = 86400000L;
+
+    /**
+     * Lenient ISO 8601 parser used when a time is not in the canonical
+     * yyyy-MM-ddTHH:mm:ss[.SSS]Z form sent by patient units. Accepts an
+     * optional time and an offset of Z, +HH:MM, +HHMM or +HH. A missing offset
+     * is taken as UTC
+     */
+    private static final DateTimeFormatter ISO8601 = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE)
+            .optionalStart()
+            .appendLiteral('T')
+            .append(DateTimeFormatter.ISO_LOCAL_TIME)
+            .optionalStart().appendOffset("+HH:MM", "Z").optionalEnd()
+            .optionalStart().appendOffset("+HHMM", "Z").optionalEnd()
+            .optionalStart().appendOffset("+HH", "Z").optionalEnd()
+            .optionalEnd()
+            .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
+            .parseDefaulting(ChronoField.OFFSET_SECONDS, 0)
+            .toFormatter();
+
+    private MediPiNativeTokenizer() {
+    }
+
+    /**
+     * Receiver of the events produced while tokenizing a payload. Events are
+     * passed in the order in which they appear in the payload
+     */
+    public interface Handler {
+
+        /**
+         * metadata->persist->name->value
+         *
+         * @param name
+         * @param value
+         */
+        void persistentMetadata(String name, String value);
+
+        /**
+         * metadata->make, model, displayname and datadelimiter
+         *
+         * @param name metadata name
+         * @param value
+         */
+        void metadata(String name, String value);
+
+        /**
+         * metadata->scheduleeffectivedate and scheduleexpirydate
+         *
+         * @param name metadata name
+         * @param value parsed date
+         */
+        void dateMetadata(String name, Date value);
+
+        /**
+         * metadata->columns, format and units split using the data delimiter
+         *
+         * @param name metadata name
+         * @param values
+         */
+        void listMetadata(String name, String[] values);
+
+        /**
+         * A data row. values[0] holds the original text of the data point time
+         *
+         * @param dataPointTime parsed data point time
+         * @param values all elements of the row split using the data delimiter
+         */
+        void row(Date dataPointTime, String[] values);
+    }
+
+    /**
+     * Tokenizes a MediPi Native payload
+     *
+     * @param payload the payload text
+     * @param handler receiver of the events
+     * @throws ParseException if the payload is malformed. The error offset is
+     * the start of the line in error
+     */
+    public static void tokenize(String payload, Handler handler) throws ParseException {
+        String delimiter = null;
+        int length = payload.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            // find the end of the line - lines may end \n, \r\n or \r
+            int lineEnd = lineStart;
+            while (lineEnd < length) {
+                char c = payload.charAt(lineEnd);
+                if (c == '\n' || c == '\r') {
+                    break;
+                }
+                lineEnd++;
+            }
+            if (payload.startsWith(METADATAPREFIX, lineStart)) {
+                String[] metaSplit = split(payload, lineStart, lineEnd, METADATASEPARATOR);
+                if (metaSplit.length < 3) {
+                    throw new ParseException("Failed to parse metadata: " + payload.substring(lineStart, lineEnd), lineStart);
+                }
+                switch (metaSplit[1]) {
+                    case "persist":
+                        //Data to be stored againast the delta of the whole downloaded dataset
+                        if (metaSplit.length != 4) {
+                            throw new ParseException("Failed to parse metadata->persist: " + payload.substring(lineStart, lineEnd), lineStart);
+                        }
+                        handler.persistentMetadata(metaSplit[2], metaSplit[3]);
+                        break;
+                    case "datadelimiter":
+                        delimiter = metaSplit[2];
+                        handler.metadata(metaSplit[1], delimiter);
+                        break;
+                    case "make":
+                    case "model":
+                    case "displayname":
+                        handler.metadata(metaSplit[1], metaSplit[2]);
+                        break;
+                    case "columns":
+                    case "format":
+                    case "units":
+                        if (delimiter == null) {
+                            throw new ParseException("metadata->" + metaSplit[1] + " appears before metadata->datadelimiter", lineStart);
+                        }
+                        handler.listMetadata(metaSplit[1], split(metaSplit[2], 0, metaSplit[2].length(), delimiter));
+                        break;
+                    case "scheduleeffectivedate":
+                    case "scheduleexpirydate":
+                        handler.dateMetadata(metaSplit[1], parseIso8601(metaSplit[2]));
+                        break;
+                    default:
+                        // Fail - bad data
+                        throw new ParseException("Unknown metadata: " + metaSplit[1], lineStart);
+                }
+            } else {
+                // It's data
+                if (delimiter == null) {
+                    throw new ParseException("Data row appears before metadata->datadelimiter", lineStart);
+                }
+                String[] dataArray = split(payload, lineStart, lineEnd, delimiter);
+                if (dataArray.length == 0) {
+                    throw new ParseException("Empty data row", lineStart);
+                }
+                handler.row(parseIso8601(dataArray[0]), dataArray);
+            }
+            // step over the line terminator
+            lineStart = lineEnd;
+            if (lineStart < length && payload.charAt(lineStart) == '\r') {
+                lineStart++;
+            }
+            if (lineStart < length && payload.charAt(lineStart) == '\n') {
+                lineStart++;
+            }
+        }
+    }
+
+    /**
+     * Splits a region of a string using a literal delimiter. As with
+     * String.split, trailing empty elements are removed and a region with no
+     * delimiter in it is returned whole, even when empty
+     */
+    static String[] split(String s, int start, int end, String delimiter) {
+        int dlen = delimiter.length();
+        if (dlen == 0) {
+            return new String[]{s.substring(start, end)};
+        }
+        char d0 = delimiter.charAt(0);
+        int count = 1;
+        for (int i = start; i <= end - dlen; i++) {
+            if (s.charAt(i) == d0 && (dlen == 1 || s.regionMatches(i, delimiter, 0, dlen))) {
+                count++;
+                i += dlen - 1;
+            }
+        }
+        String[] tokens = new String[count];
+        int t = 0;
+        int tokenStart = start;
+        for (int i = start; i <= end - dlen; i++) {
+            if (s.charAt(i) == d0 && (dlen == 1 || s.regionMatches(i, delimiter, 0, dlen))) {
+                tokens[t++] = s.substring(tokenStart, i);
+                i += dlen - 1;
+                tokenStart = i + 1;
+            }
+        }
+        tokens[t] = s.substring(tokenStart, end);
+        if (count == 1) {
+            return tokens;
+        }
+        int used = tokens.length;
+        while (used > 0 && tokens[used - 1].isEmpty()) {
+            used--;
+        }
+        return used == tokens.length ? tokens : Arrays.copyOf(tokens, used);
+    }
+
+    /**
+     * Parses an ISO 8601 time. The canonical yyyy-MM-ddTHH:mm:ss[.SSS]Z form is
+     * parsed directly and anything else is passed to a java.time formatter
+     *
+     * @param s time to be parsed
+     * @return parsed date
+     * @throws ParseException if the time is not a valid ISO 8601 time
+     */
+    public static Date parseIso8601(String s) throws ParseException {
+        try {
+            int len = s.length();
+            if ((len == 20 || len == 24) && s.charAt(len - 1) == 'Z'
+                    && s.charAt(4) == '-' && s.charAt(7) == '-' && s.charAt(10) == 'T'
+                    && s.charAt(13) == ':' && s.charAt(16) == ':' && (len == 20 || s.charAt(19) == '.')) {
+                int year = digits(s, 0, 4);
+                int month = digits(s, 5, 7);
+                int day = digits(s, 8, 10);
+                int hour = digits(s, 11, 13);
+                int minute = digits(s, 14, 16);
+                int second = digits(s, 17, 19);
+                int milli = len == 24 ? digits(s, 20, 23) : 0;
+                if (year >= 0 && month >= 0 && day >= 0 && hour >= 0 && hour < 24
+                        && minute >= 0 && minute < 60 && second >= 0 && second < 60 && milli >= 0) {
+                    long epochDay = LocalDate.of(year, month, day).toEpochDay();
+                    return new Date(epochDay * MILLISPERDAY + ((hour * 60L + minute) * 60L + second) * 1000L + milli);
+                }
+            }
+            return Date.from(OffsetDateTime.from(ISO8601.parse(s)).toInstant());
+        } catch (DateTimeException | ArithmeticException e) {
+            throw new ParseException("Invalid ISO 8601 time: " + s, 0);
+        }
+    }
+
+    /**
+     * @return the value of the decimal digits in the region or -1 if any
+     * character is not a digit
+     */
+    private static int digits(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -15,7 +15,11 @@
  */
 package org.medipi.concentrator.dataformat;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.medipi.concentrator.entities.Patient;
+import org.medipi.concentrator.exception.BadRequest400Exception;
+import org.medipi.concentrator.exception.UnprocessableEntity422Exception;
 import org.medipi.model.DevicesPayloadDO;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -61,4 +65,28 @@ public abstract class PatientUploadDataFormat {
      */
     @Transactional(rollbackFor = RuntimeException.class)
     public abstract Boolean process(DevicesPayloadDO content, Patient patient);
+
+    /**
+     * Method to process the uploads of a batch for the same patient in one
+     * transaction. An upload whose content is in error is reported without
+     * stopping the others being processed
+     *
+     * @param contents the decrypted contents of the uploads
+     * @param patient The patient class relating to the contents
+     * @return the exception for each content which could not be processed, in
+     * the order of the contents, or null for each content which was processed
+     */
+    @Transactional(rollbackFor = RuntimeException.class)
+    public List<RuntimeException> processAll(List<DevicesPayloadDO> contents, Patient patient) {
+        List<RuntimeException> results = new ArrayList<>();
+        for (DevicesPayloadDO content : contents) {
+            try {
+                process(content, patient);
+                results.add(null);
+            } catch (BadRequest400Exception | UnprocessableEntity422Exception e) {
+                results.add(e);
+            }
+        }
+        return results;
+    }
 }
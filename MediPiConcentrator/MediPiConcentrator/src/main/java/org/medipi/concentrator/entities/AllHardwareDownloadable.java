@@ -84,6 +84,11 @@ public class AllHardwareDownloadable implements Serializable {
     @Size(min = 1, max = 10000)
     @Column(name = "signature")
     private String signature;
+    // signature of the downloadable list entry made by the concentrator. Cleared
+    // by the DB when the signed columns change
+    @Size(max = 10000)
+    @Column(name = "download_signature")
+    private String downloadSignature;
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "downloadableUuid")
     private Collection<AllHardwareDownloaded> allHardwareDownloadedCollection;
 
@@ -151,6 +156,14 @@ public class AllHardwareDownloadable implements Serializable {
         this.signature = signature;
     }
 
+    public String getDownloadSignature() {
+        return downloadSignature;
+    }
+
+    public void setDownloadSignature(String downloadSignature) {
+        this.downloadSignature = downloadSignature;
+    }
+
     public Collection<AllHardwareDownloaded> getAllHardwareDownloadedCollection() {
         return allHardwareDownloadedCollection;
     }
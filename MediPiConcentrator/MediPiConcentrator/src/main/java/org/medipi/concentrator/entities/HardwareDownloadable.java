@@ -88,6 +88,11 @@ public class HardwareDownloadable implements Serializable {
     @Size(min = 1, max = 10000)
     @Column(name = "signature")
     private String signature;
+    // signature of the downloadable list entry made by the concentrator. Cleared
+    // by the DB when the signed columns change
+    @Size(max = 10000)
+    @Column(name = "download_signature")
+    private String downloadSignature;
     @JoinColumn(name = "hardware_name", referencedColumnName = "hardware_name")
     @ManyToOne(optional = false)
     private Hardware hardwareName;
@@ -164,6 +169,14 @@ public class HardwareDownloadable implements Serializable {
         this.signature = signature;
     }
 
+    public String getDownloadSignature() {
+        return downloadSignature;
+    }
+
+    public void setDownloadSignature(String downloadSignature) {
+        this.downloadSignature = downloadSignature;
+    }
+
     public Hardware getHardwareName() {
         return hardwareName;
     }
@@ -17,6 +17,7 @@ package org.medipi.concentrator.entities;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Date;
 import javax.persistence.Basic;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
@@ -26,6 +27,8 @@ import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 import javax.xml.bind.annotation.XmlRootElement;
@@ -41,7 +44,10 @@ import javax.xml.bind.annotation.XmlTransient;
 @XmlRootElement
 @NamedQueries({
     @NamedQuery(name = "PatientGroup.findAll", query = "SELECT p FROM PatientGroup p"),
-    @NamedQuery(name = "PatientGroup.findByPatientGroupUuid", query = "SELECT p FROM PatientGroup p WHERE p.patientGroupUuid = :patientGroupUuid")})
+    @NamedQuery(name = "PatientGroup.findByPatientGroupUuid", query = "SELECT p FROM PatientGroup p WHERE p.patientGroupUuid = :patientGroupUuid"),
+    @NamedQuery(name = "PatientGroup.updateDataSyncedTime", query = "UPDATE PatientGroup p SET p.dataSyncedTime = :dataSyncedTime WHERE p.patientGroupUuid = :patientGroupUuid AND (p.dataSyncedTime IS NULL OR p.dataSyncedTime < :dataSyncedTime)"),
+    @NamedQuery(name = "PatientGroup.countUnsyncedWithPatients", query = "SELECT COUNT(p) FROM PatientGroup p WHERE p.dataSyncedTime IS NULL AND EXISTS (SELECT q FROM Patient q WHERE q.patientGroupUuid = p)"),
+    @NamedQuery(name = "PatientGroup.findEarliestDataSyncedTime", query = "SELECT MIN(p.dataSyncedTime) FROM PatientGroup p WHERE EXISTS (SELECT q FROM Patient q WHERE q.patientGroupUuid = p)")})
 public class PatientGroup implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -56,6 +62,10 @@ public class PatientGroup implements Serializable {
     @Size(max = 100)
     @Column(name = "patient_group_name")
     private String patientGroupName;
+    // all the group's data downloaded before this time has been synchronised
+    @Column(name = "data_synced_time")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date dataSyncedTime;
 
 
     public PatientGroup() {
@@ -81,6 +91,15 @@ public class PatientGroup implements Serializable {
         this.patientGroupName = patientGroupName;
     }
     
+    @XmlTransient
+    public Date getDataSyncedTime() {
+        return dataSyncedTime;
+    }
+
+    public void setDataSyncedTime(Date dataSyncedTime) {
+        this.dataSyncedTime = dataSyncedTime;
+    }
+
     @XmlTransient
     public Collection<Patient> getPatientCollection() {
         return patientCollection;
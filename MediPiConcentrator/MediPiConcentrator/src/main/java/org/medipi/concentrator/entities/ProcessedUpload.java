@@ -0,0 +1,133 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.entities;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Entity Class to manage DB access for processed_upload
+ */
+@Entity
+@Table(name = "processed_upload")
+@XmlRootElement
+@NamedQueries({
+    @NamedQuery(name = "ProcessedUpload.findAll", query = "SELECT p FROM ProcessedUpload p"),
+    @NamedQuery(name = "ProcessedUpload.findByProcessedUuid", query = "SELECT p FROM ProcessedUpload p WHERE p.processedUuid = :processedUuid")})
+public class ProcessedUpload implements Serializable {
+
+    /**
+     * processed_type of an upload
+     */
+    public static final String UPLOAD = "U";
+
+    private static final long serialVersionUID = 1L;
+    @Id
+    @Basic(optional = false)
+    @NotNull
+    @Size(min = 1, max = 100)
+    @Column(name = "processed_uuid")
+    private String processedUuid;
+    @Basic(optional = false)
+    @NotNull
+    @Size(min = 1, max = 1)
+    @Column(name = "processed_type")
+    private String processedType;
+    @Basic(optional = false)
+    @NotNull
+    @Size(min = 1, max = 100)
+    @Column(name = "patient_uuid")
+    private String patientUuid;
+    @Column(name = "processed_time", insertable = false, updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date processedTime;
+
+    public ProcessedUpload() {
+    }
+
+    public ProcessedUpload(String processedUuid) {
+        this.processedUuid = processedUuid;
+    }
+
+    public String getProcessedUuid() {
+        return processedUuid;
+    }
+
+    public void setProcessedUuid(String processedUuid) {
+        this.processedUuid = processedUuid;
+    }
+
+    public String getProcessedType() {
+        return processedType;
+    }
+
+    public void setProcessedType(String processedType) {
+        this.processedType = processedType;
+    }
+
+    public String getPatientUuid() {
+        return patientUuid;
+    }
+
+    public void setPatientUuid(String patientUuid) {
+        this.patientUuid = patientUuid;
+    }
+
+    public Date getProcessedTime() {
+        return processedTime;
+    }
+
+    public void setProcessedTime(Date processedTime) {
+        this.processedTime = processedTime;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        hash += (processedUuid != null ? processedUuid.hashCode() : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof ProcessedUpload)) {
+            return false;
+        }
+        ProcessedUpload other = (ProcessedUpload) object;
+        if ((this.processedUuid == null && other.processedUuid != null) || (this.processedUuid != null && !this.processedUuid.equals(other.processedUuid))) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "org.medipi.concentrator.entities.ProcessedUpload[ processedUuid=" + processedUuid + " ]";
+    }
+
+}
@@ -39,7 +39,7 @@ import javax.validation.constraints.Size;
 @Table(name = "recording_device_attribute")
 @NamedQueries({
     //Added
-    @NamedQuery(name = "RecordingDeviceAttribute.findByTypeUnitsFormatAndAttributeName", query = "SELECT r FROM RecordingDeviceAttribute r WHERE r.attributeName = :attributeName AND r.attributeUnits = :units AND r.attributeType = :format AND r.typeId = :typeId"),
+    @NamedQuery(name = "RecordingDeviceAttribute.findByTypeUnitsFormatAndAttributeName", query = "SELECT r FROM RecordingDeviceAttribute r WHERE r.attributeName = :attributeName AND COALESCE(r.attributeUnits, '') = :units AND r.attributeType = :format AND r.typeId = :typeId"),
     //
     @NamedQuery(name = "RecordingDeviceAttribute.findAll", query = "SELECT r FROM RecordingDeviceAttribute r"),
     @NamedQuery(name = "RecordingDeviceAttribute.findByAttributeId", query = "SELECT r FROM RecordingDeviceAttribute r WHERE r.attributeId = :attributeId"),
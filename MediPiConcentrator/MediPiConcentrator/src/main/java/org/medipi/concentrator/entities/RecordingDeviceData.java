@@ -16,6 +16,7 @@
 package org.medipi.concentrator.entities;
 
 import java.io.Serializable;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.util.Date;
 import javax.persistence.Basic;
 import javax.persistence.Column;
@@ -44,9 +45,13 @@ import org.hibernate.annotations.GenerationTime;
 @NamedQueries({
     //Added
     @NamedQuery(name = "RecordingDeviceData.isAlreadyStored", query = "SELECT d FROM RecordingDeviceData d WHERE d.attributeId = :attributeId AND d.dataValue = :dataValue AND d.dataValueTime = :dataValueTime AND d.patientUuid = :patientUuid"),
+    @NamedQuery(name = "RecordingDeviceData.isAlreadyStoredNumeric", query = "SELECT d FROM RecordingDeviceData d WHERE d.attributeId = :attributeId AND d.dataValueNumeric = :dataValueNumeric AND d.dataValueTime = :dataValueTime AND d.patientUuid = :patientUuid"),
     @NamedQuery(name = "RecordingDeviceData.findBypatientUuidAfterDate", query = "SELECT d FROM RecordingDeviceData d, RecordingDeviceAttribute a, RecordingDeviceType t WHERE d.attributeId = a.attributeId AND a.typeId =t.typeId AND d.patientUuid.patientUuid = :patientUuid AND d.dataValueTime > :requestDate AND t.type = :type ORDER BY d.dataValueTime"),
     @NamedQuery(name = "RecordingDeviceData.findByTypeAttributeAndData", query = "SELECT d FROM RecordingDeviceData d, RecordingDeviceAttribute a, RecordingDeviceType t WHERE d.attributeId = a.attributeId AND a.typeId =t.typeId AND d.patientUuid.patientUuid = :patientUuid AND t.type = :type AND a.attributeName = :attributeName AND d.dataValueTime = :dataValueTime AND d.dataValue = :dataValue"),
+    // the downloaded time bounds allow the partitions outside them to be pruned
+    @NamedQuery(name = "RecordingDeviceData.findStoredInPeriod", query = "SELECT d FROM RecordingDeviceData d WHERE d.patientUuid = :patientUuid AND d.attributeId IN :attributeIds AND d.dataValueTime >= :startTime AND d.dataValueTime <= :endTime AND d.downloadedTime >= :downloadedFrom"),
     @NamedQuery(name = "RecordingDeviceData.findByPatientAndDownloadedTime", query = "SELECT d FROM RecordingDeviceData d, Patient p WHERE d.patientUuid.patientUuid = p.patientUuid AND p.patientUuid = :patientUuid AND d.downloadedTime > :downloadedTime AND d.downloadedTime<= :endTime"),
+    @NamedQuery(name = "RecordingDeviceData.findByPatientGroupAfterCursor", query = "SELECT d FROM RecordingDeviceData d JOIN FETCH d.patientUuid p JOIN FETCH d.attributeId a JOIN FETCH a.typeId WHERE p.patientGroupUuid.patientGroupUuid = :patientGroupUuid AND d.downloadedTime >= :downloadedTime AND (d.downloadedTime > :downloadedTime OR (d.downloadedTime = :downloadedTime AND d.dataId > :dataId)) AND d.downloadedTime <= :endTime ORDER BY d.downloadedTime, d.dataId"),
     //
     @NamedQuery(name = "RecordingDeviceData.findAll", query = "SELECT d FROM RecordingDeviceData d"),
     @NamedQuery(name = "RecordingDeviceData.findByDataId", query = "SELECT d FROM RecordingDeviceData d WHERE d.dataId = :dataId"),
@@ -73,6 +78,12 @@ public class RecordingDeviceData implements Serializable {
     @Size(min = 1, max = 1000)
     @Column(name = "data_value")
     private String dataValue;
+    // typed forms of the data value, derived when it is stored
+    @Column(name = "data_value_numeric")
+    private Double dataValueNumeric;
+    @Size(max = 100)
+    @Column(name = "data_value_text")
+    private String dataValueText;
     @Basic(optional = false)
     @NotNull
     @Column(name = "data_value_time")
@@ -123,6 +134,24 @@ public class RecordingDeviceData implements Serializable {
         this.dataValue = dataValue;
     }
 
+    @JsonIgnore
+    public Double getDataValueNumeric() {
+        return dataValueNumeric;
+    }
+
+    public void setDataValueNumeric(Double dataValueNumeric) {
+        this.dataValueNumeric = dataValueNumeric;
+    }
+
+    @JsonIgnore
+    public String getDataValueText() {
+        return dataValueText;
+    }
+
+    public void setDataValueText(String dataValueText) {
+        this.dataValueText = dataValueText;
+    }
+
     public Date getDataValueTime() {
         return dataValueTime;
     }
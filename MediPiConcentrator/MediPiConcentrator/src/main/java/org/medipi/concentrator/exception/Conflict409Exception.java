@@ -0,0 +1,38 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception for throwing Conflict
+ */
+@ResponseStatus(value = HttpStatus.CONFLICT)
+public class Conflict409Exception extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Method to call Exception for throwing Conflict
+     *
+     * @param message
+     */
+    public Conflict409Exception(String message) {
+        super(message);
+    }
+
+}
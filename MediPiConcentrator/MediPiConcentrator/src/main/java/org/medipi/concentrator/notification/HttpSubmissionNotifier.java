@@ -0,0 +1,103 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.notification;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Notifier which POSTs directly to an HTTP endpoint without starting an
+ * external process.
+ *
+ * Configured using the properties:
+ *
+ * medipi.concentrator.notifier.[classtoken].url - endpoint to POST to
+ *
+ * medipi.concentrator.notifier.[classtoken].body - body template in which
+ * __PATIENT_UUID__ is replaced by the patient uuid
+ *
+ * medipi.concentrator.notifier.[classtoken].contenttype - optional, defaults to
+ * application/json
+ *
+ * Any response other than 2xx is a failure
+ */
+public class HttpSubmissionNotifier extends SubmissionNotifier {
+
+    private static final String NOTIFIERSTEM = "medipi.concentrator.notifier.";
+
+    private URL url;
+    private String body;
+    private String contentType;
+    private int timeout;
+
+    @Override
+    public String init(Properties properties, int timeout) {
+        String u = properties.getProperty(NOTIFIERSTEM + getClassToken() + ".url");
+        if (u == null || u.trim().length() == 0) {
+            return NOTIFIERSTEM + getClassToken() + ".url is not set";
+        }
+        try {
+            url = new URL(u.trim());
+        } catch (Exception e) {
+            return NOTIFIERSTEM + getClassToken() + ".url is not a valid URL: " + e.getLocalizedMessage();
+        }
+        body = properties.getProperty(NOTIFIERSTEM + getClassToken() + ".body");
+        if (body == null || body.trim().length() == 0) {
+            return NOTIFIERSTEM + getClassToken() + ".body is not set";
+        }
+        contentType = properties.getProperty(NOTIFIERSTEM + getClassToken() + ".contenttype");
+        if (contentType == null || contentType.trim().length() == 0) {
+            contentType = "application/json";
+        }
+        this.timeout = timeout;
+        return null;
+    }
+
+    @Override
+    public void sendNotification(String patientUuid) throws Exception {
+        byte[] content = body.replace(PATIENTUUIDTOKEN, patientUuid).getBytes(StandardCharsets.UTF_8);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", contentType);
+        connection.setFixedLengthStreamingMode(content.length);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(content);
+        }
+        int status = connection.getResponseCode();
+        // read the whole response so that the keep-alive connection can be reused
+        InputStream is = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (is != null) {
+            try {
+                byte[] buffer = new byte[1024];
+                while (is.read(buffer) != -1) {
+                    // discard
+                }
+            } finally {
+                is.close();
+            }
+        }
+        if (status < 200 || status >= 300) {
+            throw new Exception("Notification endpoint returned HTTP status " + status);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.notification;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notifier which runs the configured
+ * medipi.concentrator.successfullyprocessedsubmissionscript command with
+ * __PATIENT_UUID__ replaced by the patient uuid. A non zero exit code or a
+ * command which runs for longer than the timeout is a failure
+ */
+public class ScriptSubmissionNotifier extends SubmissionNotifier {
+
+    /**
+     * Property holding the script to be run
+     */
+    public static final String SUCCESSFULLYPROCESSEDSUBMISSIONSCRIPT = "medipi.concentrator.successfullyprocessedsubmissionscript";
+
+    private String script;
+    private int timeout;
+
+    @Override
+    public String init(Properties properties, int timeout) {
+        script = properties.getProperty(SUCCESSFULLYPROCESSEDSUBMISSIONSCRIPT);
+        if (script == null || script.trim().length() == 0) {
+            return SUCCESSFULLYPROCESSEDSUBMISSIONSCRIPT + " is not set";
+        }
+        this.timeout = timeout;
+        return null;
+    }
+
+    @Override
+    public void sendNotification(String patientUuid) throws Exception {
+        // split the command in the same way as Runtime.exec(String)
+        List<String> command = new ArrayList<>();
+        StringTokenizer st = new StringTokenizer(script.replace(PATIENTUUIDTOKEN, patientUuid));
+        while (st.hasMoreTokens()) {
+            command.add(st.nextToken());
+        }
+        // discard the output so that a chatty command cannot block on a full pipe
+        File discard = new File(System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null");
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(discard))
+                .start();
+        if (!process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+            process.destroyForcibly();
+            throw new Exception("Script did not complete within " + timeout + "ms");
+        }
+        if (process.exitValue() != 0) {
+            throw new Exception("Script returned exit code " + process.exitValue());
+        }
+    }
+}
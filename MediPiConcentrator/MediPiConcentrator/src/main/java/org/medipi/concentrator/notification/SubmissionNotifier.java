@@ -0,0 +1,72 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.notification;
+
+import java.util.Properties;
+
+/**
+ * Abstract class to give a common interface for all notifiers which are told
+ * when a patient submission has been successfully processed and committed.
+ *
+ * Notifiers are called from the SubmissionNotificationService worker threads
+ * and never from the thread processing the upload
+ */
+public abstract class SubmissionNotifier {
+
+    /**
+     * Token used in configured templates which is replaced by the patient
+     * uuid
+     */
+    public static final String PATIENTUUIDTOKEN = "__PATIENT_UUID__";
+
+    private String classToken;
+
+    /**
+     * Sets the classtoken from the properties file.
+     *
+     * This is used to find further properties specific to the notifier
+     * instance
+     *
+     * @param classToken
+     */
+    public void setClassToken(String classToken) {
+        this.classToken = classToken;
+    }
+
+    public String getClassToken() {
+        return classToken;
+    }
+
+    /**
+     * Initialising the class
+     *
+     * @param properties concentrator properties
+     * @param timeout maximum time in milliseconds a single notification may
+     * take
+     * @return a string representation of any failures that have occurred during
+     * initialisation
+     */
+    public abstract String init(Properties properties, int timeout);
+
+    /**
+     * Sends the notification for a patient. Any exception is treated as a
+     * failure and the notification will be retried
+     *
+     * @param patientUuid uuid of the patient who has submitted data
+     * @throws Exception if the notification could not be delivered
+     */
+    public abstract void sendNotification(String patientUuid) throws Exception;
+}
@@ -0,0 +1,37 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.notification;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Factory class to create the notifiers told about successfully processed
+ * submissions
+ */
+@Component
+public class SubmissionNotifierFactory {
+
+    public SubmissionNotifier getNotifierClass(String notifierClass) throws Exception {
+        SubmissionNotifier notifier = null;
+        if (notifierClass.equals("org.medipi.concentrator.notification.ScriptSubmissionNotifier")) {
+            notifier = new ScriptSubmissionNotifier();
+        } else if (notifierClass.equals("org.medipi.concentrator.notification.HttpSubmissionNotifier")) {
+            notifier = new HttpSubmissionNotifier();
+        }
+        return notifier;
+    }
+
+}
@@ -0,0 +1,325 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.services;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.PreDestroy;
+import org.medipi.concentrator.dao.PatientGroupDAOImpl;
+import org.medipi.concentrator.dao.RecordingDeviceDataDAOImpl;
+import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.utilities.Utilities;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Service class to manage the monthly partitions of recording_device_data.
+ *
+ * The concentrator is a relay and data which every patient group has
+ * synchronised is rarely read again. On a fixed period this service creates
+ * the partitions for the coming months and archives each month which is older
+ * than the retention period and which every patient group has acknowledged
+ * receiving through the requestdata synced interface.
+ * A month is archived by writing its data to a gzipped CSV file in the archive
+ * directory, syncing the file and the directory to disk and then detaching and
+ * dropping its partition, so the size of the live table and the time taken
+ * to vacuum it do not grow as the deployment ages.
+ *
+ * Nothing is done if the table has not been partitioned. Partitions are only
+ * archived when an archive directory is configured. Uploads are not checked
+ * against archived data, so readings which a patient unit sends again after
+ * their month has been archived are stored and synchronised a second time
+ */
+@Service
+public class DataRetentionService {
+
+    private static final String ARCHIVEDIRECTORY = "medipi.concentrator.data.archive.directory";
+    private static final String RETENTIONMONTHS = "medipi.concentrator.data.retention.months";
+    private static final String MONTHSAHEAD = "medipi.concentrator.data.partition.monthsahead";
+    private static final String PERIOD = "medipi.concentrator.data.retention.period";
+    private static final String PARTITIONPREFIX = "recording_device_data_";
+
+    @Autowired
+    private MediPiLogger logger;
+
+    @Autowired
+    private Utilities utils;
+
+    @Autowired
+    private RecordingDeviceDataDAOImpl recordingDeviceDataDAOImpl;
+
+    @Autowired
+    private PatientGroupDAOImpl patientGroupDAOImpl;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ScheduledExecutorService scheduler;
+    private File archiveDirectory;
+    private int retentionMonths;
+    private int monthsAhead;
+
+    /**
+     * Reads the retention properties and starts the job. Called once at
+     * startup after the properties have been loaded
+     *
+     * @return a string representation of any failures that have occurred during
+     * initialisation
+     */
+    public String init() {
+        Properties properties = utils.getProperties();
+        retentionMonths = getIntProperty(properties, RETENTIONMONTHS, 2);
+        monthsAhead = getIntProperty(properties, MONTHSAHEAD, 2);
+        long period = getIntProperty(properties, PERIOD, 86400000);
+        String directory = properties.getProperty(ARCHIVEDIRECTORY);
+        if (directory != null && directory.trim().length() != 0) {
+            archiveDirectory = new File(directory.trim());
+            if (!archiveDirectory.isDirectory()) {
+                return ARCHIVEDIRECTORY + " is not a directory: " + directory;
+            }
+        }
+        boolean partitioned;
+        try {
+            partitioned = recordingDeviceDataDAOImpl.isPartitioned();
+        } catch (Exception e) {
+            return "Unable to read the recording_device_data table definition: " + e.getLocalizedMessage();
+        }
+        if (!partitioned) {
+            logger.log(DataRetentionService.class.getName() + ".info", "recording_device_data is not partitioned - data retention is not running");
+            return null;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "medipi-data-retention");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    maintainPartitions();
+                } catch (Exception e) {
+                    logger.log(DataRetentionService.class.getName() + ".error", "Data retention failed: " + e.getLocalizedMessage());
+                    System.out.println("Data retention failed: " + e.getLocalizedMessage());
+                }
+            }
+        }, 0, period, TimeUnit.MILLISECONDS);
+        logger.log(DataRetentionService.class.getName() + ".info", "Data retention started keeping " + retentionMonths + " months" + (archiveDirectory == null ? " without archiving" : " and archiving to " + archiveDirectory));
+        return null;
+    }
+
+    /**
+     * Stops the job
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates the partitions for this month and the coming months and archives
+     * every partition which has been synchronised and is older than the
+     * retention period
+     */
+    public void maintainPartitions() {
+        final Calendar month = startOfMonth(new Date());
+        for (int i = 0; i <= monthsAhead; i++) {
+            final Date monthStart = month.getTime();
+            new TransactionTemplate(transactionManager).execute(new TransactionCallback<String>() {
+                @Override
+                public String doInTransaction(TransactionStatus status) {
+                    return recordingDeviceDataDAOImpl.createPartition(monthStart);
+                }
+            });
+            month.add(Calendar.MONTH, 1);
+        }
+        if (archiveDirectory == null) {
+            return;
+        }
+
+        Date syncedTime = patientGroupDAOImpl.findEarliestDataSyncedTime();
+        if (syncedTime == null) {
+            return;
+        }
+        Calendar retained = startOfMonth(new Date());
+        retained.add(Calendar.MONTH, -retentionMonths);
+        for (String partitionName : recordingDeviceDataDAOImpl.findPartitions()) {
+            Date partitionStart = partitionStart(partitionName);
+            if (partitionStart == null) {
+                // the default partition is never archived
+                continue;
+            }
+            Calendar partitionEnd = startOfMonth(partitionStart);
+            partitionEnd.add(Calendar.MONTH, 1);
+            if (partitionEnd.getTime().after(retained.getTime()) || partitionEnd.getTime().after(syncedTime)) {
+                continue;
+            }
+            archive(partitionName);
+        }
+    }
+
+    // writes the partition to a file and only drops it once the file is on disk
+    private void archive(final String partitionName) {
+        final File archive = new File(archiveDirectory, partitionName + ".csv.gz");
+        final File partial = new File(archiveDirectory, partitionName + ".csv.gz.part");
+        final long[] rows = new long[1];
+        try (FileOutputStream file = new FileOutputStream(partial);
+                GZIPOutputStream gzip = new GZIPOutputStream(file);
+                Writer out = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8))) {
+            out.write(RecordingDeviceDataDAOImpl.PARTITIONCOLUMNS.replace(" ", ""));
+            out.write('\n');
+            // rows are streamed which needs a transaction
+            final TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+            readOnly.setReadOnly(true);
+            readOnly.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    recordingDeviceDataDAOImpl.readPartition(partitionName, new RowCallbackHandler() {
+                        @Override
+                        public void processRow(ResultSet rs) throws SQLException {
+                            try {
+                                writeRow(out, rs);
+                            } catch (IOException e) {
+                                throw new SQLException("Unable to write to " + partial, e);
+                            }
+                            rows[0]++;
+                        }
+                    });
+                }
+            });
+            out.flush();
+            gzip.finish();
+            file.getFD().sync();
+        } catch (Exception e) {
+            partial.delete();
+            logger.log(DataRetentionService.class.getName() + ".error", "Unable to archive " + partitionName + ": " + e.getLocalizedMessage());
+            System.out.println("Unable to archive " + partitionName + ": " + e.getLocalizedMessage());
+            return;
+        }
+        try {
+            Files.move(partial.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // the rename is only durable once the directory has been written
+            try (FileChannel directory = FileChannel.open(archiveDirectory.toPath(), StandardOpenOption.READ)) {
+                directory.force(true);
+            }
+        } catch (IOException e) {
+            logger.log(DataRetentionService.class.getName() + ".error", "Unable to archive " + partitionName + ": " + e.getLocalizedMessage());
+            System.out.println("Unable to archive " + partitionName + ": " + e.getLocalizedMessage());
+            return;
+        }
+        new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                recordingDeviceDataDAOImpl.dropPartition(partitionName);
+            }
+        });
+        logger.log(DataRetentionService.class.getName() + ".info", rows[0] + " rows of data archived to " + archive + " and partition " + partitionName + " dropped");
+        System.out.println(rows[0] + " rows of data archived to " + archive + " and partition " + partitionName + " dropped");
+    }
+
+    private static void writeRow(Writer out, ResultSet rs) throws SQLException, IOException {
+        int columns = rs.getMetaData().getColumnCount();
+        for (int i = 1; i <= columns; i++) {
+            if (i > 1) {
+                out.write(',');
+            }
+            Object value = rs.getObject(i);
+            if (value instanceof Timestamp) {
+                // epoch millis so that the archive does not depend on the time zone
+                out.write(String.valueOf(((Timestamp) value).getTime()));
+            } else if (value != null) {
+                out.write(csv(value.toString()));
+            }
+        }
+        out.write('\n');
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    // start of the month of a recording_device_data_YYYYMM partition or null
+    private static Date partitionStart(String partitionName) {
+        if (!partitionName.matches(PARTITIONPREFIX + "[0-9]{6}")) {
+            return null;
+        }
+        try {
+            return new SimpleDateFormat("yyyyMM").parse(partitionName.substring(PARTITIONPREFIX.length()));
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private static Calendar startOfMonth(Date date) {
+        Calendar c = Calendar.getInstance();
+        c.setTime(date);
+        c.set(Calendar.DAY_OF_MONTH, 1);
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+        c.set(Calendar.MILLISECOND, 0);
+        return c;
+    }
+
+    private int getIntProperty(Properties properties, String name, int defaultValue) {
+        String s = properties.getProperty(name);
+        if (s == null || s.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException numberFormatException) {
+            logger.log(DataRetentionService.class.getName() + ".error", "Error - Cant read " + name + " from the properties file: " + numberFormatException.getLocalizedMessage());
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.services;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.medipi.concentrator.dao.HardwareDownloadableDAOImpl;
+import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.utilities.Utilities;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+/**
+ * Service class which wakes the requests for downloadable lists when hardware
+ * downloadables are added to the DB.
+ *
+ * Hardware and all hardware downloadables are inserted directly into the DB
+ * and the triggers added by DB update 008 record each one in
+ * downloadable_change. On a short period this service reads the changes
+ * recorded since it last looked and changes the version of each hardware's
+ * downloadable list, or of the all hardware list, so that the requests held
+ * waiting for them are answered and the ETags held by the patient units are
+ * no longer current.
+ *
+ * A change can commit after one with a higher change_id has been read, so
+ * the recent changes are read again each time and those already seen are
+ * skipped
+ */
+@Service
+public class DownloadableChangeService {
+
+    private static final String PERIOD = "medipi.concentrator.download.changeperiod";
+    // age of the changes which are read again in case they committed late
+    private static final int RECENTSECONDS = 60;
+    // changes are removed from the DB once they are a day old
+    private static final long RETENTION = 86400000;
+    private static final long PURGEPERIOD = 3600000;
+
+    @Autowired
+    private MediPiLogger logger;
+
+    @Autowired
+    private Utilities utils;
+
+    @Autowired
+    private HardwareDownloadableDAOImpl hardwareDownloadableDAOImpl;
+
+    @Autowired
+    private DownloadableVersionService downloadableVersionService;
+
+    private ScheduledExecutorService scheduler;
+    // only used by the scheduler thread
+    private final HashMap<Long, Long> seen = new HashMap<>();
+    private long startChangeId;
+    private long lastChangeId;
+    private long lastPurge;
+
+    /**
+     * Reads the last change recorded and starts the job. Called once at
+     * startup after the properties have been loaded
+     *
+     * @return a string representation of any failures that have occurred during
+     * initialisation
+     */
+    public String init() {
+        Properties properties = utils.getProperties();
+        long period = 5000;
+        String s = properties.getProperty(PERIOD);
+        if (s != null && s.trim().length() != 0) {
+            try {
+                period = Long.parseLong(s.trim());
+            } catch (NumberFormatException e) {
+                return "Cant read " + PERIOD + " from the properties file: " + e.getLocalizedMessage();
+            }
+        }
+        if (period <= 0) {
+            return PERIOD + " must be greater than 0";
+        }
+        try {
+            // changes made before startup are already in the lists read from the DB
+            startChangeId = hardwareDownloadableDAOImpl.getLastChangeId();
+        } catch (Exception e) {
+            return "Unable to read the downloadable_change table (has DB update 008 been applied?): " + e.getLocalizedMessage();
+        }
+        lastChangeId = startChangeId;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "medipi-downloadable-change");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    readChanges();
+                } catch (Exception e) {
+                    logger.log(DownloadableChangeService.class.getName() + ".error", "Reading the downloadable changes failed: " + e.getLocalizedMessage());
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        logger.log(DownloadableChangeService.class.getName() + ".info", "Hardware downloadable changes are read every " + period + "ms");
+        return null;
+    }
+
+    /**
+     * Stops the job
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the changes recorded since the last read and changes the versions
+     * of the downloadable lists they belong to
+     */
+    public void readChanges() {
+        final long now = System.currentTimeMillis();
+        final Set<String> hardwareNames = new HashSet<>();
+        final boolean[] allHardware = {false};
+        hardwareDownloadableDAOImpl.readChangesAfter(lastChangeId, RECENTSECONDS, new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                long changeId = rs.getLong(1);
+                if (changeId <= startChangeId || seen.put(changeId, now) != null) {
+                    return;
+                }
+                lastChangeId = Math.max(lastChangeId, changeId);
+                String hardwareName = rs.getString(2);
+                if (hardwareName == null) {
+                    allHardware[0] = true;
+                } else {
+                    hardwareNames.add(hardwareName);
+                }
+            }
+        });
+        for (String hardwareName : hardwareNames) {
+            downloadableVersionService.hardwareChanged(hardwareName);
+        }
+        if (allHardware[0]) {
+            downloadableVersionService.allHardwareChanged();
+        }
+        seen.values().removeIf(time -> now - time > RECENTSECONDS * 2000L);
+        if (now - lastPurge > PURGEPERIOD) {
+            hardwareDownloadableDAOImpl.deleteChangesBefore(new Date(now - RETENTION));
+            lastPurge = now;
+        }
+    }
+}
@@ -36,6 +36,7 @@ import org.medipi.concentrator.logging.MediPiLogger;
 import org.medipi.concentrator.model.DownloadableDO;
 import org.medipi.concentrator.utilities.Utilities;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -55,6 +56,10 @@ import org.springframework.transaction.annotation.Transactional;
  * The "all hardware" updates are global updates intended for all the MediPi
  * Patient devices connected to the concentrator
  *
+ * The list is returned with an ETag from the DownloadableVersionService so
+ * that an unchanged list can be answered with 304 Not Modified. The hardware
+ * downloadable signatures are made once and stored with the downloadable
+ *
  * @author rick@robinsonhq.com
  */
 @Service
@@ -78,6 +83,9 @@ public class DownloadableListService {
     @Autowired
     private PatientDeviceValidationService patientDeviceValidationService;
 
+    @Autowired
+    private DownloadableVersionService downloadableVersionService;
+
     @Autowired
     private MapperFacade mapperFacade;
 
@@ -90,6 +98,9 @@ public class DownloadableListService {
      */
     @Transactional(rollbackFor = RuntimeException.class)
     public ResponseEntity<List<DownloadableDO>> getDownloadableList(String hardware_name, String patientUuid) {
+        // read before the lists so that a change made while they are being read
+        // is seen on the next poll
+        String eTag = downloadableVersionService.getETag(hardware_name, patientUuid);
         ResponseEntity<?> r = null;
         try {
             // Check that the device and patient are registered with each other
@@ -101,8 +112,11 @@ public class DownloadableListService {
         try {
             if (r != null) {
                 if (r.getStatusCode() == HttpStatus.ACCEPTED || r.getStatusCode() == HttpStatus.OK) {
+                    downloadableVersionService.setValidated(hardware_name, patientUuid);
                     // get patient_downloadable entities first
                     List<DownloadableDO> dList = new ArrayList<>();
+                    // One signing adapter is initialised per list rather than per downloadable
+                    UploadEncryptionAdapter signingAdapter = null;
 
                     // CHECK FOR PATIENT DOWNLOADS
                     List<PatientDownloadable> pdList = patientDownloadableDAOImpl.getPatientDownloads(patientUuid);
@@ -129,7 +143,13 @@ public class DownloadableListService {
                             // Add HATEOAS return path for getting the data from each reference  
                             d.add(linkTo(methodOn(DownloadServiceController.class).getHardwareDownloadable(hd.getDownloadableUuid())).withRel("next"));
 
-                            d.setSignature(createSignature(d));
+                            if (hd.getDownloadSignature() == null) {
+                                if (signingAdapter == null) {
+                                    signingAdapter = createSigningAdapter();
+                                }
+                                hd.setDownloadSignature(createSignature(signingAdapter, d));
+                            }
+                            d.setSignature(hd.getDownloadSignature());
                             dList.add(d);
                         }
                     }
@@ -144,12 +164,20 @@ public class DownloadableListService {
                             d.setDownloadType("HARDWAREUPDATE");
                             // Add HATEOAS return path for getting the data from each reference  
                             d.add(linkTo(methodOn(DownloadServiceController.class).getAllHardwareDownloadable(ahd.getDownloadableUuid(), hardware_name)).withRel("next"));
-                            d.setSignature(createSignature(d));
+                            if (ahd.getDownloadSignature() == null) {
+                                if (signingAdapter == null) {
+                                    signingAdapter = createSigningAdapter();
+                                }
+                                ahd.setDownloadSignature(createSignature(signingAdapter, d));
+                            }
+                            d.setSignature(ahd.getDownloadSignature());
                             dList.add(d);
                         }
                     }
                     
-                    return new ResponseEntity<>(dList, HttpStatus.OK);
+                    HttpHeaders headers = new HttpHeaders();
+                    headers.setETag(eTag);
+                    return new ResponseEntity<>(dList, headers, HttpStatus.OK);
                 }
 
             }
@@ -161,7 +189,7 @@ public class DownloadableListService {
         throw new InternalServerError500Exception("Internal Server Error");
     }
 
-    private String createSignature(DownloadableDO d) throws NoSuchAlgorithmException, Exception {
+    private UploadEncryptionAdapter createSigningAdapter() throws Exception {
         // THIS MAY NOT BE A PERMANENT SOLUTION FOR THE HARDWARE DOWNLOADABLES and may be done from a UI 
         UploadEncryptionAdapter uploadEncryptionAdapter = new UploadEncryptionAdapter();
         CertificateDefinitions cd;
@@ -170,6 +198,10 @@ public class DownloadableListService {
         if (error != null) {
             throw new Exception("Signing initailisation failed - " + error);
         }
+        return uploadEncryptionAdapter;
+    }
+
+    private String createSignature(UploadEncryptionAdapter uploadEncryptionAdapter, DownloadableDO d) throws NoSuchAlgorithmException, Exception {
         StringBuilder digestSubject = new StringBuilder();
         digestSubject.append(d.getDownloadType())
                 .append(d.getDownloadableUuid())
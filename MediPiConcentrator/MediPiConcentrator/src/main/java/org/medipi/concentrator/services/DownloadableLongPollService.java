@@ -0,0 +1,199 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.services;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PreDestroy;
+import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.model.DownloadableDO;
+import org.medipi.concentrator.utilities.Utilities;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+
+/**
+ * Service class to hold a MediPi Patient unit's request for its downloadable
+ * list until the list changes.
+ *
+ * The unit sends the ETag of the list it last received and the number of
+ * seconds it is willing to wait as an RFC 7240 Prefer header e.g.
+ * "Prefer: wait=60". If the ETag is still current the request is
+ * parked without a thread or a DB connection until a patient message is added
+ * for the patient, an update for the hardware is acknowledged or the wait
+ * expires. A change is answered with the new list, which is read on one of a
+ * small pool of threads, and an expired wait with 304 Not Modified. The unit
+ * can therefore keep a single request outstanding and receive alerts as soon
+ * as they arrive rather than on its next poll
+ */
+@Service
+public class DownloadableLongPollService {
+
+    private static final String MAXWAIT = "medipi.concentrator.download.longpoll.maxwait";
+    private static final String THREADS = "medipi.concentrator.download.longpoll.threads";
+
+    @Autowired
+    private MediPiLogger logger;
+
+    @Autowired
+    private Utilities utils;
+
+    @Autowired
+    private DownloadableVersionService downloadableVersionService;
+
+    @Autowired
+    private DownloadableListService downloadableListService;
+
+    private ExecutorService executor;
+    private int maxWait = 60;
+
+    /**
+     * Reads the long poll properties and starts the threads which read the
+     * lists of woken requests. Called once at startup after the properties
+     * have been loaded
+     *
+     * @return a string representation of any failures that have occurred during
+     * initialisation
+     */
+    public String init() {
+        Properties properties = utils.getProperties();
+        int threads;
+        try {
+            maxWait = getIntProperty(properties, MAXWAIT, 60);
+            threads = getIntProperty(properties, THREADS, 2);
+        } catch (NumberFormatException e) {
+            return e.getLocalizedMessage();
+        }
+        if (threads < 1) {
+            return THREADS + " must be at least 1";
+        }
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "medipi-download-longpoll");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        logger.log(DownloadableLongPollService.class.getName() + ".info", "Downloadable list requests are held for up to " + maxWait + "s");
+        return null;
+    }
+
+    /**
+     * Stops the threads
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the downloadable list once it differs from the one the unit holds
+     *
+     * @param hardwareName incoming deviceId parameter from RESTful message
+     * @param patientUuid incoming patientUuid parameter from RESTful message
+     * @param ifNoneMatch ETag of the list the unit holds or null
+     * @param prefer Prefer header containing the number of seconds the unit
+     * will wait
+     * @return Downloadable list Response or 304 Not Modified when the wait
+     * expires
+     */
+    public DeferredResult<ResponseEntity<List<DownloadableDO>>> waitForDownloadableList(final String hardwareName, final String patientUuid, String ifNoneMatch, String prefer) {
+        long timeout = Math.min(getWait(prefer), maxWait) * 1000L;
+        ResponseEntity<List<DownloadableDO>> notModified = downloadableVersionService.getNotModified(hardwareName, patientUuid, ifNoneMatch);
+        if (notModified == null || timeout == 0 || executor == null) {
+            DeferredResult<ResponseEntity<List<DownloadableDO>>> result = new DeferredResult<>();
+            result.setResult(notModified != null ? notModified : downloadableListService.getDownloadableList(hardwareName, patientUuid));
+            return result;
+        }
+        final DeferredResult<ResponseEntity<List<DownloadableDO>>> result = new DeferredResult<>(timeout, notModified);
+        // both the patient and the hardware version may change
+        final AtomicBoolean woken = new AtomicBoolean();
+        final Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                if (woken.compareAndSet(false, true)) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            readList(result, hardwareName, patientUuid);
+                        }
+                    });
+                }
+            }
+        };
+        downloadableVersionService.addListener(hardwareName, patientUuid, listener);
+        result.onCompletion(new Runnable() {
+            @Override
+            public void run() {
+                downloadableVersionService.removeListener(hardwareName, patientUuid, listener);
+            }
+        });
+        // the list may have changed before the listener was added
+        if (downloadableVersionService.getNotModified(hardwareName, patientUuid, ifNoneMatch) == null) {
+            listener.run();
+        }
+        return result;
+    }
+
+    // the wait preference in seconds or 0 if there is none
+    private static int getWait(String prefer) {
+        if (prefer == null) {
+            return 0;
+        }
+        for (String preference : prefer.split(",")) {
+            String[] nameValue = preference.trim().split("\\s*=\\s*", 2);
+            if (nameValue.length == 2 && nameValue[0].equalsIgnoreCase("wait")) {
+                try {
+                    return Math.max(Integer.parseInt(nameValue[1].trim()), 0);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private void readList(DeferredResult<ResponseEntity<List<DownloadableDO>>> result, String hardwareName, String patientUuid) {
+        if (result.isSetOrExpired()) {
+            return;
+        }
+        try {
+            result.setResult(downloadableListService.getDownloadableList(hardwareName, patientUuid));
+        } catch (RuntimeException e) {
+            result.setErrorResult(e);
+        }
+    }
+
+    private int getIntProperty(Properties properties, String name, int defaultValue) {
+        String s = properties.getProperty(name);
+        if (s == null || s.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException numberFormatException) {
+            throw new NumberFormatException("Cant read " + name + " from the properties file: " + numberFormatException.getLocalizedMessage());
+        }
+    }
+}
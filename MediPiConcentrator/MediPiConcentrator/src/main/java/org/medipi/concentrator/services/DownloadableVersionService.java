@@ -0,0 +1,268 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.services;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.model.DownloadableDO;
+import org.medipi.concentrator.utilities.Utilities;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Service class holding the change versions of the downloadable lists.
+ *
+ * A version is kept for each patient, which changes when a patient message is
+ * added or acknowledged, and for each hardware device, which changes when a
+ * hardware or all hardware update is acknowledged or a hardware downloadable
+ * is added to the DB, and for the all hardware list, which changes when an
+ * all hardware downloadable is added to the DB. The version of a downloadable
+ * list is made from these versions and is returned to the MediPi Patient unit
+ * as an ETag. When the unit sends the ETag back in If-None-Match and it is
+ * still current the list has not changed and is answered with 304 Not
+ * Modified without touching the DB.
+ *
+ * Versions are only held in memory. Each version includes the time the
+ * concentrator started so that the ETags issued before a restart are never
+ * current. Hardware downloadables inserted directly into the DB are seen by
+ * DownloadableChangeService. Registrations can be changed in the DB, so a
+ * device and patient pair is only answered from memory for a limited time
+ * after it was last validated and its lists read from the DB.
+ *
+ * Listeners can be added for a device and patient pair which are run when
+ * either version changes, which is used to wake long polls
+ */
+@Service
+public class DownloadableVersionService {
+
+    private static final String VALIDATIONPERIOD = "medipi.concentrator.download.validationperiod";
+    private static final String PATIENT = "p:";
+    private static final String HARDWARE = "h:";
+    private static final String ALLHARDWARE = "a:";
+
+    @Autowired
+    private MediPiLogger logger;
+
+    @Autowired
+    private Utilities utils;
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<>();
+    // time each device and patient pair was last validated
+    private final ConcurrentHashMap<String, Long> validated = new ConcurrentHashMap<>();
+    // listeners to be run when the version for the key changes
+    private final ConcurrentHashMap<String, Set<Runnable>> listeners = new ConcurrentHashMap<>();
+    private long validationPeriod = 600000;
+
+    /**
+     * Reads the validation period. Called once at startup after the properties
+     * have been loaded
+     *
+     * @return a string representation of any failures that have occurred during
+     * initialisation
+     */
+    public String init() {
+        Properties properties = utils.getProperties();
+        String s = properties.getProperty(VALIDATIONPERIOD);
+        if (s != null && s.trim().length() != 0) {
+            try {
+                validationPeriod = Long.parseLong(s.trim());
+            } catch (NumberFormatException e) {
+                return "Cant read " + VALIDATIONPERIOD + " from the properties file: " + e.getLocalizedMessage();
+            }
+        }
+        logger.log(DownloadableVersionService.class.getName() + ".info", "Downloadable lists are answered from memory for " + validationPeriod + "ms after validation");
+        return null;
+    }
+
+    /**
+     * The current version of the downloadable list for a device and patient.
+     * This should be read before the list is read from the DB
+     *
+     * @param hardwareName hardware name of the patient device
+     * @param patientUuid patient UUID
+     * @return quoted ETag
+     */
+    public String getETag(String hardwareName, String patientUuid) {
+        Long p = versions.get(PATIENT + patientUuid);
+        Long h = versions.get(HARDWARE + hardwareName);
+        Long a = versions.get(ALLHARDWARE);
+        return "\"" + epoch + "-" + (p == null ? 0 : p) + "-" + (h == null ? 0 : h) + "-" + (a == null ? 0 : a) + "\"";
+    }
+
+    /**
+     * Answers a request for the downloadable list from memory if the version
+     * the patient unit holds is current. This does not need a transaction
+     *
+     * @param hardwareName hardware name of the patient device
+     * @param patientUuid patient UUID
+     * @param ifNoneMatch If-None-Match header of the request or null
+     * @return 304 Not Modified response or null if the list must be read
+     */
+    public ResponseEntity<List<DownloadableDO>> getNotModified(String hardwareName, String patientUuid, String ifNoneMatch) {
+        if (ifNoneMatch == null || !isValidated(hardwareName, patientUuid)) {
+            return null;
+        }
+        String eTag = getETag(hardwareName, patientUuid);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(eTag) || tag.equals("*")) {
+                HttpHeaders headers = new HttpHeaders();
+                headers.setETag(eTag);
+                return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the device and patient have been validated within the validation
+     * period
+     *
+     * @param hardwareName hardware name of the patient device
+     * @param patientUuid patient UUID
+     * @return true if the pair may be answered from memory
+     */
+    public boolean isValidated(String hardwareName, String patientUuid) {
+        Long time = validated.get(hardwareName + "|" + patientUuid);
+        return time != null && System.currentTimeMillis() - time < validationPeriod;
+    }
+
+    /**
+     * Records that the device and patient have been validated as registered
+     * with each other
+     *
+     * @param hardwareName hardware name of the patient device
+     * @param patientUuid patient UUID
+     */
+    public void setValidated(String hardwareName, String patientUuid) {
+        validated.put(hardwareName + "|" + patientUuid, System.currentTimeMillis());
+    }
+
+    /**
+     * Changes the version of the patient's downloadable list once the current
+     * transaction has committed
+     *
+     * @param patientUuid patient UUID
+     */
+    public void patientChanged(String patientUuid) {
+        changed(PATIENT + patientUuid);
+    }
+
+    /**
+     * Changes the version of the hardware's downloadable list once the current
+     * transaction has committed
+     *
+     * @param hardwareName hardware name of the patient device
+     */
+    public void hardwareChanged(String hardwareName) {
+        changed(HARDWARE + hardwareName);
+    }
+
+    /**
+     * Changes the version of every downloadable list once the current
+     * transaction has committed, as the all hardware list is part of each
+     */
+    public void allHardwareChanged() {
+        changed(ALLHARDWARE);
+    }
+
+    /**
+     * Adds a listener which is run when the version of the patient's, the
+     * hardware's or the all hardware downloadable list changes. The listener
+     * is run on the thread which made the change and so must not block
+     *
+     * @param hardwareName hardware name of the patient device
+     * @param patientUuid patient UUID
+     * @param listener listener to be run
+     */
+    public void addListener(String hardwareName, String patientUuid, Runnable listener) {
+        addListener(PATIENT + patientUuid, listener);
+        addListener(HARDWARE + hardwareName, listener);
+        addListener(ALLHARDWARE, listener);
+    }
+
+    /**
+     * Removes a listener added by addListener
+     *
+     * @param hardwareName hardware name of the patient device
+     * @param patientUuid patient UUID
+     * @param listener listener to be removed
+     */
+    public void removeListener(String hardwareName, String patientUuid, Runnable listener) {
+        removeListener(PATIENT + patientUuid, listener);
+        removeListener(HARDWARE + hardwareName, listener);
+        removeListener(ALLHARDWARE, listener);
+    }
+
+    private void addListener(String key, final Runnable listener) {
+        listeners.compute(key, (k, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            set.add(listener);
+            return set;
+        });
+    }
+
+    private void removeListener(String key, final Runnable listener) {
+        listeners.computeIfPresent(key, (k, set) -> {
+            set.remove(listener);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    // the version is changed after commit so that a list read before the
+    // change is visible is never given the new version
+    private void changed(final String key) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            increment(key);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                increment(key);
+            }
+        });
+    }
+
+    private void increment(String key) {
+        versions.merge(key, 1L, Long::sum);
+        Set<Runnable> set = listeners.get(key);
+        if (set == null) {
+            return;
+        }
+        for (Runnable listener : set) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                logger.log(DownloadableVersionService.class.getName() + ".error", "Downloadable list listener failed: " + e.getLocalizedMessage());
+            }
+        }
+    }
+}
@@ -75,6 +75,9 @@ public class HardwareDownloadableService {
     @Autowired
     private MapperFacade mapperFacade;
 
+    @Autowired
+    private DownloadableVersionService downloadableVersionService;
+
     /**
      * Method to enable download of hardware update file from Concentrator
      *
@@ -170,6 +173,7 @@ public class HardwareDownloadableService {
                 }
                 hd.setDownloadedDate(new Date());
                 hardwareDownloadableDAOImpl.update(hd);
+                downloadableVersionService.hardwareChanged(hd.getHardwareName().getHardwareName());
                 DownloadableDO d = this.mapperFacade.map(hd, DownloadableDO.class);
 
                 logger.log(HardwareDownloadableService.class.getName(), new Date().toString() + " Patient Downloadable item: " + downloadable_uuid + " acknowledged");
@@ -211,6 +215,7 @@ public class HardwareDownloadableService {
             ahd.setHardwareName(hardwareDAOImpl.findByPrimaryKey(hardwareName));
             ahd.setDownloadedDate(new Date());
             allHardwareDownloadedDAOImpl.save(ahd);
+            downloadableVersionService.hardwareChanged(hardwareName);
             DownloadableDO d = this.mapperFacade.map(ahde, DownloadableDO.class);
             d.setDownloadedDate(ahd.getDownloadedDate());
             logger.log(HardwareDownloadableService.class.getName(), new Date().toString() + " Patient Downloadable item: " + downloadable_uuid + " acknowledged");
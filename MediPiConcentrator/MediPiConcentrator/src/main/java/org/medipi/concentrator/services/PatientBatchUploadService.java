@@ -0,0 +1,338 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.PreDestroy;
+import javax.servlet.ServletContext;
+import org.medipi.concentrator.dataformat.PatientUploadDataFormat;
+import org.medipi.concentrator.entities.Patient;
+import org.medipi.concentrator.exception.BadRequest400Exception;
+import org.medipi.concentrator.exception.Conflict409Exception;
+import org.medipi.concentrator.exception.UnprocessableEntity422Exception;
+import org.medipi.concentrator.exception.UnsupportedMediaType415Exception;
+import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.utilities.Utilities;
+import org.medipi.model.DevicesPayloadCodec;
+import org.medipi.model.DevicesPayloadDO;
+import org.medipi.model.EncryptedAndSignedUploadDO;
+import org.medipi.model.UploadResultDO;
+import org.medipi.security.UploadEncryptionAdapter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Service class to process a batch of uploads sent together by a MediPi
+ * Patient unit, typically the outbox of a unit which has been out of contact.
+ *
+ * 1. checks once that the device and patient are registered with each other
+ * and that the Data-Format is supported. A failure here fails the whole batch
+ * as it would fail each upload. An unsupported Data-Format or codec is refused
+ * with a 415
+ *
+ * 2. answers the uploads which have already been processed from the processed
+ * upload ledger and decrypts and verifies the others in parallel on a bounded
+ * pool. An upload UUID which has been processed for a different patient is
+ * refused with a 409
+ *
+ * 3. claims the decrypted uploads in the ledger and passes them to the data
+ * format to be written in one transaction
+ *
+ * Each upload is answered with the HTTP status it would have been answered
+ * with had it been sent on its own: 422 for content which can never be
+ * processed and 400 for an upload which cannot be decrypted or verified. An
+ * upload UUID which appears more than once in the batch is only processed once
+ */
+@Service
+public class PatientBatchUploadService {
+
+    private static final String THREADS = "medipi.concentrator.upload.batch.threads";
+    private static final String MAXSIZE = "medipi.concentrator.upload.batch.maxsize";
+    private static final String ALREADYPROCESSED = "Already processed";
+    private static final String PROCESSEDFORANOTHERPATIENT = "Already processed for a different patient";
+    // marks an upload claimed by a concurrent request or another concentrator
+    private static final RuntimeException CLAIMED = new RuntimeException(ALREADYPROCESSED);
+
+    @Autowired
+    private MediPiLogger logger;
+
+    @Autowired
+    private Utilities utils;
+
+    @Autowired
+    ServletContext servletCtx;
+
+    @Autowired
+    private PatientDeviceValidationService patientDeviceValidationService;
+
+    @Autowired
+    private UploadEncryptionAdapter patientEncryptionAdapter;
+
+    @Autowired
+    private ProcessedUploadService processedUploadService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ExecutorService executor;
+    private int maxSize = 100;
+
+    /**
+     * Reads the batch properties and starts the threads which decrypt the
+     * uploads. Called once at startup after the properties have been loaded
+     *
+     * @return a string representation of any failures that have occurred during
+     * initialisation
+     */
+    public String init() {
+        Properties properties = utils.getProperties();
+        int threads;
+        try {
+            threads = getIntProperty(properties, THREADS, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+            maxSize = getIntProperty(properties, MAXSIZE, 100);
+        } catch (NumberFormatException e) {
+            return e.getLocalizedMessage();
+        }
+        if (threads < 1 || maxSize < 1) {
+            return THREADS + " and " + MAXSIZE + " must be at least 1";
+        }
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "medipi-upload-decrypt");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        return null;
+    }
+
+    /**
+     * Stops the threads
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Processes a batch of uploads
+     *
+     * @param hardwareName incoming deviceId parameter from RESTful message
+     * @param patientUuid incoming patientUuid parameter from RESTful message
+     * @param dataFormat incoming Data-Format HTTP header parameter from RESTful
+     * message
+     * @param uploads incoming encrypted and signed uploads
+     * @return the result of each upload in the order of the batch
+     */
+    public ResponseEntity<List<UploadResultDO>> uploadBatch(String hardwareName, String patientUuid, String dataFormat, List<EncryptedAndSignedUploadDO> uploads) {
+        if (uploads == null || uploads.isEmpty()) {
+            throw new BadRequest400Exception("The batch has no uploads");
+        }
+        if (uploads.size() > maxSize) {
+            throw new BadRequest400Exception("The batch has more than " + maxSize + " uploads");
+        }
+        ResponseEntity<?> r = this.patientDeviceValidationService.validate(hardwareName, patientUuid);
+        if (r.getStatusCode() != HttpStatus.ACCEPTED && r.getStatusCode() != HttpStatus.OK) {
+            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        String dataFormatToken = DevicesPayloadCodec.getDataFormat(dataFormat);
+        String codec = DevicesPayloadCodec.getCodec(dataFormat);
+        if (codec != null && !DevicesPayloadCodec.isSupported(codec)) {
+            logger.log(PatientBatchUploadService.class.getName() + ".dataValidationIssue", "The Data-Format HTTP header in the incoming request contains an unsupported codec: " + dataFormat);
+            throw new UnsupportedMediaType415Exception("The Data-Format HTTP header in the incoming request contains an unsupported codec: " + dataFormat);
+        }
+        if (dataFormatToken == null || servletCtx.getAttribute(dataFormatToken) == null) {
+            logger.log(PatientBatchUploadService.class.getName() + ".dataValidationIssue", "The Data-Format HTTP header in the incoming request is missing or not a supported format: " + dataFormat);
+            throw new UnsupportedMediaType415Exception("The Data-Format HTTP header in the incoming request is missing or not a supported format: " + dataFormat);
+        }
+        PatientUploadDataFormat patientUploadFormat = (PatientUploadDataFormat) servletCtx.getAttribute(dataFormatToken);
+
+        // decrypt each distinct upload on the pool
+        UploadResultDO[] results = new UploadResultDO[uploads.size()];
+        HashMap<String, Integer> firstIndex = new HashMap<>();
+        List<Integer> decryptIndexes = new ArrayList<>();
+        List<Future<DevicesPayloadDO>> decrypted = new ArrayList<>();
+        for (int i = 0; i < uploads.size(); i++) {
+            final EncryptedAndSignedUploadDO upload = uploads.get(i);
+            if (upload == null || upload.getUploadUuid() == null) {
+                results[i] = new UploadResultDO(null, HttpStatus.BAD_REQUEST.value(), "The upload has no uploadUuid");
+                continue;
+            }
+            if (firstIndex.putIfAbsent(upload.getUploadUuid(), i) != null) {
+                continue;
+            }
+            String processedFor = processedUploadService.getProcessedFor(upload.getUploadUuid());
+            if (processedFor != null) {
+                results[i] = alreadyProcessed(upload.getUploadUuid(), patientUuid, processedFor);
+                continue;
+            }
+            decryptIndexes.add(i);
+            decrypted.add(executor.submit(new Callable<DevicesPayloadDO>() {
+                @Override
+                public DevicesPayloadDO call() throws Exception {
+                    return (DevicesPayloadDO) patientEncryptionAdapter.decryptAndVerify(upload);
+                }
+            }));
+        }
+        List<Integer> processIndexes = new ArrayList<>();
+        List<DevicesPayloadDO> payloads = new ArrayList<>();
+        for (int j = 0; j < decrypted.size(); j++) {
+            int i = decryptIndexes.get(j);
+            String uploadUuid = uploads.get(i).getUploadUuid();
+            try {
+                payloads.add(decrypted.get(j).get());
+                processIndexes.add(i);
+            } catch (ExecutionException e) {
+                logger.log(PatientBatchUploadService.class.getName() + ".dataValidationIssue", "Upload " + uploadUuid + " could not be decrypted: " + e.getCause().getLocalizedMessage());
+                results[i] = new UploadResultDO(uploadUuid, HttpStatus.BAD_REQUEST.value(), "Decryption exception: " + e.getCause().getLocalizedMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results[i] = new UploadResultDO(uploadUuid, HttpStatus.INTERNAL_SERVER_ERROR.value(), "Internal Server Error");
+            }
+        }
+
+        // claim and write all the decrypted uploads in one transaction
+        if (!payloads.isEmpty()) {
+            List<RuntimeException> processed;
+            try {
+                processed = write(patientUploadFormat, uploads, processIndexes, payloads, patientUuid);
+            } catch (RuntimeException e) {
+                logger.log(PatientBatchUploadService.class.getName() + ".dbIssue", "Batch of " + payloads.size() + " uploads from deviceId: " + hardwareName + " could not be written: " + e.getLocalizedMessage());
+                processed = new ArrayList<>();
+                for (int j = 0; j < payloads.size(); j++) {
+                    processed.add(e);
+                }
+            }
+            for (int j = 0; j < processIndexes.size(); j++) {
+                int i = processIndexes.get(j);
+                RuntimeException e = processed.get(j);
+                if (e == CLAIMED) {
+                    results[i] = new UploadResultDO(uploads.get(i).getUploadUuid(), HttpStatus.OK.value(), ALREADYPROCESSED);
+                } else if (e == null) {
+                    results[i] = new UploadResultDO(uploads.get(i).getUploadUuid(), r.getStatusCode().value(), String.valueOf(r.getBody()));
+                } else if (e instanceof Conflict409Exception) {
+                    results[i] = new UploadResultDO(uploads.get(i).getUploadUuid(), HttpStatus.CONFLICT.value(), e.getLocalizedMessage());
+                } else if (e instanceof UnprocessableEntity422Exception) {
+                    results[i] = new UploadResultDO(uploads.get(i).getUploadUuid(), HttpStatus.UNPROCESSABLE_ENTITY.value(), e.getLocalizedMessage());
+                } else {
+                    results[i] = new UploadResultDO(uploads.get(i).getUploadUuid(), e instanceof BadRequest400Exception ? HttpStatus.BAD_REQUEST.value() : HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getLocalizedMessage());
+                }
+            }
+        }
+
+        // repeated uploads share the result of the first
+        for (int i = 0; i < uploads.size(); i++) {
+            if (results[i] == null) {
+                UploadResultDO first = results[firstIndex.get(uploads.get(i).getUploadUuid())];
+                results[i] = new UploadResultDO(first.getUploadUuid(), first.getStatus(), first.getMessage());
+            }
+        }
+        logger.log(PatientBatchUploadService.class.getName(), "Batch of " + uploads.size() + " uploads processed for patientUuid: " + patientUuid + " using deviceId: " + hardwareName);
+        return new ResponseEntity<>(Arrays.asList(results), HttpStatus.OK);
+    }
+
+    // claims the uploads, writes those not claimed by another request and gives up the claims on any which fail
+    private List<RuntimeException> write(final PatientUploadDataFormat patientUploadFormat, final List<EncryptedAndSignedUploadDO> uploads, final List<Integer> processIndexes, final List<DevicesPayloadDO> payloads, final String patientUuid) {
+        return new TransactionTemplate(transactionManager).execute(new TransactionCallback<List<RuntimeException>>() {
+            @Override
+            public List<RuntimeException> doInTransaction(TransactionStatus status) {
+                List<String> uploadUuids = new ArrayList<>();
+                for (int i : processIndexes) {
+                    uploadUuids.add(uploads.get(i).getUploadUuid());
+                }
+                Set<String> claimed = processedUploadService.claimUploads(uploadUuids, patientUuid);
+                List<DevicesPayloadDO> claimedPayloads = new ArrayList<>();
+                for (int j = 0; j < payloads.size(); j++) {
+                    if (claimed.contains(uploadUuids.get(j))) {
+                        claimedPayloads.add(payloads.get(j));
+                    }
+                }
+                List<RuntimeException> claimedResults = claimedPayloads.isEmpty() ? new ArrayList<RuntimeException>() : patientUploadFormat.processAll(claimedPayloads, new Patient(patientUuid));
+                List<RuntimeException> results = new ArrayList<>();
+                List<String> failed = new ArrayList<>();
+                int k = 0;
+                for (int j = 0; j < payloads.size(); j++) {
+                    if (!claimed.contains(uploadUuids.get(j))) {
+                        results.add(claimedElsewhere(uploadUuids.get(j), patientUuid));
+                        continue;
+                    }
+                    RuntimeException e = claimedResults.get(k++);
+                    if (e != null) {
+                        failed.add(uploadUuids.get(j));
+                    }
+                    results.add(e);
+                }
+                processedUploadService.release(failed);
+                return results;
+            }
+        });
+    }
+
+    // answers an upload found in the processed upload ledger before it was decrypted
+    private UploadResultDO alreadyProcessed(String uploadUuid, String patientUuid, String processedFor) {
+        if (!processedFor.equals(patientUuid)) {
+            logger.log(PatientBatchUploadService.class.getName() + ".dataValidationIssue", "Upload with uuid: " + uploadUuid + " sent for patientUuid: " + patientUuid + " has already been processed for a different patient");
+            return new UploadResultDO(uploadUuid, HttpStatus.CONFLICT.value(), PROCESSEDFORANOTHERPATIENT);
+        }
+        return new UploadResultDO(uploadUuid, HttpStatus.OK.value(), ALREADYPROCESSED);
+    }
+
+    // the outcome of an upload claimed by a concurrent request or another concentrator since it was looked up
+    private RuntimeException claimedElsewhere(String uploadUuid, String patientUuid) {
+        String claimedFor = processedUploadService.getClaimedFor(uploadUuid);
+        if (claimedFor == null) {
+            // the claim was given up by the request which held it - the patient unit will send the upload again
+            return new RuntimeException("Upload is being processed by another request");
+        }
+        if (!claimedFor.equals(patientUuid)) {
+            logger.log(PatientBatchUploadService.class.getName() + ".dataValidationIssue", "Upload with uuid: " + uploadUuid + " sent for patientUuid: " + patientUuid + " has already been processed for a different patient");
+            return new Conflict409Exception(PROCESSEDFORANOTHERPATIENT);
+        }
+        return CLAIMED;
+    }
+
+    private int getIntProperty(Properties properties, String name, int defaultValue) {
+        String s = properties.getProperty(name);
+        if (s == null || s.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException numberFormatException) {
+            throw new NumberFormatException("Cant read " + name + " from the properties file: " + numberFormatException.getLocalizedMessage());
+        }
+    }
+}
@@ -57,6 +57,9 @@ public class PatientDownloadableService {
     @Autowired
     private MapperFacade mapperFacade;
 
+    @Autowired
+    private DownloadableVersionService downloadableVersionService;
+
     /**
      * Method to enable download of hardware update file from Concentrator
      *
@@ -119,6 +122,7 @@ public class PatientDownloadableService {
             }
             pd.setDownloadedDate(new Date());
             patientDownloadableDAOImpl.update(pd);
+            downloadableVersionService.patientChanged(pd.getPatientUuid().getPatientUuid());
             DownloadableDO d = this.mapperFacade.map(pd, DownloadableDO.class);
 
             logger.log(PatientDownloadableService.class.getName(), new Date().toString() + " Patient Downloadable item: " + downloadable_uuid + " acknowledged");
@@ -70,6 +70,9 @@ public class PatientMessagingService {
     @Autowired
     PatientDownloadableDAOImpl patientDownloadableDAOImpl;
 
+    @Autowired
+    private DownloadableVersionService downloadableVersionService;
+
     @Value("${medipi.concentrator.alertmessagedir}")
     private String alertmessagedir;
 
@@ -148,6 +151,7 @@ public class PatientMessagingService {
                     pd.setSignature(createSignature(pd, file.getName()));
 
                     patientDownloadableDAOImpl.save(pd);
+                    downloadableVersionService.patientChanged(patientUuid);
 
                     logger.log(PatientUploadServiceController.class.getName(), new Date().toString() + " Written Direct Message for Patient: " + patientUuid);
                 } catch (IOException e) {
@@ -21,9 +21,12 @@ import org.medipi.concentrator.dataformat.PatientUploadDataFormat;
 import org.medipi.security.UploadEncryptionAdapter;
 import org.medipi.concentrator.entities.Patient;
 import org.medipi.concentrator.exception.BadRequest400Exception;
+import org.medipi.concentrator.exception.Conflict409Exception;
 import org.medipi.concentrator.exception.InternalServerError500Exception;
+import org.medipi.concentrator.exception.UnprocessableEntity422Exception;
 import org.medipi.concentrator.logging.MediPiLogger;
 import org.medipi.concentrator.utilities.Utilities;
+import org.medipi.model.DevicesPayloadCodec;
 import org.medipi.model.DevicesPayloadDO;
 import org.medipi.model.EncryptedAndSignedUploadDO;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -41,7 +44,17 @@ import org.springframework.transaction.annotation.Transactional;
  * to the device being used
  *
  * 2.depending on the header Data-Format then the appropriate data parsing class
- * is chosen
+ * is chosen. A Data-Format or codec which this concentrator does not support
+ * is refused with a 400
+ *
+ * 3. an upload which has already been processed for the patient is answered
+ * from the processed upload ledger without being decrypted. An upload UUID
+ * which has been processed for a different patient is refused with a 409
+ *
+ * 4. an upload which cannot be decrypted or verified, or whose decrypted
+ * content cannot be processed, is refused with a 400. This endpoint keeps the
+ * statuses it has always answered with: the 415 and 422 which tell these
+ * cases apart are only answered by the batch upload endpoint
  *
  * @author rick@robinsonhq.com
  */
@@ -60,6 +73,9 @@ public class PatientUploadService {
     @Autowired
     private UploadEncryptionAdapter patientEncryptionAdapter;
 
+    @Autowired
+    private ProcessedUploadService processedUploadService;
+
     /**
      * uploadRecordingDevice - Method to decide that data is to be uploaded and
      * based upon the configuration choose a data format of the uploaded data.
@@ -79,8 +95,26 @@ public class PatientUploadService {
         ResponseEntity<?> r = this.patientDeviceValidationService.validate(hardware_name, patientUuid);
         if (r.getStatusCode() == HttpStatus.ACCEPTED || r.getStatusCode() == HttpStatus.OK) {
             // using the HTTP header Data-Format choose the incoming message data format
-            if (servletCtx.getAttribute(dataFormat) != null) {
-                PatientUploadDataFormat patientUploadFormat = (PatientUploadDataFormat) servletCtx.getAttribute(dataFormat);
+            // the header may carry a codec parameter e.g. MediPiNative;codec=mpb1+deflate
+            String dataFormatToken = DevicesPayloadCodec.getDataFormat(dataFormat);
+            String codec = DevicesPayloadCodec.getCodec(dataFormat);
+            if (codec != null && !DevicesPayloadCodec.isSupported(codec)) {
+                logger.log(PatientUploadService.class.getName() + ".dataValidationIssue", "The Data-Format HTTP header in the incoming request contains an unsupported codec: " + dataFormat);
+                throw new BadRequest400Exception("The Data-Format HTTP header in the incoming request contains an unsupported codec: " + dataFormat);
+            }
+            if (dataFormatToken != null && servletCtx.getAttribute(dataFormatToken) != null) {
+                PatientUploadDataFormat patientUploadFormat = (PatientUploadDataFormat) servletCtx.getAttribute(dataFormatToken);
+                if (content.getUploadUuid() != null) {
+                    // a replayed upload is answered with a single lookup
+                    String processedFor = processedUploadService.getProcessedFor(content.getUploadUuid());
+                    if (processedFor != null) {
+                        return alreadyProcessed(content.getUploadUuid(), patientUuid, processedFor);
+                    }
+                    // claimed by a concurrent request or another concentrator since it was looked up
+                    if (!processedUploadService.claimUpload(content.getUploadUuid(), patientUuid)) {
+                        return alreadyProcessed(content.getUploadUuid(), patientUuid, processedUploadService.getClaimedFor(content.getUploadUuid()));
+                    }
+                }
                 DevicesPayloadDO payload = null;
                 try {
                     payload = (DevicesPayloadDO) patientEncryptionAdapter.decryptAndVerify(content);
@@ -88,7 +122,13 @@ public class PatientUploadService {
                 } catch (Exception e) {
                     throw new BadRequest400Exception("Decryption exception: " + e.getLocalizedMessage());
                 }
-                if (patientUploadFormat.process(payload, new Patient(patientUuid))) {
+                boolean processed;
+                try {
+                    processed = patientUploadFormat.process(payload, new Patient(patientUuid));
+                } catch (UnprocessableEntity422Exception e) {
+                    throw new BadRequest400Exception(e.getLocalizedMessage());
+                }
+                if (processed) {
                     return r;
                 } else {
                     throw new InternalServerError500Exception("Internal Server Error");
@@ -104,4 +144,18 @@ public class PatientUploadService {
         return new ResponseEntity(HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
+    // answers an upload found in the processed upload ledger
+    private ResponseEntity<?> alreadyProcessed(String uploadUuid, String patientUuid, String processedFor) {
+        if (processedFor == null) {
+            // the claim was given up by the request which held it - the patient unit will send the upload again
+            throw new InternalServerError500Exception("Upload with uuid: " + uploadUuid + " is being processed by another request");
+        }
+        if (!processedFor.equals(patientUuid)) {
+            logger.log(PatientUploadService.class.getName() + ".dataValidationIssue", "Upload with uuid: " + uploadUuid + " sent for patientUuid: " + patientUuid + " has already been processed for a different patient");
+            throw new Conflict409Exception("Upload with uuid: " + uploadUuid + " has already been processed for a different patient");
+        }
+        logger.log(PatientUploadService.class.getName(), new Date().toString() + " Upload with uuid: " + uploadUuid + " has already been processed");
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
 }
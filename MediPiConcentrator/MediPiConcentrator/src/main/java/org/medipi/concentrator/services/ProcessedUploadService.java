@@ -0,0 +1,272 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.services;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.medipi.concentrator.dao.ProcessedUploadDAOImpl;
+import org.medipi.concentrator.entities.ProcessedUpload;
+import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.utilities.BloomFilter;
+import org.medipi.concentrator.utilities.Utilities;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Service class holding the ledger of the uploads which have been processed,
+ * so that an upload sent again by a patient unit is neither decrypted nor
+ * written a second time.
+ *
+ * The ledger is the processed_upload table (db_updates/007). An upload is
+ * claimed in the same transaction as its data is written and so is only in
+ * the ledger once its data has been committed. A bounded in-memory Bloom
+ * filter holding every UUID in the ledger sits in front of the table: almost
+ * every upload is new and is known not to be in the ledger without touching
+ * the DB, and a replayed upload costs a single primary key lookup. The ledger
+ * records the patient each upload was processed for so that an upload UUID
+ * sent for a different patient is refused rather than taken as a replay. The filter
+ * is only ever used to avoid lookups - an upload claimed by another
+ * concentrator instance is not in this instance's filter and is caught when
+ * it is claimed.
+ *
+ * Rows older than the retention period are removed daily and the filter is
+ * then rebuilt from the table
+ */
+@Service
+public class ProcessedUploadService {
+
+    private static final String EXPECTEDSIZE = "medipi.concentrator.upload.ledger.expectedsize";
+    private static final String RETENTIONDAYS = "medipi.concentrator.upload.ledger.retention.days";
+    private static final double FALSEPOSITIVEPROBABILITY = 0.01;
+
+    @Autowired
+    private MediPiLogger logger;
+
+    @Autowired
+    private Utilities utils;
+
+    @Autowired
+    private ProcessedUploadDAOImpl processedUploadDAOImpl;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ScheduledExecutorService scheduler;
+    private volatile BloomFilter filter;
+    private int expectedSize;
+    private int retentionDays;
+
+    /**
+     * Reads the ledger properties, loads the ledger into the filter and starts
+     * the job which removes old rows. Called once at startup after the
+     * properties have been loaded
+     *
+     * @return a string representation of any failures that have occurred during
+     * initialisation
+     */
+    public String init() {
+        Properties properties = utils.getProperties();
+        try {
+            expectedSize = getIntProperty(properties, EXPECTEDSIZE, 1000000);
+            retentionDays = getIntProperty(properties, RETENTIONDAYS, 90);
+        } catch (NumberFormatException e) {
+            return e.getLocalizedMessage();
+        }
+        if (expectedSize < 1 || retentionDays < 1) {
+            return EXPECTEDSIZE + " and " + RETENTIONDAYS + " must be at least 1";
+        }
+        try {
+            filter = load();
+        } catch (Exception e) {
+            return "Unable to read the processed_upload table: " + e.getLocalizedMessage();
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "medipi-upload-ledger");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prune();
+                } catch (Exception e) {
+                    logger.log(ProcessedUploadService.class.getName() + ".error", "Pruning the processed upload ledger failed: " + e.getLocalizedMessage());
+                }
+            }
+        }, 1, 1, TimeUnit.DAYS);
+        return null;
+    }
+
+    /**
+     * Stops the job
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * The patient an upload has been processed for. Answered from memory
+     * unless the upload might be in the ledger
+     *
+     * @param uploadUuid upload UUID of the incoming upload
+     * @return the patient UUID or null if the upload has not been processed
+     */
+    public String getProcessedFor(String uploadUuid) {
+        if (uploadUuid == null || filter == null || !filter.mightContain(uploadUuid)) {
+            return null;
+        }
+        return processedUploadDAOImpl.findPatientUuid(uploadUuid);
+    }
+
+    /**
+     * The patient an upload which could not be claimed has been claimed for.
+     * Always looked up in the ledger as a claim made by another concentrator
+     * instance is not in the filter
+     *
+     * @param uploadUuid upload UUID
+     * @return the patient UUID or null if the claim has since been given up
+     */
+    public String getClaimedFor(String uploadUuid) {
+        String patientUuid = processedUploadDAOImpl.findPatientUuid(uploadUuid);
+        BloomFilter f = filter;
+        if (patientUuid != null && f != null) {
+            f.put(uploadUuid);
+        }
+        return patientUuid;
+    }
+
+    /**
+     * Claims an upload as processed. Must be called in the transaction which
+     * writes the upload's data so that the claim is given up if it rolls back
+     *
+     * @param uploadUuid upload UUID
+     * @param patientUuid patient the upload was sent for
+     * @return false if the upload has already been claimed
+     */
+    public boolean claimUpload(String uploadUuid, String patientUuid) {
+        return !claim(Collections.singleton(uploadUuid), ProcessedUpload.UPLOAD, patientUuid).isEmpty();
+    }
+
+    /**
+     * Claims uploads as processed. Must be called in the transaction which
+     * writes the uploads' data so that the claims are given up if it rolls back
+     *
+     * @param uploadUuids upload UUIDs
+     * @param patientUuid patient the uploads were sent for
+     * @return the UUIDs which had not already been claimed
+     */
+    public Set<String> claimUploads(Collection<String> uploadUuids, String patientUuid) {
+        return claim(uploadUuids, ProcessedUpload.UPLOAD, patientUuid);
+    }
+
+    /**
+     * Gives up the claims on uploads which could not be processed in a
+     * transaction which is otherwise committed
+     *
+     * @param uploadUuids upload UUIDs
+     */
+    public void release(Collection<String> uploadUuids) {
+        processedUploadDAOImpl.release(uploadUuids);
+    }
+
+    /**
+     * Removes the ledger rows older than the retention period and rebuilds
+     * the filter
+     */
+    public void prune() {
+        final int[] removed = new int[1];
+        new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                removed[0] = processedUploadDAOImpl.deleteProcessedOlderThan(retentionDays);
+            }
+        });
+        // strings cannot be removed from a Bloom filter so a new one is built -
+        // anything claimed while it is built is caught when it is claimed again
+        filter = load();
+        logger.log(ProcessedUploadService.class.getName() + ".info", removed[0] + " rows processed more than " + retentionDays + " days ago removed from the processed upload ledger");
+    }
+
+    private Set<String> claim(Collection<String> processedUuids, String processedType, String patientUuid) {
+        Set<String> claimed = processedUploadDAOImpl.claim(processedUuids, processedType, patientUuid);
+        BloomFilter f = filter;
+        if (f != null) {
+            // a claim which is rolled back only costs a lookup when the UUID is seen again
+            for (String processedUuid : claimed) {
+                f.put(processedUuid);
+            }
+        }
+        return claimed;
+    }
+
+    private BloomFilter load() {
+        final BloomFilter f = new BloomFilter(expectedSize, FALSEPOSITIVEPROBABILITY);
+        final long[] rows = new long[1];
+        // rows are streamed which needs a transaction
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readOnly.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                processedUploadDAOImpl.readAll(new RowCallbackHandler() {
+                    @Override
+                    public void processRow(ResultSet rs) throws SQLException {
+                        f.put(rs.getString(1));
+                        rows[0]++;
+                    }
+                });
+            }
+        });
+        if (rows[0] > expectedSize) {
+            logger.log(ProcessedUploadService.class.getName() + ".info", "The processed upload ledger holds " + rows[0] + " rows which is more than " + EXPECTEDSIZE + " - more uploads will be looked up in the DB");
+        }
+        logger.log(ProcessedUploadService.class.getName() + ".info", "Processed upload ledger loaded with " + rows[0] + " rows");
+        return f;
+    }
+
+    private int getIntProperty(Properties properties, String name, int defaultValue) {
+        String s = properties.getProperty(name);
+        if (s == null || s.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException numberFormatException) {
+            throw new NumberFormatException("Cant read " + name + " from the properties file: " + numberFormatException.getLocalizedMessage());
+        }
+    }
+}
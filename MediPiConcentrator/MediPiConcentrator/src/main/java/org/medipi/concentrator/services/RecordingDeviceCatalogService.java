@@ -0,0 +1,225 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.services;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.medipi.concentrator.dao.RecordingDeviceAttributeDAOImpl;
+import org.medipi.concentrator.dao.RecordingDeviceTypeDAOImpl;
+import org.medipi.concentrator.entities.RecordingDeviceAttribute;
+import org.medipi.concentrator.entities.RecordingDeviceType;
+import org.medipi.concentrator.exception.InternalServerError500Exception;
+import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.utilities.Utilities;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Service class holding an in-memory catalog of the recording device types and
+ * recording device attributes known to the concentrator.
+ *
+ * The catalog only changes when a new device model is seen so almost every
+ * lookup made during a patient upload can be answered from memory. The catalog
+ * is warmed at startup and is bounded in size, the least recently used entries
+ * being evicted first. New types and attributes are committed in their own
+ * transaction while holding a lock for the type or attribute being created, so
+ * that concurrent uploads seeing the same new device do not create duplicates
+ * while uploads from other devices carry on. Units are compared as the unique
+ * index added by DB update 001 compares them: no units and empty units are the
+ * same
+ */
+@Service
+public class RecordingDeviceCatalogService {
+
+    private static final String MEDIPICONCENTRATORCATALOGCACHEMAXSIZE = "medipi.concentrator.catalogcache.maxsize";
+    private static final int DEFAULTMAXSIZE = 1000;
+
+    @Autowired
+    private MediPiLogger logger;
+
+    @Autowired
+    private Utilities utils;
+
+    @Autowired
+    private RecordingDeviceTypeDAOImpl recordingDeviceTypeDAO;
+
+    @Autowired
+    private RecordingDeviceAttributeDAOImpl recordingDeviceAttributeDAO;
+
+    private final LruCatalog<RecordingDeviceType> types = new LruCatalog<>();
+    private final LruCatalog<RecordingDeviceAttribute> attributes = new LruCatalog<>();
+    // one lock for each type or attribute being created, removed once it is in the catalog
+    private final ConcurrentHashMap<List<Object>, Object> createLocks = new ConcurrentHashMap<>();
+    private volatile int maxSize = DEFAULTMAXSIZE;
+
+    /**
+     * Loads all the recording device types and attributes from the DB into the
+     * catalog. Called once at startup
+     */
+    @Transactional(readOnly = true)
+    public void warm() {
+        String maxSizeString = utils.getProperties().getProperty(MEDIPICONCENTRATORCATALOGCACHEMAXSIZE);
+        if (maxSizeString != null && maxSizeString.trim().length() != 0) {
+            try {
+                maxSize = Integer.parseInt(maxSizeString.trim());
+            } catch (NumberFormatException numberFormatException) {
+                logger.log(RecordingDeviceCatalogService.class.getName() + ".error", "Error - Cant read the catalog cache max size from the properties file: " + numberFormatException.getLocalizedMessage());
+            }
+        }
+        for (RecordingDeviceType rdt : recordingDeviceTypeDAO.findAll()) {
+            types.put(typeKey(rdt.getType(), rdt.getMake(), rdt.getModel(), rdt.getDisplayName()), rdt);
+        }
+        for (RecordingDeviceAttribute rda : recordingDeviceAttributeDAO.findAll()) {
+            attributes.put(attributeKey(rda.getTypeId(), rda.getAttributeName(), rda.getAttributeUnits(), rda.getAttributeType()), rda);
+        }
+        logger.log(RecordingDeviceCatalogService.class.getName() + ".info", "Recording device catalog warmed with " + types.size() + " types and " + attributes.size() + " attributes");
+    }
+
+    /**
+     * Returns the recording device type, creating it if it has not been seen
+     * before
+     *
+     * @param type
+     * @param make
+     * @param model
+     * @param displayName
+     * @return recording device type
+     */
+    public RecordingDeviceType getRecordingDeviceType(String type, String make, String model, String displayName) {
+        List<Object> key = typeKey(type, make, model, displayName);
+        RecordingDeviceType rdt = types.get(key);
+        if (rdt == null) {
+            Object lock = createLock(key);
+            try {
+                synchronized (lock) {
+                    rdt = types.get(key);
+                    if (rdt == null) {
+                        try {
+                            rdt = recordingDeviceTypeDAO.findOrCreate(type, make, model, displayName);
+                        } catch (RuntimeException e) {
+                            // another concentrator instance may have created it first - look again
+                            logger.log(RecordingDeviceCatalogService.class.getName() + ".dbIssue", "Retrying creation of device: " + type + " " + make + " " + model + " " + displayName + " because " + e.getLocalizedMessage());
+                            rdt = retryType(type, make, model, displayName);
+                        }
+                        types.put(key, rdt);
+                    }
+                }
+            } finally {
+                createLocks.remove(key, lock);
+            }
+        }
+        return rdt;
+    }
+
+    /**
+     * Returns the recording device attribute, creating it if it has not been
+     * seen before
+     *
+     * @param rdt recording device type
+     * @param attributeName
+     * @param attributeUnits
+     * @param attributeType
+     * @return recording device attribute
+     */
+    public RecordingDeviceAttribute getRecordingDeviceAttribute(RecordingDeviceType rdt, String attributeName, String attributeUnits, String attributeType) {
+        List<Object> key = attributeKey(rdt, attributeName, attributeUnits, attributeType);
+        RecordingDeviceAttribute rda = attributes.get(key);
+        if (rda == null) {
+            Object lock = createLock(key);
+            try {
+                synchronized (lock) {
+                    rda = attributes.get(key);
+                    if (rda == null) {
+                        try {
+                            rda = recordingDeviceAttributeDAO.findOrCreate(rdt, attributeName, attributeUnits, attributeType);
+                        } catch (RuntimeException e) {
+                            // another concentrator instance may have created it first - look again
+                            logger.log(RecordingDeviceCatalogService.class.getName() + ".dbIssue", "Retrying creation of attribute: " + attributeName + " " + attributeUnits + " " + attributeType + " because " + e.getLocalizedMessage());
+                            rda = retryAttribute(rdt, attributeName, attributeUnits, attributeType);
+                        }
+                        attributes.put(key, rda);
+                    }
+                }
+            } finally {
+                createLocks.remove(key, lock);
+            }
+        }
+        return rda;
+    }
+
+    private RecordingDeviceType retryType(String type, String make, String model, String displayName) {
+        try {
+            return recordingDeviceTypeDAO.findOrCreate(type, make, model, displayName);
+        } catch (RuntimeException e) {
+            logger.log(RecordingDeviceCatalogService.class.getName() + ".dbIssue", "Attempt to write device: " + type + " " + make + " " + model + " " + displayName + " to the RECORDING_DEVICE_TYPE table failed");
+            throw new InternalServerError500Exception("Attempt to write device: " + type + " to DB failed");
+        }
+    }
+
+    private RecordingDeviceAttribute retryAttribute(RecordingDeviceType rdt, String attributeName, String attributeUnits, String attributeType) {
+        try {
+            return recordingDeviceAttributeDAO.findOrCreate(rdt, attributeName, attributeUnits, attributeType);
+        } catch (RuntimeException e) {
+            logger.log(RecordingDeviceCatalogService.class.getName() + ".dbIssue", "Attempt to write attribute: " + attributeName + " " + attributeUnits + " " + attributeType + " to the RECORDING_DEVICE_ATTRIBUTE table failed");
+            throw new InternalServerError500Exception("Attempt to write attribute: " + attributeName + " to DB failed");
+        }
+    }
+
+    // returns the lock shared by the requests creating the type or attribute with the key
+    private Object createLock(List<Object> key) {
+        Object lock = new Object();
+        Object existing = createLocks.putIfAbsent(key, lock);
+        return existing != null ? existing : lock;
+    }
+
+    private static List<Object> typeKey(String type, String make, String model, String displayName) {
+        return Arrays.asList((Object) type, make, model, displayName);
+    }
+
+    private static List<Object> attributeKey(RecordingDeviceType rdt, String attributeName, String attributeUnits, String attributeType) {
+        return Arrays.asList((Object) rdt.getTypeId(), attributeName, attributeUnits == null ? "" : attributeUnits, attributeType);
+    }
+
+    /**
+     * Catalog bounded to maxSize entries which evicts the least recently used
+     * entry. Evicted entries are reloaded from the DB when next seen
+     */
+    private class LruCatalog<T> {
+
+        private final LinkedHashMap<List<Object>, T> map = new LinkedHashMap<List<Object>, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, T> eldest) {
+                return size() > maxSize;
+            }
+        };
+
+        synchronized T get(List<Object> key) {
+            return map.get(key);
+        }
+
+        synchronized void put(List<Object> key, T value) {
+            map.put(key, value);
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+    }
+}
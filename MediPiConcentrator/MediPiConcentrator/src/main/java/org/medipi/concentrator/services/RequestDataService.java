@@ -19,17 +19,20 @@ import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import ma.glasnost.orika.MapperFacade;
-import org.medipi.concentrator.dao.PatientDAOImpl;
+import org.medipi.concentrator.dao.PatientGroupDAOImpl;
 import org.medipi.concentrator.dao.RecordingDeviceDataDAOImpl;
-import org.medipi.concentrator.entities.Patient;
 import org.medipi.concentrator.entities.RecordingDeviceData;
+import org.medipi.concentrator.exception.BadRequest400Exception;
 import org.medipi.concentrator.exception.InternalServerError500Exception;
 import org.medipi.concentrator.logging.MediPiLogger;
 import org.medipi.concentrator.model.PatientDataRequestDO;
 import org.medipi.concentrator.utilities.Utilities;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -40,18 +43,36 @@ import org.springframework.transaction.annotation.Transactional;
  * patient group from a date in the past and have it delivered to the requesting
  * system.
  *
+ * Data is returned in pages using a keyset cursor of the downloaded time and
+ * data id of the last data point returned. The cursor for the next page is
+ * returned in the NEXTCURSORHEADER response header and is absent when there is
+ * no more data to be returned.
+ *
+ * Requesting data does not change anything held by the concentrator. Once
+ * the requesting system has committed the data it acknowledges the
+ * downloaded time it holds everything up to, which is recorded as the point
+ * the group's synchronisation has reached so that data which every patient
+ * group has received can be archived by the DataRetentionService
+ *
  * @author rick@robinsonhq.com
  */
 @Service
 public class RequestDataService {
 
     private static final String MEDIPICONCENTRATORDATABASEBACKOFFPERIOD = "medipi.concentrator.database.backoffperiod";
+    private static final String MEDIPICONCENTRATORREQUESTDATAMAXPAGESIZE = "medipi.concentrator.requestdata.maxpagesize";
+    private static final int DEFAULTMAXPAGESIZE = 5000;
+
+    /**
+     * Response header holding the cursor of the next page of data
+     */
+    public static final String NEXTCURSORHEADER = "MediPi-Next-Cursor";
 
     @Autowired
     private RecordingDeviceDataDAOImpl recordingDeviceDataDAOImpl;
 
     @Autowired
-    private PatientDAOImpl patientDAOImpl;
+    private PatientGroupDAOImpl patientGroupDAOImpl;
 
     @Autowired
     private MapperFacade mapperFacade;
@@ -62,7 +83,10 @@ public class RequestDataService {
     /**
      * A date query parameter is passed to the interface with a requesting
      * patient group parameter. This defines at what point the requesting system
-     * last had any data for these patients
+     * last had any data for these patients.
+     *
+     * All the data since the date is returned in a single response, the paged
+     * getDataPage method should be used in preference
      *
      * @param patientGroupUuid patient group UUID to be requested
      * @param lastDownloadDate last download date
@@ -70,23 +94,9 @@ public class RequestDataService {
      */
     @Transactional(rollbackFor = RuntimeException.class)
     public ResponseEntity<List<PatientDataRequestDO>> getData(String patientGroupUuid, Date lastDownloadDate) {
-        String backoffPeriodString = utils.getProperties().getProperty(MEDIPICONCENTRATORDATABASEBACKOFFPERIOD);
-        int backoffPeriod;
-        if (backoffPeriodString == null || backoffPeriodString.trim().length() == 0) {
-            backoffPeriod = 10000;
-        } else {
-            try {
-                backoffPeriod = Integer.parseInt(backoffPeriodString);
-            } catch (NumberFormatException numberFormatException) {
-                MediPiLogger.getInstance().log(RequestDataService.class.getName() + "error", "Error - Cant read the back off period from the properties file: " + numberFormatException.getLocalizedMessage());
-                System.out.println("Error - Cant read the back off period from the properties file: " + numberFormatException.getLocalizedMessage());
-                backoffPeriod = 10000;
-            }
-        }
+        int backoffPeriod = getBackoffPeriod();
         try {
             SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS zzz");
-            List<PatientDataRequestDO> responsePayload = new ArrayList<>();
-            List<Patient> pList = patientDAOImpl.findByGroup(patientGroupUuid);
             // to allow the DB to settle to any data not yet arrived do not attempt to pull any data within the last x seconds
             Instant nowInstant = Instant.now();
             Instant endInstant = nowInstant.minusMillis(backoffPeriod);
@@ -98,27 +108,16 @@ public class RequestDataService {
                 System.out.println("now time: " + sdf.format(new Date()));
                 return new ResponseEntity<>(HttpStatus.NO_CONTENT);
             }
-            for (Patient p : pList) {
-                PatientDataRequestDO responsePdr = null;
-                List<RecordingDeviceData> rddList = recordingDeviceDataDAOImpl.findByPatientAndDownloadedTime(p.getPatientUuid(), lastDownloadDate, endTime);
-                if (rddList != null && !rddList.isEmpty()) {
-                    //create a new patient data request to return
-                    responsePdr = new PatientDataRequestDO(p.getPatientUuid());
-                    for (RecordingDeviceData rdd : rddList) {
-                        RecordingDeviceData rddMapped = this.mapperFacade.map(rdd, RecordingDeviceData.class);
-
-                        responsePdr.addRecordingDeviceData(rddMapped);
-                    }
-                    responsePayload.add(responsePdr);
-                    System.out.println("-------");
-                    System.out.println("request time of last data item downloaded: " + sdf.format(lastDownloadDate));
-                    System.out.println("now time: " + sdf.format(new Date()));
-                    System.out.println("patient:" + p.getPatientUuid() + " data items:" + rddList.size());
-                }
-            }
+            // everything after the last download date is the same as a cursor with the maximum data id
+            List<RecordingDeviceData> rddList = recordingDeviceDataDAOImpl.findByPatientGroupAfterCursor(patientGroupUuid, lastDownloadDate, Integer.MAX_VALUE, endTime, Integer.MAX_VALUE);
+            List<PatientDataRequestDO> responsePayload = groupByPatient(rddList);
             if (responsePayload.isEmpty()) {
                 return new ResponseEntity<>(HttpStatus.NO_CONTENT);
             } else {
+                System.out.println("-------");
+                System.out.println("request time of last data item downloaded: " + sdf.format(lastDownloadDate));
+                System.out.println("now time: " + sdf.format(new Date()));
+                System.out.println("patient group:" + patientGroupUuid + " data items:" + rddList.size());
                 return new ResponseEntity<>(responsePayload, HttpStatus.OK);
 
             }
@@ -128,4 +127,124 @@ public class RequestDataService {
         }
     }
 
+    /**
+     * Returns a page of data for all the patients in a patient group which was
+     * downloaded after the cursor position. Data is never returned until the
+     * back off period has passed so that data still being persisted is not
+     * skipped over by the cursor
+     *
+     * @param patientGroupUuid patient group UUID to be requested
+     * @param cursor keyset cursor in the form [downloaded time epoch
+     * millis]:[data id]. The cursor from the previous page should be used, or
+     * [last downloaded time]:2147483647 to start from a downloaded time
+     * @param limit maximum number of data points requested, may be null
+     * @return Response list of data for patients requested with the cursor of
+     * the next page in the NEXTCURSORHEADER header if there is more data
+     */
+    @Transactional(rollbackFor = RuntimeException.class)
+    public ResponseEntity<List<PatientDataRequestDO>> getDataPage(String patientGroupUuid, String cursor, Integer limit) {
+        Date cursorTime;
+        int cursorId;
+        try {
+            int sep = cursor.indexOf(':');
+            cursorTime = new Date(Long.parseLong(cursor.substring(0, sep)));
+            cursorId = Integer.parseInt(cursor.substring(sep + 1));
+        } catch (Exception e) {
+            throw new BadRequest400Exception("Invalid synchronisation cursor: " + cursor);
+        }
+        if (cursorTime.getTime() < 0) {
+            throw new BadRequest400Exception("Invalid Unix epoch representation of date in synchronisation cursor: " + cursor);
+        }
+        int maxPageSize = getMaxPageSize();
+        int pageSize = (limit == null || limit <= 0 || limit > maxPageSize) ? maxPageSize : limit;
+        // to allow the DB to settle to any data not yet arrived do not attempt to pull any data within the last x seconds
+        Date endTime = Date.from(Instant.now().minusMillis(getBackoffPeriod()));
+        try {
+            // ask for one more than the page size to find out if there is another page
+            List<RecordingDeviceData> rddList = recordingDeviceDataDAOImpl.findByPatientGroupAfterCursor(patientGroupUuid, cursorTime, cursorId, endTime, pageSize + 1);
+            if (rddList.isEmpty()) {
+                return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+            }
+            HttpHeaders headers = new HttpHeaders();
+            if (rddList.size() > pageSize) {
+                rddList = rddList.subList(0, pageSize);
+                RecordingDeviceData last = rddList.get(pageSize - 1);
+                headers.set(NEXTCURSORHEADER, last.getDownloadedTime().getTime() + ":" + last.getDataId());
+            }
+            return new ResponseEntity<>(groupByPatient(rddList), headers, HttpStatus.OK);
+        } catch (Exception ex) {
+            System.out.println("500 exception ");
+            throw new InternalServerError500Exception(ex.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Records that the requesting system has committed all the data for a
+     * patient group downloaded up to the synced time. The synced time never
+     * moves back, so it is capped at the end of the back off period as a time
+     * in the future would allow data not yet received to be archived and
+     * dropped
+     *
+     * @param patientGroupUuid patient group UUID which has been synchronised
+     * @param syncedTime downloaded time up to which the requesting system holds
+     * all the data
+     * @return Response to the acknowledgement
+     */
+    @Transactional(rollbackFor = RuntimeException.class)
+    public ResponseEntity<Void> acknowledgeData(String patientGroupUuid, Date syncedTime) {
+        Date endTime = Date.from(Instant.now().minusMillis(getBackoffPeriod()));
+        try {
+            patientGroupDAOImpl.updateDataSyncedTime(patientGroupUuid, syncedTime.after(endTime) ? endTime : syncedTime);
+        } catch (Exception ex) {
+            System.out.println("500 exception ");
+            throw new InternalServerError500Exception(ex.getLocalizedMessage());
+        }
+        return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    private List<PatientDataRequestDO> groupByPatient(List<RecordingDeviceData> rddList) {
+        // keep the patients in the order their first data point was downloaded
+        Map<String, PatientDataRequestDO> byPatient = new LinkedHashMap<>();
+        for (RecordingDeviceData rdd : rddList) {
+            String patientUuid = rdd.getPatientUuid().getPatientUuid();
+            PatientDataRequestDO pdr = byPatient.get(patientUuid);
+            if (pdr == null) {
+                //create a new patient data request to return
+                pdr = new PatientDataRequestDO(patientUuid);
+                byPatient.put(patientUuid, pdr);
+            }
+            pdr.addRecordingDeviceData(this.mapperFacade.map(rdd, RecordingDeviceData.class));
+        }
+        return new ArrayList<>(byPatient.values());
+    }
+
+    private int getBackoffPeriod() {
+        String backoffPeriodString = utils.getProperties().getProperty(MEDIPICONCENTRATORDATABASEBACKOFFPERIOD);
+        if (backoffPeriodString == null || backoffPeriodString.trim().length() == 0) {
+            return 10000;
+        }
+        try {
+            return Integer.parseInt(backoffPeriodString.trim());
+        } catch (NumberFormatException numberFormatException) {
+            MediPiLogger.getInstance().log(RequestDataService.class.getName() + "error", "Error - Cant read the back off period from the properties file: " + numberFormatException.getLocalizedMessage());
+            System.out.println("Error - Cant read the back off period from the properties file: " + numberFormatException.getLocalizedMessage());
+            return 10000;
+        }
+    }
+
+    private int getMaxPageSize() {
+        String maxPageSizeString = utils.getProperties().getProperty(MEDIPICONCENTRATORREQUESTDATAMAXPAGESIZE);
+        if (maxPageSizeString == null || maxPageSizeString.trim().length() == 0) {
+            return DEFAULTMAXPAGESIZE;
+        }
+        try {
+            int maxPageSize = Integer.parseInt(maxPageSizeString.trim());
+            return maxPageSize > 0 ? maxPageSize : DEFAULTMAXPAGESIZE;
+        } catch (NumberFormatException numberFormatException) {
+            MediPiLogger.getInstance().log(RequestDataService.class.getName() + "error", "Error - Cant read the maximum page size from the properties file: " + numberFormatException.getLocalizedMessage());
+            System.out.println("Error - Cant read the maximum page size from the properties file: " + numberFormatException.getLocalizedMessage());
+            return DEFAULTMAXPAGESIZE;
+        }
+    }
+
 }
@@ -0,0 +1,329 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.services;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.notification.ScriptSubmissionNotifier;
+import org.medipi.concentrator.notification.SubmissionNotifier;
+import org.medipi.concentrator.notification.SubmissionNotifierFactory;
+import org.medipi.concentrator.utilities.ConfigurationStringTokeniser;
+import org.medipi.concentrator.utilities.Utilities;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Service class to tell downstream systems that a patient has successfully
+ * submitted data.
+ *
+ * Notifications are only queued once the upload transaction has committed and
+ * are delivered by a small pool of worker threads so that the upload never
+ * waits for a notification endpoint. The queue is bounded, a notification
+ * which is still waiting to be sent absorbs any further submissions from the
+ * same patient and failed notifications are retried with an exponential
+ * backoff. Queue depth, delivery latency and outcome counts are available
+ * from getMetrics() and are logged on a fixed period
+ */
+@Service
+public class SubmissionNotificationService {
+
+    private static final String NOTIFIERCLASSTOKENS = "medipi.concentrator.notifierclasstokens";
+    private static final String NOTIFIERSTEM = "medipi.concentrator.notifier.";
+    private static final String QUEUESIZE = "medipi.concentrator.notification.queuesize";
+    private static final String THREADS = "medipi.concentrator.notification.threads";
+    private static final String MAXATTEMPTS = "medipi.concentrator.notification.maxattempts";
+    private static final String RETRYBACKOFF = "medipi.concentrator.notification.retrybackoff";
+    private static final String TIMEOUT = "medipi.concentrator.notification.timeout";
+    private static final String METRICSPERIOD = "medipi.concentrator.notification.metricsperiod";
+
+    @Autowired
+    private MediPiLogger logger;
+
+    @Autowired
+    private Utilities utils;
+
+    @Autowired
+    private SubmissionNotifierFactory notifierFactory;
+
+    private final List<SubmissionNotifier> notifiers = new ArrayList<>();
+    // notifications waiting to be sent keyed by notifier class token and patient uuid
+    private final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService retryScheduler;
+    private int maxAttempts;
+    private long retryBackoff;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    /**
+     * Instantiates the configured notifiers and starts the worker pool. Called
+     * once at startup after the properties have been loaded.
+     *
+     * If no notifier class tokens are configured but the
+     * medipi.concentrator.successfullyprocessedsubmissionscript property is set
+     * then the script notifier is used on its own
+     *
+     * @return a string representation of any failures that have occurred during
+     * initialisation
+     */
+    public String init() {
+        Properties properties = utils.getProperties();
+        int queueSize = getIntProperty(properties, QUEUESIZE, 1000);
+        int threads = getIntProperty(properties, THREADS, 2);
+        int timeout = getIntProperty(properties, TIMEOUT, 30000);
+        maxAttempts = getIntProperty(properties, MAXATTEMPTS, 5);
+        retryBackoff = getIntProperty(properties, RETRYBACKOFF, 2000);
+        int metricsPeriod = getIntProperty(properties, METRICSPERIOD, 3600000);
+
+        String e = properties.getProperty(NOTIFIERCLASSTOKENS);
+        if (e != null && e.trim().length() != 0) {
+            ConfigurationStringTokeniser cst = new ConfigurationStringTokeniser(e);
+            while (cst.hasMoreTokens()) {
+                String classToken = null;
+                try {
+                    classToken = cst.nextToken();
+                    String notifierClass = properties.getProperty(NOTIFIERSTEM + classToken + ".class");
+                    SubmissionNotifier notifier = notifierClass == null ? null : notifierFactory.getNotifierClass(notifierClass);
+                    if (notifier == null) {
+                        return "Unknown notifier class for " + classToken + ": " + notifierClass;
+                    }
+                    notifier.setClassToken(classToken);
+                    String initError = notifier.init(properties, timeout);
+                    if (initError != null) {
+                        return "Cannot instantiate notifier " + classToken + " - " + initError;
+                    }
+                    notifiers.add(notifier);
+                } catch (Exception ex) {
+                    return "Cannot instantiate notifier " + classToken + " - " + ex.getMessage();
+                }
+            }
+        } else if (properties.getProperty(ScriptSubmissionNotifier.SUCCESSFULLYPROCESSEDSUBMISSIONSCRIPT) != null) {
+            SubmissionNotifier notifier = new ScriptSubmissionNotifier();
+            notifier.setClassToken("Script");
+            String initError = notifier.init(properties, timeout);
+            if (initError != null) {
+                return "Cannot instantiate notifier Script - " + initError;
+            }
+            notifiers.add(notifier);
+        }
+        if (notifiers.isEmpty()) {
+            return null;
+        }
+
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), daemonThreadFactory("medipi-notification-"));
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("medipi-notification-retry-"));
+        if (metricsPeriod > 0) {
+            retryScheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    logger.log(SubmissionNotificationService.class.getName() + ".info", "Submission notification metrics: " + getMetrics());
+                }
+            }, metricsPeriod, metricsPeriod, TimeUnit.MILLISECONDS);
+        }
+        logger.log(SubmissionNotificationService.class.getName() + ".info", "Submission notification started with " + notifiers.size() + " notifiers, " + threads + " threads and a queue of " + queueSize);
+        return null;
+    }
+
+    /**
+     * Queues notifications that a patient has submitted data. When called
+     * within a transaction the notifications are only queued after the
+     * transaction commits and are discarded if it rolls back
+     *
+     * @param patientUuid uuid of the patient who has submitted data
+     */
+    public void submissionProcessed(final String patientUuid) {
+        if (executor == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    enqueueAll(patientUuid);
+                }
+            });
+        } else {
+            enqueueAll(patientUuid);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the notification metrics
+     *
+     * @return metric name to value
+     */
+    public Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        long d = delivered.get();
+        metrics.put("queueDepth", executor == null ? 0L : (long) executor.getQueue().size());
+        metrics.put("pending", (long) pending.size());
+        metrics.put("submitted", submitted.get());
+        metrics.put("coalesced", coalesced.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("delivered", d);
+        metrics.put("retried", retried.get());
+        metrics.put("failed", failed.get());
+        metrics.put("averageLatencyMillis", d == 0 ? 0L : totalLatency.get() / d);
+        metrics.put("maxLatencyMillis", maxLatency.get());
+        return metrics;
+    }
+
+    /**
+     * Stops the worker pool. Notifications still in the queue are not sent
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            retryScheduler.shutdownNow();
+            executor.shutdown();
+        }
+    }
+
+    private void enqueueAll(String patientUuid) {
+        long now = System.currentTimeMillis();
+        for (SubmissionNotifier notifier : notifiers) {
+            submitted.incrementAndGet();
+            enqueue(new NotificationTask(notifier, patientUuid, now, 1));
+        }
+    }
+
+    private void enqueue(NotificationTask task) {
+        // a notification for this patient which has not yet started will cover this submission too
+        if (pending.putIfAbsent(task.key, task.queuedTime) != null) {
+            coalesced.incrementAndGet();
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            pending.remove(task.key);
+            dropped.incrementAndGet();
+            logger.log(SubmissionNotificationService.class.getName() + ".error", "Notification queue is full - notification for " + task.patientUuid + " by " + task.notifier.getClassToken() + " has been dropped @" + new Date());
+        }
+    }
+
+    private void retry(final NotificationTask task, Exception ex) {
+        if (task.attempt >= maxAttempts || retryScheduler.isShutdown()) {
+            failed.incrementAndGet();
+            logger.log(SubmissionNotificationService.class.getName() + ".curlIssue", "Attempt to send notification for " + task.patientUuid + " by " + task.notifier.getClassToken() + " failed @" + new Date() + " after " + task.attempt + " attempts because " + ex.getLocalizedMessage());
+            System.out.println("Attempt to send notification for " + task.patientUuid + " failed @" + new Date() + " because " + ex.getLocalizedMessage());
+            return;
+        }
+        retried.incrementAndGet();
+        long delay = retryBackoff << Math.min(task.attempt - 1, 16);
+        try {
+            retryScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    enqueue(new NotificationTask(task.notifier, task.patientUuid, task.queuedTime, task.attempt + 1));
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            failed.incrementAndGet();
+        }
+    }
+
+    private void recordLatency(long latency) {
+        totalLatency.addAndGet(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+    }
+
+    private int getIntProperty(Properties properties, String name, int defaultValue) {
+        String s = properties.getProperty(name);
+        if (s == null || s.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (NumberFormatException numberFormatException) {
+            logger.log(SubmissionNotificationService.class.getName() + ".error", "Error - Cant read " + name + " from the properties file: " + numberFormatException.getLocalizedMessage());
+            return defaultValue;
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * A single attempt to send a notification
+     */
+    private class NotificationTask implements Runnable {
+
+        private final SubmissionNotifier notifier;
+        private final String patientUuid;
+        private final long queuedTime;
+        private final int attempt;
+        private final String key;
+
+        NotificationTask(SubmissionNotifier notifier, String patientUuid, long queuedTime, int attempt) {
+            this.notifier = notifier;
+            this.patientUuid = patientUuid;
+            this.queuedTime = queuedTime;
+            this.attempt = attempt;
+            this.key = notifier.getClassToken() + ":" + patientUuid;
+        }
+
+        @Override
+        public void run() {
+            // from now on a new submission needs a new notification
+            pending.remove(key);
+            try {
+                notifier.sendNotification(patientUuid);
+                delivered.incrementAndGet();
+                recordLatency(System.currentTimeMillis() - queuedTime);
+            } catch (Exception ex) {
+                retry(this, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.dao;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.persistence.Entity;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.EJB3NamingStrategy;
+import org.hibernate.dialect.PostgreSQL9Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.internal.ast.ASTQueryTranslatorFactory;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.Container;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.DockerImageName;
+import org.testcontainers.utility.MountableFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the hot recording_device_data queries are answered from the
+ * indexes added by the db_updates. The baseline schema is loaded into
+ * PostgreSQL with a synthetic dataset, every script in db_updates is applied
+ * to it in order, as it would be to a live concentrator, and each query is
+ * then explained. A query must use one of its indexes and must not scan a
+ * partition which holds data sequentially. Only the shape of the plan is
+ * checked: how long a query takes depends on the machine running the tests.
+ *
+ * The SQL explained is translated by Hibernate from the named queries of the
+ * entities, so it is the SQL run by RecordingDeviceDataDAOImpl. Docker is
+ * needed to run PostgreSQL; without it the tests are skipped
+ */
+public class RecordingDeviceDataQueryPlanTest {
+
+    private static final int ROWS = 2000000;
+    private static final int PAGE_SIZE = 5000;
+
+    private static final String SYNC_CURSOR_INDEX = "recording_device_data_downloaded_time_data_id_idx";
+    private static final String DUPLICATE_CHECK_INDEX = "recording_device_data_patient_attribute_time_numeric_idx";
+    private static final String PATIENT_DOWNLOADED_TIME_INDEX = "recording_device_data_patient_downloaded_time_idx";
+
+    private static final String SYNC_CURSOR = "RecordingDeviceData.findByPatientGroupAfterCursor";
+    private static final String DUPLICATE_CHECK = "RecordingDeviceData.isAlreadyStoredNumeric";
+    private static final String PATIENT_DOWNLOADED_TIME = "RecordingDeviceData.findByPatientAndDownloadedTime";
+
+    private static final Pattern INDEX_SCAN = Pattern.compile("Index (?:Only )?Scan (?:Backward )?using (\\S+) on|Bitmap Index Scan on (\\S+)");
+    private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\S+)");
+
+    private static PostgreSQLContainer<?> postgres;
+    private static Connection connection;
+    private static Set<String> populatedTables;
+    private static SessionFactoryImplementor sessionFactory;
+
+    @BeforeClass
+    public static void loadDatabase() throws Exception {
+        Assume.assumeTrue("Docker is not available to run PostgreSQL", DockerClientFactory.instance().isDockerAvailable());
+        postgres = new PostgreSQLContainer<>(DockerImageName.parse("postgres:11-alpine")).withUsername("postgres");
+        postgres.start();
+
+        psql(MountableFile.forHostPath(Paths.get("..", "medipidb2_schema_only.sqlc")));
+        psql(MountableFile.forClasspathResource("org/medipi/concentrator/dao/RecordingDeviceDataQueryPlanTest.sql"), "rows=" + ROWS);
+        List<Path> updates;
+        try (Stream<Path> files = Files.list(Paths.get("..", "db_updates"))) {
+            updates = files.filter(p -> p.toString().endsWith(".sql")).sorted().collect(Collectors.toList());
+        }
+        for (Path update : updates) {
+            psql(MountableFile.forHostPath(update));
+        }
+
+        connection = DriverManager.getConnection(postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("VACUUM ANALYZE recording_device_data");
+        }
+        populatedTables = names("SELECT c.relname FROM pg_class c WHERE c.relname = 'recording_device_data' AND c.relkind = 'r' AND c.reltuples > 0"
+                + " UNION SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid"
+                + " WHERE i.inhparent = 'recording_device_data'::regclass AND c.reltuples > 0");
+        assertFalse("no recording_device_data was loaded", populatedTables.isEmpty());
+    }
+
+    @AfterClass
+    public static void stopDatabase() throws SQLException {
+        if (sessionFactory != null) {
+            sessionFactory.close();
+        }
+        if (connection != null) {
+            connection.close();
+        }
+        if (postgres != null) {
+            postgres.stop();
+        }
+    }
+
+    @Test
+    public void syncCursorUsesADownloadedTimeIndex() throws Exception {
+        Timestamp latest = latestDownloadedTime();
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("patientGroupUuid", "group-1");
+        parameters.put("downloadedTime", new Timestamp(latest.getTime() - 24 * 60 * 60 * 1000L));
+        parameters.put("dataId", 0);
+        parameters.put("endTime", latest);
+        // a page of the cursor is limited by setMaxResults
+        assertUsesIndex(SYNC_CURSOR, parameters, PAGE_SIZE + 1, SYNC_CURSOR_INDEX, PATIENT_DOWNLOADED_TIME_INDEX);
+    }
+
+    @Test
+    public void duplicateCheckUsesThePatientAttributeTimeIndex() throws Exception {
+        Map<String, Object> stored = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT attribute_id, data_value_numeric, data_value_time, patient_uuid"
+                        + " FROM recording_device_data WHERE patient_uuid = 'patient-1' ORDER BY data_value_time DESC LIMIT 1")) {
+            assertTrue(rs.next());
+            stored.put("attributeId", rs.getInt(1));
+            stored.put("dataValueNumeric", rs.getDouble(2));
+            stored.put("dataValueTime", rs.getTimestamp(3));
+            stored.put("patientUuid", rs.getString(4));
+        }
+        assertUsesIndex(DUPLICATE_CHECK, stored, 0, DUPLICATE_CHECK_INDEX);
+    }
+
+    @Test
+    public void patientDownloadedTimeUsesThePatientDownloadedTimeIndex() throws Exception {
+        Timestamp latest = latestDownloadedTime();
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("patientUuid", "patient-1");
+        parameters.put("downloadedTime", new Timestamp(latest.getTime() - 7 * 24 * 60 * 60 * 1000L));
+        parameters.put("endTime", latest);
+        assertUsesIndex(PATIENT_DOWNLOADED_TIME, parameters, 0, PATIENT_DOWNLOADED_TIME_INDEX);
+    }
+
+    private static void psql(MountableFile script, String... variables) throws Exception {
+        postgres.copyFileToContainer(script, "/tmp/script.sql");
+        List<String> command = new ArrayList<>(Arrays.asList("psql", "-q", "-v", "ON_ERROR_STOP=1",
+                "-U", postgres.getUsername(), "-d", postgres.getDatabaseName(), "-f", "/tmp/script.sql"));
+        for (String variable : variables) {
+            command.add("-v");
+            command.add(variable);
+        }
+        Container.ExecResult result = postgres.execInContainer(command.toArray(new String[command.size()]));
+        assertEquals(script.getResolvedPath() + ": " + result.getStderr(), 0, result.getExitCode());
+    }
+
+    private static Set<String> names(String query, Object... parameters) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+        }
+        return names;
+    }
+
+    private static Timestamp latestDownloadedTime() throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT MAX(downloaded_time) FROM recording_device_data")) {
+            assertTrue(rs.next());
+            return rs.getTimestamp(1);
+        }
+    }
+
+    // the entities mapped as they are by the concentrator. Hibernate only needs a connection to run queries, not to translate them
+    private static synchronized SessionFactoryImplementor sessionFactory() throws ClassNotFoundException {
+        if (sessionFactory == null) {
+            Configuration configuration = new Configuration()
+                    .setNamingStrategy(EJB3NamingStrategy.INSTANCE)
+                    .setProperty(AvailableSettings.DIALECT, PostgreSQL9Dialect.class.getName())
+                    .setProperty("hibernate.temp.use_jdbc_metadata_defaults", "false");
+            ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
+            scanner.addIncludeFilter(new AnnotationTypeFilter(Entity.class));
+            for (BeanDefinition entity : scanner.findCandidateComponents("org.medipi.concentrator.entities")) {
+                configuration.addAnnotatedClass(Class.forName(entity.getBeanClassName()));
+            }
+            sessionFactory = (SessionFactoryImplementor) configuration.buildSessionFactory(
+                    new StandardServiceRegistryBuilder().applySettings(configuration.getProperties()).build());
+        }
+        return sessionFactory;
+    }
+
+    /**
+     * Explains the SQL of a named query and checks its plan
+     *
+     * @param namedQuery name of the entity's named query
+     * @param parameters values for all of the query's named parameters. An
+     * entity parameter is given as its id
+     * @param maxResults maximum results set on the query, or 0 for none
+     * @param indexes names of the indexes the query may use. The indexes of a
+     * partitioned table are matched by the indexes of each of its partitions
+     */
+    private static void assertUsesIndex(String namedQuery, Map<String, Object> parameters, int maxResults, String... indexes) throws Exception {
+        QueryTranslator translator = new ASTQueryTranslatorFactory().createQueryTranslator(namedQuery,
+                sessionFactory().getNamedQuery(namedQuery).getQueryString(), Collections.emptyMap(), sessionFactory(), null);
+        translator.compile(Collections.emptyMap(), false);
+        assertEquals(namedQuery + " parameters", translator.getParameterTranslations().getNamedParameterNames(), parameters.keySet());
+        String sql = translator.getSQLString();
+        if (maxResults > 0) {
+            // as the PostgreSQL dialect applies setMaxResults
+            sql += " limit " + maxResults;
+        }
+
+        Set<String> allowed = new HashSet<>();
+        for (String index : indexes) {
+            allowed.add(index);
+            allowed.addAll(names("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid"
+                    + " JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ?", index));
+        }
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                for (int location : translator.getParameterTranslations().getNamedParameterSqlLocations(parameter.getKey())) {
+                    statement.setObject(location + 1, parameter.getValue());
+                }
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+            }
+        }
+
+        Set<String> used = new HashSet<>();
+        Matcher m = INDEX_SCAN.matcher(plan);
+        while (m.find()) {
+            used.add(m.group(1) != null ? m.group(1) : m.group(2));
+        }
+        used.retainAll(allowed);
+        assertFalse("none of " + Arrays.toString(indexes) + " is used:\n" + plan, used.isEmpty());
+
+        m = SEQ_SCAN.matcher(plan);
+        while (m.find()) {
+            assertFalse(m.group(1) + " is scanned sequentially:\n" + plan, populatedTables.contains(m.group(1)));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.dataformat;
+
+import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.text.ParseException;
+
+/**
+ * The MediPi Native parsing loop used by MediPiNativeFormat before
+ * MediPiNativeTokenizer: a BufferedReader over a copy of the payload, a regular
+ * expression split of every line and a new ISO8601DateFormat for every time.
+ * Kept to check that the tokenizer gives the same results and to benchmark it
+ * against. It passes the same events to a tokenizer Handler
+ */
+final class LegacyMediPiNativeParser {
+
+    private LegacyMediPiNativeParser() {
+    }
+
+    static void parse(String payload, MediPiNativeTokenizer.Handler handler) throws IOException, ParseException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(payload.getBytes())));
+        String datadelimeter = null;
+        String line;
+        while ((line = br.readLine()) != null) {
+            String[] metaSplit = line.split("->");
+            if (metaSplit[0].equals("metadata")) {
+                if (metaSplit[1].equals("persist")) {
+                    if (metaSplit.length > 4) {
+                        throw new ParseException("Failed to parse metadata->persist: " + line, 0);
+                    }
+                    handler.persistentMetadata(metaSplit[2], metaSplit[3]);
+                } else {
+                    switch (metaSplit[1]) {
+                        case "datadelimiter":
+                            handler.metadata(metaSplit[1], metaSplit[2]);
+                            datadelimeter = metaSplit[2];
+                            // if delimeter is a special regex charater then prpend with a double //
+                            if ("\\.[]{}()*+-?^$|".contains(datadelimeter)) {
+                                datadelimeter = "\\" + datadelimeter;
+                            }
+                            break;
+                        case "make":
+                        case "model":
+                        case "displayname":
+                            handler.metadata(metaSplit[1], metaSplit[2]);
+                            break;
+                        case "columns":
+                        case "format":
+                        case "units":
+                            handler.listMetadata(metaSplit[1], metaSplit[2].split(datadelimeter));
+                            break;
+                        case "scheduleeffectivedate":
+                        case "scheduleexpirydate":
+                            handler.dateMetadata(metaSplit[1], new ISO8601DateFormat().parse(metaSplit[2]));
+                            break;
+                        default:
+                            throw new ParseException("Failed to parse metadata: " + line, 0);
+                    }
+                }
+            } else {
+                String[] dataArray = line.split(datadelimeter);
+                handler.row(new ISO8601DateFormat().parse(dataArray[0]), dataArray);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.dataformat;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark of MediPiNativeTokenizer against the parser it replaced using
+ * Oximeter, Scale and BloodPressure payloads. It is not run by the unit tests.
+ * Run it from the test classpath after mvn test-compile:
+ *
+ * mvn exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.medipi.concentrator.dataformat.MediPiNativeTokenizerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MediPiNativeTokenizerBenchmark {
+
+    /**
+     * Device and number of data rows. An oximeter sends a reading every second
+     * for the length of the measurement whereas the scale and blood pressure
+     * meter send a handful of readings
+     */
+    @Param({"oximeter:300", "scale:10", "bloodpressure:10"})
+    public String payloadType;
+
+    private String payload;
+
+    @Setup
+    public void setup() {
+        String[] p = payloadType.split(":");
+        int rows = Integer.parseInt(p[1]);
+        switch (p[0]) {
+            case "oximeter":
+                payload = NativePayloads.oximeter(rows);
+                break;
+            case "scale":
+                payload = NativePayloads.scale(rows);
+                break;
+            case "bloodpressure":
+                payload = NativePayloads.bloodPressure(rows);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown payload type: " + p[0]);
+        }
+    }
+
+    @Benchmark
+    public void tokenizer(Blackhole bh) throws Exception {
+        MediPiNativeTokenizer.tokenize(payload, new BlackholeHandler(bh));
+    }
+
+    @Benchmark
+    public void previousParser(Blackhole bh) throws Exception {
+        LegacyMediPiNativeParser.parse(payload, new BlackholeHandler(bh));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MediPiNativeTokenizerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+    private static final class BlackholeHandler implements MediPiNativeTokenizer.Handler {
+
+        private final Blackhole bh;
+
+        BlackholeHandler(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void persistentMetadata(String name, String value) {
+            bh.consume(value);
+        }
+
+        @Override
+        public void metadata(String name, String value) {
+            bh.consume(value);
+        }
+
+        @Override
+        public void dateMetadata(String name, Date value) {
+            bh.consume(value);
+        }
+
+        @Override
+        public void listMetadata(String name, String[] values) {
+            bh.consume(values);
+        }
+
+        @Override
+        public void row(Date dataPointTime, String[] values) {
+            bh.consume(dataPointTime);
+            bh.consume(values);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.dataformat;
+
+import com.fasterxml.jackson.databind.util.ISO8601DateFormat;
+import java.text.ParseException;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks MediPiNativeTokenizer against the parser it replaced
+ */
+public class MediPiNativeTokenizerTest {
+
+    @Test
+    public void devicePayloadsGiveTheSameEventsAsThePreviousParser() throws Exception {
+        assertSameEvents(NativePayloads.oximeter(200));
+        assertSameEvents(NativePayloads.scale(20));
+        assertSameEvents(NativePayloads.bloodPressure(20));
+    }
+
+    @Test
+    public void emptyFieldsGiveTheSameEventsAsThePreviousParser() throws Exception {
+        String payload = "metadata->persist->medipiversion->1.0.15\n"
+                + "metadata->datadelimiter->^\n"
+                + "metadata->columns->iso8601time^^spo2^\n"
+                + "metadata->units->NONE^^%^^\n"
+                + "2017-06-01T09:00:00.000Z^^97\n"
+                + "2017-06-01T09:00:01.000Z^72^^\n"
+                + "2017-06-01T09:00:02.000Z^^^\n";
+        assertSameEvents(payload);
+    }
+
+    @Test
+    public void lineEndingsAndDelimitersGiveTheSameEventsAsThePreviousParser() throws Exception {
+        for (String delimiter : new String[]{"^", ",", "|", "*", "\\", "~~", "#"}) {
+            String payload = NativePayloads.scale(5).replace(NativePayloads.DELIMITER, delimiter);
+            assertSameEvents(payload);
+            assertSameEvents(payload.replace("\n", "\r\n"));
+        }
+    }
+
+    @Test
+    public void splitMatchesStringSplit() {
+        String[] samples = {"", "a", "a^b", "a^^b", "^a", "a^", "a^^", "^", "^^", "^^a^^", "1^2^3^4^5"};
+        for (String s : samples) {
+            assertArrayEquals(s, s.split("\\^"), MediPiNativeTokenizer.split(s, 0, s.length(), "^"));
+            String multi = s.replace("^", "->");
+            assertArrayEquals(multi, multi.split("->"), MediPiNativeTokenizer.split(multi, 0, multi.length(), "->"));
+        }
+        // a region inside a longer string
+        assertArrayEquals(new String[]{"b", "c"}, MediPiNativeTokenizer.split("a\nb^c\nd", 2, 5, "^"));
+    }
+
+    @Test
+    public void parseIso8601MatchesThePreviousParser() throws Exception {
+        String[] samples = {
+            "2017-06-01T09:00:00Z",
+            "2017-06-01T09:00:00.123Z",
+            "2017-12-31T23:59:59.999Z",
+            "2016-02-29T12:00:00.000Z",
+            "1970-01-01T00:00:00.000Z",
+            "2017-06-01T09:00:00+01:00",
+            "2017-06-01T09:00:00.500+01:00",
+            "2017-06-01T09:00:00-05:30",
+            "2017-06-01T09:00:00+0100",
+            "2017-06-01T09:00:00-0530",
+            "2017-06-01"
+        };
+        for (String s : samples) {
+            assertEquals(s, new ISO8601DateFormat().parse(s), MediPiNativeTokenizer.parseIso8601(s));
+        }
+    }
+
+    @Test
+    public void parseIso8601AcceptsHourOffsetsAndTakesAMissingOffsetAsUtc() throws Exception {
+        // both rejected by the previous parser
+        assertEquals(MediPiNativeTokenizer.parseIso8601("2017-06-01T04:00:00Z"), MediPiNativeTokenizer.parseIso8601("2017-06-01T09:00:00+05"));
+        assertEquals(MediPiNativeTokenizer.parseIso8601("2017-06-01T17:00:00.250Z"), MediPiNativeTokenizer.parseIso8601("2017-06-01T09:00:00.250-08"));
+        assertEquals(MediPiNativeTokenizer.parseIso8601("2017-06-01T09:00:00Z"), MediPiNativeTokenizer.parseIso8601("2017-06-01T09:00:00"));
+    }
+
+    @Test
+    public void parseIso8601RejectsMalformedTimes() {
+        String[] samples = {"", "NaN", "2017-06-01T", "2017-13-01T09:00:00Z", "2017-02-30T09:00:00.000Z",
+            "2017-06-01T25:00:00.000Z", "2017-06-01T09:60:00Z", "2017-06-01T09:00:00.00aZ", "2017/06/01T09:00:00Z",
+            "2017-06-01T09:00:00+1"};
+        for (String s : samples) {
+            try {
+                MediPiNativeTokenizer.parseIso8601(s);
+                fail("Expected ParseException for " + s);
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void malformedLinesAreRejected() {
+        String header = "metadata->datadelimiter->^\n";
+        String[] payloads = {
+            "metadata->persist->medipiversion->1.0->extra\n",
+            "metadata->persist->medipiversion\n",
+            "metadata->make\n",
+            "metadata->make->\n",
+            "metadata->colour->red\n",
+            "metadata->columns->a^b\n",
+            "2017-06-01T09:00:00.000Z^72\n",
+            header + "^^^\n",
+            header + "\n",
+            header + "notatime^72\n",
+            header + "metadata->scheduleeffectivedate->tomorrow\n"
+        };
+        for (String payload : payloads) {
+            try {
+                MediPiNativeTokenizer.tokenize(payload, new RecordingHandler());
+                fail("Expected ParseException for " + payload);
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void errorOffsetIsTheStartOfTheLineInError() {
+        String payload = "metadata->datadelimiter->^\n2017-06-01T09:00:00.000Z^72\nmetadata->colour->red\n";
+        try {
+            MediPiNativeTokenizer.tokenize(payload, new RecordingHandler());
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertEquals(payload.indexOf("metadata->colour"), e.getErrorOffset());
+        }
+    }
+
+    private static void assertSameEvents(String payload) throws Exception {
+        RecordingHandler legacy = new RecordingHandler();
+        LegacyMediPiNativeParser.parse(payload, legacy);
+        RecordingHandler tokenizer = new RecordingHandler();
+        MediPiNativeTokenizer.tokenize(payload, tokenizer);
+        assertEquals(legacy.events, tokenizer.events);
+    }
+}
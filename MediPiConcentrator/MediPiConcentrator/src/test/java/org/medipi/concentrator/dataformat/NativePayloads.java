@@ -0,0 +1,83 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.dataformat;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * MediPi Native payloads laid out as the patient unit's Oximeter, Scale and
+ * BloodPressure devices send them, for the tokenizer tests and benchmark
+ */
+final class NativePayloads {
+
+    static final String DELIMITER = "^";
+    private static final DateTimeFormatter UTC = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    private static final long START = Instant.parse("2017-06-01T09:00:00Z").toEpochMilli();
+
+    private NativePayloads() {
+    }
+
+    static String oximeter(int rows) {
+        StringBuilder sb = header("Contec", "CMS50D+", "Finger Oximeter");
+        sb.append("metadata->columns->iso8601time^pulse^spo2^wave\n");
+        sb.append("metadata->format->DATE^INTEGER^INTEGER^DOUBLE\n");
+        sb.append("metadata->units->NONE^BPM^%^NONE\n");
+        for (int i = 0; i < rows; i++) {
+            sb.append(time(i * 1000L)).append(DELIMITER).append(60 + i % 40).append(DELIMITER).append(90 + i % 10).append(DELIMITER).append(i % 128 / 2.0).append('\n');
+        }
+        return sb.toString();
+    }
+
+    static String scale(int rows) {
+        StringBuilder sb = header("Beurer", "BF480", "Diagnostic Scale");
+        sb.append("metadata->columns->iso8601time^weight^bodyfat^water^muscle\n");
+        sb.append("metadata->format->DATE^DOUBLE^DOUBLE^DOUBLE^DOUBLE\n");
+        sb.append("metadata->units->NONE^kg^%^%^%\n");
+        for (int i = 0; i < rows; i++) {
+            sb.append(time(i * 86400000L)).append(DELIMITER).append(70 + i % 10 / 10.0).append(DELIMITER).append(20.5).append(DELIMITER).append(55.1).append(DELIMITER).append(35.0).append('\n');
+        }
+        return sb.toString();
+    }
+
+    static String bloodPressure(int rows) {
+        StringBuilder sb = header("Beurer", "BM55", "Blood Pressure Meter");
+        sb.append("metadata->columns->iso8601time^systol^diastol^pulserate^rest^arrhythmia\n");
+        sb.append("metadata->format->DATE^INTEGER^INTEGER^INTEGER^BOOLEAN^BOOLEAN\n");
+        sb.append("metadata->units->NONE^mmHg^mmHg^BPM^NONE^NONE\n");
+        for (int i = 0; i < rows; i++) {
+            sb.append(time(i * 3600000L)).append(DELIMITER).append(120 + i % 20).append(DELIMITER).append(80 + i % 10).append(DELIMITER).append(70).append(DELIMITER).append(i % 2 == 0).append(DELIMITER).append(false).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder header(String make, String model, String displayName) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("metadata->persist->medipiversion->1.0.15\n");
+        sb.append("metadata->make->").append(make).append('\n');
+        sb.append("metadata->model->").append(model).append('\n');
+        sb.append("metadata->displayname->").append(displayName).append('\n');
+        sb.append("metadata->datadelimiter->").append(DELIMITER).append('\n');
+        sb.append("metadata->scheduleeffectivedate->").append(time(0)).append('\n');
+        sb.append("metadata->scheduleexpirydate->").append(time(86400000L)).append('\n');
+        return sb;
+    }
+
+    private static String time(long offset) {
+        return UTC.format(Instant.ofEpochMilli(START + offset));
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.dataformat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tokenizer Handler which records each event as text so that the events of
+ * two parsers can be compared
+ */
+class RecordingHandler implements MediPiNativeTokenizer.Handler {
+
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public void persistentMetadata(String name, String value) {
+        events.add("persist " + name + "=" + value);
+    }
+
+    @Override
+    public void metadata(String name, String value) {
+        events.add("metadata " + name + "=" + value);
+    }
+
+    @Override
+    public void dateMetadata(String name, Date value) {
+        events.add("date " + name + "=" + value.getTime());
+    }
+
+    @Override
+    public void listMetadata(String name, String[] values) {
+        events.add("list " + name + "=" + Arrays.toString(values));
+    }
+
+    @Override
+    public void row(Date dataPointTime, String[] values) {
+        events.add("row " + dataPointTime.getTime() + "=" + Arrays.toString(values));
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import javax.servlet.ServletContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.medipi.concentrator.dataformat.PatientUploadDataFormat;
+import org.medipi.concentrator.entities.Patient;
+import org.medipi.concentrator.exception.BadRequest400Exception;
+import org.medipi.concentrator.exception.UnprocessableEntity422Exception;
+import org.medipi.concentrator.logging.MediPiLogger;
+import org.medipi.concentrator.utilities.Utilities;
+import org.medipi.model.DevicesPayloadDO;
+import org.medipi.model.EncryptedAndSignedUploadDO;
+import org.medipi.model.UploadResultDO;
+import org.medipi.security.UploadEncryptionAdapter;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that each upload of a batch is answered as it would have been on its
+ * own, with the ledger, the decryption and the data format mocked
+ */
+public class PatientBatchUploadServiceTest {
+
+    private static final String HARDWARE = "device-1";
+    private static final String PATIENT = "patient-1";
+    private static final String OTHERPATIENT = "patient-2";
+    private static final String DATAFORMAT = "MediPiNative";
+    private static final String ACCEPTED = "Data added to MediPi Concentrator";
+
+    private PatientBatchUploadService service;
+    private ProcessedUploadService processedUploadService;
+    private UploadEncryptionAdapter patientEncryptionAdapter;
+    private PatientUploadDataFormat dataFormat;
+    private PlatformTransactionManager transactionManager;
+    // the refusal processAll gives for each upload UUID, none for the others
+    private final HashMap<String, RuntimeException> refusals = new HashMap<>();
+    // the upload UUIDs passed to each call of processAll
+    private final List<List<String>> processed = new ArrayList<>();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        Utilities utils = mock(Utilities.class);
+        when(utils.getProperties()).thenReturn(new Properties());
+        PatientDeviceValidationService validationService = mock(PatientDeviceValidationService.class);
+        doReturn(new ResponseEntity<>(ACCEPTED, HttpStatus.OK)).when(validationService).validate(HARDWARE, PATIENT);
+        dataFormat = mock(PatientUploadDataFormat.class);
+        when(dataFormat.processAll(anyListOf(DevicesPayloadDO.class), any(Patient.class))).thenAnswer(new Answer<List<RuntimeException>>() {
+            @Override
+            public List<RuntimeException> answer(InvocationOnMock invocation) {
+                List<String> uploadUuids = new ArrayList<>();
+                List<RuntimeException> results = new ArrayList<>();
+                for (DevicesPayloadDO content : (List<DevicesPayloadDO>) invocation.getArguments()[0]) {
+                    uploadUuids.add(content.getUploadUuid());
+                    results.add(refusals.get(content.getUploadUuid()));
+                }
+                processed.add(uploadUuids);
+                return results;
+            }
+        });
+        ServletContext servletCtx = mock(ServletContext.class);
+        when(servletCtx.getAttribute(DATAFORMAT)).thenReturn(dataFormat);
+        patientEncryptionAdapter = mock(UploadEncryptionAdapter.class);
+        when(patientEncryptionAdapter.decryptAndVerify(any(EncryptedAndSignedUploadDO.class))).thenAnswer(new Answer<DevicesPayloadDO>() {
+            @Override
+            public DevicesPayloadDO answer(InvocationOnMock invocation) {
+                return new DevicesPayloadDO(((EncryptedAndSignedUploadDO) invocation.getArguments()[0]).getUploadUuid());
+            }
+        });
+        processedUploadService = mock(ProcessedUploadService.class);
+        // every upload is claimed unless a test says otherwise
+        when(processedUploadService.claimUploads(anyCollectionOf(String.class), eq(PATIENT))).thenAnswer(new Answer<HashSet<String>>() {
+            @Override
+            public HashSet<String> answer(InvocationOnMock invocation) {
+                return new HashSet<>((Collection<String>) invocation.getArguments()[0]);
+            }
+        });
+        transactionManager = mock(PlatformTransactionManager.class);
+
+        service = new PatientBatchUploadService();
+        ReflectionTestUtils.setField(service, "logger", mock(MediPiLogger.class));
+        ReflectionTestUtils.setField(service, "utils", utils);
+        ReflectionTestUtils.setField(service, "servletCtx", servletCtx);
+        ReflectionTestUtils.setField(service, "patientDeviceValidationService", validationService);
+        ReflectionTestUtils.setField(service, "patientEncryptionAdapter", patientEncryptionAdapter);
+        ReflectionTestUtils.setField(service, "processedUploadService", processedUploadService);
+        ReflectionTestUtils.setField(service, "transactionManager", transactionManager);
+        assertEquals(null, service.init());
+    }
+
+    @After
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void repeatedUploadIsProcessedOnceAndSharesTheResult() throws Exception {
+        List<UploadResultDO> results = upload("a", "b", "a");
+
+        assertResult(results.get(0), "a", 200, ACCEPTED);
+        assertResult(results.get(1), "b", 200, ACCEPTED);
+        assertResult(results.get(2), "a", 200, ACCEPTED);
+        assertEquals(Arrays.asList(Arrays.asList("a", "b")), processed);
+        verify(patientEncryptionAdapter, times(2)).decryptAndVerify(any(EncryptedAndSignedUploadDO.class));
+        verify(processedUploadService).claimUploads(Arrays.asList("a", "b"), PATIENT);
+    }
+
+    @Test
+    public void decryptionFailureOnlyFailsThatUpload() throws Exception {
+        when(patientEncryptionAdapter.decryptAndVerify(new EncryptedAndSignedUploadDO("b"))).thenThrow(new Exception("signature does not verify"));
+
+        List<UploadResultDO> results = upload("a", "b", "c");
+
+        assertResult(results.get(0), "a", 200, ACCEPTED);
+        assertResult(results.get(1), "b", 400, "Decryption exception: signature does not verify");
+        assertResult(results.get(2), "c", 200, ACCEPTED);
+        assertEquals(Arrays.asList(Arrays.asList("a", "c")), processed);
+        verify(processedUploadService).claimUploads(Arrays.asList("a", "c"), PATIENT);
+    }
+
+    @Test
+    public void uploadClaimedElsewhereForThePatientIsAlreadyProcessed() {
+        when(processedUploadService.claimUploads(Arrays.asList("a", "b", "c"), PATIENT)).thenReturn(new HashSet<>(Arrays.asList("a", "c")));
+        when(processedUploadService.getClaimedFor("b")).thenReturn(PATIENT);
+
+        List<UploadResultDO> results = upload("a", "b", "c");
+
+        assertResult(results.get(0), "a", 200, ACCEPTED);
+        assertResult(results.get(1), "b", 200, "Already processed");
+        assertResult(results.get(2), "c", 200, ACCEPTED);
+        assertEquals(Arrays.asList(Arrays.asList("a", "c")), processed);
+    }
+
+    @Test
+    public void uploadClaimedElsewhereForAnotherPatientIsAConflict() {
+        when(processedUploadService.claimUploads(Arrays.asList("a", "b"), PATIENT)).thenReturn(new HashSet<>(Arrays.asList("a")));
+        when(processedUploadService.getClaimedFor("b")).thenReturn(OTHERPATIENT);
+
+        List<UploadResultDO> results = upload("a", "b");
+
+        assertResult(results.get(0), "a", 200, ACCEPTED);
+        assertResult(results.get(1), "b", 409, "Already processed for a different patient");
+        assertEquals(Arrays.asList(Arrays.asList("a")), processed);
+    }
+
+    @Test
+    public void uploadWhoseClaimWasGivenUpIsRetried() {
+        when(processedUploadService.claimUploads(Arrays.asList("a", "b"), PATIENT)).thenReturn(new HashSet<>(Arrays.asList("a")));
+        when(processedUploadService.getClaimedFor("b")).thenReturn(null);
+
+        List<UploadResultDO> results = upload("a", "b");
+
+        assertResult(results.get(0), "a", 200, ACCEPTED);
+        assertEquals(500, results.get(1).getStatus());
+    }
+
+    @Test
+    public void refusedUploadOnlyFailsThatUploadAndGivesUpItsClaim() {
+        refusals.put("b", new BadRequest400Exception("Cannot read the upload"));
+        refusals.put("c", new UnprocessableEntity422Exception("Unknown device"));
+
+        List<UploadResultDO> results = upload("a", "b", "c", "d");
+
+        assertResult(results.get(0), "a", 200, ACCEPTED);
+        assertResult(results.get(1), "b", 400, "Cannot read the upload");
+        assertResult(results.get(2), "c", 422, "Unknown device");
+        assertResult(results.get(3), "d", 200, ACCEPTED);
+        verify(processedUploadService).release(Arrays.asList("b", "c"));
+        verify(transactionManager).commit(any(TransactionStatus.class));
+    }
+
+    @Test
+    public void failedTransactionAnswersEveryWrittenUploadWith500() throws Exception {
+        when(patientEncryptionAdapter.decryptAndVerify(new EncryptedAndSignedUploadDO("b"))).thenThrow(new Exception("signature does not verify"));
+        doThrow(new RuntimeException("connection lost")).when(dataFormat).processAll(anyListOf(DevicesPayloadDO.class), any(Patient.class));
+
+        List<UploadResultDO> results = upload("a", "b", "c", "a");
+
+        assertResult(results.get(0), "a", 500, "connection lost");
+        assertEquals(400, results.get(1).getStatus());
+        assertResult(results.get(2), "c", 500, "connection lost");
+        assertResult(results.get(3), "a", 500, "connection lost");
+        verify(transactionManager).rollback(any(TransactionStatus.class));
+        verify(transactionManager, never()).commit(any(TransactionStatus.class));
+        verify(processedUploadService, never()).release(anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void uploadAlreadyInTheLedgerIsNotDecrypted() throws Exception {
+        when(processedUploadService.getProcessedFor("a")).thenReturn(PATIENT);
+        when(processedUploadService.getProcessedFor("b")).thenReturn(OTHERPATIENT);
+
+        List<UploadResultDO> results = upload("a", "b", "c");
+
+        assertResult(results.get(0), "a", 200, "Already processed");
+        assertResult(results.get(1), "b", 409, "Already processed for a different patient");
+        assertResult(results.get(2), "c", 200, ACCEPTED);
+        verify(patientEncryptionAdapter, times(1)).decryptAndVerify(any(EncryptedAndSignedUploadDO.class));
+        assertEquals(Arrays.asList(Arrays.asList("c")), processed);
+    }
+
+    @Test
+    public void batchWithNothingToWriteDoesNotStartATransaction() {
+        when(processedUploadService.getProcessedFor(anyString())).thenReturn(PATIENT);
+
+        List<UploadResultDO> results = upload("a", "a");
+
+        assertResult(results.get(0), "a", 200, "Already processed");
+        assertResult(results.get(1), "a", 200, "Already processed");
+        verify(transactionManager, never()).getTransaction(any(TransactionDefinition.class));
+    }
+
+    private List<UploadResultDO> upload(String... uploadUuids) {
+        List<EncryptedAndSignedUploadDO> uploads = new ArrayList<>();
+        for (String uploadUuid : uploadUuids) {
+            uploads.add(new EncryptedAndSignedUploadDO(uploadUuid));
+        }
+        ResponseEntity<List<UploadResultDO>> response = service.uploadBatch(HARDWARE, PATIENT, DATAFORMAT, uploads);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(uploadUuids.length, response.getBody().size());
+        return response.getBody();
+    }
+
+    private static void assertResult(UploadResultDO result, String uploadUuid, int status, String message) {
+        assertEquals(uploadUuid, result.getUploadUuid());
+        assertEquals(status, result.getStatus());
+        assertEquals(message, result.getMessage());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.concentrator.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that BloomFilter never forgets a string and keeps to its false
+ * positive probability
+ */
+public class BloomFilterTest {
+
+    @Test
+    public void putStringsAreAlwaysFound() {
+        BloomFilter filter = new BloomFilter(100000, 0.01);
+        List<String> uuids = uuids(new Random(1), 100000);
+        for (String uuid : uuids) {
+            filter.put(uuid);
+        }
+        for (String uuid : uuids) {
+            assertTrue(uuid, filter.mightContain(uuid));
+        }
+    }
+
+    @Test
+    public void falsePositivesAreNearTheExpectedProbability() {
+        BloomFilter filter = new BloomFilter(100000, 0.01);
+        for (String uuid : uuids(new Random(2), 100000)) {
+            filter.put(uuid);
+        }
+        int falsePositives = 0;
+        for (String uuid : uuids(new Random(3), 100000)) {
+            if (filter.mightContain(uuid)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 2000);
+    }
+
+    @Test
+    public void overfilledFilterStillFindsEveryString() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        List<String> uuids = uuids(new Random(4), 10000);
+        for (String uuid : uuids) {
+            filter.put(uuid);
+        }
+        for (String uuid : uuids) {
+            assertTrue(uuid, filter.mightContain(uuid));
+        }
+    }
+
+    @Test
+    public void emptyFilterContainsNothing() {
+        BloomFilter filter = new BloomFilter(0, 0.01);
+        assertFalse(filter.mightContain(""));
+        assertFalse(filter.mightContain("5d3c1f0e-3a8b-4a61-9a55-1c1f5b3b2f10"));
+        filter.put("");
+        assertTrue(filter.mightContain(""));
+    }
+
+    @Test
+    public void concurrentPutsAreNotLost() throws Exception {
+        final BloomFilter filter = new BloomFilter(200000, 0.01);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<List<String>>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < 8; t++) {
+                final int seed = 10 + t;
+                futures.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        List<String> uuids = uuids(new Random(seed), 25000);
+                        for (String uuid : uuids) {
+                            filter.put(uuid);
+                        }
+                        return uuids;
+                    }
+                }));
+            }
+            for (Future<List<String>> future : futures) {
+                for (String uuid : future.get()) {
+                    assertTrue(uuid, filter.mightContain(uuid));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> uuids(Random random, int count) {
+        List<String> uuids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            uuids.add(new UUID(random.nextLong(), random.nextLong()).toString());
+        }
+        return uuids;
+    }
+}
@@ -0,0 +1,34 @@
+--
+-- Synthetic data for RecordingDeviceDataQueryPlanTest, loaded into the
+-- baseline schema before the db_updates are applied: :rows readings from 2000
+-- patients in 50 patient groups, downloaded over the last 180 days
+--
+
+SET search_path = public, pg_catalog;
+
+INSERT INTO patient_group (patient_group_uuid, patient_group_name)
+    SELECT 'group-' || g, 'Group ' || g FROM generate_series(1, 50) g;
+
+INSERT INTO patient (patient_uuid, patient_group_uuid)
+    SELECT 'patient-' || p, 'group-' || (p % 50 + 1) FROM generate_series(1, 2000) p;
+
+INSERT INTO recording_device_type (type_id, type, make, model, display_name) VALUES
+    (1, 'Oximeter', 'Contec', 'CMS50D+', 'Contec CMS50D+ Finger Pulse Oximeter'),
+    (2, 'BloodPressure', 'Omron', '708-BT', 'Omron 708-BT Blood Pressure Meter'),
+    (3, 'DiagnosticScale', 'Beurer', 'BF-480', 'Beurer BF-480 Scales');
+
+INSERT INTO recording_device_attribute (attribute_id, type_id, attribute_name, attribute_units, attribute_type) VALUES
+    (1, 1, 'pulse', 'BPM', 'INTEGER'),
+    (2, 1, 'spo2', '%', 'INTEGER'),
+    (3, 2, 'systol', 'mmHg', 'INTEGER'),
+    (4, 2, 'diastol', 'mmHg', 'INTEGER'),
+    (5, 2, 'pulserate', 'BPM', 'INTEGER'),
+    (6, 3, 'weight', 'kg', 'DOUBLE');
+
+INSERT INTO recording_device_data (data_id, attribute_id, data_value, patient_uuid, data_value_time, downloaded_time, schedule_effective_time, schedule_expiry_time)
+    SELECT n, n % 6 + 1, (50 + n % 50)::text, 'patient-' || (n % 2000 + 1),
+        t, t + interval '10 minutes', date_trunc('day', t), date_trunc('day', t) + interval '1 day'
+    FROM (SELECT n, now() - interval '181 days' + interval '180 days' * n / :rows AS t
+          FROM generate_series(1, :rows) n) d;
+
+SELECT setval('recording_device_data_data_id_seq', :rows);
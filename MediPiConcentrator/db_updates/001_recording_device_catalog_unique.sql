@@ -0,0 +1,65 @@
+--
+-- MediPi Concentrator DB update 001
+-- Unique indexes on the recording device catalog so that concurrent uploads
+-- from a new device model cannot create duplicate types or attributes
+--
+-- Duplicates created before this update are merged first: the lowest id in
+-- each set of duplicate types and attributes is kept, everything referring to
+-- the others is re-pointed to it and the others are deleted. Types are merged
+-- before attributes as re-pointing the attributes of a merged type can make
+-- them duplicates of the kept type's attributes.
+--
+-- attribute_threshold in the MediPi Clinical DB holds that DB's own attribute
+-- ids and is not affected. It is re-pointed here only if the table has been
+-- created in the concentrator DB
+--
+
+SET search_path = public, pg_catalog;
+
+BEGIN;
+
+CREATE TEMPORARY TABLE recording_device_type_merge ON COMMIT DROP AS
+    SELECT type_id, keep_id
+    FROM (SELECT type_id, min(type_id) OVER (PARTITION BY type, make, model, display_name) AS keep_id
+          FROM recording_device_type) t
+    WHERE type_id <> keep_id;
+
+UPDATE recording_device_attribute a SET type_id = m.keep_id
+    FROM recording_device_type_merge m
+    WHERE a.type_id = m.type_id;
+
+DELETE FROM recording_device_type t
+    USING recording_device_type_merge m
+    WHERE t.type_id = m.type_id;
+
+CREATE TEMPORARY TABLE recording_device_attribute_merge ON COMMIT DROP AS
+    SELECT attribute_id, keep_id
+    FROM (SELECT attribute_id, min(attribute_id) OVER (PARTITION BY type_id, attribute_name, COALESCE(attribute_units, ''), attribute_type) AS keep_id
+          FROM recording_device_attribute) a
+    WHERE attribute_id <> keep_id;
+
+UPDATE recording_device_data d SET attribute_id = m.keep_id
+    FROM recording_device_attribute_merge m
+    WHERE d.attribute_id = m.attribute_id;
+
+DO $$
+BEGIN
+    IF to_regclass('attribute_threshold') IS NOT NULL THEN
+        UPDATE attribute_threshold t SET attribute_id = m.keep_id
+            FROM recording_device_attribute_merge m
+            WHERE t.attribute_id = m.attribute_id;
+    END IF;
+END;
+$$;
+
+DELETE FROM recording_device_attribute a
+    USING recording_device_attribute_merge m
+    WHERE a.attribute_id = m.attribute_id;
+
+CREATE UNIQUE INDEX recording_device_type_type_make_model_display_name_uk
+    ON recording_device_type (type, make, model, display_name);
+
+CREATE UNIQUE INDEX recording_device_attribute_type_name_units_format_uk
+    ON recording_device_attribute (type_id, attribute_name, COALESCE(attribute_units, ''), attribute_type);
+
+COMMIT;
@@ -0,0 +1,10 @@
+--
+-- MediPi Concentrator DB update 002
+-- Index supporting the keyset cursor on (downloaded_time, data_id) used when
+-- 3rd party systems synchronise data a page at a time
+--
+
+SET search_path = public, pg_catalog;
+
+CREATE INDEX recording_device_data_downloaded_time_data_id_idx
+    ON recording_device_data (downloaded_time, data_id);
@@ -0,0 +1,19 @@
+--
+-- MediPi Concentrator DB update 004
+-- Composite indexes for the recording_device_data queries which are run for
+-- every upload and every data request:
+--   RecordingDeviceData.isAlreadyStored and findStoredInPeriod use
+--   recording_device_data_patient_attribute_time_numeric_idx (update 003)
+--   RecordingDeviceData.findByPatientAndDownloadedTime uses
+--   recording_device_data_patient_downloaded_time_idx
+-- The index is built concurrently so that uploads are not blocked while it
+-- is created on a large table. CREATE INDEX CONCURRENTLY cannot be run inside
+-- a transaction so this script must be run by psql in autocommit mode
+--
+
+SET search_path = public, pg_catalog;
+
+CREATE INDEX CONCURRENTLY recording_device_data_patient_downloaded_time_idx
+    ON recording_device_data (patient_uuid, downloaded_time);
+
+ANALYZE recording_device_data;
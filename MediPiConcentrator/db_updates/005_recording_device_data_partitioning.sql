@@ -0,0 +1,95 @@
+--
+-- MediPi Concentrator DB update 005
+-- Monthly partitioning of recording_device_data by downloaded_time.
+--
+-- The concentrator is a relay: once a month's data has been synchronised by
+-- every patient group it is rarely read again. Partitioning by the time the
+-- data arrived means that the sync cursor and the duplicate checks only visit
+-- the recent partitions and that old months can be archived and dropped
+-- whole by org.medipi.concentrator.services.DataRetentionService rather than
+-- deleted row by row.
+--
+-- Requires PostgreSQL 11 or later. The existing data is copied into the new
+-- partitions in a single transaction so the concentrator should be stopped
+-- while this script is run.
+--
+-- The alert table's foreign key to recording_device_data is dropped as a
+-- partitioned table can only be referenced through a key which includes the
+-- partition column. The concentrator does not write alerts against data.
+--
+
+SET search_path = public, pg_catalog;
+
+BEGIN;
+
+-- downloaded time up to which each patient group's requesting system has
+-- acknowledged committing the data. Data downloaded before the earliest of
+-- these has been received by every patient group
+ALTER TABLE patient_group ADD COLUMN data_synced_time timestamp with time zone;
+
+ALTER TABLE alert DROP CONSTRAINT IF EXISTS recording_device_data_alert_fk;
+
+ALTER TABLE recording_device_data RENAME TO recording_device_data_unpartitioned;
+ALTER TABLE recording_device_data_unpartitioned RENAME CONSTRAINT recording_device_data_pkey TO recording_device_data_unpartitioned_pkey;
+ALTER INDEX recording_device_data_downloaded_time_data_id_idx RENAME TO recording_device_data_unpartitioned_downloaded_time_data_id_idx;
+ALTER INDEX recording_device_data_patient_attribute_time_numeric_idx RENAME TO recording_device_data_unpartitioned_patient_attribute_time_numeric_idx;
+ALTER INDEX recording_device_data_patient_downloaded_time_idx RENAME TO recording_device_data_unpartitioned_patient_downloaded_time_idx;
+-- keep the id sequence when the old table is dropped
+ALTER SEQUENCE recording_device_data_data_id_seq OWNED BY NONE;
+
+CREATE TABLE recording_device_data (LIKE recording_device_data_unpartitioned INCLUDING DEFAULTS)
+    PARTITION BY RANGE (downloaded_time);
+ALTER TABLE recording_device_data ALTER COLUMN downloaded_time SET NOT NULL;
+ALTER SEQUENCE recording_device_data_data_id_seq OWNED BY recording_device_data.data_id;
+
+ALTER TABLE recording_device_data ADD CONSTRAINT recording_device_data_pkey PRIMARY KEY (data_id, downloaded_time);
+ALTER TABLE recording_device_data ADD CONSTRAINT patient_recording_device_data_fk FOREIGN KEY (patient_uuid) REFERENCES patient(patient_uuid);
+ALTER TABLE recording_device_data ADD CONSTRAINT recording_device_attribute_recording_device_data_fk FOREIGN KEY (attribute_id) REFERENCES recording_device_attribute(attribute_id);
+
+CREATE INDEX recording_device_data_downloaded_time_data_id_idx
+    ON recording_device_data (downloaded_time, data_id);
+CREATE INDEX recording_device_data_patient_attribute_time_numeric_idx
+    ON recording_device_data (patient_uuid, attribute_id, data_value_time, data_value_numeric);
+CREATE INDEX recording_device_data_patient_downloaded_time_idx
+    ON recording_device_data (patient_uuid, downloaded_time);
+
+-- catches any data downloaded in a month which does not yet have a partition
+CREATE TABLE recording_device_data_default PARTITION OF recording_device_data DEFAULT;
+
+--
+-- Creates the partition for the month containing month_start if it does not
+-- already exist, moving any data for the month out of the default partition,
+-- and returns its name. Partitions are named recording_device_data_YYYYMM
+--
+CREATE OR REPLACE FUNCTION create_recording_device_data_partition(month_start date) RETURNS text AS $$
+DECLARE
+    partition_start date := date_trunc('month', month_start)::date;
+    partition_end date := (date_trunc('month', month_start) + interval '1 month')::date;
+    partition_name text := 'recording_device_data_' || to_char(month_start, 'YYYYMM');
+BEGIN
+    IF to_regclass(partition_name) IS NOT NULL THEN
+        RETURN partition_name;
+    END IF;
+    EXECUTE format('CREATE TABLE %I (LIKE recording_device_data INCLUDING DEFAULTS)', partition_name);
+    EXECUTE format('WITH moved AS (DELETE FROM recording_device_data_default WHERE downloaded_time >= %L AND downloaded_time < %L RETURNING *) INSERT INTO %I SELECT * FROM moved',
+        partition_start, partition_end, partition_name);
+    EXECUTE format('ALTER TABLE recording_device_data ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+        partition_name, partition_start, partition_end);
+    RETURN partition_name;
+END;
+$$ LANGUAGE plpgsql;
+
+-- a partition for every month which has data and for the next two months
+SELECT create_recording_device_data_partition(month_start::date)
+    FROM generate_series(
+        date_trunc('month', COALESCE((SELECT MIN(downloaded_time) FROM recording_device_data_unpartitioned), now())),
+        date_trunc('month', now()) + interval '2 months',
+        interval '1 month') AS month_start;
+
+INSERT INTO recording_device_data SELECT * FROM recording_device_data_unpartitioned;
+
+DROP TABLE recording_device_data_unpartitioned;
+
+COMMIT;
+
+ANALYZE recording_device_data;
@@ -0,0 +1,44 @@
+--
+-- MediPi Concentrator DB update 006
+-- Stored signatures for the hardware downloadable list entries.
+--
+-- The hardware and all hardware downloadable list entries are signed by the
+-- concentrator. The signature is now made the first time an entry is listed
+-- and stored in download_signature rather than being made on every poll.
+-- The trigger clears the stored signature when any of the signed columns
+-- change so that it is made again.
+--
+-- If the hardware signing keystore is changed the stored signatures must be
+-- cleared:
+--     UPDATE hardware_downloadable SET download_signature = NULL;
+--     UPDATE all_hardware_downloadable SET download_signature = NULL;
+--
+
+SET search_path = public, pg_catalog;
+
+BEGIN;
+
+ALTER TABLE hardware_downloadable ADD COLUMN download_signature character varying(10000);
+ALTER TABLE all_hardware_downloadable ADD COLUMN download_signature character varying(10000);
+
+CREATE OR REPLACE FUNCTION clear_download_signature() RETURNS trigger AS $$
+BEGIN
+    IF NEW.version IS DISTINCT FROM OLD.version
+            OR NEW.version_author IS DISTINCT FROM OLD.version_author
+            OR NEW.version_date IS DISTINCT FROM OLD.version_date
+            OR NEW.script_location IS DISTINCT FROM OLD.script_location THEN
+        NEW.download_signature := NULL;
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER hardware_downloadable_clear_download_signature
+    BEFORE UPDATE ON hardware_downloadable
+    FOR EACH ROW EXECUTE PROCEDURE clear_download_signature();
+
+CREATE TRIGGER all_hardware_downloadable_clear_download_signature
+    BEFORE UPDATE ON all_hardware_downloadable
+    FOR EACH ROW EXECUTE PROCEDURE clear_download_signature();
+
+COMMIT;
@@ -0,0 +1,35 @@
+--
+-- MediPi Concentrator DB update 007
+-- Ledger of the uploads which have been processed.
+--
+-- A patient unit may send the same upload more than once, e.g. when the
+-- connection is lost before the concentrator's answer arrives. Each upload
+-- (EncryptedAndSignedUploadDO.uploadUuid) is claimed in processed_upload in
+-- the same transaction as its data is written, so that a replayed upload is
+-- answered with a single lookup and is not decrypted or written again. Device
+-- data payloads are not claimed: a patient unit makes a new device data UUID
+-- each time it sends readings, so their data is checked for duplicates value
+-- by value instead.
+--
+-- processed_time is set and compared using the DB clock.
+--
+-- Rows older than medipi.concentrator.upload.ledger.retention.days are
+-- removed by the concentrator.
+--
+
+SET search_path = public, pg_catalog;
+
+BEGIN;
+
+CREATE TABLE processed_upload (
+    processed_uuid character varying(100) NOT NULL,
+    processed_type character(1) NOT NULL,
+    patient_uuid character varying(100) NOT NULL,
+    processed_time timestamp with time zone DEFAULT now() NOT NULL,
+    CONSTRAINT processed_upload_pkey PRIMARY KEY (processed_uuid),
+    CONSTRAINT processed_upload_type_check CHECK (processed_type IN ('U'))
+);
+
+CREATE INDEX processed_upload_processed_time_idx ON processed_upload (processed_time);
+
+COMMIT;
@@ -0,0 +1,50 @@
+--
+-- MediPi Concentrator DB update 008
+-- Change log of the hardware downloadable list entries.
+--
+-- Hardware and all hardware downloadables are inserted directly into the DB
+-- rather than through the concentrator, so the concentrator cannot otherwise
+-- tell that a hardware device's downloadable list has changed. The triggers
+-- record each entry which is added, or whose signed columns change, in
+-- downloadable_change. The concentrator reads the rows after the last
+-- change_id it has seen on a short period and changes the version of the
+-- hardware's list, which wakes the requests held waiting for it. A row with
+-- a NULL hardware_name is a change to the all hardware list.
+--
+-- Rows are removed by the concentrator a day after they were recorded
+--
+
+SET search_path = public, pg_catalog;
+
+BEGIN;
+
+CREATE TABLE downloadable_change (
+    change_id bigserial PRIMARY KEY,
+    hardware_name character varying(100),
+    change_time timestamp without time zone DEFAULT now() NOT NULL
+);
+
+CREATE INDEX downloadable_change_time_idx ON downloadable_change (change_time);
+
+CREATE OR REPLACE FUNCTION record_downloadable_change() RETURNS trigger AS $$
+BEGIN
+    IF TG_TABLE_NAME = 'hardware_downloadable' THEN
+        INSERT INTO downloadable_change (hardware_name) VALUES (NEW.hardware_name);
+    ELSE
+        INSERT INTO downloadable_change (hardware_name) VALUES (NULL);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- the concentrator itself only updates downloaded_date and download_signature,
+-- which are not listed so that its own updates are not recorded
+CREATE TRIGGER hardware_downloadable_record_change
+    AFTER INSERT OR UPDATE OF hardware_name, version, version_author, version_date, script_location ON hardware_downloadable
+    FOR EACH ROW EXECUTE PROCEDURE record_downloadable_change();
+
+CREATE TRIGGER all_hardware_downloadable_record_change
+    AFTER INSERT OR UPDATE OF version, version_author, version_date, script_location ON all_hardware_downloadable
+    FOR EACH ROW EXECUTE PROCEDURE record_downloadable_change();
+
+COMMIT;
@@ -356,6 +356,7 @@ public class MediPi extends Application implements UnlockConsumer {
                 makeFatalErrorMessage("MediPi log directory is not set", null);
                 return;
             } else if (new File(log).isDirectory()) {
+                MediPiLogger.getInstance().configure(properties);
                 MediPiLogger.getInstance().setAppName("MEDIPI", log);
                 MediPiLogger.getInstance().log(MediPi.class.getName() + "startup", versionIdent);
             } else {
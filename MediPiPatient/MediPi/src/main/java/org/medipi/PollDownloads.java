@@ -19,8 +19,10 @@ import java.time.Instant;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import org.medipi.logging.MediPiLogger;
 import org.medipi.messaging.rest.RESTfulMessagingEngine;
@@ -34,6 +36,22 @@ import org.medipi.model.DownloadableDO;
  * This class polls the concentrator receives the list of responses and calls
  * the appropriate handler
  *
+ * The ETag of the last empty list is sent in If-None-Match so that the
+ * concentrator can answer 304 Not Modified when nothing has changed. The ETag
+ * of a list with entries is not kept as handling them acknowledges them, and
+ * an entry which could not be handled must be listed again
+ *
+ * When long polling is configured the concentrator is asked to hold the
+ * request until the list changes. While the list is empty the next request is
+ * sent as soon as the last one is answered, inside the same VPN connection, so
+ * that alerts are received as soon as they are added rather than on the next
+ * poll. Polling returns to the poll period when the list has entries, the
+ * connection fails or WIFI is lost. It also returns to the poll period when
+ * the concentrator answers in less than half of the wait, as a concentrator
+ * which does not hold requests (or a proxy which removes the Prefer header)
+ * would otherwise be sent one request after another for as long as the list
+ * stays empty
+ *
  * @author rick@robinsonhq.com
  */
 public class PollDownloads
@@ -43,6 +61,7 @@ public class PollDownloads
     private static final String MEDIPIDEVICECERTNAME = "medipi.device.cert.name";
     private static final String MEDIPIPATIENTCERTNAME = "medipi.patient.cert.name";
     private static final String MEDIPIDOWNLOADABLERESILIENCEATTEMPTS = "medipi.downloadable.resilienceattempts";
+    private static final String MEDIPIDOWNLOADABLELONGPOLLWAIT = "medipi.downloadable.longpoll.wait";
     private String patientCertName;
     private final String deviceCertName;
     private final String resourcePath;
@@ -50,6 +69,8 @@ public class PollDownloads
     private RESTfulMessagingEngine rme;
     private int resilienceAttempts = 0;
     private int remainingResilienceAttempts = 0;
+    private int longPollWait = 0;
+    private String eTag = null;
 
     /**
      * Constructor for PollIncomingMessage class
@@ -76,6 +97,14 @@ public class PollDownloads
         }
         resilienceAttempts = Integer.parseInt(s);
         remainingResilienceAttempts = resilienceAttempts;
+        s = medipi.getProperties().getProperty(MEDIPIDOWNLOADABLELONGPOLLWAIT);
+        if (s != null && s.trim().length() != 0) {
+            longPollWait = Integer.parseInt(s.trim());
+        }
+        if (longPollWait > 0) {
+            // the concentrator holds the request for up to the wait
+            rme.setReadTimeout(rme.getReadTimeout() + longPollWait * 1000);
+        }
     }
 
     @Override
@@ -101,44 +130,13 @@ public class PollDownloads
                 HashMap<String, Object> hs = new HashMap<>();
                 hs.put("deviceId", deviceCertName);
                 hs.put("patientId", patientCertName);
-                Response listResponse = rme.executeGet(hs);
-                //
-                if (listResponse != null) {
-                    System.out.println("Poll Download returned status = " + listResponse.getStatus());
-                    //POSITIVE RESPONSE
-                    if (listResponse.getStatus() == Response.Status.OK.getStatusCode()) {
-                        List<DownloadableDO> ld = listResponse.readEntity(new GenericType<List<DownloadableDO>>() {
-                        });
-                        for (DownloadableDO d : ld) {
-                            MediPiLogger.getInstance().log(PollDownloads.class.getName() + ".info", "New Downloadable List detected - Downloadable UUID: " + d.getDownloadableUuid());
-                            try {
-                                medipi.getDownloadableHandlerManager().handle(d);
-                            } catch (Exception e) {
-                                MediPiMessageBox.getInstance().makeErrorMessage("Error in attempting to download an incoming message/update ", e);
-                            }
-                        }
-                        // Remember that list may be empty - therefore no action
-                    } else {
-                        //ERROR RESPONSE
-                        String err = listResponse.readEntity(String.class);
-                        switch (listResponse.getStatus()) {
-                            // NOT FOUND
-                            case 404:
-                            // This is returned when the hardware name and patientId do not match
-                            // ***************** DO SOMETHING WITH 404 *******************
-                            // UPDATE REQUIRED
-                            case 426:
-                            // ***************** DO SOMETHING WITH 426 *******************
-                            // INTERNAL SERVER ERROR    
-                            case 500:
-                            default:
-                                // ***************** DO SOMETHING WITH EVERY OTHER STATUS CODE *******************
-                                System.out.println(err);
-                        }
-                        MediPiLogger.getInstance().log(PollDownloads.class.getName() + ".error", "Error code: " + listResponse.getStatus() + " detected when trying to return downloadable list");
-                    }
-                }
-
+                boolean held;
+                do {
+                    held = poll(hs);
+                    // keep waiting while the list is empty and the concentrator holds the request
+                } while (held && eTag != null && medipi.wifiSync.get()
+                        && patientCertName.equals(System.getProperty(MEDIPIPATIENTCERTNAME))
+                        && !Thread.currentThread().isInterrupted());
             }
         } catch (ProcessingException pe) {
             if (remainingResilienceAttempts == 0) {
@@ -166,4 +164,68 @@ public class PollDownloads
         }
         remainingResilienceAttempts = resilienceAttempts;
     }
+
+    // requests the downloadable list once and handles the response. Returns true if the concentrator held the request
+    private boolean poll(HashMap<String, Object> hs) throws Exception {
+        long start = System.nanoTime();
+        HashMap<String, String> header = new HashMap<>();
+        if (eTag != null) {
+            header.put(HttpHeaders.IF_NONE_MATCH, eTag);
+        }
+        if (longPollWait > 0) {
+            header.put("Prefer", "wait=" + longPollWait);
+        }
+        Response listResponse = rme.executeGet(hs, header);
+        //
+        if (listResponse != null) {
+            System.out.println("Poll Download returned status = " + listResponse.getStatus());
+            //NOTHING HAS CHANGED SINCE THE LAST LIST
+            if (listResponse.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode()) {
+                listResponse.close();
+            //POSITIVE RESPONSE
+            } else if (listResponse.getStatus() == Response.Status.OK.getStatusCode()) {
+                List<DownloadableDO> ld = listResponse.readEntity(new GenericType<List<DownloadableDO>>() {
+                });
+                eTag = ld.isEmpty() ? listResponse.getHeaderString(HttpHeaders.ETAG) : null;
+                for (DownloadableDO d : ld) {
+                    MediPiLogger.getInstance().log(PollDownloads.class.getName() + ".info", "New Downloadable List detected - Downloadable UUID: " + d.getDownloadableUuid());
+                    try {
+                        medipi.getDownloadableHandlerManager().handle(d);
+                    } catch (Exception e) {
+                        MediPiMessageBox.getInstance().makeErrorMessage("Error in attempting to download an incoming message/update ", e);
+                    }
+                }
+                // Remember that list may be empty - therefore no action
+            } else {
+                eTag = null;
+                //ERROR RESPONSE
+                String err = listResponse.readEntity(String.class);
+                switch (listResponse.getStatus()) {
+                    // NOT FOUND
+                    case 404:
+                    // This is returned when the hardware name and patientId do not match
+                    // ***************** DO SOMETHING WITH 404 *******************
+                    // UPDATE REQUIRED
+                    case 426:
+                    // ***************** DO SOMETHING WITH 426 *******************
+                    // INTERNAL SERVER ERROR    
+                    case 500:
+                    default:
+                        // ***************** DO SOMETHING WITH EVERY OTHER STATUS CODE *******************
+                        System.out.println(err);
+                }
+                MediPiLogger.getInstance().log(PollDownloads.class.getName() + ".error", "Error code: " + listResponse.getStatus() + " detected when trying to return downloadable list");
+            }
+        }
+        if (longPollWait == 0) {
+            return false;
+        }
+        if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < longPollWait * 500L) {
+            if (eTag != null) {
+                System.out.println("Downloadable list answered without waiting - polling again at the poll period");
+            }
+            return false;
+        }
+        return true;
+    }
 }
@@ -26,6 +26,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import javafx.application.Platform;
@@ -57,7 +58,10 @@ import org.medipi.DashboardTile;
 import org.medipi.MediPi;
 import org.medipi.MediPiMessageBox;
 import org.medipi.MediPiProperties;
+import org.medipi.messaging.outbox.OutboxEntry;
+import org.medipi.messaging.outbox.UploadOutbox;
 import org.medipi.security.CertificateDefinitions;
+import org.medipi.model.DevicesPayloadCodec;
 import org.medipi.model.DevicesPayloadDO;
 import org.medipi.model.EncryptedAndSignedUploadDO;
 import org.medipi.utilities.Utilities;
@@ -83,6 +87,11 @@ import org.medipi.utilities.Utilities;
  * transmitted using the device certificate to communicate to the concentrator
  * using TLSMA
  *
+ * When an outbox directory is configured the encrypted data is put in a
+ * durable UploadOutbox before it is sent. Data which cannot be sent straight
+ * away is kept on the unit and sent automatically once the concentrator can
+ * be reached, so transmitting does not need a WIFI connection
+ *
  *
  * There is some functionality left in here to be used in the future but is not
  * currently employed: Transmit Status
@@ -96,6 +105,10 @@ public abstract class Transmitter extends Element {
 
     private static final String INTERACTION = "urn:nhs-itk:interaction:MediPi";
     private static final String OUTBOUNDPAYLOAD = "medipi.outboundpayload";
+    private static final String PAYLOADCODEC = "medipi.transmit.payloadcodec";
+    private static final String OUTBOXDIRECTORY = "medipi.outbox.directory";
+    private static final String PATIENTCERTNAME = "medipi.patient.cert.name";
+    private static final String QUEUEDRESPONSE = "Thank you! Your recordings have been saved and will be sent to your clinician as soon as MediPi can connect.";
     private static final String NAME = "Transmitter";
     private static final String DISPLAYNAME = "MediPi Transmitter";
 
@@ -105,6 +118,15 @@ public abstract class Transmitter extends Element {
     protected String senderAddress;
     protected String recipientAddress;
     protected String auditIdentity;
+    /**
+     * Codec used to encode the payload before encryption - null for Java
+     * serialisation
+     */
+    protected String payloadCodec;
+    /**
+     * Outbox holding the uploads until they are sent - null when not configured
+     */
+    protected UploadOutbox outbox = null;
     private ArrayList<Element> transmitterElementList = new ArrayList<>();
     private final BooleanProperty taskRunningProperty = new SimpleBooleanProperty(false);
 
@@ -143,6 +165,23 @@ public abstract class Transmitter extends Element {
             showTile = new SimpleBooleanProperty(!b.toLowerCase().startsWith("n"));
         }
 
+        String codec = medipi.getProperties().getProperty(PAYLOADCODEC);
+        if (codec != null && codec.trim().length() != 0) {
+            if (!DevicesPayloadCodec.isSupported(codec.trim().toLowerCase())) {
+                return "Unsupported payload codec: " + codec;
+            }
+            payloadCodec = codec.trim().toLowerCase();
+        }
+
+        String outboxDirectory = medipi.getProperties().getProperty(OUTBOXDIRECTORY);
+        if (outboxDirectory != null && outboxDirectory.trim().length() != 0) {
+            try {
+                outbox = new UploadOutbox(medipi, this, new File(outboxDirectory.trim()));
+            } catch (Exception e) {
+                return "Unable to open the upload outbox: " + e.getLocalizedMessage();
+            }
+        }
+
         transmitterWindow = new VBox();
         transmitterWindow.setPadding(new Insets(0, 5, 0, 5));
         transmitterWindow.setSpacing(5);
@@ -233,7 +272,12 @@ public abstract class Transmitter extends Element {
         ObservableList<BooleanProperty> chkList;
         chkList = FXCollections.observableList(al);
         BooleanBinding bb = conjunction(chkList);
-        transmitButton.disableProperty().bind(bb.not().or(medipi.wifiSync.not()).or(taskRunningProperty));
+        if (outbox == null) {
+            transmitButton.disableProperty().bind(bb.not().or(medipi.wifiSync.not()).or(taskRunningProperty));
+        } else {
+            // the outbox keeps the data until the WIFI returns
+            transmitButton.disableProperty().bind(bb.not().or(taskRunningProperty));
+        }
 
         transmitterWindow.getChildren()
                 .addAll(
@@ -332,7 +376,7 @@ public abstract class Transmitter extends Element {
                                 if (error != null) {
                                     throw new Exception(error);
                                 }
-                                EncryptedAndSignedUploadDO encryptedMessage = uploadEncryptionAdapter.encryptAndSign(devicesPayload);
+                                EncryptedAndSignedUploadDO encryptedMessage = uploadEncryptionAdapter.encryptAndSign(devicesPayload, payloadCodec);
                                 try {
                                     // save a copy of the data to file if required
                                     String s = medipi.getProperties().getProperty(OUTBOUNDPAYLOAD);
@@ -393,7 +437,22 @@ public abstract class Transmitter extends Element {
 
                                     }
                                     // Send message
-                                    if (transmit(encryptedMessage)) {
+                                    boolean sent;
+                                    String response;
+                                    if (outbox != null) {
+                                        String patientCertName = System.getProperty(PATIENTCERTNAME);
+                                        if (patientCertName == null || patientCertName.trim().length() == 0) {
+                                            throw new Exception("Patient identity not set");
+                                        }
+                                        // once in the outbox the data is safe whether or not it can be sent now
+                                        Integer status = outbox.send(new OutboxEntry(patientCertName, payloadCodec, encryptedMessage));
+                                        sent = status == null || !UploadOutbox.isRejected(status);
+                                        response = status == null || (sent && status >= 300) ? QUEUEDRESPONSE : getTransmissionResponse();
+                                    } else {
+                                        sent = transmit(encryptedMessage);
+                                        response = getTransmissionResponse();
+                                    }
+                                    if (sent) {
                                         // if it is being run as part of a schedule then write TRANSMITTED line back to Schedule
                                         ArrayList<String> transmitList = new ArrayList<>();
                                         for (Element e : transmitterElementList) {
@@ -417,12 +476,12 @@ public abstract class Transmitter extends Element {
 
                                         Platform.runLater(() -> {
                                             medipi.resetAllDevices();
-                                            MediPiMessageBox.getInstance().makeMessage(getTransmissionResponse());
+                                            MediPiMessageBox.getInstance().makeMessage(response);
                                         });
 
                                     } else {
                                         Platform.runLater(() -> {
-                                            MediPiMessageBox.getInstance().makeErrorMessage(getTransmissionResponse(), null);
+                                            MediPiMessageBox.getInstance().makeErrorMessage(response, null);
                                         });
                                     }
                                 } catch (Exception ex) {
@@ -512,6 +571,17 @@ public abstract class Transmitter extends Element {
      */
     public abstract Boolean transmit(EncryptedAndSignedUploadDO message);
 
+    /**
+     * Transmit the uploads held in the outbox using the chosen method. Uploads
+     * which are not answered because the concentrator cannot be reached are
+     * left out of the result and are sent again later
+     *
+     * @param entries - uploads to be transmitted, oldest first
+     * @return HTTP status with which the concentrator answered each upload,
+     * keyed by upload UUID
+     */
+    public abstract HashMap<String, Integer> transmit(List<OutboxEntry> entries);
+
     /**
      * Get the transmission response message
      *
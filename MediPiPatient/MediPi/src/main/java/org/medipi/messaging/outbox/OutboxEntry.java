@@ -0,0 +1,60 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.messaging.outbox;
+
+import org.medipi.model.EncryptedAndSignedUploadDO;
+
+/**
+ * Class to hold an encrypted and signed upload waiting in the UploadOutbox
+ * together with what is needed to send it after a restart: the patient it was
+ * signed for and the codec its payload was encoded with
+ */
+public class OutboxEntry {
+
+    private final String patientId;
+    private final String payloadCodec;
+    private final EncryptedAndSignedUploadDO message;
+
+    /**
+     * Constructor
+     *
+     * @param patientId patient certificate name the upload was signed for
+     * @param payloadCodec codec used to encode the payload - null for Java
+     * serialisation
+     * @param message encrypted and signed upload
+     */
+    public OutboxEntry(String patientId, String payloadCodec, EncryptedAndSignedUploadDO message) {
+        this.patientId = patientId;
+        this.payloadCodec = payloadCodec;
+        this.message = message;
+    }
+
+    public String getUploadUuid() {
+        return message.getUploadUuid();
+    }
+
+    public String getPatientId() {
+        return patientId;
+    }
+
+    public String getPayloadCodec() {
+        return payloadCodec;
+    }
+
+    public EncryptedAndSignedUploadDO getMessage() {
+        return message;
+    }
+}
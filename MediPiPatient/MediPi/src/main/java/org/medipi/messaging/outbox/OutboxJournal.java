@@ -0,0 +1,324 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.messaging.outbox;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+import org.medipi.logging.MediPiLogger;
+import org.medipi.model.EncryptedAndSignedUploadDO;
+
+/**
+ * Append only journal of the uploads held in the UploadOutbox.
+ *
+ * An entry is journalled by an ADD record when it is put in the outbox and an
+ * ACK record when the concentrator has answered it. The outbox is rebuilt at
+ * startup by replaying the journal: every ADD without a matching ACK is still
+ * to be sent. Each record is written as its length, a CRC32 and its body so
+ * that a record torn by a power cut is detected on replay and the journal is
+ * truncated back to the last whole record.
+ *
+ * Writes are not forced to the SD card individually. A caller which needs its
+ * records to be durable calls sync with the position returned by write and
+ * all records written by any thread up to that point are forced together,
+ * so that records written close together cost a single fsync.
+ *
+ * The journal is emptied once every entry has been answered and is otherwise
+ * rewritten with only the outstanding entries when answered entries make up
+ * most of it. The rewritten journal replaces the old one by an atomic rename
+ * and the directory is then forced to the SD card so that the rename survives
+ * a power cut
+ */
+public class OutboxJournal {
+
+    private static final String JOURNAL = "outbox.journal";
+    private static final byte ADD = 1;
+    private static final byte ACK = 2;
+    // a record larger than this can only be a corrupt length
+    private static final int MAXRECORD = 64 * 1024 * 1024;
+    private static final long COMPACTSIZE = 1024 * 1024;
+
+    private final File file;
+    private final Object syncLock = new Object();
+    private FileChannel channel;
+    private long written = 0;
+    private volatile long synced = 0;
+
+    /**
+     * Constructor
+     *
+     * @param directory directory holding the journal
+     */
+    public OutboxJournal(File directory) {
+        file = new File(directory, JOURNAL);
+    }
+
+    /**
+     * Opens the journal and replays it
+     *
+     * @return outstanding entries in the order they were added, keyed by
+     * upload UUID
+     * @throws IOException if the journal cannot be read or opened
+     */
+    public synchronized LinkedHashMap<String, OutboxEntry> open() throws IOException {
+        LinkedHashMap<String, OutboxEntry> entries = new LinkedHashMap<>();
+        long good = 0;
+        boolean created = !file.exists();
+        if (!created) {
+            try (InputStream is = Files.newInputStream(file.toPath())) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+                while (true) {
+                    byte[] body = readRecord(in);
+                    if (body == null) {
+                        break;
+                    }
+                    apply(body, entries);
+                    good += 8 + body.length;
+                }
+            }
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (created) {
+            syncDirectory();
+        }
+        if (channel.size() > good) {
+            MediPiLogger.getInstance().log(OutboxJournal.class.getName() + ".error", "Outbox journal truncated from " + channel.size() + " to " + good + " bytes after an incomplete record");
+            channel.truncate(good);
+            channel.force(true);
+        }
+        channel.position(good);
+        written = good;
+        synced = good;
+        return entries;
+    }
+
+    /**
+     * Writes an ADD record for the entry
+     *
+     * @param entry entry put in the outbox
+     * @return position to be passed to sync for the record to be durable
+     * @throws IOException if the record cannot be written
+     */
+    public long add(OutboxEntry entry) throws IOException {
+        return write(addRecord(entry));
+    }
+
+    /**
+     * Writes an ACK record for the upload
+     *
+     * @param uploadUuid upload UUID of an entry which has been answered
+     * @return position to be passed to sync for the record to be durable
+     * @throws IOException if the record cannot be written
+     */
+    public long ack(String uploadUuid) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(ACK);
+        writeString(out, uploadUuid);
+        return write(bos.toByteArray());
+    }
+
+    /**
+     * Forces the journal to the storage device up to at least the position
+     *
+     * @param position position returned by add or ack
+     * @throws IOException if the journal cannot be forced
+     */
+    public void sync(long position) throws IOException {
+        if (synced >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            FileChannel c;
+            long p;
+            synchronized (this) {
+                c = channel;
+                p = written;
+            }
+            // every record written before p is forced by this one call
+            c.force(false);
+            synced = p;
+        }
+    }
+
+    /**
+     * Empties the journal when there are no outstanding entries or rewrites it
+     * with the outstanding entries when it has grown mostly of answered ones
+     *
+     * @param outstanding entries which have not been answered
+     * @throws IOException if the journal cannot be rewritten
+     */
+    public void compact(Collection<OutboxEntry> outstanding) throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (outstanding.isEmpty()) {
+                    if (written > 0) {
+                        channel.truncate(0);
+                        channel.position(0);
+                        channel.force(true);
+                        written = 0;
+                        synced = 0;
+                    }
+                    return;
+                }
+                if (written < COMPACTSIZE) {
+                    return;
+                }
+                ArrayList<byte[]> records = new ArrayList<>();
+                long live = 0;
+                for (OutboxEntry entry : outstanding) {
+                    byte[] record = addRecord(entry);
+                    records.add(record);
+                    live += 8 + record.length;
+                }
+                if (live * 2 > written) {
+                    return;
+                }
+                File compacted = new File(file.getParentFile(), JOURNAL + ".compact");
+                try (FileChannel c = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    for (byte[] record : records) {
+                        write(c, record);
+                    }
+                    c.force(true);
+                }
+                channel.close();
+                Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+                written = channel.size();
+                channel.position(written);
+                synced = written;
+                // until the rename reaches the storage device the journal's name may still
+                // refer to the old file and records forced to the new one would be lost
+                syncDirectory();
+            }
+        }
+    }
+
+    // forces the journal's directory entry to the storage device
+    private void syncDirectory() throws IOException {
+        try (FileChannel dir = FileChannel.open(file.getParentFile().toPath(), StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+    }
+
+    private synchronized long write(byte[] body) throws IOException {
+        written += write(channel, body);
+        return written;
+    }
+
+    private static byte[] addRecord(OutboxEntry entry) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(ADD);
+        writeString(out, entry.getUploadUuid());
+        writeString(out, entry.getPatientId());
+        writeString(out, entry.getPayloadCodec());
+        writeString(out, entry.getMessage().getEncryptedKey());
+        writeString(out, entry.getMessage().getCipherData());
+        return bos.toByteArray();
+    }
+
+    // writes the record and returns the number of bytes written
+    private static int write(FileChannel c, byte[] body) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+        record.putInt(body.length);
+        record.putInt((int) crc.getValue());
+        record.put(body);
+        record.flip();
+        while (record.hasRemaining()) {
+            c.write(record);
+        }
+        return 8 + body.length;
+    }
+
+    // the body of the next whole record or null at the end of the journal or a torn record
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int crc = in.readInt();
+            if (length <= 0 || length > MAXRECORD) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            CRC32 check = new CRC32();
+            check.update(body);
+            if ((int) check.getValue() != crc) {
+                return null;
+            }
+            return body;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void apply(byte[] body, LinkedHashMap<String, OutboxEntry> entries) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        String uploadUuid = readString(in);
+        if (type == ACK) {
+            entries.remove(uploadUuid);
+        } else if (type == ADD) {
+            String patientId = readString(in);
+            String payloadCodec = readString(in);
+            String encryptedKey = readString(in);
+            String cipherData = readString(in);
+            entries.put(uploadUuid, new OutboxEntry(patientId, payloadCodec, new EncryptedAndSignedUploadDO(uploadUuid, encryptedKey, cipherData)));
+        }
+    }
+
+    // strings are length prefixed as the cipher data is longer than writeUTF allows
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
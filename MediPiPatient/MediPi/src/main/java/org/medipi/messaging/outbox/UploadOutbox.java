@@ -0,0 +1,323 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.messaging.outbox;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javafx.beans.value.ObservableValue;
+import org.medipi.MediPi;
+import org.medipi.devices.Transmitter;
+import org.medipi.logging.MediPiLogger;
+
+/**
+ * Class to hold encrypted and signed uploads on the MediPi patient unit until
+ * the concentrator has answered them.
+ *
+ * An upload is written to the OutboxJournal and forced to the SD card before
+ * it is sent, so that the patient's readings survive a lost connection, a
+ * power cut or a restart. A background sender sends the outstanding uploads,
+ * oldest first, in batches through the Transmitter. An upload is only removed
+ * once the concentrator has answered it: accepted uploads are removed and
+ * uploads which the concentrator has marked as never acceptable (422
+ * Unprocessable Entity for content which cannot be processed or 409 Conflict
+ * when the upload UUID has already been used for another patient) are set
+ * aside in the rejected directory for investigation. A refused upload is only
+ * removed once its copy in the rejected directory has been forced to the SD
+ * card; until then it stays in the outbox. Any other refusal, such as a 400
+ * for an upload which could not be decrypted after a certificate change, a
+ * 406 for a device which is not registered or a 415 from a concentrator which
+ * does not support the payload codec, may be put right on the concentrator, so
+ * the upload is kept and sent again. An upload refused in this way is passed
+ * over for the rest of the send, so that the uploads behind it are still sent,
+ * and is tried again when the sender next backs off and retries.
+ *
+ * When a send fails the sender backs off exponentially from the initial retry
+ * period up to the maximum retry period. It is woken straight away when the
+ * WIFI connection returns
+ */
+public class UploadOutbox {
+
+    private static final String MEDIPIOUTBOXRETRYINITIAL = "medipi.outbox.retry.initial";
+    private static final String MEDIPIOUTBOXRETRYMAX = "medipi.outbox.retry.max";
+    private static final String MEDIPIOUTBOXBATCHSIZE = "medipi.outbox.batchsize";
+    private static final String REJECTED = "rejected";
+
+    private final MediPi medipi;
+    private final Transmitter transmitter;
+    private final File directory;
+    private final OutboxJournal journal;
+    private final LinkedHashMap<String, OutboxEntry> pending;
+    private final ScheduledExecutorService sender;
+    private final Random random = new Random();
+    private ScheduledFuture<?> next = null;
+    private long initialRetry = 30;
+    private long maxRetry = 900;
+    private int batchSize = 20;
+    private int failures = 0;
+
+    /**
+     * Constructor which replays the journal and starts the sender
+     *
+     * @param medipi reference to the MediPi application
+     * @param transmitter transmitter used to send the uploads
+     * @param directory directory holding the journal
+     * @throws Exception if the directory or the journal cannot be used
+     */
+    public UploadOutbox(MediPi medipi, Transmitter transmitter, File directory) throws Exception {
+        this.medipi = medipi;
+        this.transmitter = transmitter;
+        this.directory = directory;
+        Properties properties = medipi.getProperties();
+        initialRetry = getLongProperty(properties, MEDIPIOUTBOXRETRYINITIAL, initialRetry);
+        maxRetry = getLongProperty(properties, MEDIPIOUTBOXRETRYMAX, maxRetry);
+        batchSize = (int) getLongProperty(properties, MEDIPIOUTBOXBATCHSIZE, batchSize);
+        if (initialRetry < 1 || maxRetry < initialRetry || batchSize < 1) {
+            throw new Exception("The outbox retry periods and batch size must be positive and " + MEDIPIOUTBOXRETRYMAX + " not less than " + MEDIPIOUTBOXRETRYINITIAL);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new Exception("Cannot create the outbox directory " + directory);
+        }
+        journal = new OutboxJournal(directory);
+        pending = journal.open();
+        sender = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "medipi-outbox-sender");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // send straight away when the WIFI returns
+        medipi.wifiSync.addListener((ObservableValue<? extends Boolean> observable, Boolean oldValue, Boolean newValue) -> {
+            if (newValue) {
+                synchronized (UploadOutbox.this) {
+                    failures = 0;
+                }
+                schedule(0);
+            }
+        });
+        if (!pending.isEmpty()) {
+            MediPiLogger.getInstance().log(UploadOutbox.class.getName() + ".info", pending.size() + " uploads waiting in the outbox to be sent");
+            schedule(0);
+        }
+    }
+
+    /**
+     * Puts an upload in the outbox and returns once it has been written to the
+     * SD card
+     *
+     * @param entry upload to be sent
+     * @throws IOException if the upload cannot be written to the journal
+     */
+    public void add(OutboxEntry entry) throws IOException {
+        long position;
+        synchronized (this) {
+            position = journal.add(entry);
+            pending.put(entry.getUploadUuid(), entry);
+        }
+        journal.sync(position);
+    }
+
+    /**
+     * Puts an upload in the outbox and tries to send the outbox straight away
+     *
+     * @param entry upload to be sent
+     * @return HTTP status with which the concentrator answered the upload or
+     * null if it has not been answered and will be sent later
+     * @throws Exception if the upload cannot be written to the journal
+     */
+    public Integer send(final OutboxEntry entry) throws Exception {
+        add(entry);
+        return sender.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                HashMap<String, Integer> answered = sendPending();
+                return answered.get(entry.getUploadUuid());
+            }
+        }).get();
+    }
+
+    /**
+     * Number of uploads waiting to be sent
+     *
+     * @return number of uploads
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    // schedules a send in the given number of seconds unless one is due sooner
+    private synchronized void schedule(long delay) {
+        // a send which has started is not waiting and does not count
+        if (next != null && !next.isDone() && next.getDelay(TimeUnit.MILLISECONDS) > 0) {
+            if (next.getDelay(TimeUnit.SECONDS) <= delay) {
+                return;
+            }
+            next.cancel(false);
+        }
+        next = sender.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sendPending();
+                } catch (Exception e) {
+                    MediPiLogger.getInstance().log(UploadOutbox.class.getName() + ".error", "Error sending the outbox: " + e.getLocalizedMessage());
+                }
+            }
+        }, delay, TimeUnit.SECONDS);
+    }
+
+    // runs on the sender thread: sends the outstanding uploads a batch at a time
+    private HashMap<String, Integer> sendPending() throws IOException {
+        HashMap<String, Integer> results = new HashMap<>();
+        // uploads refused in this pass are passed over so that they cannot hold up the uploads behind them
+        HashSet<String> refused = new HashSet<>();
+        while (medipi.wifiSync.get()) {
+            List<OutboxEntry> batch = new ArrayList<>();
+            synchronized (this) {
+                for (OutboxEntry entry : pending.values()) {
+                    if (batch.size() == batchSize) {
+                        break;
+                    }
+                    if (!refused.contains(entry.getUploadUuid())) {
+                        batch.add(entry);
+                    }
+                }
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            HashMap<String, Integer> answered = transmitter.transmit(batch);
+            results.putAll(answered);
+            boolean unanswered = false;
+            long position = 0;
+            for (OutboxEntry entry : batch) {
+                Integer status = answered.get(entry.getUploadUuid());
+                if (status == null) {
+                    unanswered = true;
+                } else if (status >= 200 && status < 300) {
+                    position = remove(entry);
+                } else if (isRejected(status) && reject(entry, status)) {
+                    position = remove(entry);
+                } else {
+                    refused.add(entry.getUploadUuid());
+                }
+            }
+            if (position > 0) {
+                journal.sync(position);
+            }
+            // the concentrator could not be reached so the rest of the outbox waits
+            if (unanswered) {
+                retry();
+                return results;
+            }
+        }
+        synchronized (this) {
+            journal.compact(pending.values());
+            if (refused.isEmpty()) {
+                failures = 0;
+            }
+        }
+        if (!refused.isEmpty()) {
+            retry();
+        }
+        return results;
+    }
+
+    /**
+     * Whether the concentrator has refused an upload which can never be
+     * accepted: one whose content cannot be processed or one whose UUID has
+     * already been used by an upload for a different patient. Uploads answered
+     * with any other error, including 400 Bad Request, are sent again
+     *
+     * @param status HTTP status with which the concentrator answered
+     * @return true if the upload is removed from the outbox without being
+     * accepted
+     */
+    public static boolean isRejected(int status) {
+        return status == 409 || status == 422;
+    }
+
+    private synchronized long remove(OutboxEntry entry) throws IOException {
+        pending.remove(entry.getUploadUuid());
+        return journal.ack(entry.getUploadUuid());
+    }
+
+    private synchronized void retry() {
+        failures++;
+        long delay = initialRetry << Math.min(failures - 1, 20);
+        delay = Math.min(delay, maxRetry);
+        // spread the retries of units which lost the concentrator at the same time
+        delay = delay - random.nextInt((int) Math.max(1, delay / 4));
+        MediPiLogger.getInstance().log(UploadOutbox.class.getName() + ".info", pending.size() + " uploads in the outbox - next attempt in " + delay + "s");
+        schedule(delay);
+    }
+
+    // keeps a copy of an upload which the concentrator refused and returns true once it is on the SD card
+    private boolean reject(OutboxEntry entry, int status) {
+        File rejected = new File(directory, REJECTED);
+        if (!rejected.isDirectory() && !rejected.mkdirs()) {
+            MediPiLogger.getInstance().log(UploadOutbox.class.getName() + ".error", "Cannot create the directory " + rejected + " - upload " + entry.getUploadUuid() + " refused with status " + status + " is kept in the outbox");
+            return false;
+        }
+        try (FileOutputStream file = new FileOutputStream(new File(rejected, entry.getUploadUuid() + ".log"));
+                ObjectOutputStream out = new ObjectOutputStream(file)) {
+            out.writeObject(entry.getMessage());
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException e) {
+            MediPiLogger.getInstance().log(UploadOutbox.class.getName() + ".error", "Cannot save the rejected upload " + entry.getUploadUuid() + " - it is kept in the outbox: " + e.getLocalizedMessage());
+            return false;
+        }
+        try (FileChannel dir = FileChannel.open(rejected.toPath(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            MediPiLogger.getInstance().log(UploadOutbox.class.getName() + ".error", "Cannot sync the rejected directory for upload " + entry.getUploadUuid() + " - it is kept in the outbox: " + e.getLocalizedMessage());
+            return false;
+        }
+        MediPiLogger.getInstance().log(UploadOutbox.class.getName() + ".error", "Upload " + entry.getUploadUuid() + " was refused by the concentrator with status " + status + " and has been moved to the rejected directory");
+        return true;
+    }
+
+    private static long getLongProperty(Properties properties, String name, long defaultValue) throws Exception {
+        String s = properties.getProperty(name);
+        if (s == null || s.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            throw new Exception("Cannot read " + name + " from the properties file: " + e.getLocalizedMessage());
+        }
+    }
+}
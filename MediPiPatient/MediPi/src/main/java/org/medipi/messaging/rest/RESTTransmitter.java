@@ -15,21 +15,30 @@
  */
 package org.medipi.messaging.rest;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
 import org.medipi.devices.Transmitter;
 import org.medipi.logging.MediPiLogger;
+import org.medipi.messaging.outbox.OutboxEntry;
 import org.medipi.messaging.vpn.VPNServiceManager;
+import org.medipi.model.DevicesPayloadCodec;
 import org.medipi.model.EncryptedAndSignedUploadDO;
+import org.medipi.model.UploadResultDO;
 
 /**
  * Concrete class to call the Restful Transmitter and return the outcome.
  *
  * The Restful Transmitter instance accepts an EncryptedAndSignedDO and will
- * transmit it to the concentrator using the restful interface on there
+ * transmit it to the concentrator using the restful interface on there. The
+ * uploads held in the outbox are sent in batches through a single VPN
+ * connection
  *
  * @author rick@robinsonhq.com
  */
@@ -38,6 +47,7 @@ public class RESTTransmitter extends Transmitter {
     private static final String MEDIPITRANSMITRESOURCEPATH = "medipi.transmit.resourcepath";
 
     private RESTfulMessagingEngine rme;
+    private RESTfulMessagingEngine batchRme;
 
     private String resourcePath;
     private String transmissionResponse = "";
@@ -69,6 +79,8 @@ public class RESTTransmitter extends Transmitter {
 
         String[] params = {"{deviceId}", "{patientId}"};
         rme = new RESTfulMessagingEngine(resourcePath + "patientupload", params);
+        String[] batchParams = {"{deviceId}", "{patientId}", "batch"};
+        batchRme = new RESTfulMessagingEngine(resourcePath + "patientupload", batchParams);
 
         return super.init();
     }
@@ -106,7 +118,7 @@ public class RESTTransmitter extends Transmitter {
             params.put("patientId", patientCertName);
 
             HashMap<String, String> headers = new HashMap<>();
-            headers.put("Data-Format", "MediPiNative");
+            headers.put("Data-Format", DevicesPayloadCodec.toDataFormatHeader("MediPiNative", payloadCodec));
 
             MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".info", "New Patient Upload started - MediPiUploadEnvelope UUID: " + message.getUploadUuid());
 
@@ -164,6 +176,164 @@ public class RESTTransmitter extends Transmitter {
         return false;
     }
 
+    /**
+     * Transmit the uploads held in the outbox through one VPN connection.
+     *
+     * Consecutive uploads for the same patient and codec are sent together as
+     * one batch upload, even when there is only one of them, as only the batch
+     * upload endpoint answers 415 and 422. Should the concentrator not answer
+     * the batch as a whole the uploads are sent one at a time to the patient
+     * upload endpoint so that each is answered on its own
+     *
+     * @param entries - uploads to be transmitted, oldest first
+     * @return HTTP status with which the concentrator answered each upload,
+     * keyed by upload UUID
+     */
+    @Override
+    public HashMap<String, Integer> transmit(List<OutboxEntry> entries) {
+        HashMap<String, Integer> answered = new HashMap<>();
+        UUID uuid = UUID.randomUUID();
+        VPNServiceManager vpnm = null;
+        try {
+            String deviceCertName = System.getProperty("medipi.device.cert.name");
+            if (deviceCertName == null || deviceCertName.trim().length() == 0) {
+                transmissionResponse = "Device identity not set";
+                MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".error", "Device identity not set");
+                return answered;
+            }
+            vpnm = VPNServiceManager.getInstance();
+            if (vpnm.isEnabled()) {
+                vpnm.VPNConnection(VPNServiceManager.OPEN, uuid);
+            }
+            int start = 0;
+            while (start < entries.size()) {
+                OutboxEntry first = entries.get(start);
+                int end = start + 1;
+                while (end < entries.size()
+                        && Objects.equals(entries.get(end).getPatientId(), first.getPatientId())
+                        && Objects.equals(entries.get(end).getPayloadCodec(), first.getPayloadCodec())) {
+                    end++;
+                }
+                if (!transmitBatch(deviceCertName, entries.subList(start, end), answered)) {
+                    break;
+                }
+                start = end;
+            }
+        } catch (ProcessingException pe) {
+            MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".error", "Attempt to send the outbox failed - MediPi Concentrator is not available. " + pe.getLocalizedMessage());
+            transmissionResponse = "Attempt to send data failed - MediPi Concentrator is not available - please try again later.";
+        } catch (Exception ex) {
+            MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".error", "Error transmitting the outbox to recipient: " + ex.getLocalizedMessage());
+            transmissionResponse = "Error transmitting message to recipient: " + ex.getLocalizedMessage();
+        } finally {
+            if (vpnm != null && vpnm.isEnabled()) {
+                try {
+                    vpnm.VPNConnection(VPNServiceManager.CLOSE, uuid);
+                } catch (Exception ex) {
+                    MediPiLogger.getInstance().log(RESTTransmitter.class.getName(), ex);
+                }
+            }
+        }
+        return answered;
+    }
+
+    // sends uploads for one patient and codec as a batch and returns false if the rest of the outbox should wait
+    private boolean transmitBatch(String deviceCertName, List<OutboxEntry> batch, HashMap<String, Integer> answered) throws Exception {
+        OutboxEntry first = batch.get(0);
+        HashMap<String, Object> params = new HashMap<>();
+        params.put("deviceId", deviceCertName);
+        params.put("patientId", first.getPatientId());
+
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put("Data-Format", DevicesPayloadCodec.toDataFormatHeader("MediPiNative", first.getPayloadCodec()));
+
+        List<EncryptedAndSignedUploadDO> messages = new ArrayList<>();
+        for (OutboxEntry entry : batch) {
+            messages.add(entry.getMessage());
+        }
+        MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".info", "Outbox Patient Batch Upload of " + batch.size() + " uploads started - first MediPiUploadEnvelope UUID: " + first.getUploadUuid());
+
+        Response postResponse = batchRme.executePut(params, Entity.json(messages), headers);
+
+        if (postResponse == null) {
+            return false;
+        }
+        System.out.println("PatientBatchUpload returned status = " + postResponse.getStatus());
+        switch (postResponse.getStatus()) {
+            case 200:
+                List<UploadResultDO> results = postResponse.readEntity(new GenericType<List<UploadResultDO>>() {
+                });
+                for (UploadResultDO result : results) {
+                    if (result.getUploadUuid() == null) {
+                        continue;
+                    }
+                    if (result.getStatus() == Response.Status.OK.getStatusCode() || result.getStatus() == Response.Status.ACCEPTED.getStatusCode()) {
+                        MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".info", "Outbox Patient Upload successfully sent - MediPiUploadEnvelope UUID: " + result.getUploadUuid());
+                        transmissionResponse = "Thank you! Your recordings have been sent to your clinician.";
+                    } else {
+                        transmissionResponse = result.getMessage();
+                        MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".error", "Error code: " + result.getStatus() + " returned for Outbox Patient Upload - MediPiUploadEnvelope UUID: " + result.getUploadUuid());
+                    }
+                    answered.put(result.getUploadUuid(), result.getStatus());
+                }
+                return true;
+            // BAD REQUEST - the batch as a whole was refused
+            case 400:
+            // NOT FOUND or METHOD NOT ALLOWED - a concentrator without batch uploads
+            case 404:
+            case 405:
+                postResponse.close();
+                MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".info", "Batch upload refused with status " + postResponse.getStatus() + " - sending the uploads one at a time");
+                return transmitEach(deviceCertName, batch, answered);
+            // UNSUPPORTED MEDIA TYPE - the concentrator does not support the Data-Format or codec
+            case 415:
+                logUnsupportedDataFormat(headers.get("Data-Format"));
+            default:
+                transmissionResponse = postResponse.readEntity(String.class);
+                MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".error", "Error code: " + postResponse.getStatus() + " returned for Outbox Patient Batch Upload - first MediPiUploadEnvelope UUID: " + first.getUploadUuid());
+                for (OutboxEntry entry : batch) {
+                    answered.put(entry.getUploadUuid(), postResponse.getStatus());
+                }
+                return true;
+        }
+    }
+
+    // sends uploads one at a time and returns false if the rest of the outbox should wait
+    private boolean transmitEach(String deviceCertName, List<OutboxEntry> entries, HashMap<String, Integer> answered) throws Exception {
+        for (OutboxEntry entry : entries) {
+            HashMap<String, Object> params = new HashMap<>();
+            params.put("deviceId", deviceCertName);
+            params.put("patientId", entry.getPatientId());
+
+            HashMap<String, String> headers = new HashMap<>();
+            headers.put("Data-Format", DevicesPayloadCodec.toDataFormatHeader("MediPiNative", entry.getPayloadCodec()));
+
+            MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".info", "Outbox Patient Upload started - MediPiUploadEnvelope UUID: " + entry.getUploadUuid());
+
+            Response postResponse = rme.executePut(params, Entity.json(entry.getMessage()), headers);
+
+            if (postResponse == null) {
+                return false;
+            }
+            System.out.println("PatientUpload returned status = " + postResponse.getStatus());
+            if (postResponse.getStatus() == Response.Status.OK.getStatusCode() || postResponse.getStatus() == Response.Status.ACCEPTED.getStatusCode()) {
+                MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".info", "Outbox Patient Upload successfully sent - MediPiUploadEnvelope UUID: " + entry.getUploadUuid());
+                transmissionResponse = "Thank you! Your recordings have been sent to your clinician.";
+                postResponse.close();
+            } else {
+                transmissionResponse = postResponse.readEntity(String.class);
+                MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".error", "Error code: " + postResponse.getStatus() + " returned for Outbox Patient Upload - MediPiUploadEnvelope UUID: " + entry.getUploadUuid());
+            }
+            answered.put(entry.getUploadUuid(), postResponse.getStatus());
+        }
+        return true;
+    }
+
+    // the uploads are kept in the outbox until the concentrator supports the codec they were encoded with
+    private void logUnsupportedDataFormat(String dataFormat) {
+        MediPiLogger.getInstance().log(RESTTransmitter.class.getName() + ".error", "The concentrator does not support the Data-Format: " + dataFormat + " - the uploads are kept in the outbox. Check medipi.transmit.payloadcodec against the concentrator version");
+    }
+
     @Override
     public String getTransmissionResponse() {
         return transmissionResponse;
@@ -143,6 +143,25 @@ public class RESTfulMessagingEngine {
         return sslContext;
     }
 
+    /**
+     * The time in milliseconds a request waits for a response
+     *
+     * @return read timeout
+     */
+    public Integer getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds a request waits for a response. This is
+     * used by requests which the server is expected to hold open
+     *
+     * @param readTimeout read timeout
+     */
+    public void setReadTimeout(Integer readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
     private KeyStore loadStore(String trustStoreFile, String password) throws Exception {
         KeyStore store = KeyStore.getInstance("JKS");
         store.load(new FileInputStream(trustStoreFile), password.toCharArray());
@@ -156,6 +175,18 @@ public class RESTfulMessagingEngine {
      * @return Response
      */
     public synchronized Response executeGet(HashMap<String, Object> params) throws Exception {
+        return executeGet(params, null);
+    }
+
+    /**
+     * Common interface for executing RESTful GET requests
+     *
+     * @param params hashmap of parameters to be added to the target URL
+     * @param header hashmap representation of bespoke header name and value to
+     * be added to the message
+     * @return Response
+     */
+    public synchronized Response executeGet(HashMap<String, Object> params, HashMap<String, String> header) throws Exception {
         System.out.println("START get");
         WebTarget wt;
         if (params != null) {
@@ -169,6 +200,11 @@ public class RESTfulMessagingEngine {
         // overriden timeout value for this request
         request.property(ClientProperties.CONNECT_TIMEOUT, connectTimeout);
         request.property(ClientProperties.READ_TIMEOUT, readTimeout);
+        if (header != null) {
+            for (Map.Entry<String, String> pair : header.entrySet()) {
+                request.header(pair.getKey(), pair.getValue());
+            }
+        }
 
         Response listResponse = request
                 .header("Content-Type", MediaType.APPLICATION_JSON)
@@ -0,0 +1,205 @@
+/*
+ Copyright 2016  Richard Robinson @ NHS Digital <rrobinson@nhs.net>
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.medipi.messaging.outbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.medipi.model.EncryptedAndSignedUploadDO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the outbox is rebuilt from its journal and that a journal left
+ * with a torn record by a power cut is truncated back to its last whole record
+ */
+public class OutboxJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayReturnsUnansweredEntriesInOrder() throws IOException {
+        File directory = folder.getRoot();
+        OutboxJournal journal = new OutboxJournal(directory);
+        assertTrue(journal.open().isEmpty());
+        long p1 = journal.add(entry("a", 10));
+        long p2 = journal.add(entry("b", 10));
+        long p3 = journal.add(entry("c", 10));
+        long p4 = journal.ack("b");
+        assertTrue(p1 < p2 && p2 < p3 && p3 < p4);
+        journal.sync(p4);
+
+        LinkedHashMap<String, OutboxEntry> entries = new OutboxJournal(directory).open();
+        assertEquals(Arrays.asList("a", "c"), new ArrayList<>(entries.keySet()));
+        assertSameEntry(entry("a", 10), entries.get("a"));
+        assertSameEntry(entry("c", 10), entries.get("c"));
+    }
+
+    @Test
+    public void nullFieldsAreReplayed() throws IOException {
+        File directory = folder.getRoot();
+        OutboxJournal journal = new OutboxJournal(directory);
+        journal.open();
+        journal.sync(journal.add(new OutboxEntry("patient", null, new EncryptedAndSignedUploadDO("a", "key", null))));
+        OutboxEntry replayed = new OutboxJournal(directory).open().get("a");
+        assertNull(replayed.getPayloadCodec());
+        assertNull(replayed.getMessage().getCipherData());
+        assertEquals("key", replayed.getMessage().getEncryptedKey());
+    }
+
+    @Test
+    public void tornRecordIsTruncated() throws IOException {
+        File directory = folder.getRoot();
+        OutboxJournal journal = new OutboxJournal(directory);
+        journal.open();
+        journal.add(entry("a", 10));
+        long whole = journal.add(entry("b", 10));
+        journal.sync(whole);
+        File file = journalFile(directory);
+        // the start of a third record - its length and CRC but only part of its body
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(1000);
+            raf.writeInt(12345);
+            raf.write(new byte[100]);
+        }
+        assertEquals(whole + 108, file.length());
+
+        OutboxJournal reopened = new OutboxJournal(directory);
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(reopened.open().keySet()));
+        assertEquals(whole, file.length());
+        // records written after the truncation are replayed
+        reopened.sync(reopened.add(entry("c", 10)));
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(new OutboxJournal(directory).open().keySet()));
+    }
+
+    @Test
+    public void recordWithABadCrcIsTruncated() throws IOException {
+        File directory = folder.getRoot();
+        OutboxJournal journal = new OutboxJournal(directory);
+        journal.open();
+        long first = journal.add(entry("a", 10));
+        journal.sync(journal.add(entry("b", 10)));
+        File file = journalFile(directory);
+        // corrupt the last byte of the second record's body
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            int b = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(b ^ 0xFF);
+        }
+        assertEquals(Collections.singletonList("a"), new ArrayList<>(new OutboxJournal(directory).open().keySet()));
+        assertEquals(first, file.length());
+    }
+
+    @Test
+    public void truncatedHeaderIsTruncated() throws IOException {
+        File directory = folder.getRoot();
+        OutboxJournal journal = new OutboxJournal(directory);
+        journal.open();
+        long whole = journal.add(entry("a", 10));
+        journal.sync(whole);
+        File file = journalFile(directory);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.write(new byte[]{0, 0, 1});
+        }
+        assertEquals(Collections.singletonList("a"), new ArrayList<>(new OutboxJournal(directory).open().keySet()));
+        assertEquals(whole, file.length());
+    }
+
+    @Test
+    public void journalIsEmptiedWhenEverythingIsAnswered() throws IOException {
+        File directory = folder.getRoot();
+        OutboxJournal journal = new OutboxJournal(directory);
+        journal.open();
+        journal.add(entry("a", 10));
+        journal.sync(journal.ack("a"));
+        journal.compact(Collections.<OutboxEntry>emptyList());
+        assertEquals(0, journalFile(directory).length());
+        journal.sync(journal.add(entry("b", 10)));
+        assertEquals(Collections.singletonList("b"), new ArrayList<>(new OutboxJournal(directory).open().keySet()));
+    }
+
+    @Test
+    public void journalOfMostlyAnsweredEntriesIsRewritten() throws IOException {
+        File directory = folder.getRoot();
+        OutboxJournal journal = new OutboxJournal(directory);
+        journal.open();
+        List<OutboxEntry> outstanding = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            OutboxEntry entry = entry("u" + i, 100 * 1024);
+            journal.add(entry);
+            if (i % 10 == 0) {
+                outstanding.add(entry);
+            } else {
+                journal.ack(entry.getUploadUuid());
+            }
+        }
+        long before = journalFile(directory).length();
+        journal.compact(outstanding);
+        assertTrue(journalFile(directory).length() < before / 4);
+        // the rewritten journal is appended to
+        journal.sync(journal.add(entry("v", 10)));
+        LinkedHashMap<String, OutboxEntry> entries = new OutboxJournal(directory).open();
+        assertEquals(Arrays.asList("u0", "u10", "v"), new ArrayList<>(entries.keySet()));
+        assertSameEntry(entry("u10", 100 * 1024), entries.get("u10"));
+    }
+
+    @Test
+    public void smallJournalIsNotRewritten() throws IOException {
+        File directory = folder.getRoot();
+        OutboxJournal journal = new OutboxJournal(directory);
+        journal.open();
+        OutboxEntry a = entry("a", 10);
+        journal.add(a);
+        journal.add(entry("b", 10));
+        journal.sync(journal.ack("b"));
+        long before = journalFile(directory).length();
+        journal.compact(Collections.singletonList(a));
+        assertEquals(before, journalFile(directory).length());
+    }
+
+    private static File journalFile(File directory) {
+        return new File(directory, "outbox.journal");
+    }
+
+    private static OutboxEntry entry(String uploadUuid, int cipherLength) {
+        char[] cipher = new char[cipherLength];
+        for (int i = 0; i < cipherLength; i++) {
+            cipher[i] = (char) ('A' + (i + uploadUuid.hashCode()) % 26);
+        }
+        return new OutboxEntry("patient-" + uploadUuid, "mpb1+deflate", new EncryptedAndSignedUploadDO(uploadUuid, "key-" + uploadUuid, new String(cipher)));
+    }
+
+    private static void assertSameEntry(OutboxEntry expected, OutboxEntry actual) {
+        assertEquals(expected.getUploadUuid(), actual.getUploadUuid());
+        assertEquals(expected.getPatientId(), actual.getPatientId());
+        assertEquals(expected.getPayloadCodec(), actual.getPayloadCodec());
+        assertEquals(expected.getMessage().getEncryptedKey(), actual.getMessage().getEncryptedKey());
+        assertEquals(expected.getMessage().getCipherData(), actual.getMessage().getCipherData());
+    }
+}